@@ -0,0 +1,276 @@
+/*
+ */
+package gov.osti.connectors;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import gov.osti.listeners.DoeServletContextListener;
+import gov.osti.search.ResultCache;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Project labor hours, as estimated by the ARCHIVER.
+ *
+ * Lookups for many projects are made in parallel on a bounded thread pool
+ * sharing one pooled HttpClient, and each is cached by CODE ID and archive
+ * file name or repository link.  The cache is kept apart from the search
+ * caches, since index changes do not affect it; approving a record drops only
+ * that record's entry.  Failed
+ * lookups, and any not finished by the deadline, give 0 and are not cached;
+ * those still running complete in the background and are cached for next time.
+ *
+ * Configuration parameters (all optional):
+ * archiver.url - the ARCHIVER API URL; without one, labor hours are always 0
+ * codegov.labor.threads - concurrent ARCHIVER requests (default 8)
+ * codegov.labor.timeout - seconds allowed for each request (default 30)
+ * codegov.labor.deadline - seconds to wait for all lookups of one listing
+ * (default 120)
+ * codegov.labor.cache.ttl - seconds to keep labor hours (default 86400)
+ */
+public class LaborHours {
+    // logger
+    private static final Logger log = LoggerFactory.getLogger(LaborHours.class);
+
+    private static final String ARCHIVER_URL = DoeServletContextListener.getConfigurationProperty("archiver.url");
+    private static final int THREADS = DoeServletContextListener.getConfigurationProperty("codegov.labor.threads", 8);
+    private static final int TIMEOUT = DoeServletContextListener.getConfigurationProperty("codegov.labor.timeout", 30);
+    private static final int DEADLINE = DoeServletContextListener.getConfigurationProperty("codegov.labor.deadline", 120);
+
+    // labor hours by CODE ID and file name or repository link
+    private static final ResultCache<Double> CACHE = new ResultCache<>("labor_hours",
+            100000, 16L * 1024 * 1024,
+            DoeServletContextListener.getConfigurationProperty("codegov.labor.cache.ttl", 86400),
+            v -> 64L, true, false);
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    // the shared pool and client, while started
+    private static ExecutorService executor = null;
+    private static CloseableHttpClient client = null;
+
+    // lookup statistics since startup
+    private static final AtomicLong requests = new AtomicLong();
+    private static final AtomicLong failures = new AtomicLong();
+    private static final AtomicLong late = new AtomicLong();
+
+    private LaborHours() {
+    }
+
+    /**
+     * A project to look up.
+     */
+    public static class Project {
+        private final long codeId;
+        private final String fileName;
+        private final String repositoryLink;
+
+        /**
+         * @param codeId the CODE ID
+         * @param fileName the uploaded archive file name, if any
+         * @param repositoryLink the repository link, if any
+         */
+        public Project(long codeId, String fileName, String repositoryLink) {
+            this.codeId = codeId;
+            this.fileName = fileName;
+            this.repositoryLink = repositoryLink;
+        }
+
+        /**
+         * @return the cache key: CODE ID, and the file name or repository link
+         */
+        String getKey() {
+            return codeId + " " + ((null!=fileName) ? "f:" + fileName : "r:" + StringUtils.defaultString(repositoryLink));
+        }
+    }
+
+    /**
+     * Start the lookup pool, if the ARCHIVER is configured.
+     */
+    public static synchronized void start() {
+        if ("".equals(ARCHIVER_URL) || null!=executor)
+            return;
+
+        PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager();
+        manager.setMaxTotal(THREADS);
+        manager.setDefaultMaxPerRoute(THREADS);
+
+        client = HttpClients
+                .custom()
+                .setConnectionManager(manager)
+                .evictIdleConnections(60, TimeUnit.SECONDS)
+                .setDefaultRequestConfig(RequestConfig
+                        .custom()
+                        .setConnectTimeout((int) TimeUnit.SECONDS.toMillis(TIMEOUT))
+                        .setSocketTimeout((int) TimeUnit.SECONDS.toMillis(TIMEOUT))
+                        .setConnectionRequestTimeout((int) TimeUnit.SECONDS.toMillis(TIMEOUT))
+                        .build())
+                .build();
+
+        AtomicInteger threads = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(THREADS, r -> {
+            Thread t = new Thread(r, "labor-hours-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Stop the lookup pool.
+     */
+    public static synchronized void stop() {
+        if (null==executor)
+            return;
+
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            client.close();
+        } catch ( IOException e ) {
+            log.warn("Labor hours client close error: " + e.getMessage());
+        }
+        executor = null;
+        client = null;
+    }
+
+    /**
+     * Forget the labor hours of a newly-approved record, whose project may
+     * have changed.
+     *
+     * @param codeId the CODE ID approved
+     */
+    public static void approved(Long codeId) {
+        if (null!=codeId)
+            CACHE.invalidateRecords(Collections.singletonList(codeId));
+    }
+
+    /**
+     * Look up labor hours for several projects at once.
+     *
+     * @param projects the projects
+     * @return labor hours by CODE ID; 0 for any not available
+     */
+    public static Map<Long, Double> lookup(List<Project> projects) {
+        Map<Long, Double> hours = new HashMap<>();
+        ExecutorService pool;
+        CloseableHttpClient hc;
+
+        synchronized (LaborHours.class) {
+            pool = executor;
+            hc = client;
+        }
+
+        if (null==pool) {
+            projects.forEach(p -> hours.put(p.codeId, 0.0));
+            return hours;
+        }
+
+        List<Future<Double>> futures = new ArrayList<>(projects.size());
+        for ( Project project : projects )
+            futures.add(pool.submit(() -> CACHE.get(project.getKey(), () -> fetch(hc, project))));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(DEADLINE);
+        for ( int i = 0 ; i < projects.size() ; ++i ) {
+            Double value = null;
+
+            try {
+                value = futures.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch ( TimeoutException e ) {
+                // left running, so it is cached for next time
+                late.incrementAndGet();
+            } catch ( ExecutionException e ) {
+                log.warn("Labor hours error for CODE ID " + projects.get(i).codeId + ": " + e.getCause());
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            hours.put(projects.get(i).codeId, (null==value) ? 0.0 : value);
+        }
+        // anything not reached
+        projects.forEach(p -> hours.putIfAbsent(p.codeId, 0.0));
+
+        return hours;
+    }
+
+    /**
+     * Ask the ARCHIVER for a project's latest labor hours.
+     *
+     * @param hc the HttpClient
+     * @param project the project
+     * @return the labor hours, or null if not available
+     */
+    private static Double fetch(CloseableHttpClient hc, Project project) {
+        requests.incrementAndGet();
+
+        try {
+            URIBuilder builder = new URIBuilder(ARCHIVER_URL + "/latest/" + project.codeId);
+
+            if (project.fileName != null)
+                builder.addParameter("fileName", project.fileName);
+            else if (project.repositoryLink != null)
+                builder.addParameter("repositoryLink", project.repositoryLink);
+
+            try (CloseableHttpResponse response = hc.execute(new HttpGet(builder.build()))) {
+                String responseText = EntityUtils.toString(response.getEntity());
+
+                if (HttpStatus.SC_OK!=response.getStatusLine().getStatusCode()) {
+                    failures.incrementAndGet();
+                    return null;
+                }
+
+                JsonNode projectInfo = mapper.readTree(responseText);
+                return projectInfo.path("labor_hours").asDouble();
+            }
+        } catch ( IOException | URISyntaxException e ) {
+            failures.incrementAndGet();
+            log.warn("Archiver Labor request error: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Report on lookups.
+     *
+     * @return JSON statistics
+     */
+    public static ObjectNode getStatistics() {
+        ObjectNode statistics = mapper.createObjectNode()
+                .put("configured", !"".equals(ARCHIVER_URL))
+                .put("requests", requests.get())
+                .put("failures", failures.get())
+                .put("late", late.get());
+        statistics.set("cache", CACHE.getStatistics());
+
+        return statistics;
+    }
+}
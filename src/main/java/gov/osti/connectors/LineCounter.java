@@ -0,0 +1,374 @@
+/*
+ */
+package gov.osti.connectors;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Counts source lines by language.
+ *
+ * Each line is classified as code, comment, or blank, using the comment
+ * syntax of the file's language; a line with any code on it is code.  Lines
+ * are scanned as bytes in a single reused buffer, so counting allocates
+ * nothing per line or per file, and comment markers are matched as ASCII in
+ * any ASCII-compatible encoding.  Comment markers within string literals are
+ * not recognized, which is close enough for an estimate.
+ *
+ * Reading stops once a limit on the total bytes read is reached.  A
+ * LineCounter is not thread-safe; use one per thread.
+ */
+public class LineCounter {
+    // longest part of a line examined; the rest of a longer line is skipped
+    private static final int MAX_LINE = 65536;
+
+    private static final Map<String, Language> BY_EXTENSION = new HashMap<>();
+    private static final Map<String, Language> BY_NAME = new HashMap<>();
+
+    static {
+        String[] c = { "//" };
+        String[] hash = { "#" };
+        String[] dash = { "--" };
+
+        language("C", c, "/*", "*/", "c", "h");
+        language("C++", c, "/*", "*/", "cc", "cpp", "cxx", "c++", "hh", "hpp", "hxx", "h++", "cu", "cuh");
+        language("C#", c, "/*", "*/", "cs");
+        language("Java", c, "/*", "*/", "java");
+        language("JavaScript", c, "/*", "*/", "js", "mjs", "cjs", "jsx");
+        language("TypeScript", c, "/*", "*/", "ts", "tsx");
+        language("Go", c, "/*", "*/", "go");
+        language("Rust", c, "/*", "*/", "rs");
+        language("Swift", c, "/*", "*/", "swift");
+        language("Kotlin", c, "/*", "*/", "kt", "kts");
+        language("Scala", c, "/*", "*/", "scala");
+        language("Groovy", c, "/*", "*/", "groovy", "gradle");
+        language("Objective-C", c, "/*", "*/", "mm");
+        language("CSS", null, "/*", "*/", "css", "scss", "less");
+        language("PHP", new String[] { "//", "#" }, "/*", "*/", "php");
+        language("Python", hash, null, null, "py", "pyx", "pxd");
+        language("Ruby", hash, null, null, "rb");
+        language("Perl", hash, null, null, "pl", "pm");
+        language("Shell", hash, null, null, "sh", "bash", "csh", "tcsh", "ksh", "zsh");
+        language("R", hash, null, null, "r");
+        language("Julia", hash, "#=", "=#", "jl");
+        language("Tcl", hash, null, null, "tcl");
+        language("CMake", hash, null, null, "cmake");
+        language("make", hash, null, null, "mk", "mak");
+        language("Fortran", new String[] { "!" }, null, null, "f90", "f95", "f03", "f08");
+        language("Fortran 77", new String[] { "!" }, null, null, "f", "for", "f77").columnOne = new byte[] { 'c', 'C', '*' };
+        language("MATLAB", new String[] { "%" }, "%{", "%}", "m");
+        language("Lua", dash, "--[[", "]]", "lua");
+        language("SQL", dash, "/*", "*/", "sql");
+        language("Haskell", dash, "{-", "-}", "hs");
+        language("Ada", dash, null, null, "ada", "adb", "ads");
+        language("Lisp", new String[] { ";" }, "#|", "|#", "lisp", "lsp", "cl", "el", "scm", "clj");
+        language("HTML", null, "<!--", "-->", "html", "htm");
+        language("XML", null, "<!--", "-->", "xml", "xsd", "xsl");
+
+        BY_NAME.put("makefile", BY_EXTENSION.get("mk"));
+        BY_NAME.put("gnumakefile", BY_EXTENSION.get("mk"));
+        BY_NAME.put("cmakelists.txt", BY_EXTENSION.get("cmake"));
+        BY_NAME.put("dockerfile", new Language("Dockerfile", hash, null, null));
+    }
+
+    /**
+     * A language, and its comment syntax.
+     */
+    public static class Language {
+        private final String name;
+        private final byte[][] lineComments;
+        private final byte[] blockStart;
+        private final byte[] blockEnd;
+        // characters marking a comment line when in the first column, if any
+        private byte[] columnOne = new byte[0];
+
+        Language(String name, String[] lineComments, String blockStart, String blockEnd) {
+            this.name = name;
+            this.lineComments = (null==lineComments) ? new byte[0][] :
+                    Arrays.stream(lineComments).map(s -> s.getBytes(StandardCharsets.US_ASCII)).toArray(byte[][]::new);
+            this.blockStart = (null==blockStart) ? null : blockStart.getBytes(StandardCharsets.US_ASCII);
+            this.blockEnd = (null==blockEnd) ? null : blockEnd.getBytes(StandardCharsets.US_ASCII);
+        }
+
+        /**
+         * @return the language name
+         */
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * Line counts for a language.
+     */
+    public static class Counts {
+        private int files = 0;
+        private long physical = 0;
+        private long code = 0;
+        private long comment = 0;
+        private long blank = 0;
+
+        /**
+         * Add other counts to these.
+         *
+         * @param other the counts to add
+         */
+        void add(Counts other) {
+            files += other.files;
+            physical += other.physical;
+            code += other.code;
+            comment += other.comment;
+            blank += other.blank;
+        }
+
+        /**
+         * @return the number of files
+         */
+        public int getFiles() {
+            return files;
+        }
+
+        /**
+         * @return the total number of lines
+         */
+        public long getPhysical() {
+            return physical;
+        }
+
+        /**
+         * @return the number of lines of code (logical lines)
+         */
+        public long getCode() {
+            return code;
+        }
+
+        /**
+         * @return the number of comment-only lines
+         */
+        public long getComment() {
+            return comment;
+        }
+
+        /**
+         * @return the number of blank lines
+         */
+        public long getBlank() {
+            return blank;
+        }
+    }
+
+    // read buffer, and the line being classified
+    private final byte[] buffer = new byte[65536];
+    private final byte[] line = new byte[MAX_LINE];
+    // counts by language name, since the last reset
+    private final Map<String, Counts> counts = new TreeMap<>();
+    // bytes read since the last reset, and the most to read
+    private long bytes = 0;
+    private long limit = Long.MAX_VALUE;
+
+    /**
+     * Register a language for file name extensions.
+     */
+    private static Language language(String name, String[] lineComments, String blockStart, String blockEnd, String... extensions) {
+        Language language = new Language(name, lineComments, blockStart, blockEnd);
+
+        for ( String extension : extensions )
+            BY_EXTENSION.put(extension, language);
+        return language;
+    }
+
+    /**
+     * Determine the language of a file from its name.
+     *
+     * @param fileName the file name, possibly with a path
+     * @return the language, or null if not a recognized source file
+     */
+    public static Language forFileName(String fileName) {
+        String name = StringUtils.substringAfterLast("/" + fileName.replace('\\', '/'), "/").toLowerCase(Locale.ROOT);
+        Language language = BY_NAME.get(name);
+
+        if (null==language) {
+            int dot = name.lastIndexOf('.');
+            if (dot>0)
+                language = BY_EXTENSION.get(name.substring(dot + 1));
+        }
+
+        return language;
+    }
+
+    /**
+     * Count the lines of a source file.
+     *
+     * @param language the file's language
+     * @param in the file contents; not closed
+     * @throws IOException on read errors
+     */
+    public void count(Language language, InputStream in) throws IOException {
+        Counts file = new Counts();
+        boolean inBlock = false;
+        int length = 0;
+        boolean pending = false;
+        int read;
+
+        file.files = 1;
+        while (bytes<limit && (read = in.read(buffer)) != -1) {
+            bytes += read;
+
+            for ( int i = 0 ; i < read ; ++i ) {
+                byte b = buffer[i];
+
+                if ('\n'==b) {
+                    inBlock = classify(language, length, inBlock, file);
+                    length = 0;
+                    pending = false;
+                } else {
+                    if (length<MAX_LINE)
+                        line[length++] = b;
+                    pending = true;
+                }
+            }
+        }
+        // last line, without a newline
+        if (pending)
+            classify(language, length, inBlock, file);
+
+        counts.computeIfAbsent(language.name, k -> new Counts()).add(file);
+    }
+
+    /**
+     * Classify the current line, and count it.
+     *
+     * @param language the language
+     * @param length the line length
+     * @param inBlock true if the line starts within a block comment
+     * @param file the counts to add to
+     * @return true if the line ends within a block comment
+     */
+    private boolean classify(Language language, int length, boolean inBlock, Counts file) {
+        boolean code = false;
+        boolean comment = false;
+        int i = 0;
+
+        // fixed-form comment lines
+        if (!inBlock && length>0 && ArrayUtils.contains(language.columnOne, line[0])) {
+            comment = true;
+            i = length;
+        }
+
+        scan:
+        while (i<length) {
+            if (inBlock) {
+                comment = true;
+                int end = indexOf(language.blockEnd, i, length);
+                if (end<0)
+                    break;
+                inBlock = false;
+                i = end + language.blockEnd.length;
+                continue;
+            }
+
+            byte b = line[i];
+            if (' '==b || '\t'==b || '\r'==b || '\f'==b) {
+                ++i;
+                continue;
+            }
+            if (null!=language.blockStart && startsWith(language.blockStart, i, length)) {
+                inBlock = true;
+                comment = true;
+                i += language.blockStart.length;
+                continue;
+            }
+            for ( byte[] marker : language.lineComments )
+                if (startsWith(marker, i, length)) {
+                    comment = true;
+                    break scan;
+                }
+
+            code = true;
+            ++i;
+        }
+
+        file.physical++;
+        if (code)
+            file.code++;
+        else if (comment)
+            file.comment++;
+        else
+            file.blank++;
+
+        return inBlock;
+    }
+
+    /**
+     * @return true if the line has the marker at a position
+     */
+    private boolean startsWith(byte[] marker, int position, int length) {
+        if (position + marker.length > length)
+            return false;
+        for ( int j = 0 ; j < marker.length ; ++j )
+            if (line[position + j]!=marker[j])
+                return false;
+        return true;
+    }
+
+    /**
+     * @return the position of the marker in the line from a position, or -1
+     */
+    private int indexOf(byte[] marker, int from, int length) {
+        for ( int i = from ; i + marker.length <= length ; ++i )
+            if (startsWith(marker, i, length))
+                return i;
+        return -1;
+    }
+
+    /**
+     * @return counts by language name since the last reset
+     */
+    public Map<String, Counts> getCounts() {
+        return Collections.unmodifiableMap(counts);
+    }
+
+    /**
+     * @return counts for all languages since the last reset
+     */
+    public Counts getTotal() {
+        Counts total = new Counts();
+
+        counts.values().forEach(total::add);
+        return total;
+    }
+
+    /**
+     * @return the number of bytes read since the last reset
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return true if the limit on bytes read has been reached
+     */
+    public boolean isFull() {
+        return bytes>=limit;
+    }
+
+    /**
+     * Clear the counts, to count another project.
+     *
+     * @param limit the most bytes to read for the project
+     */
+    public void reset(long limit) {
+        counts.clear();
+        bytes = 0;
+        this.limit = limit;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ */
+package gov.osti.connectors;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.Locale;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+
+/**
+ * Counts the source lines in an uploaded file.
+ *
+ * Archives (.zip, .tar, .tar.gz or .tgz, and .tar.bz2 or .tbz2) are read as
+ * streams, entry by entry, without extracting anything to disk; any other
+ * file is counted as a single source file if its language is known.
+ * Version control directories are skipped, and reading stops once the
+ * counter's limit is reached.
+ */
+public class SourceArchive {
+    private SourceArchive() {
+    }
+
+    /**
+     * Determine whether a file can be counted, from its name.
+     *
+     * @param fileName the file name
+     * @return true if the file is a supported archive or a source file
+     */
+    public static boolean isSupported(String fileName) {
+        return null!=fileName && (null!=archiveType(fileName) || null!=LineCounter.forFileName(fileName));
+    }
+
+    /**
+     * Count the source lines in a file.
+     *
+     * @param file the file
+     * @param fileName the file name, to determine its type
+     * @param counter the counter to add to
+     * @throws IOException on read or archive format errors
+     */
+    public static void count(Path file, String fileName, LineCounter counter) throws IOException {
+        String type = archiveType(fileName);
+
+        if ("zip".equals(type)) {
+            try (ZipFile zip = ZipFile.builder().setPath(file).get()) {
+                Enumeration<ZipArchiveEntry> entries = zip.getEntriesInPhysicalOrder();
+
+                while (entries.hasMoreElements() && !counter.isFull()) {
+                    ZipArchiveEntry entry = entries.nextElement();
+                    LineCounter.Language language = languageOf(entry);
+
+                    if (null!=language && !entry.isUnixSymlink() && zip.canReadEntryData(entry))
+                        try (InputStream in = zip.getInputStream(entry)) {
+                            counter.count(language, in);
+                        }
+                }
+            }
+        } else if (null!=type) {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 65536);
+                 ArchiveInputStream<?> tar = new TarArchiveInputStream(
+                         "tar.gz".equals(type) ? new GzipCompressorInputStream(in, true) :
+                         "tar.bz2".equals(type) ? new BZip2CompressorInputStream(in, true) :
+                         in)) {
+                ArchiveEntry entry;
+
+                while (null!=(entry = tar.getNextEntry()) && !counter.isFull()) {
+                    LineCounter.Language language = languageOf(entry);
+
+                    if (null!=language && tar.canReadEntryData(entry))
+                        counter.count(language, tar);
+                }
+            }
+        } else {
+            LineCounter.Language language = LineCounter.forFileName(fileName);
+
+            if (null!=language)
+                try (InputStream in = Files.newInputStream(file)) {
+                    counter.count(language, in);
+                }
+        }
+    }
+
+    /**
+     * @return the archive type of a file name, or null if not an archive
+     */
+    private static String archiveType(String fileName) {
+        String name = fileName.toLowerCase(Locale.ROOT);
+
+        if (name.endsWith(".zip"))
+            return "zip";
+        if (name.endsWith(".tar.gz") || name.endsWith(".tgz"))
+            return "tar.gz";
+        if (name.endsWith(".tar.bz2") || name.endsWith(".tbz2") || name.endsWith(".tbz"))
+            return "tar.bz2";
+        if (name.endsWith(".tar"))
+            return "tar";
+        return null;
+    }
+
+    /**
+     * @return the language of a regular archive entry, or null to skip it
+     */
+    private static LineCounter.Language languageOf(ArchiveEntry entry) {
+        String name = "/" + entry.getName().replace('\\', '/');
+
+        if (entry.isDirectory() || name.contains("/.git/") || name.contains("/.svn/") || name.contains("/.hg/"))
+            return null;
+        if (entry instanceof TarArchiveEntry && !((TarArchiveEntry) entry).isFile())
+            return null;
+
+        return LineCounter.forFileName(name);
+    }
+}
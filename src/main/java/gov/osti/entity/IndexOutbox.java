@@ -0,0 +1,220 @@
+/*
+ */
+package gov.osti.entity;
+
+import java.io.Serializable;
+import java.util.Date;
+import javax.persistence.Basic;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.PrePersist;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * A pending request to send a record's Approved snapshot to the indexing
+ * service.
+ *
+ * Entries are written in the same transaction as the Approved MetadataSnapshot
+ * they refer to, and removed once the indexer has accepted the document; a
+ * failed send stays queued with a later retry time.  Several entries may exist
+ * for a single CODE ID, in which case they are coalesced into one send; any
+ * Full entry takes precedence over partial ones.
+ */
+@Entity
+@Table (name = "index_outbox")
+@NamedQueries ({
+    @NamedQuery (name = "IndexOutbox.findReady", query = "SELECT o FROM IndexOutbox o WHERE o.dateNextAttempt<=:now ORDER BY o.id"),
+    @NamedQuery (name = "IndexOutbox.countAll", query = "SELECT COUNT(o) FROM IndexOutbox o"),
+    @NamedQuery (name = "IndexOutbox.countCodeIds", query = "SELECT COUNT(DISTINCT o.codeId) FROM IndexOutbox o"),
+    @NamedQuery (name = "IndexOutbox.countFailing", query = "SELECT COUNT(o) FROM IndexOutbox o WHERE o.attempts>0"),
+    @NamedQuery (name = "IndexOutbox.findOldest", query = "SELECT MIN(o.dateQueued) FROM IndexOutbox o")
+})
+public class IndexOutbox implements Serializable {
+    /**
+     * The kind of index update needed.
+     */
+    public enum Type {
+        // the entire index document
+        Full,
+        // related identifiers (and stored JSON) only, such as from backfill
+        RelatedIdentifiers
+    }
+
+    @Id
+    @GeneratedValue (strategy = GenerationType.AUTO)
+    @Column (name = "outbox_id")
+    private Long id;
+    @Column (name = "code_id", nullable = false)
+    private Long codeId;
+    @Enumerated (EnumType.STRING)
+    @Column (name = "update_type", length = 25)
+    private Type updateType = Type.Full;
+    @Column (name = "attempts", nullable = false)
+    private int attempts = 0;
+    @Column (name = "last_error", length = 1000)
+    private String lastError;
+    @Basic (optional = false)
+    @Column (name = "date_queued", updatable = false)
+    @Temporal (TemporalType.TIMESTAMP)
+    private Date dateQueued;
+    @Basic (optional = false)
+    @Column (name = "date_next_attempt")
+    @Temporal (TemporalType.TIMESTAMP)
+    private Date dateNextAttempt;
+
+    public IndexOutbox() {
+    }
+
+    /**
+     * Queue a CODE ID for indexing.
+     *
+     * @param codeId the CODE ID of the Approved record to index
+     * @param updateType the kind of update needed
+     */
+    public IndexOutbox(Long codeId, Type updateType) {
+        this.codeId = codeId;
+        this.updateType = updateType;
+    }
+
+    /**
+     * Set queue dates when first persisted; entries are eligible immediately.
+     */
+    @PrePersist
+    void queuedAt() {
+        Date now = new Date();
+
+        if (null==getDateQueued())
+            setDateQueued(now);
+        if (null==getDateNextAttempt())
+            setDateNextAttempt(now);
+    }
+
+    /**
+     * Record a failed attempt, and defer the next one.
+     *
+     * @param error a description of the failure
+     * @param nextAttempt the earliest time to try again
+     */
+    public void failed(String error, Date nextAttempt) {
+        setAttempts(getAttempts() + 1);
+        setLastError(null==error || error.length()<=1000 ? error : error.substring(0, 1000));
+        setDateNextAttempt(nextAttempt);
+    }
+
+    /**
+     * @return the unique queue entry ID
+     */
+    public Long getId() {
+        return id;
+    }
+
+    /**
+     * @param id the queue entry ID to set
+     */
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    /**
+     * @return the CODE ID to index
+     */
+    public Long getCodeId() {
+        return codeId;
+    }
+
+    /**
+     * @param codeId the CODE ID to set
+     */
+    public void setCodeId(Long codeId) {
+        this.codeId = codeId;
+    }
+
+    /**
+     * @return the kind of update needed
+     */
+    public Type getUpdateType() {
+        return updateType;
+    }
+
+    /**
+     * @param updateType the kind of update to set
+     */
+    public void setUpdateType(Type updateType) {
+        this.updateType = updateType;
+    }
+
+    /**
+     * Determine whether only a partial update is needed.  Entries queued
+     * without a type are Full updates.
+     *
+     * @return true if only related identifiers need updating
+     */
+    public boolean isPartial() {
+        return Type.RelatedIdentifiers.equals(updateType);
+    }
+
+    /**
+     * @return the number of failed attempts so far
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * @param attempts the number of failed attempts to set
+     */
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    /**
+     * @return the last failure message, if any
+     */
+    public String getLastError() {
+        return lastError;
+    }
+
+    /**
+     * @param lastError the failure message to set
+     */
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    /**
+     * @return the date this entry was queued
+     */
+    public Date getDateQueued() {
+        return dateQueued;
+    }
+
+    /**
+     * @param dateQueued the queued date to set
+     */
+    public void setDateQueued(Date dateQueued) {
+        this.dateQueued = dateQueued;
+    }
+
+    /**
+     * @return the earliest date of the next send attempt
+     */
+    public Date getDateNextAttempt() {
+        return dateNextAttempt;
+    }
+
+    /**
+     * @param dateNextAttempt the next attempt date to set
+     */
+    public void setDateNextAttempt(Date dateNextAttempt) {
+        this.dateNextAttempt = dateNextAttempt;
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ */
+package gov.osti.entity;
+
+import java.io.Serializable;
+import java.util.Date;
+import javax.persistence.Basic;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * Source line counts and estimated labor hours for a record's uploaded file.
+ *
+ * There is at most one estimate per CODE ID, for the file it was counted
+ * from; the file name, size and modification time identify that file, so an
+ * estimate for a replaced file can be recognized as out of date.
+ */
+@Entity
+@Table (name = "labor_estimate")
+@NamedQueries ({
+    @NamedQuery (name = "LaborEstimate.findAll", query = "SELECT e FROM LaborEstimate e"),
+    @NamedQuery (name = "LaborEstimate.findHours", query = "SELECT e.codeId, e.fileName, e.laborHours FROM LaborEstimate e")
+})
+public class LaborEstimate implements Serializable {
+    @Id
+    @Column (name = "code_id")
+    private Long codeId;
+    @Column (name = "file_name", length = 1000)
+    private String fileName;
+    @Column (name = "file_size")
+    private long fileSize = 0;
+    @Column (name = "file_modified")
+    @Temporal (TemporalType.TIMESTAMP)
+    private Date fileModified;
+    @Column (name = "files")
+    private int files = 0;
+    @Column (name = "physical_lines")
+    private long physicalLines = 0;
+    @Column (name = "code_lines")
+    private long codeLines = 0;
+    @Column (name = "comment_lines")
+    private long commentLines = 0;
+    @Column (name = "blank_lines")
+    private long blankLines = 0;
+    @Column (name = "labor_hours")
+    private double laborHours = 0;
+    // whether counting stopped at the size limit
+    @Column (name = "truncated")
+    private boolean truncated = false;
+    @Lob
+    @Column (name = "languages")
+    private String languages;
+    @Basic (optional = false)
+    @Column (name = "date_estimated")
+    @Temporal (TemporalType.TIMESTAMP)
+    private Date dateEstimated;
+
+    public LaborEstimate() {
+    }
+
+    /**
+     * Start an estimate for a file.
+     *
+     * @param codeId the CODE ID
+     * @param fileName the uploaded file name
+     * @param fileSize the file size in bytes
+     * @param fileModified the file modification time
+     */
+    public LaborEstimate(Long codeId, String fileName, long fileSize, Date fileModified) {
+        this.codeId = codeId;
+        this.fileName = fileName;
+        this.fileSize = fileSize;
+        this.fileModified = fileModified;
+    }
+
+    /**
+     * Determine whether this estimate was made from a file as it is now.
+     *
+     * @param fileName the current file name
+     * @param fileSize the current file size
+     * @param fileModified the current modification time
+     * @return true if the estimate is of the same file
+     */
+    public boolean isOf(String fileName, long fileSize, Date fileModified) {
+        return null!=this.fileName && this.fileName.equals(fileName) &&
+                this.fileSize==fileSize &&
+                null!=this.fileModified && null!=fileModified &&
+                this.fileModified.getTime()/1000==fileModified.getTime()/1000;
+    }
+
+    /**
+     * @return the CODE ID
+     */
+    public Long getCodeId() {
+        return codeId;
+    }
+
+    /**
+     * @param codeId the CODE ID to set
+     */
+    public void setCodeId(Long codeId) {
+        this.codeId = codeId;
+    }
+
+    /**
+     * @return the name of the file counted
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @param fileName the file name to set
+     */
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * @return the size of the file counted
+     */
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * @param fileSize the file size to set
+     */
+    public void setFileSize(long fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    /**
+     * @return the modification time of the file counted
+     */
+    public Date getFileModified() {
+        return fileModified;
+    }
+
+    /**
+     * @param fileModified the file modification time to set
+     */
+    public void setFileModified(Date fileModified) {
+        this.fileModified = fileModified;
+    }
+
+    /**
+     * @return the number of source files counted
+     */
+    public int getFiles() {
+        return files;
+    }
+
+    /**
+     * @param files the number of source files to set
+     */
+    public void setFiles(int files) {
+        this.files = files;
+    }
+
+    /**
+     * @return the total number of source lines
+     */
+    public long getPhysicalLines() {
+        return physicalLines;
+    }
+
+    /**
+     * @param physicalLines the total number of lines to set
+     */
+    public void setPhysicalLines(long physicalLines) {
+        this.physicalLines = physicalLines;
+    }
+
+    /**
+     * @return the number of lines of code
+     */
+    public long getCodeLines() {
+        return codeLines;
+    }
+
+    /**
+     * @param codeLines the number of lines of code to set
+     */
+    public void setCodeLines(long codeLines) {
+        this.codeLines = codeLines;
+    }
+
+    /**
+     * @return the number of comment-only lines
+     */
+    public long getCommentLines() {
+        return commentLines;
+    }
+
+    /**
+     * @param commentLines the number of comment lines to set
+     */
+    public void setCommentLines(long commentLines) {
+        this.commentLines = commentLines;
+    }
+
+    /**
+     * @return the number of blank lines
+     */
+    public long getBlankLines() {
+        return blankLines;
+    }
+
+    /**
+     * @param blankLines the number of blank lines to set
+     */
+    public void setBlankLines(long blankLines) {
+        this.blankLines = blankLines;
+    }
+
+    /**
+     * @return the estimated labor hours
+     */
+    public double getLaborHours() {
+        return laborHours;
+    }
+
+    /**
+     * @param laborHours the estimated labor hours to set
+     */
+    public void setLaborHours(double laborHours) {
+        this.laborHours = laborHours;
+    }
+
+    /**
+     * @return true if counting stopped at the size limit
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * @param truncated whether counting stopped at the size limit
+     */
+    public void setTruncated(boolean truncated) {
+        this.truncated = truncated;
+    }
+
+    /**
+     * @return JSON line counts by language
+     */
+    public String getLanguages() {
+        return languages;
+    }
+
+    /**
+     * @param languages the JSON line counts by language to set
+     */
+    public void setLanguages(String languages) {
+        this.languages = languages;
+    }
+
+    /**
+     * @return the date of the estimate
+     */
+    public Date getDateEstimated() {
+        return dateEstimated;
+    }
+
+    /**
+     * @param dateEstimated the estimate date to set
+     */
+    public void setDateEstimated(Date dateEstimated) {
+        this.dateEstimated = dateEstimated;
+    }
+}
@@ -0,0 +1,666 @@
+/*
+ */
+package gov.osti.indexer;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import gov.osti.connectors.LaborHours;
+import gov.osti.entity.DOECodeMetadata;
+import gov.osti.entity.LaborEstimate;
+import gov.osti.entity.MetadataSnapshot;
+import gov.osti.listeners.DoeServletContextListener;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Maintains the Code.gov JSON file served by CodeGov from Approved records.
+ *
+ * At startup, every Approved snapshot is streamed through a JSON generator
+ * into a temporary file, which then replaces code.json.  Each release is
+ * written on its own line, and the position of each is remembered.  Later
+ * approvals are gathered for a few seconds, then patched in: unchanged runs
+ * of releases are copied byte for byte from the previous file, and only the
+ * approved releases are rendered again.  Every new file is moved into place
+ * atomically, so readers never see a partial one.  If generation fails, it is
+ * tried again after a delay that doubles with each failure, up to an hour;
+ * approvals meanwhile are patched in once it succeeds.
+ *
+ * Releases follow the Code.gov 2.0 metadata schema.  Open Source records are
+ * "openSource"; all others "governmentWideReuse".  Labor hours are those of
+ * the record's LaborEstimate, if made from its current uploaded file, and
+ * otherwise as reported by the ARCHIVER (see LaborHours), or 0.  A release is
+ * patched again when a new estimate for it is stored.
+ *
+ * Configuration parameters:
+ * codegov.generate - if true, maintain code.json (optional; default false,
+ * for a file provided by some other process)
+ * codegov.agency - the agency acronym (optional; default DOE)
+ * codegov.contact - the contact email address for releases (optional)
+ * file.uploads - base directory; the file is codegov/code.json within it
+ */
+public class CodeGovGenerator {
+    // logger
+    private static final Logger log = LoggerFactory.getLogger(CodeGovGenerator.class);
+
+    // snapshots read per page while generating
+    private static final int PAGE_SIZE = 500;
+    // seconds to wait after an approval, gathering others, before patching
+    private static final int WRITE_DELAY = 5;
+    // seconds to wait before first retrying a failed generation, and at most
+    private static final int RETRY_DELAY = 30;
+    private static final int MAX_RETRY_DELAY = 3600;
+    // between releases
+    private static final byte[] SEPARATOR = ",\n".getBytes(StandardCharsets.UTF_8);
+    // after the last release
+    private static final byte[] FOOTER = "\n]}\n".getBytes(StandardCharsets.UTF_8);
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd").withZone(ZoneId.systemDefault());
+    private static final String GENERATE = DoeServletContextListener.getConfigurationProperty("codegov.generate");
+    private static final String AGENCY = DoeServletContextListener.getConfigurationProperty("codegov.agency");
+    private static final String CONTACT = DoeServletContextListener.getConfigurationProperty("codegov.contact");
+    private static final String SITE_URL = DoeServletContextListener.getConfigurationProperty("site.url");
+    private static final String FILE_UPLOADS = DoeServletContextListener.getConfigurationProperty("file.uploads");
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final JsonFactory factory = new JsonFactory()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+            .disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM)
+            .setRootValueSeparator(new String(SEPARATOR, StandardCharsets.UTF_8));
+
+    // the shared generator, and its background writer
+    private static CodeGovGenerator instance = null;
+    private static ScheduledExecutorService executor = null;
+
+    private final Path file;
+    private final byte[] header;
+    private final String contact;
+    private final String siteUrl;
+    // start and end of each release in the current file, by CODE ID; only
+    // read or changed by the writer
+    private TreeMap<Long, long[]> releases = null;
+    // records approved since the last write; guarded by this
+    private final Map<Long, DOECodeMetadata> pending = new TreeMap<>();
+    // local labor estimates, by CODE ID
+    private final Map<Long, LaborEstimate> estimates = new ConcurrentHashMap<>();
+    // true while a patch is scheduled; guarded by this
+    private boolean scheduled = false;
+
+    // statistics
+    private volatile long generationMillis = 0;
+    private volatile Date lastGenerated = null;
+    private volatile long lastPatchMillis = 0;
+    private volatile Date lastPatched = null;
+    private volatile long patches = 0;
+    private volatile long size = 0;
+    private volatile int count = 0;
+
+    /**
+     * Create a generator.
+     *
+     * @param file the code.json file to maintain
+     * @param agency the agency acronym
+     * @param contact the contact email address, if any
+     * @param siteUrl the base URL of the front-end site
+     * @throws IOException on JSON processing errors
+     */
+    public CodeGovGenerator(Path file, String agency, String contact, String siteUrl) throws IOException {
+        this.file = file;
+        this.contact = contact;
+        this.siteUrl = siteUrl;
+
+        ObjectNode top = mapper.createObjectNode();
+        top.put("version", "2.0");
+        top.put("agency", agency);
+        top.putObject("measurementType").put("method", "projects");
+        String json = mapper.writeValueAsString(top);
+
+        // the releases follow, one per line
+        this.header = (StringUtils.removeEnd(json, "}") + ",\"releases\":[\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the shared generator, or null if not started
+     */
+    public static synchronized CodeGovGenerator getInstance() {
+        return instance;
+    }
+
+    /**
+     * Generate code.json from all Approved snapshots in the background, if
+     * so configured.
+     */
+    public static synchronized void start() {
+        if (!Boolean.parseBoolean(GENERATE) || null!=executor)
+            return;
+
+        try {
+            instance = new CodeGovGenerator(Paths.get(FILE_UPLOADS, "codegov", "code.json"),
+                    StringUtils.defaultIfBlank(AGENCY, "DOE"), CONTACT, SITE_URL);
+        } catch ( IOException e ) {
+            log.warn("Unable to start Code.gov generation: " + e.getMessage());
+            return;
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "codegov-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        final CodeGovGenerator generator = instance;
+        executor.execute(() -> generate(generator, RETRY_DELAY));
+    }
+
+    /**
+     * Generate code.json from all Approved snapshots, then patch in any
+     * approvals made meanwhile.  On failure, try again later.
+     *
+     * @param generator the generator
+     * @param retryDelay seconds to wait before retrying, if this fails
+     */
+    private static void generate(CodeGovGenerator generator, int retryDelay) {
+        EntityManager em = DoeServletContextListener.createEntityManager();
+        try {
+            generator.generate(em);
+            generator.schedulePatch();
+        } catch ( IOException | RuntimeException e ) {
+            log.warn("Code.gov generation failed, retrying in " + retryDelay + " seconds: " + e.getMessage());
+            retry(generator, retryDelay);
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Schedule generation again, if the generator is still running.
+     *
+     * @param generator the generator
+     * @param delay seconds to wait
+     */
+    private static synchronized void retry(CodeGovGenerator generator, int delay) {
+        if (null!=executor && generator==instance && !Thread.currentThread().isInterrupted())
+            executor.schedule(() -> generate(generator, Math.min(delay * 2, MAX_RETRY_DELAY)), delay, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop any generation in progress; code.json remains as last written.
+     */
+    public static synchronized void stop() {
+        if (null==executor)
+            return;
+
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+        instance = null;
+    }
+
+    /**
+     * Note a newly-approved record for the shared generator, if running.
+     *
+     * @param md the Approved metadata
+     */
+    public static void approved(DOECodeMetadata md) {
+        CodeGovGenerator generator = getInstance();
+
+        if (null!=generator && null!=md.getCodeId())
+            generator.put(md);
+    }
+
+    /**
+     * Note a newly-stored labor estimate for the shared generator, if
+     * running, and patch its release again if still current.
+     *
+     * @param em the EntityManager to read the Approved snapshot with
+     * @param estimate the stored estimate
+     */
+    public static void estimated(EntityManager em, LaborEstimate estimate) {
+        CodeGovGenerator generator = getInstance();
+
+        if (null==generator)
+            return;
+
+        generator.estimated(estimate.getCodeId(), estimate.getFileName(), estimate.getLaborHours());
+        for ( MetadataSnapshot snapshot : em.createNamedQuery("MetadataSnapshot.findByCodeIdAndStatus", MetadataSnapshot.class)
+                .setParameter("codeId", estimate.getCodeId())
+                .setParameter("status", DOECodeMetadata.Status.Approved)
+                .getResultList() ) {
+            try {
+                DOECodeMetadata md = DOECodeMetadata.parseJson(new StringReader(snapshot.getJson()));
+
+                if (StringUtils.equals(estimate.getFileName(), md.getFileName()))
+                    generator.put(md);
+            } catch ( IOException e ) {
+                log.warn("Unable to read CODE ID " + estimate.getCodeId() + " for Code.gov: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Note a record's labor estimate, for releases rendered from now on.
+     *
+     * @param codeId the CODE ID
+     * @param fileName the uploaded file the estimate was made from
+     * @param laborHours the estimated labor hours
+     */
+    public void estimated(Long codeId, String fileName, double laborHours) {
+        LaborEstimate estimate = new LaborEstimate(codeId, fileName, 0, null);
+
+        estimate.setLaborHours(laborHours);
+        estimates.put(codeId, estimate);
+    }
+
+    /**
+     * Queue a release to be patched in shortly.
+     *
+     * @param md the Approved metadata
+     */
+    public synchronized void put(DOECodeMetadata md) {
+        pending.put(md.getCodeId(), md);
+        schedulePatch();
+    }
+
+    /**
+     * Schedule any pending releases to be patched in shortly.
+     */
+    private synchronized void schedulePatch() {
+        if (null!=executor && !scheduled && !pending.isEmpty()) {
+            scheduled = true;
+            executor.schedule(() -> {
+                try {
+                    patch();
+                } catch ( IOException e ) {
+                    log.warn("Code.gov patch failed: " + e.getMessage());
+                }
+            }, WRITE_DELAY, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * A source of Approved records, a page at a time, in CODE ID order.
+     */
+    public interface RecordSource {
+        /**
+         * @return the next page of records, or null when done
+         */
+        List<DOECodeMetadata> nextPage();
+    }
+
+    /**
+     * Write code.json from every Approved snapshot, a page at a time.
+     *
+     * @param em the EntityManager to read snapshots with
+     * @throws IOException on file or JSON processing errors
+     */
+    public void generate(EntityManager em) throws IOException {
+        long[] lastCodeId = { 0 };
+
+        for ( Object[] row : em.createNamedQuery("LaborEstimate.findHours", Object[].class).getResultList() )
+            estimated((Long) row[0], (String) row[1], (Double) row[2]);
+
+        generate(() -> {
+            List<MetadataSnapshot> page = em.createNamedQuery("MetadataSnapshot.findByStatusAfterCodeId", MetadataSnapshot.class)
+                    .setParameter("status", DOECodeMetadata.Status.Approved)
+                    .setParameter("codeId", lastCodeId[0])
+                    .setMaxResults(PAGE_SIZE)
+                    .getResultList();
+            List<DOECodeMetadata> records = new ArrayList<>(page.size());
+
+            for ( MetadataSnapshot snapshot : page ) {
+                lastCodeId[0] = snapshot.getSnapshotKey().getCodeId();
+
+                try {
+                    records.add(DOECodeMetadata.parseJson(new StringReader(snapshot.getJson())));
+                } catch ( IOException e ) {
+                    log.warn("Unable to read CODE ID " + lastCodeId[0] + " for Code.gov: " + e.getMessage());
+                }
+            }
+            em.clear();
+
+            return (page.isEmpty()) ? null : records;
+        });
+    }
+
+    /**
+     * Write code.json from records, a page at a time.
+     *
+     * @param source the Approved records
+     * @throws IOException on file or JSON processing errors
+     */
+    public void generate(RecordSource source) throws IOException {
+        long started = System.currentTimeMillis();
+        TreeMap<Long, long[]> written = new TreeMap<>();
+
+        Files.createDirectories(file.getParent());
+        Path temp = Files.createTempFile(file.getParent(), "code", ".tmp");
+
+        try {
+            try (CountingOutputStream out = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 65536));
+                 JsonGenerator generator = factory.createGenerator(out, JsonEncoding.UTF8)) {
+                generator.writeRaw(new String(header, StandardCharsets.UTF_8));
+
+                while (true) {
+                    if (Thread.currentThread().isInterrupted())
+                        throw new IOException("Code.gov generation interrupted.");
+
+                    List<DOECodeMetadata> page = source.nextPage();
+                    if (null==page)
+                        break;
+
+                    Map<Long, Double> labor = getLaborHours(page);
+                    for ( DOECodeMetadata md : page ) {
+                        generator.flush();
+                        // the generator separates releases itself
+                        long start = out.getByteCount() + ((written.isEmpty()) ? 0 : SEPARATOR.length);
+                        writeRelease(generator, md, labor.get(md.getCodeId()));
+                        generator.flush();
+                        written.put(md.getCodeId(), new long[] { start, out.getByteCount() });
+                    }
+                }
+                generator.writeRaw(new String(FOOTER, StandardCharsets.UTF_8));
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        releases = written;
+        size = Files.size(file);
+        count = written.size();
+        lastGenerated = new Date();
+        generationMillis = System.currentTimeMillis() - started;
+
+        log.info("Code.gov JSON generated: " + count + " releases, " + size + " bytes in " + generationMillis + " ms.");
+    }
+
+    /**
+     * Patch any pending releases into code.json.  Does nothing until the
+     * file has been generated.
+     *
+     * @throws IOException on file or JSON processing errors
+     */
+    public void patch() throws IOException {
+        TreeMap<Long, byte[]> changes = new TreeMap<>();
+        List<DOECodeMetadata> approved;
+
+        synchronized (this) {
+            scheduled = false;
+            if (null==releases || pending.isEmpty())
+                return;
+
+            approved = new ArrayList<>(pending.values());
+            pending.clear();
+        }
+
+        // any ARCHIVER lookups are made without holding up approvals
+        Map<Long, Double> labor = getLaborHours(approved);
+        for ( DOECodeMetadata md : approved )
+            changes.put(md.getCodeId(), renderRelease(md, labor.get(md.getCodeId())));
+
+        long started = System.currentTimeMillis();
+        TreeMap<Long, long[]> written = new TreeMap<>();
+        Path temp = Files.createTempFile(file.getParent(), "code", ".tmp");
+
+        try {
+            try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                // every CODE ID, old and new, in order
+                Set<Long> codeIds = new TreeSet<>(releases.keySet());
+                codeIds.addAll(changes.keySet());
+
+                copy(in, out, 0, header.length);
+                // a run of unchanged releases, copied together
+                long runStart = -1;
+                long runEnd = -1;
+                List<Long> run = new ArrayList<>();
+
+                for ( Long codeId : codeIds ) {
+                    byte[] release = changes.get(codeId);
+
+                    if (null==release) {
+                        long[] previous = releases.get(codeId);
+                        if (run.isEmpty())
+                            runStart = previous[0];
+                        runEnd = previous[1];
+                        run.add(codeId);
+                        continue;
+                    }
+
+                    copyRun(in, out, run, runStart, runEnd, written);
+                    if (!written.isEmpty())
+                        out.write(ByteBuffer.wrap(SEPARATOR));
+                    long start = out.position();
+                    out.write(ByteBuffer.wrap(release));
+                    written.put(codeId, new long[] { start, out.position() });
+                }
+                copyRun(in, out, run, runStart, runEnd, written);
+                out.write(ByteBuffer.wrap(FOOTER));
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        releases = written;
+        size = Files.size(file);
+        count = written.size();
+        patches += changes.size();
+        lastPatched = new Date();
+        lastPatchMillis = System.currentTimeMillis() - started;
+
+        log.info("Code.gov JSON patched: " + changes.size() + " releases in " + lastPatchMillis + " ms.");
+    }
+
+    /**
+     * Copy a run of unchanged releases from the previous file, with the
+     * separators between them, noting their new positions.
+     *
+     * @param in the previous file
+     * @param out the new file
+     * @param run the CODE IDs in the run, cleared afterwards
+     * @param runStart the start of the run in the previous file
+     * @param runEnd the end of the run in the previous file
+     * @param written new release positions, added to
+     * @throws IOException on file errors
+     */
+    private void copyRun(FileChannel in, FileChannel out, List<Long> run, long runStart, long runEnd, Map<Long, long[]> written) throws IOException {
+        if (run.isEmpty())
+            return;
+
+        if (!written.isEmpty())
+            out.write(ByteBuffer.wrap(SEPARATOR));
+        long shift = out.position() - runStart;
+        copy(in, out, runStart, runEnd - runStart);
+
+        for ( Long codeId : run ) {
+            long[] previous = releases.get(codeId);
+            written.put(codeId, new long[] { previous[0] + shift, previous[1] + shift });
+        }
+        run.clear();
+    }
+
+    /**
+     * Copy part of one file to the end of another.
+     *
+     * @param in the source
+     * @param out the target
+     * @param position where to start in the source
+     * @param length the number of bytes
+     * @throws IOException on file errors
+     */
+    private static void copy(FileChannel in, FileChannel out, long position, long length) throws IOException {
+        for ( long copied = 0 ; copied < length ; )
+            copied += in.transferTo(position + copied, length - copied, out);
+    }
+
+    /**
+     * Determine the labor hours of records: from local estimates of their
+     * current files where available, and from the ARCHIVER for the rest.
+     *
+     * @param records the Approved records
+     * @return labor hours by CODE ID
+     */
+    private Map<Long, Double> getLaborHours(List<DOECodeMetadata> records) {
+        Map<Long, Double> labor = new HashMap<>();
+        List<LaborHours.Project> projects = new ArrayList<>();
+
+        for ( DOECodeMetadata md : records ) {
+            LaborEstimate estimate = estimates.get(md.getCodeId());
+
+            if (null!=estimate && StringUtils.equals(estimate.getFileName(), md.getFileName()))
+                labor.put(md.getCodeId(), estimate.getLaborHours());
+            else if (DOECodeMetadata.Accessibility.OS==md.getAccessibility())
+                projects.add(new LaborHours.Project(md.getCodeId(), null, StringUtils.defaultString(md.getRepositoryLink())));
+            else
+                projects.add(new LaborHours.Project(md.getCodeId(), StringUtils.defaultString(md.getFileName()), null));
+        }
+        if (!projects.isEmpty())
+            labor.putAll(LaborHours.lookup(projects));
+
+        return labor;
+    }
+
+    /**
+     * Render a single release as it appears in code.json.
+     *
+     * @param md the Approved metadata
+     * @param laborHours the labor hours
+     * @return the release JSON
+     * @throws IOException on JSON processing errors
+     */
+    private byte[] renderRelease(DOECodeMetadata md, double laborHours) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+
+        try (JsonGenerator generator = factory.createGenerator(bytes, JsonEncoding.UTF8)) {
+            writeRelease(generator, md, laborHours);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Write a Code.gov release for a record.
+     *
+     * @param generator the generator
+     * @param md the Approved metadata
+     * @param laborHours the labor hours
+     * @throws IOException on JSON processing errors
+     */
+    private void writeRelease(JsonGenerator generator, DOECodeMetadata md, double laborHours) throws IOException {
+        String homepage = StringUtils.isNotBlank(md.getLandingPage()) ? md.getLandingPage() :
+                StringUtils.isNotBlank(md.getDoi()) ? "https://doi.org/" + md.getDoi() :
+                siteUrl + "/biblio/" + md.getCodeId();
+
+        generator.writeStartObject();
+        generator.writeStringField("name", md.getSoftwareTitle());
+        if (StringUtils.isNotBlank(md.getVersionNumber()))
+            generator.writeStringField("version", md.getVersionNumber());
+        generator.writeStringField("organization", md.getSiteOwnershipCode());
+        generator.writeStringField("description", StringUtils.defaultString(md.getDescription()));
+
+        generator.writeObjectFieldStart("permissions");
+        generator.writeArrayFieldStart("licenses");
+        if (null!=md.getLicenses())
+            for ( String license : md.getLicenses() ) {
+                generator.writeStartObject();
+                generator.writeStringField("name", license);
+                generator.writeEndObject();
+            }
+        generator.writeEndArray();
+        generator.writeStringField("usageType", (DOECodeMetadata.Accessibility.OS==md.getAccessibility()) ?
+                "openSource" : "governmentWideReuse");
+        generator.writeEndObject();
+
+        generator.writeNumberField("laborHours", laborHours);
+        generator.writeStringField("repositoryURL", StringUtils.defaultIfBlank(md.getRepositoryLink(), homepage));
+        generator.writeStringField("homepageURL", homepage);
+        if (StringUtils.isNotBlank(md.getRepositoryLink()))
+            generator.writeStringField("vcs", "git");
+
+        Set<String> tags = new LinkedHashSet<>();
+        if (StringUtils.isNotBlank(md.getKeywords()))
+            Arrays.stream(StringUtils.split(md.getKeywords(), ";,")).map(String::trim).filter(StringUtils::isNotEmpty).forEach(tags::add);
+        if (null!=md.getProjectKeywords())
+            tags.addAll(md.getProjectKeywords());
+        generator.writeArrayFieldStart("tags");
+        for ( String tag : tags )
+            generator.writeString(tag);
+        generator.writeEndArray();
+
+        if (null!=md.getProgrammingLanguages() && !md.getProgrammingLanguages().isEmpty()) {
+            generator.writeArrayFieldStart("languages");
+            for ( String language : md.getProgrammingLanguages() )
+                generator.writeString(language);
+            generator.writeEndArray();
+        }
+
+        generator.writeObjectFieldStart("contact");
+        if (StringUtils.isNotBlank(contact))
+            generator.writeStringField("email", contact);
+        generator.writeEndObject();
+
+        generator.writeObjectFieldStart("date");
+        if (null!=md.getReleaseDate())
+            generator.writeStringField("created", DATE_FORMATTER.format(md.getReleaseDate().toInstant()));
+        if (null!=md.getDateRecordUpdated())
+            generator.writeStringField("metadataLastUpdated", DATE_FORMATTER.format(md.getDateRecordUpdated().toInstant()));
+        generator.writeEndObject();
+
+        generator.writeEndObject();
+    }
+
+    /**
+     * Report on generation.
+     *
+     * @return JSON statistics
+     */
+    public ObjectNode getStatistics() {
+        ObjectNode statistics = mapper.createObjectNode()
+                .put("releases", count)
+                .put("bytes", size)
+                .put("generation_ms", generationMillis)
+                .put("patches", patches)
+                .put("last_patch_ms", lastPatchMillis);
+        statistics.put("last_generated", (null==lastGenerated) ? null : lastGenerated.toInstant().toString());
+        statistics.put("last_patched", (null==lastPatched) ? null : lastPatched.toInstant().toString());
+
+        return statistics;
+    }
+}
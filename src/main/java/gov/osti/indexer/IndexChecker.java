@@ -0,0 +1,591 @@
+/*
+ */
+package gov.osti.indexer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import gov.osti.entity.DOECodeMetadata;
+import gov.osti.entity.MetadataSnapshot;
+import gov.osti.listeners.DoeServletContextListener;
+import gov.osti.search.ResultCache;
+import gov.osti.search.SolrClient;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URISyntaxException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.persistence.EntityManager;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compare the index against the Approved snapshots, and optionally repair any
+ * differences.
+ *
+ * Both sides are streamed in CODE ID order: the snapshots by keyset pages, and
+ * the index by SOLR cursor, requesting only codeId and contentHash.  A merge
+ * join of the two finds:
+ *
+ * missing - Approved snapshots with no index document
+ * stale - index documents whose contentHash differs from the snapshot's
+ * orphaned - index documents with no Approved snapshot
+ *
+ * In repair mode missing and stale documents are re-sent, and orphaned ones
+ * deleted, in batches as they are found; each batch is checked against the
+ * Approved snapshots as they are then, so records approved during the check
+ * are neither deleted nor overwritten.  Only index.batch.size snapshots and
+ * index documents are held at a time.
+ *
+ * A check costs about as much as a reindex, so it runs as a background job in
+ * the manner of Reindexer: one at a time, reporting its progress while
+ * running, and cancellable.  The most recent checks are remembered for status
+ * requests until the application restarts.
+ */
+public class IndexChecker implements Runnable {
+    // logger
+    private static final Logger log = LoggerFactory.getLogger(IndexChecker.class);
+
+    // URL to search services, if configured
+    private static final String SEARCH_URL = DoeServletContextListener.getConfigurationProperty("search.url");
+    // page size for both sides, and repair batch size
+    private static final int BATCH_SIZE = DoeServletContextListener.getConfigurationProperty("index.batch.size", 500);
+    private static final int COMMIT_WITHIN = DoeServletContextListener.getConfigurationProperty("index.commit.within", 10000);
+
+    // maximum CODE IDs to list for each kind of difference
+    private static final int REPORT_LIMIT = 1000;
+    // number of finished checks to remember
+    private static final int HISTORY = 20;
+
+    // a JSON mapper for responses and results
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * A CODE ID and its content hash, and whether a document could be built.
+     */
+    private static class Entry {
+        private final long codeId;
+        private final String hash;
+        private final boolean readable;
+
+        Entry(long codeId, String hash, boolean readable) {
+            this.codeId = codeId;
+            this.hash = hash;
+            this.readable = readable;
+        }
+    }
+
+    // known checks, in order of submission
+    private static final Map<Long, IndexChecker> jobs = new LinkedHashMap<>();
+    private static final AtomicLong sequence = new AtomicLong();
+    // runs checks one at a time
+    private static ExecutorService executor = null;
+
+    // job details
+    private final long id;
+    private final boolean repair;
+    private EntityManager em;
+    private volatile Reindexer.State state = Reindexer.State.Queued;
+    private volatile boolean cancelled = false;
+    private volatile String error = null;
+    private volatile long started = 0;
+    private volatile long finished = 0;
+
+    // results, read while running for status
+    private volatile long checked = 0;
+    private volatile long indexed = 0;
+    private volatile long errors = 0;
+    private volatile long repaired = 0;
+    private volatile long deleted = 0;
+    private final List<Long> missing = new CopyOnWriteArrayList<>();
+    private final List<Long> stale = new CopyOnWriteArrayList<>();
+    private final List<Long> orphaned = new CopyOnWriteArrayList<>();
+    private volatile long missingCount = 0;
+    private volatile long staleCount = 0;
+    private volatile long orphanedCount = 0;
+
+    // pending repairs, by CODE ID
+    private final Set<Long> resend = new LinkedHashSet<>();
+    private final Set<Long> delete = new LinkedHashSet<>();
+
+    // database side
+    private final Deque<Entry> snapshots = new ArrayDeque<>();
+    private long lastCodeId = 0;
+    private boolean snapshotsDone = false;
+
+    // index side
+    private final Deque<Entry> documents = new ArrayDeque<>();
+    private String cursorMark = "*";
+    private boolean documentsDone = false;
+
+    /**
+     * Create a check job.
+     *
+     * @param repair true to repair differences, false to only report them
+     */
+    private IndexChecker(boolean repair) {
+        this.id = sequence.incrementAndGet();
+        this.repair = repair;
+    }
+
+    /**
+     * Start a new check in the background, unless one is already queued or
+     * running.
+     *
+     * @param repair true to repair differences, false to only report them
+     * @return the new job, or null if another check is still active
+     */
+    public static synchronized IndexChecker submit(boolean repair) {
+        if (null!=getActive())
+            return null;
+
+        if (null==executor) {
+            executor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "index-check-job");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        IndexChecker job = new IndexChecker(repair);
+        jobs.put(job.getId(), job);
+
+        // forget the oldest finished checks
+        Iterator<IndexChecker> it = jobs.values().iterator();
+        while (jobs.size() > HISTORY && it.hasNext()) {
+            if (!it.next().isActive())
+                it.remove();
+        }
+
+        executor.execute(job);
+
+        return job;
+    }
+
+    /**
+     * Look up a check job.
+     *
+     * @param id the job ID
+     * @return the job, or null if not known
+     */
+    public static synchronized IndexChecker get(long id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * @return the queued or running check, if any
+     */
+    public static synchronized IndexChecker getActive() {
+        return jobs.values().stream().filter(IndexChecker::isActive).findFirst().orElse(null);
+    }
+
+    /**
+     * @return all remembered checks, oldest first
+     */
+    public static synchronized List<IndexChecker> list() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    /**
+     * Cancel any active check and stop the job thread.  Called on application
+     * shutdown.
+     */
+    public static synchronized void shutdown() {
+        jobs.values().forEach(IndexChecker::cancel);
+
+        if (null!=executor) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Request cancellation of this check; it stops after the page in progress.
+     *
+     * @return true if the check was active, false if already finished
+     */
+    public boolean cancel() {
+        if (!isActive())
+            return false;
+
+        cancelled = true;
+        return true;
+    }
+
+    /**
+     * @return the job ID
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return the current job state
+     */
+    public Reindexer.State getState() {
+        return state;
+    }
+
+    /**
+     * @return true if this check is queued or running
+     */
+    public boolean isActive() {
+        return Reindexer.State.Queued.equals(state) || Reindexer.State.Running.equals(state);
+    }
+
+    /**
+     * Determine whether or not checking is possible.
+     *
+     * @return true if both searching and indexing are configured
+     */
+    public static boolean isConfigured() {
+        return !"".equals(SEARCH_URL) && SolrIndexer.isConfigured();
+    }
+
+    /**
+     * Run the check job.
+     */
+    @Override
+    public void run() {
+        started = System.currentTimeMillis();
+        state = Reindexer.State.Running;
+
+        em = DoeServletContextListener.createEntityManager();
+
+        try {
+            check();
+
+            state = (cancelled) ? Reindexer.State.Cancelled : Reindexer.State.Completed;
+        } catch ( IOException | RuntimeException e ) {
+            error = e.getMessage();
+            state = Reindexer.State.Failed;
+            log.warn("Index check " + id + " failed: " + e.getMessage());
+        } finally {
+            finished = System.currentTimeMillis();
+            em.close();
+            em = null;
+        }
+    }
+
+    /**
+     * Run the comparison.
+     *
+     * @throws IOException on database or index errors
+     */
+    private void check() throws IOException {
+        Entry snapshot = nextSnapshot();
+        Entry document = nextDocument();
+
+        while ((null!=snapshot || null!=document) && !cancelled) {
+            if (null!=snapshot && !snapshot.readable && (null==document || document.codeId >= snapshot.codeId)) {
+                // unable to compare an unreadable snapshot; skip it
+                if (null!=document && document.codeId==snapshot.codeId)
+                    document = nextDocument();
+                snapshot = nextSnapshot();
+            } else if (null==document || (null!=snapshot && snapshot.codeId < document.codeId)) {
+                missingCount = report(missing, missingCount, snapshot.codeId);
+                resend(snapshot);
+                snapshot = nextSnapshot();
+            } else if (null==snapshot || document.codeId < snapshot.codeId) {
+                orphanedCount = report(orphaned, orphanedCount, document.codeId);
+                delete(document.codeId);
+                document = nextDocument();
+            } else {
+                if (null==document.hash || !document.hash.equals(snapshot.hash)) {
+                    staleCount = report(stale, staleCount, snapshot.codeId);
+                    resend(snapshot);
+                }
+                snapshot = nextSnapshot();
+                document = nextDocument();
+            }
+        }
+
+        try {
+            flush();
+        } finally {
+            // cached search results may no longer match the index
+            if (repaired > 0 || deleted > 0)
+                ResultCache.invalidateAll();
+        }
+
+        log.info("Index check " + id + ": " + missingCount + " missing, " + staleCount + " stale, " + orphanedCount + " orphaned of " + checked + " snapshots.");
+    }
+
+    /**
+     * Report the progress or results of the check.
+     *
+     * @return JSON job state, counts and CODE IDs of each kind of difference
+     * found so far, and any repairs made
+     */
+    public ObjectNode getStatistics() {
+        long end = (0==finished) ? System.currentTimeMillis() : finished;
+
+        ObjectNode results = mapper.createObjectNode()
+                .put("job_id", id)
+                .put("state", state.name())
+                .put("repair", repair)
+                .put("snapshots", checked)
+                .put("indexed", indexed)
+                .put("errors", errors)
+                .put("missing_count", missingCount)
+                .put("stale_count", staleCount)
+                .put("orphaned_count", orphanedCount);
+        missing.forEach(results.putArray("missing")::add);
+        stale.forEach(results.putArray("stale")::add);
+        orphaned.forEach(results.putArray("orphaned")::add);
+
+        if (repair) {
+            results.put("repaired", repaired);
+            results.put("deleted", deleted);
+        }
+        results.put("seconds", (0==started) ? 0 : (end - started) / 1000.0);
+        if (null!=error)
+            results.put("error", error);
+
+        return results;
+    }
+
+    /**
+     * Count a difference, listing it if still within the report limit.
+     *
+     * @param list the list of CODE IDs for this difference
+     * @param count the current count of this difference
+     * @param codeId the CODE ID found
+     * @return the new count
+     */
+    private static long report(List<Long> list, long count, long codeId) {
+        if (list.size() < REPORT_LIMIT)
+            list.add(codeId);
+
+        return count + 1;
+    }
+
+    /**
+     * Queue a snapshot's document to be re-sent, if repairing.
+     *
+     * @param snapshot the snapshot entry
+     * @throws IOException on index errors
+     */
+    private void resend(Entry snapshot) throws IOException {
+        if (!repair)
+            return;
+
+        resend.add(snapshot.codeId);
+
+        if (resend.size() >= BATCH_SIZE)
+            flush();
+    }
+
+    /**
+     * Queue an orphaned document for deletion, if repairing.
+     *
+     * @param codeId the CODE ID to delete
+     * @throws IOException on index errors
+     */
+    private void delete(long codeId) throws IOException {
+        if (!repair)
+            return;
+
+        delete.add(codeId);
+
+        if (delete.size() >= BATCH_SIZE)
+            flush();
+    }
+
+    /**
+     * Send any pending repairs.
+     *
+     * Records may be approved while the check runs, after their snapshots
+     * were read, and reach the index through the IndexDispatcher; so the
+     * Approved snapshots are read again first.  Documents are re-sent as
+     * built from them, and only CODE IDs still without one are deleted.
+     *
+     * @throws IOException on index errors
+     */
+    private void flush() throws IOException {
+        if (resend.isEmpty() && delete.isEmpty())
+            return;
+
+        Set<Long> codeIds = new LinkedHashSet<>(resend);
+        codeIds.addAll(delete);
+
+        List<MetadataSnapshot> current = em.createNamedQuery("MetadataSnapshot.findByCodeIdsAndStatus", MetadataSnapshot.class)
+                .setParameter("codeIds", codeIds)
+                .setParameter("status", DOECodeMetadata.Status.Approved)
+                .getResultList();
+
+        Set<Long> approved = new HashSet<>();
+        Map<Long, DOECodeMetadata> records = new LinkedHashMap<>();
+        for ( MetadataSnapshot snapshot : current ) {
+            Long codeId = snapshot.getSnapshotKey().getCodeId();
+
+            approved.add(codeId);
+            if (!resend.contains(codeId))
+                continue;
+            try {
+                records.put(codeId, DOECodeMetadata.parseJson(new StringReader(snapshot.getJson())));
+            } catch ( IOException e ) {
+                log.warn("Index Check Parse Error: " + e.getMessage() + " ID=" + codeId);
+                ++errors;
+            }
+        }
+        em.clear();
+
+        if (!records.isEmpty()) {
+            IndexabilityResolver resolver = new IndexabilityResolver(em, records.values());
+            Map<Long, ObjectNode> documents = new LinkedHashMap<>();
+            Map<Long, String> failures = new LinkedHashMap<>();
+
+            for ( Map.Entry<Long, DOECodeMetadata> record : records.entrySet() ) {
+                try {
+                    documents.put(record.getKey(), SolrIndexer.toDocument(resolver, record.getValue()));
+                } catch ( IOException e ) {
+                    log.warn("Index Check Document Error: " + e.getMessage() + " ID=" + record.getKey());
+                    ++errors;
+                }
+            }
+
+            SolrIndexer.sendAll(documents, failures, COMMIT_WITHIN);
+
+            repaired += documents.size() - failures.size();
+            errors += failures.size();
+        }
+        resend.clear();
+
+        // approved since the index was read; not an orphan after all
+        delete.removeAll(approved);
+        if (!delete.isEmpty()) {
+            SolrIndexer.delete(delete, COMMIT_WITHIN);
+
+            deleted += delete.size();
+        }
+        delete.clear();
+    }
+
+    /**
+     * Obtain the next Approved snapshot, reading another page as needed.
+     *
+     * @return the next snapshot entry, or null if none remain
+     */
+    private Entry nextSnapshot() {
+        while (snapshots.isEmpty() && !snapshotsDone) {
+            List<MetadataSnapshot> page = em.createNamedQuery("MetadataSnapshot.findByStatusAfterCodeId", MetadataSnapshot.class)
+                    .setParameter("status", DOECodeMetadata.Status.Approved)
+                    .setParameter("codeId", lastCodeId)
+                    .setMaxResults(BATCH_SIZE)
+                    .getResultList();
+
+            snapshotsDone = page.size() < BATCH_SIZE;
+            if (page.isEmpty())
+                break;
+
+            lastCodeId = page.get(page.size() - 1).getSnapshotKey().getCodeId();
+
+            // records by CODE ID, null if unreadable
+            Map<Long, DOECodeMetadata> records = new LinkedHashMap<>();
+            for ( MetadataSnapshot snapshot : page ) {
+                Long codeId = snapshot.getSnapshotKey().getCodeId();
+
+                try {
+                    records.put(codeId, DOECodeMetadata.parseJson(new StringReader(snapshot.getJson())));
+                } catch ( IOException e ) {
+                    log.warn("Index Check Parse Error: " + e.getMessage() + " ID=" + codeId);
+                    records.put(codeId, null);
+                }
+            }
+            em.clear();
+
+            IndexabilityResolver resolver = new IndexabilityResolver(em, records.values());
+            for ( Map.Entry<Long, DOECodeMetadata> record : records.entrySet() ) {
+                ObjectNode document = null;
+
+                ++checked;
+                try {
+                    if (null!=record.getValue())
+                        document = SolrIndexer.toDocument(resolver, record.getValue());
+                } catch ( IOException e ) {
+                    log.warn("Index Check Document Error: " + e.getMessage() + " ID=" + record.getKey());
+                }
+
+                // unreadable snapshots are kept in sequence, so their index
+                // documents are not mistaken for orphans
+                if (null==document)
+                    ++errors;
+                snapshots.add(new Entry(record.getKey(), (null==document) ? null : SolrIndexer.getContentHash(document), null!=document));
+            }
+        }
+
+        return snapshots.poll();
+    }
+
+    /**
+     * Obtain the next index document, reading another page as needed.
+     *
+     * @return the next document entry, or null if none remain
+     * @throws IOException on index errors
+     */
+    private Entry nextDocument() throws IOException {
+        while (documents.isEmpty() && !documentsDone) {
+            JsonNode page = readIndexPage();
+
+            for ( JsonNode doc : page.path("response").path("docs") ) {
+                documents.add(new Entry(doc.path("codeId").asLong(), doc.path(SolrIndexer.CONTENT_HASH).textValue(), true));
+                ++indexed;
+            }
+
+            // the cursor is exhausted once it stops moving
+            String next = page.path("nextCursorMark").asText(cursorMark);
+            documentsDone = cursorMark.equals(next);
+            cursorMark = next;
+        }
+
+        return documents.poll();
+    }
+
+    /**
+     * Read a page of CODE IDs and content hashes from the index.
+     *
+     * @return the SOLR JSON response
+     * @throws IOException on index errors
+     */
+    private JsonNode readIndexPage() throws IOException {
+        try {
+            URIBuilder builder = new URIBuilder(SEARCH_URL)
+                    .addParameter("q", "*:*")
+                    .addParameter("fl", "codeId," + SolrIndexer.CONTENT_HASH)
+                    .addParameter("sort", "codeId asc")
+                    .addParameter("rows", String.valueOf(BATCH_SIZE))
+                    .addParameter("cursorMark", cursorMark);
+
+            HttpGet get = new HttpGet(builder.build());
+
+            try (CloseableHttpResponse response = SolrClient.getClient().execute(get)) {
+                String text = EntityUtils.toString(response.getEntity());
+
+                if (HttpStatus.SC_OK!=response.getStatusLine().getStatusCode())
+                    throw new IOException("Index Read Error: " + text);
+
+                return mapper.readTree(text);
+            }
+        } catch ( URISyntaxException e ) {
+            throw new IOException("Invalid search URL: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ */
+package gov.osti.indexer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import gov.osti.entity.DOECodeMetadata;
+import gov.osti.entity.IndexOutbox;
+import gov.osti.entity.MetadataSnapshot;
+import gov.osti.listeners.DoeServletContextListener;
+import gov.osti.search.ResultCache;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.persistence.EntityManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Background delivery of queued IndexOutbox entries to the indexing service.
+ *
+ * Approval (and related identifier backfill) only records an IndexOutbox entry
+ * in its own transaction; this dispatcher drains the queue in batches, sending
+ * each CODE ID's current Approved snapshot once no matter how many entries are
+ * pending for it.  Records queued only for related identifier changes (by
+ * backfill) are sent as SOLR atomic updates of those fields rather than as
+ * whole documents.  Documents the index already holds unchanged (such as
+ * records touched by a backfill that did not alter them) are not re-written.
+ * Failed sends are retried with exponential backoff.
+ *
+ * Configuration parameters (all optional):
+ * index.outbox.batch - number of queue entries per batch (default 100)
+ * index.outbox.interval - seconds between queue polls (default 5)
+ * index.outbox.backoff - seconds to wait after a first failure (default 30)
+ * index.outbox.backoff.max - maximum seconds between retries (default 3600)
+ */
+public class IndexDispatcher {
+    // logger
+    private static final Logger log = LoggerFactory.getLogger(IndexDispatcher.class);
+
+    // queue configuration
+    private static final int BATCH_SIZE = DoeServletContextListener.getConfigurationProperty("index.outbox.batch", 100);
+    private static final int INTERVAL = DoeServletContextListener.getConfigurationProperty("index.outbox.interval", 5);
+    private static final int BACKOFF = DoeServletContextListener.getConfigurationProperty("index.outbox.backoff", 30);
+    private static final int BACKOFF_MAX = DoeServletContextListener.getConfigurationProperty("index.outbox.backoff.max", 3600);
+
+    // a JSON mapper for statistics
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    // single worker thread, so batches never overlap
+    private static ScheduledExecutorService executor = null;
+
+    // dispatch statistics since startup
+    private static final AtomicLong dispatched = new AtomicLong();
+    private static final AtomicLong failures = new AtomicLong();
+    private static final AtomicLong unchanged = new AtomicLong();
+    private static final AtomicLong partial = new AtomicLong();
+    private static volatile Date lastDispatch = null;
+
+    private IndexDispatcher() {
+    }
+
+    /**
+     * Start polling the queue.  Does nothing if indexing is not configured.
+     */
+    public static synchronized void start() {
+        if (!SolrIndexer.isConfigured() || null!=executor)
+            return;
+
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "index-dispatcher");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(IndexDispatcher::drain, INTERVAL, INTERVAL, TimeUnit.SECONDS);
+
+        log.info("Index dispatcher started.");
+    }
+
+    /**
+     * Stop polling the queue; anything still pending is sent after the next
+     * start.
+     */
+    public static synchronized void stop() {
+        if (null==executor)
+            return;
+
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+    }
+
+    /**
+     * Request a queue drain now rather than waiting for the next poll, such as
+     * right after an approval commits.
+     */
+    public static synchronized void wake() {
+        if (null!=executor)
+            executor.execute(IndexDispatcher::drain);
+    }
+
+    /**
+     * Queue a CODE ID for full indexing.  Must be called within the caller's
+     * active transaction, so the request is committed (or rolled back) together
+     * with the snapshot it refers to.
+     *
+     * @param em the EntityManager with an active transaction
+     * @param codeId the CODE ID to index
+     */
+    public static void enqueue(EntityManager em, Long codeId) {
+        enqueue(em, codeId, IndexOutbox.Type.Full);
+    }
+
+    /**
+     * Queue a CODE ID for indexing.  Must be called within the caller's active
+     * transaction, so the request is committed (or rolled back) together with
+     * the snapshot it refers to.
+     *
+     * @param em the EntityManager with an active transaction
+     * @param codeId the CODE ID to index
+     * @param updateType the kind of update needed
+     */
+    public static void enqueue(EntityManager em, Long codeId, IndexOutbox.Type updateType) {
+        if (!SolrIndexer.isConfigured())
+            return;
+
+        em.persist(new IndexOutbox(codeId, updateType));
+    }
+
+    /**
+     * Send queued batches until no ready entries remain.
+     */
+    private static void drain() {
+        try {
+            int processed;
+
+            do {
+                processed = dispatchBatch();
+            } while (processed > 0 && !Thread.currentThread().isInterrupted());
+        } catch ( RuntimeException e ) {
+            // never let an error cancel the scheduled polling
+            log.warn("Index dispatch error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Send a single batch of ready queue entries.
+     *
+     * @return the number of queue entries processed
+     */
+    private static int dispatchBatch() {
+        EntityManager em = DoeServletContextListener.createEntityManager();
+
+        try {
+            List<IndexOutbox> entries = em.createNamedQuery("IndexOutbox.findReady", IndexOutbox.class)
+                    .setParameter("now", new Date())
+                    .setMaxResults(BATCH_SIZE)
+                    .getResultList();
+
+            if (entries.isEmpty())
+                return 0;
+
+            // coalesce multiple requests for the same CODE ID
+            Map<Long, List<IndexOutbox>> pending = new LinkedHashMap<>();
+            for ( IndexOutbox entry : entries )
+                pending.computeIfAbsent(entry.getCodeId(), k -> new ArrayList<>()).add(entry);
+
+            // build documents from the current Approved snapshots; CODE IDs
+            // no longer Approved have nothing to send
+            List<MetadataSnapshot> snapshots = em.createNamedQuery("MetadataSnapshot.findByCodeIdsAndStatus", MetadataSnapshot.class)
+                    .setParameter("codeIds", pending.keySet())
+                    .setParameter("status", DOECodeMetadata.Status.Approved)
+                    .getResultList();
+            Map<Long, DOECodeMetadata> records = new LinkedHashMap<>();
+            Map<Long, ObjectNode> documents = new LinkedHashMap<>();
+            Map<Long, String> errors = new LinkedHashMap<>();
+
+            for ( MetadataSnapshot snapshot : snapshots ) {
+                Long codeId = snapshot.getSnapshotKey().getCodeId();
+
+                try {
+                    records.put(codeId, DOECodeMetadata.parseJson(new StringReader(snapshot.getJson())));
+                } catch ( IOException e ) {
+                    errors.put(codeId, "Document Error: " + e.getMessage());
+                }
+            }
+
+            // resolve related identifiers for the whole batch at once
+            IndexabilityResolver resolver = new IndexabilityResolver(em, records.values());
+            for ( Map.Entry<Long, DOECodeMetadata> record : records.entrySet() ) {
+                try {
+                    documents.put(record.getKey(), SolrIndexer.toDocument(resolver, record.getValue()));
+                } catch ( IOException e ) {
+                    errors.put(record.getKey(), "Document Error: " + e.getMessage());
+                }
+            }
+
+            unchanged.addAndGet(SolrIndexer.removeUnchanged(documents));
+
+            // records only needing related identifier changes get atomic
+            // updates rather than full document rewrites
+            Map<Long, ObjectNode> updates = new LinkedHashMap<>();
+            for ( Map.Entry<Long, List<IndexOutbox>> entry : pending.entrySet() ) {
+                ObjectNode document = documents.get(entry.getKey());
+
+                if (null!=document && entry.getValue().stream().allMatch(IndexOutbox::isPartial))
+                    updates.put(entry.getKey(), SolrIndexer.toRelatedIdentifiersUpdate(document));
+            }
+
+            Map<Long, ObjectNode> full = new LinkedHashMap<>(documents);
+            full.keySet().removeAll(updates.keySet());
+            SolrIndexer.sendAll(full, errors, 0);
+
+            if (!updates.isEmpty()) {
+                // any update SOLR refuses (such as for a record not yet
+                // indexed) is sent in full instead
+                Map<Long, String> rejected = new LinkedHashMap<>();
+                SolrIndexer.sendAllUpdates(updates, rejected, 0);
+
+                Map<Long, ObjectNode> retry = new LinkedHashMap<>(documents);
+                retry.keySet().retainAll(rejected.keySet());
+                SolrIndexer.sendAll(retry, errors, 0);
+
+                partial.addAndGet(updates.size() - rejected.size());
+            }
+
+            // cached search results may no longer match the index
+            if (!documents.isEmpty())
+                ResultCache.invalidateAll(documents.keySet());
+
+            // remove delivered entries, and defer failed ones
+            em.getTransaction().begin();
+            for ( Map.Entry<Long, List<IndexOutbox>> entry : pending.entrySet() ) {
+                String error = errors.get(entry.getKey());
+
+                for ( IndexOutbox outbox : entry.getValue() ) {
+                    if (null==error) {
+                        em.remove(outbox);
+                    } else {
+                        outbox.failed(error, nextAttempt(outbox.getAttempts() + 1));
+                    }
+                }
+            }
+            em.getTransaction().commit();
+
+            dispatched.addAndGet(pending.size() - errors.size());
+            failures.addAndGet(errors.size());
+            lastDispatch = new Date();
+
+            return entries.size();
+        } finally {
+            if (em.getTransaction().isActive())
+                em.getTransaction().rollback();
+            em.close();
+        }
+    }
+
+    /**
+     * Compute the next retry time, doubling the wait on each failure.
+     *
+     * @param attempts the number of failed attempts
+     * @return the date of the next attempt
+     */
+    private static Date nextAttempt(int attempts) {
+        long delay = BACKOFF * (1L << Math.min(attempts - 1, 20));
+
+        return new Date(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(Math.min(delay, BACKOFF_MAX)));
+    }
+
+    /**
+     * Report on the current queue state.
+     *
+     * @param em the EntityManager to query with
+     * @return JSON queue statistics
+     */
+    public static ObjectNode getStatistics(EntityManager em) {
+        ObjectNode stats = mapper.createObjectNode();
+
+        Date oldest = em.createNamedQuery("IndexOutbox.findOldest", Date.class).getSingleResult();
+
+        stats.put("configured", SolrIndexer.isConfigured());
+        stats.put("running", null!=executor);
+        stats.put("pending", em.createNamedQuery("IndexOutbox.countAll", Long.class).getSingleResult());
+        stats.put("pending_code_ids", em.createNamedQuery("IndexOutbox.countCodeIds", Long.class).getSingleResult());
+        stats.put("failing", em.createNamedQuery("IndexOutbox.countFailing", Long.class).getSingleResult());
+        stats.put("lag_seconds", (null==oldest) ? 0 : TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - oldest.getTime()));
+        stats.put("oldest_queued", (null==oldest) ? null : oldest.toInstant().toString());
+        stats.put("dispatched", dispatched.get());
+        stats.put("failures", failures.get());
+        stats.put("unchanged", unchanged.get());
+        stats.put("partial", partial.get());
+        stats.put("last_dispatch", (null==lastDispatch) ? null : lastDispatch.toInstant().toString());
+
+        return stats;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ */
+package gov.osti.indexer;
+
+import gov.osti.entity.DOECodeMetadata;
+import gov.osti.entity.RelatedIdentifier;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import javax.persistence.EntityManager;
+import org.apache.commons.beanutils.BeanUtilsBean;
+
+/**
+ * Determine which DOE CODE New/Previous version DOI related identifiers may be
+ * indexed, for a batch of Metadata records at once.
+ *
+ * A related DOI belonging to an Approved record that has not been minted (no
+ * release date) is not indexable.  Rather than look up each related identifier
+ * separately, the minted state of every DOI referenced by the batch is loaded
+ * up front, and each record is then filtered by lookup.  Once constructed, a
+ * resolver is read-only and may be shared between threads.
+ */
+public class IndexabilityResolver {
+    // maximum DOI values per lookup query
+    private static final int QUERY_SIZE = 500;
+
+    // Approved DOE CODE DOIs, and whether or not any of them is minted
+    private final Map<String, Boolean> approvedDois = new HashMap<>();
+
+    /**
+     * Load the DOI information needed to resolve the given records.
+     *
+     * @param em the EntityManager to query
+     * @param records the Metadata records to be resolved
+     */
+    public IndexabilityResolver(EntityManager em, Collection<DOECodeMetadata> records) {
+        Set<String> dois = new TreeSet<>();
+
+        for ( DOECodeMetadata md : records ) {
+            if (null==md || null==md.getRelatedIdentifiers())
+                continue;
+
+            md.getRelatedIdentifiers().stream()
+                    .filter(IndexabilityResolver::isTargeted)
+                    .forEach(ri -> dois.add(ri.getIdentifierValue()));
+        }
+
+        List<String> values = new ArrayList<>(dois);
+        for ( int i = 0 ; i < values.size() ; i += QUERY_SIZE ) {
+            List<Object[]> results = em.createNamedQuery("MetadataSnapshot.findMintedByDoisAndStatus", Object[].class)
+                    .setParameter("dois", values.subList(i, Math.min(i + QUERY_SIZE, values.size())))
+                    .setParameter("status", DOECodeMetadata.Status.Approved)
+                    .getResultList();
+
+            for ( Object[] row : results )
+                approvedDois.merge((String) row[0], Boolean.TRUE.equals(row[1]), Boolean::logicalOr);
+        }
+    }
+
+    /**
+     * Only DOE CODE New/Previous version DOI related identifiers are subject to
+     * indexability rules.
+     *
+     * @param ri the RelatedIdentifier to check
+     * @return true if the identifier needs resolving
+     */
+    private static boolean isTargeted(RelatedIdentifier ri) {
+        return ri.getIdentifierType() == RelatedIdentifier.Type.DOI
+                && (ri.getRelationType() == RelatedIdentifier.RelationType.IsNewVersionOf
+                || ri.getRelationType() == RelatedIdentifier.RelationType.IsPreviousVersionOf);
+    }
+
+    /**
+     * Determine whether or not a related identifier may be indexed.  Unknown
+     * DOIs are kept; DOIs of Approved records are removed unless a minted
+     * version exists.
+     *
+     * @param ri the RelatedIdentifier to check
+     * @return true if it may be indexed, false if not
+     */
+    public boolean isIndexable(RelatedIdentifier ri) {
+        if (!isTargeted(ri))
+            return true;
+
+        Boolean minted = approvedDois.get(ri.getIdentifierValue());
+
+        return null==minted || minted;
+    }
+
+    /**
+     * Remove non-indexable New/Previous RI from metadata.  The record must have
+     * been part of the batch this resolver was created for.
+     *
+     * @param md the Metadata to evaluate.
+     * @return Updated DOECodeMetadata object.
+     * @throws IOException on copy errors
+     */
+    public DOECodeMetadata removeNonIndexableRi(DOECodeMetadata md) throws IOException {
+        // need a detached copy of the RI data
+        DOECodeMetadata alteredMd = new DOECodeMetadata();
+        BeanUtilsBean bean = new BeanUtilsBean();
+
+        try {
+            bean.copyProperties(alteredMd, md);
+        } catch (IllegalAccessException | InvocationTargetException ex) {
+            // log issue, swallow error
+            String msg = "NonIndexable RI Removal Bean Error: " + ex.getMessage();
+            throw new IOException(msg);
+        }
+
+        List<RelatedIdentifier> riList = alteredMd.getRelatedIdentifiers();
+
+        if (null!=riList && !riList.stream().allMatch(this::isIndexable)) {
+            alteredMd.setRelatedIdentifiers(riList.stream()
+                    .filter(this::isIndexable)
+                    .collect(Collectors.toList()));
+        }
+
+        return alteredMd;
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ */
+package gov.osti.indexer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import gov.osti.connectors.LineCounter;
+import gov.osti.connectors.SourceArchive;
+import gov.osti.entity.DOECodeMetadata;
+import gov.osti.entity.LaborEstimate;
+import gov.osti.entity.MetadataSnapshot;
+import gov.osti.listeners.DoeServletContextListener;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.persistence.EntityManager;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Estimates labor hours for Approved records from their uploaded files.
+ *
+ * Each uploaded archive is streamed through a LineCounter, and the lines of
+ * code give a Basic COCOMO (organic mode) estimate of effort, which is stored
+ * as the record's LaborEstimate.  Files are counted on a small pool of
+ * threads, each with its own counter.  At startup every Approved record whose
+ * file has no current estimate is queued; later approvals queue their record
+ * again, and a file that has not changed since its estimate is not re-read.
+ *
+ * Configuration parameters (all optional):
+ * file.uploads - base directory of uploaded files, by CODE ID
+ * codegov.estimate.threads - files counted at once; 0 to disable (default 2)
+ * codegov.estimate.max.mb - most uncompressed megabytes read from one file
+ * (default 2048)
+ */
+public class LaborEstimator {
+    // logger
+    private static final Logger log = LoggerFactory.getLogger(LaborEstimator.class);
+
+    // snapshots read per page while queueing at startup
+    private static final int PAGE_SIZE = 500;
+    // Basic COCOMO organic mode: person-months = A * KSLOC^B
+    private static final double COCOMO_A = 2.4;
+    private static final double COCOMO_B = 1.05;
+    // hours in a COCOMO person-month
+    private static final double HOURS_PER_MONTH = 152;
+
+    private static final String FILE_UPLOADS = DoeServletContextListener.getConfigurationProperty("file.uploads");
+    private static final int THREADS = DoeServletContextListener.getConfigurationProperty("codegov.estimate.threads", 2);
+    private static final long MAX_BYTES = DoeServletContextListener.getConfigurationProperty("codegov.estimate.max.mb", 2048) * 1024L * 1024L;
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    // one counter for each pool thread
+    private static final ThreadLocal<LineCounter> counters = ThreadLocal.withInitial(LineCounter::new);
+
+    // the counting pool, while started
+    private static ExecutorService executor = null;
+    // file names of queued CODE IDs
+    private static final Map<Long, String> pending = new ConcurrentHashMap<>();
+
+    // statistics since startup
+    private static final AtomicLong estimated = new AtomicLong();
+    private static final AtomicLong unchanged = new AtomicLong();
+    private static final AtomicLong failed = new AtomicLong();
+    private static final AtomicLong bytes = new AtomicLong();
+    private static final AtomicLong millis = new AtomicLong();
+
+    private LaborEstimator() {
+    }
+
+    /**
+     * Start the counting pool, and queue every Approved record whose file
+     * has no current estimate.
+     */
+    public static synchronized void start() {
+        if (StringUtils.isBlank(FILE_UPLOADS) || THREADS<1 || null!=executor)
+            return;
+
+        AtomicInteger threads = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(THREADS, r -> {
+            Thread t = new Thread(r, "labor-estimate-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        executor.execute(LaborEstimator::queueAll);
+    }
+
+    /**
+     * Stop counting; queued records are counted again at the next start.
+     */
+    public static synchronized void stop() {
+        if (null==executor)
+            return;
+
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+        pending.clear();
+    }
+
+    /**
+     * Queue a newly-approved record's file to be counted, if running.
+     *
+     * @param md the Approved metadata
+     */
+    public static void approved(DOECodeMetadata md) {
+        if (null!=md.getCodeId() && SourceArchive.isSupported(md.getFileName()))
+            queue(md.getCodeId(), md.getFileName());
+    }
+
+    /**
+     * Queue a file to be counted.  A CODE ID already queued is counted once,
+     * using its latest file name.
+     *
+     * @param codeId the CODE ID
+     * @param fileName the uploaded file name
+     */
+    private static synchronized void queue(Long codeId, String fileName) {
+        if (null!=executor && null==pending.put(codeId, fileName))
+            executor.execute(() -> estimate(codeId));
+    }
+
+    /**
+     * Queue every Approved record with a file lacking a current estimate.
+     */
+    private static void queueAll() {
+        EntityManager em = DoeServletContextListener.createEntityManager();
+        int queued = 0;
+
+        try {
+            Map<Long, LaborEstimate> estimates = new HashMap<>();
+            for ( LaborEstimate estimate : em.createNamedQuery("LaborEstimate.findAll", LaborEstimate.class).getResultList() )
+                estimates.put(estimate.getCodeId(), estimate);
+            em.clear();
+
+            long lastCodeId = 0;
+            while (!Thread.currentThread().isInterrupted()) {
+                List<MetadataSnapshot> page = em.createNamedQuery("MetadataSnapshot.findByStatusAfterCodeId", MetadataSnapshot.class)
+                        .setParameter("status", DOECodeMetadata.Status.Approved)
+                        .setParameter("codeId", lastCodeId)
+                        .setMaxResults(PAGE_SIZE)
+                        .getResultList();
+                if (page.isEmpty())
+                    break;
+
+                for ( MetadataSnapshot snapshot : page ) {
+                    lastCodeId = snapshot.getSnapshotKey().getCodeId();
+
+                    try {
+                        String fileName = DOECodeMetadata.parseJson(new StringReader(snapshot.getJson())).getFileName();
+                        if (!SourceArchive.isSupported(fileName))
+                            continue;
+
+                        BasicFileAttributes attributes = Files.readAttributes(Paths.get(FILE_UPLOADS, String.valueOf(lastCodeId), fileName), BasicFileAttributes.class);
+                        LaborEstimate estimate = estimates.get(lastCodeId);
+                        if (null==estimate || !estimate.isOf(fileName, attributes.size(), new Date(attributes.lastModifiedTime().toMillis()))) {
+                            queue(lastCodeId, fileName);
+                            ++queued;
+                        }
+                    } catch ( NoSuchFileException e ) {
+                        // nothing to count
+                    } catch ( IOException e ) {
+                        log.warn("Unable to check CODE ID " + lastCodeId + " for labor estimate: " + e.getMessage());
+                    }
+                }
+                em.clear();
+            }
+
+            log.info("Labor estimates queued: " + queued);
+        } catch ( RuntimeException e ) {
+            log.warn("Unable to queue labor estimates: " + e.getMessage());
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Count a queued record's file, and store its estimate.
+     *
+     * @param codeId the CODE ID
+     */
+    private static void estimate(Long codeId) {
+        String fileName = pending.remove(codeId);
+        if (null==fileName)
+            return;
+
+        Path file = Paths.get(FILE_UPLOADS, String.valueOf(codeId), fileName);
+        EntityManager em = DoeServletContextListener.createEntityManager();
+
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            Date modified = new Date(attributes.lastModifiedTime().toMillis());
+
+            LaborEstimate previous = em.find(LaborEstimate.class, codeId);
+            if (null!=previous && previous.isOf(fileName, attributes.size(), modified)) {
+                unchanged.incrementAndGet();
+                return;
+            }
+
+            long started = System.currentTimeMillis();
+            LaborEstimate estimate = count(codeId, file, fileName, counters.get(), MAX_BYTES);
+            millis.addAndGet(System.currentTimeMillis() - started);
+
+            em.getTransaction().begin();
+            em.merge(estimate);
+            em.getTransaction().commit();
+
+            // and in code.json, if maintained here
+            CodeGovGenerator.estimated(em, estimate);
+
+            estimated.incrementAndGet();
+        } catch ( NoSuchFileException e ) {
+            // removed since queued
+        } catch ( IOException | RuntimeException e ) {
+            failed.incrementAndGet();
+            log.warn("Unable to estimate labor for CODE ID " + codeId + ": " + e.getMessage());
+        } finally {
+            if (em.getTransaction().isActive())
+                em.getTransaction().rollback();
+            em.close();
+        }
+    }
+
+    /**
+     * Count the source lines in a file, and estimate the labor hours.
+     *
+     * @param codeId the CODE ID
+     * @param file the file
+     * @param fileName the uploaded file name
+     * @param counter the counter to use
+     * @param maxBytes the most uncompressed bytes to read
+     * @return the estimate
+     * @throws IOException on read or archive format errors
+     */
+    public static LaborEstimate count(Long codeId, Path file, String fileName, LineCounter counter, long maxBytes) throws IOException {
+        counter.reset(maxBytes);
+        SourceArchive.count(file, fileName, counter);
+        bytes.addAndGet(counter.getBytes());
+
+        LaborEstimate estimate = new LaborEstimate(codeId, fileName, Files.size(file), new Date(Files.getLastModifiedTime(file).toMillis()));
+        LineCounter.Counts total = counter.getTotal();
+        ObjectNode languages = mapper.createObjectNode();
+
+        counter.getCounts().forEach((name, counts) -> languages.putObject(name)
+                .put("files", counts.getFiles())
+                .put("code", counts.getCode())
+                .put("comment", counts.getComment())
+                .put("blank", counts.getBlank()));
+
+        estimate.setFiles(total.getFiles());
+        estimate.setPhysicalLines(total.getPhysical());
+        estimate.setCodeLines(total.getCode());
+        estimate.setCommentLines(total.getComment());
+        estimate.setBlankLines(total.getBlank());
+        estimate.setLaborHours(laborHours(total.getCode()));
+        estimate.setTruncated(counter.isFull());
+        estimate.setLanguages(languages.toString());
+        estimate.setDateEstimated(new Date());
+
+        return estimate;
+    }
+
+    /**
+     * Estimate labor hours from lines of code.
+     *
+     * @param codeLines the lines of code
+     * @return the estimated hours, to one decimal place
+     */
+    public static double laborHours(long codeLines) {
+        double months = COCOMO_A * Math.pow(codeLines / 1000.0, COCOMO_B);
+
+        return Math.round(months * HOURS_PER_MONTH * 10) / 10.0;
+    }
+
+    /**
+     * Report on estimates.
+     *
+     * @return JSON statistics
+     */
+    public static ObjectNode getStatistics() {
+        boolean running;
+        synchronized (LaborEstimator.class) {
+            running = null!=executor;
+        }
+
+        return mapper.createObjectNode()
+                .put("running", running)
+                .put("pending", pending.size())
+                .put("estimated", estimated.get())
+                .put("unchanged", unchanged.get())
+                .put("failed", failed.get())
+                .put("bytes", bytes.get())
+                .put("counting_ms", millis.get());
+    }
+}
@@ -0,0 +1,710 @@
+/*
+ */
+package gov.osti.indexer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import gov.osti.entity.DOECodeMetadata;
+import gov.osti.entity.MetadataSnapshot;
+import gov.osti.listeners.DoeServletContextListener;
+import gov.osti.search.ResultCache;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rebuild the index from Approved snapshots as a background job.  Jobs may
+ * cover every Approved snapshot, or only those updated since a given date,
+ * owned by a given site, or with specific CODE IDs.
+ *
+ * Snapshots are read a page at a time in CODE ID order, so memory use is
+ * bounded by the batch size rather than the size of the corpus.  Snapshot JSON
+ * is parsed and index documents built on a worker pool, and each page is
+ * posted to the indexer as a single request while the next page is read.
+ *
+ * Documents the index already holds with the same content hash are skipped
+ * rather than re-written, unless the job is forced.
+ *
+ * A rebuild job instead indexes every Approved snapshot into a new SOLR
+ * collection, then indexes the snapshots updated while it ran into the new
+ * collection as well.  Once its document count covers every snapshot Approved
+ * before that catch-up began, the search alias is switched to the new
+ * collection, and the snapshots updated since the catch-up began are indexed
+ * again through the alias.  The previous collection is kept, so the alias may
+ * be pointed back at it (see SolrCollections).  A rebuild that fails
+ * validation or is cancelled deletes its new collection, and leaves the alias,
+ * and searches, untouched.
+ *
+ * Jobs run one at a time, report their progress while running, may be
+ * cancelled, and may be limited to a maximum rate so a reindex does not starve
+ * interactive searches.  The most recent jobs are remembered for status
+ * requests until the application restarts.
+ *
+ * Configuration parameters (all optional):
+ * index.batch.size - snapshots per page and documents per request (default 500)
+ * index.commit.within - milliseconds within which SOLR should commit reindexed
+ * documents (default 10000)
+ * index.reindex.threads - worker threads preparing documents (default number of processors)
+ * index.reindex.rate - default maximum documents per second, 0 for no limit (default 0)
+ */
+public class Reindexer implements Runnable {
+    // logger
+    private static final Logger log = LoggerFactory.getLogger(Reindexer.class);
+
+    // reindex configuration
+    private static final int BATCH_SIZE = DoeServletContextListener.getConfigurationProperty("index.batch.size", 500);
+    private static final int COMMIT_WITHIN = DoeServletContextListener.getConfigurationProperty("index.commit.within", 10000);
+    private static final int THREADS = DoeServletContextListener.getConfigurationProperty("index.reindex.threads", Runtime.getRuntime().availableProcessors());
+    public static final int DEFAULT_RATE = DoeServletContextListener.getConfigurationProperty("index.reindex.rate", 0);
+
+    // number of finished jobs to remember
+    private static final int HISTORY = 20;
+
+    // a JSON mapper for results
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * Reindex job states.
+     */
+    public enum State {
+        Queued,
+        Running,
+        Completed,
+        Cancelled,
+        Failed
+    }
+
+    // known jobs, in order of submission
+    private static final Map<Long, Reindexer> jobs = new LinkedHashMap<>();
+    private static final AtomicLong sequence = new AtomicLong();
+    // runs jobs one at a time
+    private static ExecutorService executor = null;
+
+    // job details
+    private final long id;
+    private final int rate;
+    private final boolean force;
+    private final boolean rebuild;
+    // job scope, if limited
+    private final Date since;
+    private final String site;
+    private final Set<Long> codeIds;
+    private volatile State state = State.Queued;
+    private volatile boolean cancelled = false;
+    private volatile long total = 0;
+    private volatile String error = null;
+    // rebuild collections: the new one, and the one the alias pointed to before
+    private volatile String collection = null;
+    private volatile String previousCollection = null;
+
+    // progress counters
+    private final AtomicLong indexed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong unchanged = new AtomicLong();
+    private volatile long started = 0;
+    private volatile long finished = 0;
+
+    /**
+     * Create a reindex job.
+     *
+     * @param rate maximum documents per second, or 0 for no limit
+     * @param force true to write every document, even if unchanged
+     * @param since if not null, only snapshots updated on or after this date
+     * @param site if not null, only records owned by this site code
+     * @param codeIds if not empty, only these CODE IDs
+     * @param rebuild true to rebuild into a new collection
+     */
+    private Reindexer(int rate, boolean force, Date since, String site, Collection<Long> codeIds, boolean rebuild) {
+        this.id = sequence.incrementAndGet();
+        this.rate = Math.max(0, rate);
+        this.force = force;
+        this.rebuild = rebuild;
+        this.since = since;
+        this.site = site;
+        this.codeIds = (null==codeIds) ? Collections.emptySet() : new TreeSet<>(codeIds);
+    }
+
+    /**
+     * Start a new reindex job in the background, unless one is already
+     * queued or running.  Any combination of limits may be given; with none,
+     * every Approved snapshot is indexed.
+     *
+     * @param rate maximum documents per second, or 0 for no limit
+     * @param force true to write every document, even if unchanged
+     * @param since if not null, only snapshots updated on or after this date
+     * @param site if not null, only records owned by this site code
+     * @param codeIds if not null or empty, only these CODE IDs
+     * @return the new job, or null if another job is still active
+     */
+    public static synchronized Reindexer submit(int rate, boolean force, Date since, String site, Collection<Long> codeIds) {
+        return start(new Reindexer(rate, force, since, site, codeIds, false));
+    }
+
+    /**
+     * Start a new rebuild job in the background, unless another job is
+     * already queued or running.  Requires SolrCollections to be configured.
+     *
+     * @param rate maximum documents per second, or 0 for no limit
+     * @return the new job, or null if another job is still active
+     */
+    public static synchronized Reindexer submitRebuild(int rate) {
+        // a new collection has nothing to compare content hashes against
+        return start(new Reindexer(rate, true, null, null, null, true));
+    }
+
+    /**
+     * Queue a job, unless another is already active.
+     *
+     * @param job the job to run
+     * @return the job, or null if another job is still active
+     */
+    private static Reindexer start(Reindexer job) {
+        if (null!=getActive())
+            return null;
+
+        if (null==executor) {
+            executor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "reindex-job");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        jobs.put(job.getId(), job);
+
+        // forget the oldest finished jobs
+        Iterator<Reindexer> it = jobs.values().iterator();
+        while (jobs.size() > HISTORY && it.hasNext()) {
+            if (!it.next().isActive())
+                it.remove();
+        }
+
+        executor.execute(job);
+
+        return job;
+    }
+
+    /**
+     * Look up a reindex job.
+     *
+     * @param id the job ID
+     * @return the job, or null if not known
+     */
+    public static synchronized Reindexer get(long id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * @return the queued or running job, if any
+     */
+    public static synchronized Reindexer getActive() {
+        return jobs.values().stream().filter(Reindexer::isActive).findFirst().orElse(null);
+    }
+
+    /**
+     * @return all remembered jobs, oldest first
+     */
+    public static synchronized List<Reindexer> list() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    /**
+     * Cancel any active job and stop the job thread.  Called on application
+     * shutdown.
+     */
+    public static synchronized void shutdown() {
+        jobs.values().forEach(Reindexer::cancel);
+
+        if (null!=executor) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Request cancellation of this job; it stops after the page in progress.
+     *
+     * @return true if the job was active, false if already finished
+     */
+    public boolean cancel() {
+        if (!isActive())
+            return false;
+
+        cancelled = true;
+        return true;
+    }
+
+    /**
+     * @return the job ID
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return the current job state
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return true if this job is queued or running
+     */
+    public boolean isActive() {
+        return State.Queued.equals(state) || State.Running.equals(state);
+    }
+
+    /**
+     * Run the job, indexing the Approved snapshots in scope.
+     */
+    @Override
+    public void run() {
+        started = System.currentTimeMillis();
+        state = State.Running;
+
+        EntityManager em = DoeServletContextListener.createEntityManager();
+
+        try {
+            if (rebuild)
+                rebuild(em);
+            else
+                index(em, null, since);
+
+            state = (cancelled) ? State.Cancelled : State.Completed;
+        } catch ( IOException | RuntimeException e ) {
+            error = e.getMessage();
+            state = State.Failed;
+            log.warn("Reindex job " + id + " failed: " + e.getMessage());
+        } finally {
+            finished = System.currentTimeMillis();
+            em.close();
+            // cached search results may no longer match the index
+            ResultCache.invalidateAll();
+        }
+
+        log.info("Reindex job " + id + " " + state + ": " + indexed.get() + " indexed, " + unchanged.get() + " unchanged, " + failed.get() + " failed in " + getSeconds() + " seconds.");
+    }
+
+    /**
+     * Index every Approved snapshot into a new collection, validate it, and
+     * switch the alias over to it.
+     *
+     * @param em the EntityManager to read snapshots with
+     * @throws IOException on SOLR errors, or if the new collection is not
+     * complete
+     */
+    private void rebuild(EntityManager em) throws IOException {
+        if (!SolrCollections.isConfigured())
+            throw new IOException("SOLR collections are not configured.");
+
+        previousCollection = SolrCollections.getAliasedCollection();
+        collection = SolrCollections.create();
+        log.info("Reindex job " + id + " rebuilding into collection " + collection + ".");
+
+        boolean switched = false;
+        try {
+            String url = SolrCollections.getIndexUrl(collection);
+            index(em, url, null);
+
+            // records approved behind the cursor while it ran, such as older
+            // CODE IDs approved for the first time
+            Date caughtUp = new Date();
+            if (!cancelled)
+                index(em, url, new Date(started));
+
+            if (cancelled)
+                return;
+
+            // every snapshot Approved before the catch-up began must be
+            // present before it may be searched; any since then are indexed
+            // through the alias once switched
+            SolrCollections.commit(collection);
+            long approved = getCountQuery(em, null).getSingleResult();
+            long expected = approved - getCountQuery(em, caughtUp).getSingleResult();
+            long count = SolrCollections.count(collection);
+
+            if (failed.get() > 0 || count < expected)
+                throw new IOException("Collection " + collection + " holds " + count + " of " + expected
+                        + " Approved records (" + failed.get() + " failed); alias not switched.");
+
+            SolrCollections.setAlias(collection);
+            switched = true;
+            log.info("Reindex job " + id + " switched alias " + SolrCollections.getAlias() + " from " + previousCollection + " to " + collection + ".");
+
+            // changes indexed since the catch-up began went to the previous collection
+            index(em, null, caughtUp);
+        } finally {
+            if (!switched)
+                discard();
+        }
+    }
+
+    /**
+     * Delete the new collection of a rebuild that did not complete.
+     */
+    private void discard() {
+        try {
+            SolrCollections.delete(collection);
+            log.info("Reindex job " + id + " deleted collection " + collection + ".");
+        } catch ( IOException e ) {
+            log.warn("Reindex job " + id + " unable to delete collection " + collection + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Page through and index the snapshots.
+     *
+     * @param em the EntityManager to read snapshots with
+     * @param url the JSON document URL to send to, or null for the configured
+     * index URL
+     * @param since if not null, only snapshots updated on or after this date
+     * @throws IOException on unrecoverable errors
+     */
+    private void index(EntityManager em, String url, Date since) throws IOException {
+        // small rate limits send smaller batches, to keep the load even
+        int pageSize = (rate > 0) ? Math.min(BATCH_SIZE, rate) : BATCH_SIZE;
+
+        total += getCountQuery(em, since).getSingleResult();
+        TypedQuery<MetadataSnapshot> pageQuery = getPageQuery(em, since)
+                .setMaxResults(pageSize);
+
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, THREADS), r -> {
+            Thread t = new Thread(r, "reindex-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        // the previous page's send, running while the next page is read
+        CompletableFuture<Void> sending = CompletableFuture.completedFuture(null);
+        long queued = 0;
+
+        try {
+            Long lastCodeId = 0L;
+            List<MetadataSnapshot> page;
+
+            while (!cancelled) {
+                page = pageQuery
+                        .setParameter("lastCodeId", lastCodeId)
+                        .getResultList();
+
+                if (page.isEmpty())
+                    break;
+
+                lastCodeId = page.get(page.size() - 1).getSnapshotKey().getCodeId();
+
+                // parse the snapshots in parallel
+                List<Future<DOECodeMetadata>> parsing = new ArrayList<>();
+                for ( MetadataSnapshot snapshot : page ) {
+                    String json = snapshot.getJson();
+                    parsing.add(workers.submit(() -> DOECodeMetadata.parseJson(new StringReader(json))));
+                }
+                int count = page.size();
+
+                // done with these entities; keep the persistence context from growing
+                em.clear();
+                page = null;
+
+                List<DOECodeMetadata> records = new ArrayList<>();
+                for ( Future<DOECodeMetadata> future : parsing ) {
+                    DOECodeMetadata md = getResult(future, "Parse");
+
+                    if (null==md)
+                        failed.incrementAndGet();
+                    else
+                        records.add(md);
+                }
+
+                // resolve related identifiers for the page at once, then
+                // build the documents in parallel
+                IndexabilityResolver resolver = new IndexabilityResolver(em, records);
+                List<Future<ObjectNode>> building = new ArrayList<>();
+                for ( DOECodeMetadata md : records )
+                    building.add(workers.submit(() -> SolrIndexer.toDocument(resolver, md)));
+
+                Map<Long, ObjectNode> documents = new LinkedHashMap<>();
+                for ( int i = 0 ; i < records.size() ; ++i ) {
+                    ObjectNode document = getResult(building.get(i), "Document");
+
+                    if (null==document)
+                        failed.incrementAndGet();
+                    else
+                        documents.put(records.get(i).getCodeId(), document);
+                }
+
+                // hold to the rate limit, if any
+                queued += documents.size();
+                throttle(queued);
+
+                // wait for the prior page to go out before sending this one
+                awaitSend(sending);
+                sending = CompletableFuture.runAsync(() -> send(url, documents), workers);
+
+                if (count < pageSize)
+                    break;
+            }
+
+            awaitSend(sending);
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Restrict a snapshot query to the Approved snapshots in this job's scope.
+     *
+     * @param cb the CriteriaBuilder
+     * @param query the query to restrict
+     * @param snapshot the MetadataSnapshot root of the query
+     * @param since if not null, only snapshots updated on or after this date
+     * @return the restrictions to apply
+     */
+    private List<Predicate> getScope(CriteriaBuilder cb, CriteriaQuery<?> query, Root<MetadataSnapshot> snapshot, Date since) {
+        List<Predicate> scope = new ArrayList<>();
+        Path<Long> codeId = snapshot.get("snapshotKey").get("codeId");
+
+        scope.add(cb.equal(snapshot.get("snapshotKey").get("snapshotStatus"), cb.parameter(DOECodeMetadata.Status.class, "status")));
+
+        if (null!=since)
+            scope.add(cb.greaterThanOrEqualTo(snapshot.get("dateRecordUpdated"), cb.parameter(Date.class, "since")));
+        if (!codeIds.isEmpty())
+            scope.add(codeId.in(codeIds));
+        if (null!=site) {
+            // site ownership is only held on the Metadata record itself
+            Root<DOECodeMetadata> md = query.from(DOECodeMetadata.class);
+
+            scope.add(cb.equal(md.get("codeId"), codeId));
+            scope.add(cb.equal(md.get("siteOwnershipCode"), cb.parameter(String.class, "site")));
+        }
+
+        return scope;
+    }
+
+    /**
+     * Set the scope parameters on a query.
+     *
+     * @param query the query built from getScope restrictions
+     * @param since the date given to getScope
+     * @return the query
+     */
+    private <T> TypedQuery<T> setScope(TypedQuery<T> query, Date since) {
+        query.setParameter("status", DOECodeMetadata.Status.Approved);
+
+        if (null!=since)
+            query.setParameter("since", since);
+        if (null!=site)
+            query.setParameter("site", site);
+
+        return query;
+    }
+
+    /**
+     * Build the query to COUNT the snapshots in scope.
+     *
+     * @param em the EntityManager to query
+     * @param since if not null, only snapshots updated on or after this date
+     * @return the COUNT query
+     */
+    private TypedQuery<Long> getCountQuery(EntityManager em, Date since) {
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<Long> countQuery = cb.createQuery(Long.class);
+        Root<MetadataSnapshot> snapshot = countQuery.from(MetadataSnapshot.class);
+
+        countQuery
+                .select(cb.count(snapshot))
+                .where(getScope(cb, countQuery, snapshot, since).toArray(new Predicate[0]));
+
+        return setScope(em.createQuery(countQuery), since);
+    }
+
+    /**
+     * Build the query for the next page of snapshots in scope, in CODE ID
+     * order, following the "lastCodeId" parameter.
+     *
+     * @param em the EntityManager to query
+     * @param since if not null, only snapshots updated on or after this date
+     * @return the page query
+     */
+    private TypedQuery<MetadataSnapshot> getPageQuery(EntityManager em, Date since) {
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<MetadataSnapshot> rowQuery = cb.createQuery(MetadataSnapshot.class);
+        Root<MetadataSnapshot> snapshot = rowQuery.from(MetadataSnapshot.class);
+        Path<Long> codeId = snapshot.get("snapshotKey").get("codeId");
+
+        List<Predicate> scope = getScope(cb, rowQuery, snapshot, since);
+        scope.add(cb.greaterThan(codeId, cb.parameter(Long.class, "lastCodeId")));
+
+        rowQuery
+                .select(snapshot)
+                .where(scope.toArray(new Predicate[0]))
+                .orderBy(cb.asc(codeId));
+
+        return setScope(em.createQuery(rowQuery), since);
+    }
+
+    /**
+     * Wait as needed so the documents sent so far do not exceed the rate
+     * limit.  Returns early if the job is cancelled.
+     *
+     * @param queued the number of documents sent, including the next batch
+     * @throws IOException if interrupted
+     */
+    private void throttle(long queued) throws IOException {
+        if (0==rate)
+            return;
+
+        long due = started + TimeUnit.SECONDS.toMillis(queued) / rate;
+
+        try {
+            long wait;
+            while (!cancelled && (wait = due - System.currentTimeMillis()) > 0)
+                Thread.sleep(Math.min(wait, 250));
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Reindex interrupted.");
+        }
+    }
+
+    /**
+     * Send a page of documents, counting the results.  Unless forced, those
+     * already indexed unchanged are skipped.
+     *
+     * @param url the JSON document URL to send to, or null for the configured
+     * index URL
+     * @param documents the documents to send, by CODE ID
+     */
+    private void send(String url, Map<Long, ObjectNode> documents) {
+        if (!force && !documents.isEmpty())
+            unchanged.addAndGet(SolrIndexer.removeUnchanged(documents));
+
+        if (documents.isEmpty())
+            return;
+
+        Map<Long, String> errors = new LinkedHashMap<>();
+
+        if (null==url)
+            SolrIndexer.sendAll(documents, errors, COMMIT_WITHIN);
+        else
+            SolrIndexer.sendAll(url, documents, errors, COMMIT_WITHIN);
+
+        indexed.addAndGet(documents.size() - errors.size());
+        failed.addAndGet(errors.size());
+    }
+
+    /**
+     * Obtain the result of a worker task, logging any failure.
+     *
+     * @param future the worker task
+     * @param task a description of the task, for logging
+     * @return the result, or null if the task failed
+     * @throws IOException if interrupted
+     */
+    private static <T> T getResult(Future<T> future, String task) throws IOException {
+        try {
+            return future.get();
+        } catch ( ExecutionException e ) {
+            log.warn("Reindex " + task + " Error: " + e.getCause().getMessage());
+            return null;
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Reindex interrupted.");
+        }
+    }
+
+    /**
+     * Wait for an outstanding page send to complete.
+     *
+     * @param sending the send in progress
+     * @throws IOException if interrupted
+     */
+    private static void awaitSend(CompletableFuture<Void> sending) throws IOException {
+        try {
+            sending.get();
+        } catch ( ExecutionException e ) {
+            log.warn("Reindex Send Error: " + e.getCause().getMessage());
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Reindex interrupted.");
+        }
+    }
+
+    /**
+     * @return elapsed seconds of the job
+     */
+    private double getSeconds() {
+        long end = (0==finished) ? System.currentTimeMillis() : finished;
+
+        return (0==started) ? 0 : (end - started) / 1000.0;
+    }
+
+    /**
+     * Report the progress or results of the job.
+     *
+     * @return JSON job state, counts of documents processed and failed, and
+     * throughput
+     */
+    public ObjectNode getStatistics() {
+        double seconds = getSeconds();
+        long processed = indexed.get() + unchanged.get() + failed.get();
+        double docsPerSecond = (seconds > 0) ? Math.round(processed / seconds * 10) / 10.0 : 0;
+
+        ObjectNode stats = mapper.createObjectNode()
+                .put("job_id", id)
+                .put("state", state.name())
+                .put("total", total)
+                .put("processed", processed)
+                .put("indexed", indexed.get())
+                .put("unchanged", unchanged.get())
+                .put("failed", failed.get())
+                .put("rate_limit", rate)
+                .put("force", force)
+                .put("rebuild", rebuild)
+                .put("seconds", seconds)
+                .put("docs_per_second", docsPerSecond);
+
+        if (null!=since)
+            stats.put("since", since.toInstant().toString());
+        if (null!=collection)
+            stats.put("collection", collection);
+        if (null!=previousCollection)
+            stats.put("previous_collection", previousCollection);
+        if (null!=site)
+            stats.put("site", site);
+        if (!codeIds.isEmpty())
+            codeIds.forEach(stats.putArray("code_ids")::add);
+        if (State.Running.equals(state) && docsPerSecond > 0)
+            stats.put("eta_seconds", Math.round(Math.max(0, total - processed) / docsPerSecond));
+        if (0!=started)
+            stats.put("started", new Date(started).toInstant().toString());
+        if (0!=finished)
+            stats.put("finished", new Date(finished).toInstant().toString());
+        if (null!=error)
+            stats.put("error", error);
+
+        return stats;
+    }
+}
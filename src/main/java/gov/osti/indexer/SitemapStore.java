@@ -0,0 +1,423 @@
+/*
+ */
+package gov.osti.indexer;
+
+import gov.osti.entity.DOECodeMetadata;
+import gov.osti.listeners.DoeServletContextListener;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import javax.persistence.EntityManager;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pre-generated Google sitemap files, gzip-compressed on disk.
+ *
+ * Sitemap pages list up to 20,000 Approved records each, in CODE ID order,
+ * with the sitemap index giving each page's most recent change.  The CODE ID
+ * and last update of every Approved record are read from the snapshot table
+ * in the background at startup, and all files written; afterwards, approvals
+ * rewrite only the page holding the record (and any after it, if its
+ * position moved) and the index, a few seconds later so that bursts of
+ * approvals are written together.  Files are replaced atomically, so readers
+ * always see a complete sitemap.  If the startup load fails, it is tried again
+ * after a delay that doubles with each failure, up to an hour.
+ *
+ * Configuration parameters (optional):
+ * sitemap.path - directory for the sitemap files (default a "doecode-sitemap"
+ * directory in the system temporary directory)
+ */
+public class SitemapStore {
+    // logger
+    private static final Logger log = LoggerFactory.getLogger(SitemapStore.class);
+
+    // records listed per sitemap page
+    public static final int MAX_RECORDS_PER_PAGE = 20000;
+    // snapshots read per query while loading
+    private static final int PAGE_SIZE = 5000;
+    // seconds to wait after an approval, gathering others, before writing
+    private static final int WRITE_DELAY = 5;
+    // seconds to wait before first retrying a failed load, and at most
+    private static final int RETRY_DELAY = 30;
+    private static final int MAX_RETRY_DELAY = 3600;
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd").withZone(ZoneId.systemDefault());
+    private static final String SITE_URL = DoeServletContextListener.getConfigurationProperty("site.url");
+    private static final String SITEMAP_PATH = DoeServletContextListener.getConfigurationProperty("sitemap.path");
+
+    // the shared store, and its background writer
+    private static SitemapStore instance = null;
+    private static ScheduledExecutorService executor = null;
+
+    private final Path directory;
+    private final String siteUrl;
+    // last update of each Approved record, by CODE ID; guarded by this
+    private final TreeMap<Long, Date> records = new TreeMap<>();
+    // pages needing to be written; guarded by this
+    private final SortedSet<Integer> dirty = new TreeSet<>();
+    // true if anything is to be written; guarded by this
+    private boolean changed = false;
+    // number of pages last written; guarded by this
+    private int written = 0;
+    // true while a write is scheduled; guarded by this
+    private boolean scheduled = false;
+    // true once all records have been loaded; guarded by this
+    private boolean loaded = false;
+    // true once the loaded records have been written
+    private volatile boolean ready = false;
+
+    /**
+     * Create a store.
+     *
+     * @param directory the directory for sitemap files
+     * @param siteUrl the base URL of the front-end site
+     * @throws IOException if the directory cannot be created
+     */
+    public SitemapStore(Path directory, String siteUrl) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.siteUrl = siteUrl;
+    }
+
+    /**
+     * @return the shared store, or null if not started
+     */
+    public static synchronized SitemapStore getInstance() {
+        return instance;
+    }
+
+    /**
+     * Open the shared store, writing its files from Approved snapshots in the
+     * background.
+     */
+    public static synchronized void start() {
+        if (null!=executor)
+            return;
+
+        try {
+            instance = new SitemapStore(StringUtils.isBlank(SITEMAP_PATH) ?
+                    Paths.get(System.getProperty("java.io.tmpdir"), "doecode-sitemap") : Paths.get(SITEMAP_PATH), SITE_URL);
+        } catch ( IOException e ) {
+            log.warn("Unable to open sitemap store: " + e.getMessage());
+            return;
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "sitemap-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        final SitemapStore store = instance;
+        executor.execute(() -> load(store, RETRY_DELAY));
+    }
+
+    /**
+     * Stop any load or write in progress; sitemap files remain as last written.
+     */
+    public static synchronized void stop() {
+        if (null==executor)
+            return;
+
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+        instance = null;
+    }
+
+    /**
+     * Note a newly-approved record in the shared store, if running.
+     *
+     * @param md the Approved metadata
+     */
+    public static void approved(DOECodeMetadata md) {
+        SitemapStore store = getInstance();
+
+        if (null!=store && null!=md.getCodeId())
+            store.put(md.getCodeId(), (null==md.getDateRecordUpdated()) ? new Date() : md.getDateRecordUpdated());
+    }
+
+    /**
+     * Read the CODE ID and last update of every Approved snapshot, a page at
+     * a time, then write every sitemap file.  On failure, try again later.
+     *
+     * @param store the store to load
+     * @param retryDelay seconds to wait before retrying, if this fails
+     */
+    private static void load(SitemapStore store, int retryDelay) {
+        EntityManager em = DoeServletContextListener.createEntityManager();
+        long started = System.currentTimeMillis();
+        TreeMap<Long, Date> found = new TreeMap<>();
+        long lastCodeId = 0;
+
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                List<Object[]> page = em.createNamedQuery("MetadataSnapshot.findDatesByStatusAfterCodeId", Object[].class)
+                        .setParameter("status", DOECodeMetadata.Status.Approved)
+                        .setParameter("codeId", lastCodeId)
+                        .setMaxResults(PAGE_SIZE)
+                        .getResultList();
+
+                if (page.isEmpty())
+                    break;
+
+                for ( Object[] row : page ) {
+                    lastCodeId = (Long) row[0];
+                    found.put(lastCodeId, (null==row[1]) ? new Date() : (Date) row[1]);
+                }
+            }
+            if (Thread.currentThread().isInterrupted())
+                return;
+
+            store.replace(found);
+            store.write();
+
+            log.info("Sitemap written: " + found.size() + " records in " + (System.currentTimeMillis() - started) + " ms.");
+        } catch ( IOException | RuntimeException e ) {
+            log.warn("Sitemap load failed, retrying in " + retryDelay + " seconds: " + e.getMessage());
+            retry(store, retryDelay);
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Schedule the load again, if the store is still open.
+     *
+     * @param store the store to load
+     * @param delay seconds to wait
+     */
+    private static synchronized void retry(SitemapStore store, int delay) {
+        if (null!=executor && store==instance && !Thread.currentThread().isInterrupted())
+            executor.schedule(() -> load(store, Math.min(delay * 2, MAX_RETRY_DELAY)), delay, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Replace all records, marking every page to be written.  Records put
+     * while first loading are kept.
+     *
+     * @param updates the last update of each Approved record, by CODE ID
+     */
+    public synchronized void replace(Map<Long, Date> updates) {
+        Map<Long, Date> approved = (loaded) ? new TreeMap<>() : new TreeMap<>(records);
+
+        records.clear();
+        records.putAll(updates);
+        records.putAll(approved);
+        changed = true;
+        loaded = true;
+        dirty.clear();
+        for ( int page = 1 ; page <= getPageCount() ; ++page )
+            dirty.add(page);
+    }
+
+    /**
+     * Add or update a record, and schedule its page to be written.
+     *
+     * @param codeId the CODE ID
+     * @param updated when the record last changed
+     */
+    public synchronized void put(Long codeId, Date updated) {
+        boolean added = (null==records.put(codeId, updated));
+        int page = records.headMap(codeId).size() / MAX_RECORDS_PER_PAGE + 1;
+
+        changed = true;
+        dirty.add(page);
+        // a new record before others moves every later one along
+        if (added && !codeId.equals(records.lastKey()))
+            for ( int later = page + 1 ; later <= getPageCount() ; ++later )
+                dirty.add(later);
+
+        // until loaded, approvals are written along with everything else
+        if (loaded && null!=executor && !scheduled) {
+            scheduled = true;
+            executor.schedule(this::writeQuietly, WRITE_DELAY, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * @return the number of sitemap pages needed
+     */
+    private int getPageCount() {
+        return (records.size() + MAX_RECORDS_PER_PAGE - 1) / MAX_RECORDS_PER_PAGE;
+    }
+
+    /**
+     * Write any changed pages, logging rather than throwing errors.
+     */
+    private void writeQuietly() {
+        try {
+            write();
+        } catch ( IOException e ) {
+            log.warn("Sitemap write failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Write changed pages, remove any no longer needed, and write the index.
+     *
+     * @throws IOException on file errors
+     */
+    public void write() throws IOException {
+        Map<Integer, List<Map.Entry<Long, Date>>> pages = new TreeMap<>();
+        List<Date> lastModified = new ArrayList<>();
+        int previous;
+        boolean complete;
+
+        // copy what is needed, so approvals are not held up while writing
+        synchronized (this) {
+            scheduled = false;
+            if (!changed)
+                return;
+
+            int index = 0;
+            for ( Map.Entry<Long, Date> entry : records.entrySet() ) {
+                int page = index++ / MAX_RECORDS_PER_PAGE + 1;
+
+                if (lastModified.size() < page)
+                    lastModified.add(entry.getValue());
+                else if (lastModified.get(page - 1).before(entry.getValue()))
+                    lastModified.set(page - 1, entry.getValue());
+
+                if (dirty.contains(page))
+                    pages.computeIfAbsent(page, k -> new ArrayList<>(MAX_RECORDS_PER_PAGE))
+                            .add(new AbstractMap.SimpleImmutableEntry<>(entry));
+            }
+            previous = written;
+            written = lastModified.size();
+            dirty.clear();
+            changed = false;
+            complete = loaded;
+        }
+
+        for ( Map.Entry<Integer, List<Map.Entry<Long, Date>>> page : pages.entrySet() )
+            writePage(page.getKey(), page.getValue());
+        for ( int page = lastModified.size() + 1 ; page <= previous ; ++page )
+            Files.deleteIfExists(getPageFile(page));
+        writeIndex(lastModified);
+        ready = complete;
+    }
+
+    /**
+     * @return true once the sitemap files have been written from all records
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * @param page the page number
+     * @return true if the page is part of the sitemap as last written
+     */
+    public synchronized boolean hasPage(long page) {
+        return page >= 1 && page <= written;
+    }
+
+    /**
+     * @return the sitemap index file
+     */
+    public Path getIndexFile() {
+        return directory.resolve("sitemap.xml.gz");
+    }
+
+    /**
+     * @param page the page number, starting at 1
+     * @return the sitemap page file
+     */
+    public Path getPageFile(long page) {
+        return directory.resolve("sitemap-" + page + ".xml.gz");
+    }
+
+    /**
+     * Write a sitemap page.
+     *
+     * @param page the page number
+     * @param entries the page's records
+     * @throws IOException on file errors
+     */
+    private void writePage(int page, List<Map.Entry<Long, Date>> entries) throws IOException {
+        replaceFile(getPageFile(page), out -> {
+            out.write("<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">");
+            for ( Map.Entry<Long, Date> entry : entries ) {
+                out.write("<url>");
+                out.write("<loc>" + siteUrl + "/biblio/" + entry.getKey() + "</loc>");
+                out.write("<lastmod>" + DATE_FORMATTER.format(entry.getValue().toInstant()) + "</lastmod>");
+                out.write("<changefreq>monthly</changefreq>");
+                out.write("<priority>0.5</priority>");
+                out.write("</url>");
+            }
+            out.write("</urlset>");
+        });
+    }
+
+    /**
+     * Write the sitemap index.
+     *
+     * @param lastModified the most recent change on each page
+     * @throws IOException on file errors
+     */
+    private void writeIndex(List<Date> lastModified) throws IOException {
+        replaceFile(getIndexFile(), out -> {
+            out.write("<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">");
+            for ( int i = 0 ; i < lastModified.size() ; ++i ) {
+                out.write("<sitemap>");
+                out.write("<loc>" + siteUrl + "api/services/sitemap/xml/" + (i + 1) + "</loc>");
+                out.write("<lastmod>" + DATE_FORMATTER.format(lastModified.get(i).toInstant()) + "</lastmod>");
+                out.write("</sitemap>");
+            }
+            out.write("</sitemapindex>");
+        });
+    }
+
+    /**
+     * Content for a sitemap file.
+     */
+    private interface Content {
+        void write(Writer out) throws IOException;
+    }
+
+    /**
+     * Write a gzip-compressed file alongside, then move it into place.
+     *
+     * @param target the file to replace
+     * @param content the content to write
+     * @throws IOException on file errors
+     */
+    private void replaceFile(Path target, Content content) throws IOException {
+        Path temp = Files.createTempFile(directory, "sitemap", ".tmp");
+
+        try {
+            try (OutputStream file = Files.newOutputStream(temp);
+                 Writer out = new OutputStreamWriter(new GZIPOutputStream(file, 65536), StandardCharsets.UTF_8)) {
+                content.write(out);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ */
+package gov.osti.indexer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gov.osti.listeners.DoeServletContextListener;
+import gov.osti.search.SolrClient;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Manage SOLR (cloud mode) collections for blue/green index rebuilds.
+ *
+ * Searching and indexing URLs address an alias rather than a collection; a
+ * rebuild indexes into a new collection, then points the alias at it in one
+ * step.  Previous collections are left in place, so the alias may be pointed
+ * back at one to roll back; a rebuild that does not complete deletes its new
+ * collection.
+ *
+ * Configuration parameters (all required to enable rebuilds):
+ * search.collections.url - the SOLR Collections API URL (e.g.,
+ * http://localhost:8983/solr/admin/collections)
+ * search.alias - the alias named by search.url and index.url (e.g., doecode)
+ * search.configset - the SOLR configset used to create new collections
+ */
+public class SolrCollections {
+    // SOLR Collections API configuration
+    private static final String COLLECTIONS_URL = DoeServletContextListener.getConfigurationProperty("search.collections.url");
+    private static final String ALIAS = DoeServletContextListener.getConfigurationProperty("search.alias");
+    private static final String CONFIGSET = DoeServletContextListener.getConfigurationProperty("search.configset");
+    // collection administration may be slow
+    private static final int TIMEOUT = DoeServletContextListener.getConfigurationProperty("index.timeout", 60000);
+
+    // suffix for new collection names
+    private static final DateTimeFormatter COLLECTION_SUFFIX = DateTimeFormatter.ofPattern("yyyyMMddHHmmss").withZone(ZoneOffset.UTC);
+
+    // a JSON mapper for responses
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private static final RequestConfig REQUEST_CONFIG = RequestConfig
+            .custom()
+            .setSocketTimeout(TIMEOUT)
+            .setConnectTimeout(TIMEOUT)
+            .setConnectionRequestTimeout(TIMEOUT)
+            .build();
+
+    private SolrCollections() {
+    }
+
+    /**
+     * Determine whether or not blue/green rebuilds are configured.
+     *
+     * @return true if the Collections API, alias, and configset are configured
+     */
+    public static boolean isConfigured() {
+        return !"".equals(COLLECTIONS_URL) && !"".equals(ALIAS) && !"".equals(CONFIGSET);
+    }
+
+    /**
+     * @return the alias searches and indexing address
+     */
+    public static String getAlias() {
+        return ALIAS;
+    }
+
+    /**
+     * Create a new, empty collection for a rebuild.
+     *
+     * @return the name of the new collection
+     * @throws IOException on SOLR errors
+     */
+    public static String create() throws IOException {
+        String name = ALIAS + "_" + COLLECTION_SUFFIX.format(ZonedDateTime.now());
+
+        admin(new URIBuilder()
+                .addParameter("action", "CREATE")
+                .addParameter("name", name)
+                .addParameter("collection.configName", CONFIGSET)
+                .addParameter("numShards", "1"));
+
+        return name;
+    }
+
+    /**
+     * Delete a collection, such as one left by a failed rebuild.
+     *
+     * @param collection the collection name
+     * @throws IOException on SOLR errors
+     */
+    public static void delete(String collection) throws IOException {
+        admin(new URIBuilder()
+                .addParameter("action", "DELETE")
+                .addParameter("name", collection));
+    }
+
+    /**
+     * Determine which collection the alias currently points at.
+     *
+     * @return the collection name, or null if the alias does not exist
+     * @throws IOException on SOLR errors
+     */
+    public static String getAliasedCollection() throws IOException {
+        JsonNode response = admin(new URIBuilder()
+                .addParameter("action", "LISTALIASES"));
+
+        return response.path("aliases").path(ALIAS).textValue();
+    }
+
+    /**
+     * Point the alias at a collection, replacing any previous one atomically.
+     *
+     * @param collection the collection name
+     * @throws IOException on SOLR errors
+     */
+    public static void setAlias(String collection) throws IOException {
+        admin(new URIBuilder()
+                .addParameter("action", "CREATEALIAS")
+                .addParameter("name", ALIAS)
+                .addParameter("collections", collection));
+    }
+
+    /**
+     * List the existing collections.
+     *
+     * @return the collection names
+     * @throws IOException on SOLR errors
+     */
+    public static List<String> list() throws IOException {
+        List<String> collections = new ArrayList<>();
+
+        admin(new URIBuilder()
+                .addParameter("action", "LIST"))
+                .path("collections")
+                .forEach(c -> collections.add(c.asText()));
+
+        return collections;
+    }
+
+    /**
+     * Obtain the JSON document update URL of a collection.
+     *
+     * @param collection the collection name
+     * @return the URL to index documents into that collection
+     */
+    public static String getIndexUrl(String collection) {
+        return getSolrUrl() + "/" + collection + "/update/json/docs";
+    }
+
+    /**
+     * Commit any pending changes in a collection.
+     *
+     * @param collection the collection name
+     * @throws IOException on SOLR errors
+     */
+    public static void commit(String collection) throws IOException {
+        request(getSolrUrl() + "/" + collection + "/update", new URIBuilder()
+                .addParameter("commit", "true"));
+    }
+
+    /**
+     * Count the documents in a collection.
+     *
+     * @param collection the collection name
+     * @return the number of documents
+     * @throws IOException on SOLR errors
+     */
+    public static long count(String collection) throws IOException {
+        return request(getSolrUrl() + "/" + collection + "/select", new URIBuilder()
+                .addParameter("q", "*:*")
+                .addParameter("rows", "0"))
+                .path("response")
+                .path("numFound")
+                .asLong();
+    }
+
+    /**
+     * @return the base SOLR URL, from the Collections API URL
+     */
+    private static String getSolrUrl() {
+        return COLLECTIONS_URL.replaceFirst("/admin/collections/?(\\?.*)?$", "");
+    }
+
+    /**
+     * Issue a Collections API request.
+     *
+     * @param params the request parameters
+     * @return the JSON response
+     * @throws IOException on SOLR errors
+     */
+    private static JsonNode admin(URIBuilder params) throws IOException {
+        return request(COLLECTIONS_URL, params);
+    }
+
+    /**
+     * Issue a SOLR request.
+     *
+     * @param url the URL to request
+     * @param params the request parameters
+     * @return the JSON response
+     * @throws IOException on SOLR errors
+     */
+    private static JsonNode request(String url, URIBuilder params) throws IOException {
+        try {
+            URIBuilder builder = new URIBuilder(url)
+                    .addParameters(params.getQueryParams())
+                    .setParameter("wt", "json");
+
+            HttpGet get = new HttpGet(builder.build());
+            get.setConfig(REQUEST_CONFIG);
+
+            try (CloseableHttpResponse response = SolrClient.getClient().execute(get)) {
+                String text = EntityUtils.toString(response.getEntity());
+
+                if (HttpStatus.SC_OK!=response.getStatusLine().getStatusCode())
+                    throw new IOException("SOLR Collection Error: " + text);
+
+                return mapper.readTree(text);
+            }
+        } catch ( URISyntaxException e ) {
+            throw new IOException("Invalid SOLR URL: " + e.getMessage());
+        }
+    }
+}
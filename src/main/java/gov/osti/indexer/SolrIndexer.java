@@ -0,0 +1,490 @@
+/*
+ */
+package gov.osti.indexer;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import gov.osti.entity.Agent;
+import gov.osti.entity.DOECodeMetadata;
+import gov.osti.listeners.DoeServletContextListener;
+import gov.osti.search.SolrClient;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.stream.Collectors;
+import javax.persistence.EntityManager;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.http.HttpStatus;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Construct index documents from Metadata, and send them to the configured
+ * indexing service (e.g., SOLR).
+ *
+ * Each document carries a contentHash of its indexed content, so the index may
+ * be compared against the database without re-sending documents, and batches
+ * may skip writing documents the index already holds unchanged.
+ *
+ * Requests share the pooled SolrClient connections, with indexing-specific
+ * timeouts (index.timeout, in milliseconds; default 60000).  Deletions and
+ * atomic (partial) updates are posted to the SOLR update handler
+ * (index.update.url), derived from index.url if not configured.
+ */
+public class SolrIndexer {
+    // logger
+    private static final Logger log = LoggerFactory.getLogger(SolrIndexer.class);
+
+    // URL to indexer services, if configured
+    private static final String INDEX_URL = DoeServletContextListener.getConfigurationProperty("index.url");
+    // URL to search services, for looking up indexed content hashes
+    private static final String SEARCH_URL = DoeServletContextListener.getConfigurationProperty("search.url");
+    // URL to the SOLR update handler, if configured
+    private static final String UPDATE_URL = DoeServletContextListener.getConfigurationProperty("index.update.url");
+    // timeout for indexing requests
+    private static final int INDEX_TIMEOUT = DoeServletContextListener.getConfigurationProperty("index.timeout", 60000);
+
+    // index document field holding the content hash
+    public static final String CONTENT_HASH = "contentHash";
+    // indexed related identifier fields, for partial updates
+    private static final String[] RELATED_IDENTIFIER_FIELDS = {"identifierType", "identifierValue", "relationType"};
+
+    // ObjectMapper specifically for indexing purposes
+    protected static final ObjectMapper index_mapper = new ObjectMapper()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .setTimeZone(TimeZone.getDefault());
+    static {
+        // customized serializer module for Agent names consolidation
+        SimpleModule module = new SimpleModule();
+        module.addSerializer(Agent.class, new AgentSerializer());
+        index_mapper.registerModule(module);
+    }
+
+    // indexing requests allow more time than interactive searches
+    private static final RequestConfig INDEX_REQUEST_CONFIG = RequestConfig
+            .custom()
+            .setSocketTimeout(INDEX_TIMEOUT)
+            .setConnectTimeout(INDEX_TIMEOUT)
+            .setConnectionRequestTimeout(INDEX_TIMEOUT)
+            .build();
+
+    private SolrIndexer() {
+    }
+
+    /**
+     * Determine whether or not an indexing service is configured.
+     *
+     * @return true if indexing is configured, false if not
+     */
+    public static boolean isConfigured() {
+        return !"".equals(INDEX_URL);
+    }
+
+    /**
+     * Remove non-indexable New/Previous RI from metadata.  DOE CODE DOIs of
+     * Approved records that have not been minted (no release date) are not
+     * indexable.
+     *
+     * @param em the EntityManager to use for lookups
+     * @param md the Metadata to evaluate.
+     * @return Updated DOECodeMetadata object.
+     * @throws IOException on copy errors
+     */
+    public static DOECodeMetadata removeNonIndexableRi(EntityManager em, DOECodeMetadata md) throws IOException {
+        return new IndexabilityResolver(em, Collections.singletonList(md)).removeNonIndexableRi(md);
+    }
+
+    /**
+     * Construct the index document for a given Metadata record.
+     *
+     * @param em the EntityManager to use for lookups
+     * @param md the Metadata to index
+     * @return the JSON document to send to the indexer
+     * @throws IOException on processing errors
+     */
+    public static ObjectNode toDocument(EntityManager em, DOECodeMetadata md) throws IOException {
+        return toDocument(new IndexabilityResolver(em, Collections.singletonList(md)), md);
+    }
+
+    /**
+     * Construct the index document for a Metadata record, as part of a batch.
+     *
+     * @param resolver related identifier indexability for the batch
+     * @param md the Metadata to index
+     * @return the JSON document to send to the indexer
+     * @throws IOException on processing errors
+     */
+    public static ObjectNode toDocument(IndexabilityResolver resolver, DOECodeMetadata md) throws IOException {
+        // do not index DOE CODE New/Previous DOI related identifiers if Approved without a Release Date
+        DOECodeMetadata indexableMd = resolver.removeNonIndexableRi(md);
+
+        ObjectNode node = (ObjectNode)index_mapper.valueToTree(indexableMd);
+        // add JSON String to index for later display/search
+        node.put("json", indexableMd.toJson().toString());
+        // identify this exact content, for later comparison
+        node.put(CONTENT_HASH, DigestUtils.sha256Hex(node.toString()));
+
+        return node;
+    }
+
+    /**
+     * Obtain the content hash of an index document.
+     *
+     * @param document the index document
+     * @return the content hash, or null if none
+     */
+    public static String getContentHash(ObjectNode document) {
+        return document.path(CONTENT_HASH).textValue();
+    }
+
+    /**
+     * Look up the content hashes of documents currently in the index.
+     *
+     * @param codeIds the CODE IDs to look up
+     * @return content hashes by CODE ID, for those indexed with one
+     * @throws IOException if the search service could not be reached
+     */
+    public static Map<Long, String> getIndexedHashes(Collection<Long> codeIds) throws IOException {
+        Map<Long, String> hashes = new HashMap<>();
+
+        if ("".equals(SEARCH_URL) || codeIds.isEmpty())
+            return hashes;
+
+        try {
+            URIBuilder builder = new URIBuilder(SEARCH_URL)
+                    .addParameter("q", "*:*")
+                    .addParameter("fq", "codeId:(" + codeIds.stream().map(String::valueOf).collect(Collectors.joining(" OR ")) + ")")
+                    .addParameter("fl", "codeId," + CONTENT_HASH)
+                    .addParameter("rows", String.valueOf(codeIds.size()));
+
+            HttpGet get = new HttpGet(builder.build());
+
+            try (CloseableHttpResponse response = SolrClient.getClient().execute(get)) {
+                String text = EntityUtils.toString(response.getEntity());
+
+                if ( HttpStatus.SC_OK!=response.getStatusLine().getStatusCode() )
+                    throw new IOException("Index Hash Lookup Error: " + text);
+
+                for ( JsonNode doc : index_mapper.readTree(text).path("response").path("docs") ) {
+                    if (doc.hasNonNull(CONTENT_HASH))
+                        hashes.put(doc.path("codeId").asLong(), doc.path(CONTENT_HASH).textValue());
+                }
+            }
+        } catch ( URISyntaxException e ) {
+            throw new IOException("Invalid search URL: " + e.getMessage());
+        }
+
+        return hashes;
+    }
+
+    /**
+     * Remove documents from a batch that the index already holds with the same
+     * content, so they are not written again.  If the index cannot be
+     * consulted, nothing is removed.
+     *
+     * @param documents the documents to send, by CODE ID; modified in place
+     * @return the number of unchanged documents removed
+     */
+    public static int removeUnchanged(Map<Long, ObjectNode> documents) {
+        Map<Long, String> hashes;
+
+        try {
+            hashes = getIndexedHashes(documents.keySet());
+        } catch ( IOException e ) {
+            log.warn("Unable to check indexed content, sending all: " + e.getMessage());
+            return 0;
+        }
+
+        return removeUnchanged(documents, hashes);
+    }
+
+    /**
+     * Remove documents from a batch whose content hash matches the one indexed.
+     *
+     * @param documents the documents to send, by CODE ID; modified in place
+     * @param hashes the indexed content hashes, by CODE ID
+     * @return the number of unchanged documents removed
+     */
+    static int removeUnchanged(Map<Long, ObjectNode> documents, Map<Long, String> hashes) {
+        int before = documents.size();
+
+        documents.entrySet().removeIf(entry -> {
+            String hash = hashes.get(entry.getKey());
+            return null!=hash && hash.equals(getContentHash(entry.getValue()));
+        });
+
+        return before - documents.size();
+    }
+
+    /**
+     * Construct a SOLR atomic update from a full index document, replacing only
+     * its related identifiers, stored JSON, and content hash.  The update only
+     * applies to a document already in the index.
+     *
+     * @param document the full index document
+     * @return the partial update document
+     */
+    public static ObjectNode toRelatedIdentifiersUpdate(ObjectNode document) {
+        ObjectNode update = index_mapper.createObjectNode();
+
+        update.set("codeId", document.get("codeId"));
+        // only update an existing document; never create a partial one
+        update.put("_version_", 1);
+
+        // flatten related identifiers as the JSON document handler would
+        for ( String field : RELATED_IDENTIFIER_FIELDS ) {
+            ArrayNode values = index_mapper.createArrayNode();
+
+            for ( JsonNode ri : document.path("relatedIdentifiers") )
+                if (ri.hasNonNull(field))
+                    values.add(ri.get(field));
+
+            ObjectNode set = update.putObject("relatedIdentifiers." + field);
+            if (0==values.size())
+                set.putNull("set");
+            else
+                set.set("set", values);
+        }
+        update.putObject("json").set("set", document.get("json"));
+        update.putObject(CONTENT_HASH).set("set", document.get(CONTENT_HASH));
+
+        return update;
+    }
+
+    /**
+     * Delete documents from the index by CODE ID.
+     *
+     * @param codeIds the CODE IDs to remove
+     * @param commitWithin milliseconds within which SOLR should commit, or 0
+     * to use the configured URL as-is
+     * @throws IOException if the indexer could not be reached, or rejected the
+     * request
+     */
+    public static void delete(Collection<Long> codeIds, int commitWithin) throws IOException {
+        if (!isConfigured() || codeIds.isEmpty())
+            return;
+
+        ObjectNode request = index_mapper.createObjectNode();
+        codeIds.forEach(request.putArray("delete")::add);
+
+        post(getUpdateUrl(), request, commitWithin);
+    }
+
+    /**
+     * Send one or more documents to the indexing service in a single request.
+     * If commitWithin is given, any commit parameters on the configured URL are
+     * replaced so SOLR may fold many batches into one commit.
+     *
+     * @param documents the index documents to send
+     * @param commitWithin milliseconds within which SOLR should commit, or 0
+     * to use the configured URL as-is
+     * @throws IOException if the indexer could not be reached, or rejected the
+     * request
+     */
+    public static void send(List<ObjectNode> documents, int commitWithin) throws IOException {
+        send(INDEX_URL, documents, commitWithin);
+    }
+
+    /**
+     * Send one or more documents to a given JSON document URL in a single
+     * request.
+     *
+     * @param url the JSON document URL to post to
+     * @param documents the index documents to send
+     * @param commitWithin milliseconds within which SOLR should commit, or 0
+     * to use the URL as-is
+     * @throws IOException if the indexer could not be reached, or rejected the
+     * request
+     */
+    private static void send(String url, List<ObjectNode> documents, int commitWithin) throws IOException {
+        if ("".equals(url) || documents.isEmpty())
+            return;
+
+        if (1==documents.size())
+            post(url, documents.get(0), commitWithin);
+        else
+            post(url, index_mapper.createArrayNode().addAll(documents), commitWithin);
+    }
+
+    /**
+     * Send one or more atomic updates to the SOLR update handler in a single
+     * request.
+     *
+     * @param updates the partial update documents to send
+     * @param commitWithin milliseconds within which SOLR should commit, or 0
+     * to use the configured URL as-is
+     * @throws IOException if the indexer could not be reached, or rejected the
+     * request
+     */
+    public static void sendUpdates(List<ObjectNode> updates, int commitWithin) throws IOException {
+        if (!isConfigured() || updates.isEmpty())
+            return;
+
+        post(getUpdateUrl(), index_mapper.createArrayNode().addAll(updates), commitWithin);
+    }
+
+    /**
+     * Send a batch of documents; if the batch is rejected, fall back to
+     * sending individually so one bad record does not hold up the others.
+     *
+     * @param documents the documents to send, by CODE ID
+     * @param errors failure messages by CODE ID, added to on failure
+     * @param commitWithin milliseconds within which SOLR should commit, or 0
+     * to use the configured URL as-is
+     */
+    public static void sendAll(Map<Long, ObjectNode> documents, Map<Long, String> errors, int commitWithin) {
+        sendEach(INDEX_URL, documents, errors, commitWithin, false);
+    }
+
+    /**
+     * Send a batch of documents to a given JSON document URL, such as that of
+     * a collection being rebuilt, rather than the configured index URL.
+     *
+     * @param url the JSON document URL to post to
+     * @param documents the documents to send, by CODE ID
+     * @param errors failure messages by CODE ID, added to on failure
+     * @param commitWithin milliseconds within which SOLR should commit, or 0
+     * to use the URL as-is
+     */
+    public static void sendAll(String url, Map<Long, ObjectNode> documents, Map<Long, String> errors, int commitWithin) {
+        sendEach(url, documents, errors, commitWithin, false);
+    }
+
+    /**
+     * Send a batch of atomic updates; if the batch is rejected, fall back to
+     * sending individually so one bad record does not hold up the others.
+     *
+     * @param updates the partial update documents to send, by CODE ID
+     * @param errors failure messages by CODE ID, added to on failure
+     * @param commitWithin milliseconds within which SOLR should commit, or 0
+     * to use the configured URL as-is
+     */
+    public static void sendAllUpdates(Map<Long, ObjectNode> updates, Map<Long, String> errors, int commitWithin) {
+        sendEach(getUpdateUrl(), updates, errors, commitWithin, true);
+    }
+
+    /**
+     * Send a batch of documents or updates, individually if the batch fails.
+     *
+     * @param url the URL to post to
+     * @param documents the documents to send, by CODE ID
+     * @param errors failure messages by CODE ID, added to on failure
+     * @param commitWithin milliseconds within which SOLR should commit
+     * @param partial true if these are atomic updates, false for documents
+     */
+    private static void sendEach(String url, Map<Long, ObjectNode> documents, Map<Long, String> errors, int commitWithin, boolean partial) {
+        if ("".equals(url) || documents.isEmpty())
+            return;
+
+        try {
+            if (partial)
+                post(url, index_mapper.createArrayNode().addAll(documents.values()), commitWithin);
+            else
+                send(url, new ArrayList<>(documents.values()), commitWithin);
+            return;
+        } catch ( IOException e ) {
+            if (documents.size() < 2) {
+                documents.keySet().forEach(codeId -> errors.put(codeId, e.getMessage()));
+                log.warn("Indexing Error: " + e.getMessage() + " ID=" + documents.keySet());
+                return;
+            }
+            log.warn("Indexing batch rejected, sending individually: " + e.getMessage());
+        }
+
+        for ( Map.Entry<Long, ObjectNode> entry : documents.entrySet() ) {
+            try {
+                if (partial)
+                    post(url, index_mapper.createArrayNode().add(entry.getValue()), commitWithin);
+                else
+                    send(url, Collections.singletonList(entry.getValue()), commitWithin);
+            } catch ( IOException e ) {
+                errors.put(entry.getKey(), e.getMessage());
+                log.warn("Indexing Error: " + e.getMessage() + " ID=" + entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * POST a JSON request to the indexer.
+     *
+     * @param url the configured URL to post to
+     * @param request the JSON request body
+     * @param commitWithin milliseconds within which SOLR should commit, or 0
+     * to use the configured URL as-is
+     * @throws IOException if the indexer could not be reached, or rejected the
+     * request
+     */
+    private static void post(String url, JsonNode request, int commitWithin) throws IOException {
+        // construct a POST submission to the indexer service
+        HttpPost post = new HttpPost(getUri(url, commitWithin));
+        post.setConfig(INDEX_REQUEST_CONFIG);
+        post.setHeader("Content-Type", "application/json");
+        post.setHeader("Accept", "application/json");
+        post.setEntity(new StringEntity(request.toString(), "UTF-8"));
+
+        try (CloseableHttpResponse response = SolrClient.getClient().execute(post)) {
+            String text = EntityUtils.toString(response.getEntity());
+
+            if ( HttpStatus.SC_OK!=response.getStatusLine().getStatusCode() )
+                throw new IOException("Indexing Error: " + text);
+        }
+    }
+
+    /**
+     * Determine the SOLR update handler URL.  If not configured, this is the
+     * index URL without any "/json/docs" document-mapping suffix.
+     *
+     * @return the update handler URL
+     */
+    private static String getUpdateUrl() {
+        if (!"".equals(UPDATE_URL))
+            return UPDATE_URL;
+
+        return INDEX_URL.replaceFirst("/json/docs(?=$|\\?)", "");
+    }
+
+    /**
+     * Determine the URL to post to.
+     *
+     * @param url the configured URL
+     * @param commitWithin the commitWithin value, or 0 for the configured URL
+     * @return the URI to post to
+     * @throws IOException if the configured URL is invalid
+     */
+    private static URI getUri(String url, int commitWithin) throws IOException {
+        try {
+            URIBuilder builder = new URIBuilder(url);
+
+            if (commitWithin > 0) {
+                List<NameValuePair> params = builder.getQueryParams().stream()
+                        .filter(p -> !"commit".equals(p.getName()) && !"softCommit".equals(p.getName()) && !"commitWithin".equals(p.getName()))
+                        .collect(Collectors.toList());
+                builder.setParameters(params)
+                       .addParameter("commitWithin", String.valueOf(commitWithin));
+            }
+
+            return builder.build();
+        } catch ( URISyntaxException e ) {
+            throw new IOException("Invalid index URL: " + e.getMessage());
+        }
+    }
+}
@@ -2,6 +2,16 @@
  */
 package gov.osti.listeners;
 
+import gov.osti.connectors.LaborHours;
+import gov.osti.indexer.CodeGovGenerator;
+import gov.osti.indexer.LaborEstimator;
+import gov.osti.indexer.IndexDispatcher;
+import gov.osti.indexer.IndexChecker;
+import gov.osti.indexer.Reindexer;
+import gov.osti.indexer.SitemapStore;
+import gov.osti.search.LuceneSearchBackend;
+import gov.osti.search.SolrClient;
+import gov.osti.search.SuggestIndex;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Properties;
@@ -56,6 +66,27 @@ public class DoeServletContextListener implements ServletContextListener {
                 "" : configuration.getProperty(key) :
                 "";
     }
+
+    /**
+     * Obtain the named configuration property as an integer value.
+     *
+     * @param key the KEY name requested
+     * @param defaultValue the value to use if not set or not numeric
+     * @return the configured VALUE, or defaultValue if not set or invalid
+     */
+    public static int getConfigurationProperty(String key, int defaultValue) {
+        String value = getConfigurationProperty(key).trim();
+
+        if ("".equals(value))
+            return defaultValue;
+
+        try {
+            return Integer.parseInt(value);
+        } catch ( NumberFormatException e ) {
+            log.warn("Invalid numeric configuration for " + key + ": " + value);
+            return defaultValue;
+        }
+    }
     
     /**
      * Start up the services on deployment.
@@ -67,6 +98,20 @@ public class DoeServletContextListener implements ServletContextListener {
         // attempt to load the persistence layer
         String persistence_unit = sce.getServletContext().getInitParameter("persistence_unit");
         emf = Persistence.createEntityManagerFactory(persistence_unit);
+        // begin delivering any queued indexing requests
+        IndexDispatcher.start();
+        // build typeahead suggestions from Approved records
+        SuggestIndex.start();
+        // embedded search, if no SOLR is configured
+        LuceneSearchBackend.start();
+        // write the sitemap files ahead of crawler requests
+        SitemapStore.start();
+        // ARCHIVER labor hours lookups
+        LaborHours.start();
+        // and code.json, if maintained here
+        CodeGovGenerator.start();
+        // and local labor estimates from uploaded files
+        LaborEstimator.start();
         
         log.info("DOE CODE instance started.");
     }
@@ -79,6 +124,18 @@ public class DoeServletContextListener implements ServletContextListener {
     public void contextDestroyed(ServletContextEvent sce) {
         // close down the Entity Manager
         log.info("Shutting down DOE CODE application.");
+        // stop indexing delivery; anything pending stays queued
+        IndexDispatcher.stop();
+        Reindexer.shutdown();
+        IndexChecker.shutdown();
+        SuggestIndex.stop();
+        LuceneSearchBackend.stop();
+        SitemapStore.stop();
+        CodeGovGenerator.stop();
+        LaborHours.stop();
+        LaborEstimator.stop();
+        // release any pooled SOLR connections
+        SolrClient.close();
         if (null!=emf)
             emf.close();
     }
@@ -0,0 +1,828 @@
+/*
+ */
+package gov.osti.search;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import gov.osti.entity.DOECodeMetadata;
+import gov.osti.entity.MetadataSnapshot;
+import gov.osti.indexer.IndexabilityResolver;
+import gov.osti.indexer.SolrIndexer;
+import gov.osti.listeners.DoeServletContextListener;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpStatus;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldCollector;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An embedded Lucene search engine, for installations without SOLR.
+ *
+ * Approved records are indexed from the same documents sent to SOLR, with the
+ * fields of the SOLR schema: whole-value fields for filtering and faceting,
+ * analyzed text for searching, the "_text_", "_names", "_orcids", and
+ * "_id_numbers" copy fields, and stored display fields.  Searches take the
+ * SOLR request parameters and return SOLR-form JSON responses, including
+ * paging by start row or by cursor, field facets, and the release year range
+ * facet.  The index is kept on local disk, memory-mapped.
+ *
+ * Used only if search.url is not set and search.lucene.path names the index
+ * directory.  The index is rebuilt from Approved snapshots in the background
+ * at startup, while the previous index (if any) continues to answer searches,
+ * and records are added as they are approved.  A rebuild replaces documents
+ * in place and removes only those it did not see once complete, so the index
+ * never lacks a record still Approved, even if the rebuild fails.
+ */
+public class LuceneSearchBackend implements SearchBackend {
+    // logger
+    private static final Logger log = LoggerFactory.getLogger(LuceneSearchBackend.class);
+
+    // configured SOLR search, which takes precedence
+    private static final String SEARCH_URL = DoeServletContextListener.getConfigurationProperty("search.url");
+    // local index directory
+    private static final String INDEX_PATH = DoeServletContextListener.getConfigurationProperty("search.lucene.path");
+
+    // snapshots read per page while rebuilding
+    private static final int PAGE_SIZE = 500;
+    // SOLR's default number of rows
+    private static final int DEFAULT_ROWS = 10;
+
+    // schema fields, and their SOLR field types
+    private static final String CODE_ID = "codeId";
+    private static final String RELEASE_DATE = "releaseDate";
+    private static final String TITLE_SORT = "softwareTitle_sort";
+    private static final String ALL_FIELDS = "_text_";
+    // whole-value (string) fields, also countable as facets
+    private static final Set<String> FACET_FIELDS = new HashSet<>(Arrays.asList(
+            "accessibility", "acronym", "doiStatus", "fProgrammingLanguages", "fResearchOrganizations",
+            "licenses", "owner", "siteOwnershipCode", "softwareType", "workflowStatus"));
+    // stored fields, returned in results
+    private static final Set<String> STORED_FIELDS = new HashSet<>(Arrays.asList(
+            CODE_ID, "softwareTitle", "developers.name", RELEASE_DATE, "doi", "json"));
+    // stored fields that are always lists
+    private static final Set<String> MULTI_VALUED = Collections.singleton("developers.name");
+    // fields not indexed at all
+    private static final Set<String> UNINDEXED = new HashSet<>(Arrays.asList("json", SolrIndexer.CONTENT_HASH));
+    // schema copyField rules
+    private static final Map<String, List<String>> COPY_FIELDS = new HashMap<>();
+    static {
+        COPY_FIELDS.put("doi", Arrays.asList("_id_numbers"));
+        COPY_FIELDS.put("sponsoringOrganizations.fundingIdentifiers.identifierValue", Arrays.asList("_id_numbers"));
+        COPY_FIELDS.put("sponsoringOrganizations.primaryAward", Arrays.asList("_id_numbers"));
+        COPY_FIELDS.put("relatedIdentifiers.identifierValue", Arrays.asList("_id_numbers"));
+        COPY_FIELDS.put("siteAccessionNumber", Arrays.asList("_id_numbers"));
+        COPY_FIELDS.put(CODE_ID, Arrays.asList("_id_numbers"));
+        COPY_FIELDS.put("developers.orcid", Arrays.asList("_id_numbers", "_orcids"));
+        COPY_FIELDS.put("contributors.orcid", Arrays.asList("_id_numbers", "_orcids"));
+        COPY_FIELDS.put("researchOrganizations.organizationName", Arrays.asList("fResearchOrganizations"));
+        COPY_FIELDS.put("programmingLanguages", Arrays.asList("fProgrammingLanguages"));
+        COPY_FIELDS.put("developers.name", Arrays.asList("_names"));
+        COPY_FIELDS.put("contributors.name", Arrays.asList("_names"));
+    }
+
+    // whole-value fields are not tokenized
+    private static final Analyzer ANALYZER;
+    static {
+        Map<String, Analyzer> keywords = new HashMap<>();
+        for ( String field : FACET_FIELDS )
+            keywords.put(field, new KeywordAnalyzer());
+        keywords.put(CODE_ID, new KeywordAnalyzer());
+        keywords.put(RELEASE_DATE, new KeywordAnalyzer());
+
+        ANALYZER = new PerFieldAnalyzerWrapper(new StandardAnalyzer(), keywords);
+    }
+
+    // a JSON mapper for responses and cursors
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    // the shared engine, once started
+    private static LuceneSearchBackend instance = null;
+    // background rebuild
+    private static ExecutorService executor = null;
+
+    private final Directory directory;
+    private final IndexWriter writer;
+    private final SearcherManager manager;
+    // CODE IDs written since a rebuild started, while rebuilding
+    private Set<String> rebuilt = null;
+
+    /**
+     * Open (or create) an index.
+     *
+     * @param path the index directory
+     * @throws IOException on index errors
+     */
+    public LuceneSearchBackend(Path path) throws IOException {
+        Files.createDirectories(path);
+
+        directory = new MMapDirectory(path);
+        writer = new IndexWriter(directory, new IndexWriterConfig(ANALYZER)
+                .setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND));
+        manager = new SearcherManager(writer, null);
+    }
+
+    /**
+     * Determine whether or not the embedded engine is to be used.
+     *
+     * @return true if no SOLR search is configured, and an index path is
+     */
+    public static boolean isConfigured() {
+        return "".equals(SEARCH_URL) && !"".equals(INDEX_PATH);
+    }
+
+    /**
+     * @return the shared engine, or null if not started
+     */
+    public static synchronized LuceneSearchBackend getInstance() {
+        return instance;
+    }
+
+    /**
+     * Open the shared engine, and rebuild its index in the background.  Does
+     * nothing unless configured.
+     */
+    public static synchronized void start() {
+        if (!isConfigured() || null!=instance)
+            return;
+
+        try {
+            instance = new LuceneSearchBackend(Paths.get(INDEX_PATH));
+        } catch ( IOException e ) {
+            log.error("Unable to open search index " + INDEX_PATH + ": " + e.getMessage());
+            return;
+        }
+
+        LuceneSearchBackend backend = instance;
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "lucene-rebuild");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.execute(() -> rebuild(backend));
+    }
+
+    /**
+     * Stop any rebuild, and close the shared engine.
+     */
+    public static synchronized void stop() {
+        if (null!=executor) {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+            executor = null;
+        }
+        if (null!=instance) {
+            try {
+                instance.close();
+            } catch ( IOException e ) {
+                log.warn("Search index close error: " + e.getMessage());
+            }
+            instance = null;
+        }
+    }
+
+    /**
+     * Index a newly-approved record in the shared engine, if running.
+     *
+     * @param em the EntityManager for related identifier lookups
+     * @param md the Approved metadata
+     */
+    public static void index(EntityManager em, DOECodeMetadata md) {
+        LuceneSearchBackend backend = getInstance();
+
+        if (null==backend)
+            return;
+
+        try {
+            backend.put(SolrIndexer.toDocument(em, md));
+            backend.commit();
+            ResultCache.invalidateAll(Collections.singletonList(md.getCodeId()));
+        } catch ( IOException e ) {
+            log.warn("Unable to index CODE ID " + md.getCodeId() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Index records again in the shared engine, if running, from their
+     * Approved snapshots; such as those whose related identifiers another
+     * record's approval changed.
+     *
+     * @param em the EntityManager to read snapshots with
+     * @param codeIds the CODE IDs to index
+     */
+    public static void index(EntityManager em, Collection<Long> codeIds) {
+        LuceneSearchBackend backend = getInstance();
+
+        if (null==backend || codeIds.isEmpty())
+            return;
+
+        try {
+            List<MetadataSnapshot> snapshots = em.createNamedQuery("MetadataSnapshot.findByCodeIdsAndStatus", MetadataSnapshot.class)
+                    .setParameter("codeIds", codeIds)
+                    .setParameter("status", DOECodeMetadata.Status.Approved)
+                    .getResultList();
+
+            for ( MetadataSnapshot snapshot : snapshots )
+                backend.put(SolrIndexer.toDocument(em, DOECodeMetadata.parseJson(new StringReader(snapshot.getJson()))));
+            backend.commit();
+            ResultCache.invalidateAll(codeIds);
+        } catch ( IOException e ) {
+            log.warn("Unable to index CODE IDs " + codeIds + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Replace the index contents with every Approved snapshot.  Documents are
+     * replaced as the snapshots are read; any other documents are removed
+     * only once every snapshot has been, and are kept if the rebuild fails.
+     *
+     * @param backend the engine to rebuild
+     */
+    private static void rebuild(LuceneSearchBackend backend) {
+        EntityManager em = DoeServletContextListener.createEntityManager();
+        long started = System.currentTimeMillis();
+        long lastCodeId = 0;
+        int count = 0;
+
+        backend.startRebuild();
+        try {
+
+            while (!Thread.currentThread().isInterrupted()) {
+                List<MetadataSnapshot> page = em.createNamedQuery("MetadataSnapshot.findByStatusAfterCodeId", MetadataSnapshot.class)
+                        .setParameter("status", DOECodeMetadata.Status.Approved)
+                        .setParameter("codeId", lastCodeId)
+                        .setMaxResults(PAGE_SIZE)
+                        .getResultList();
+
+                if (page.isEmpty())
+                    break;
+
+                Map<Long, DOECodeMetadata> records = new LinkedHashMap<>();
+                for ( MetadataSnapshot snapshot : page ) {
+                    lastCodeId = snapshot.getSnapshotKey().getCodeId();
+
+                    try {
+                        records.put(lastCodeId, DOECodeMetadata.parseJson(new StringReader(snapshot.getJson())));
+                    } catch ( IOException e ) {
+                        log.warn("Unable to index CODE ID " + lastCodeId + ": " + e.getMessage());
+                    }
+                }
+
+                IndexabilityResolver resolver = new IndexabilityResolver(em, records.values());
+                for ( DOECodeMetadata md : records.values() ) {
+                    backend.put(SolrIndexer.toDocument(resolver, md));
+                    ++count;
+                }
+                em.clear();
+            }
+
+            if (Thread.currentThread().isInterrupted())
+                return;
+
+            backend.finishRebuild();
+            backend.commit();
+            ResultCache.invalidateAll();
+
+            log.info("Search index rebuilt: " + count + " records in " + (System.currentTimeMillis() - started) + " ms.");
+        } catch ( IOException | RuntimeException e ) {
+            log.error("Search index rebuild failed: " + e.getMessage());
+        } finally {
+            backend.abandonRebuild();
+            em.close();
+        }
+    }
+
+    /**
+     * Add or replace a record, visible once committed.
+     *
+     * @param document the index document, as sent to SOLR
+     * @throws IOException on index errors
+     */
+    public synchronized void put(ObjectNode document) throws IOException {
+        String codeId = document.path(CODE_ID).asText();
+
+        writer.updateDocument(new Term(CODE_ID, codeId), toDocument(document));
+        if (null!=rebuilt)
+            rebuilt.add(codeId);
+    }
+
+    /**
+     * Start noting the records written, to rebuild the index.
+     */
+    synchronized void startRebuild() {
+        rebuilt = new HashSet<>();
+    }
+
+    /**
+     * Remove every record not written since the rebuild started, visible once
+     * committed.
+     *
+     * @throws IOException on index errors
+     */
+    synchronized void finishRebuild() throws IOException {
+        List<BytesRef> codeIds = new ArrayList<>();
+        for ( String codeId : rebuilt )
+            codeIds.add(new BytesRef(codeId));
+
+        writer.deleteDocuments(new BooleanQuery.Builder()
+                .add(new MatchAllDocsQuery(), BooleanClause.Occur.FILTER)
+                .add(new TermInSetQuery(CODE_ID, codeIds), BooleanClause.Occur.MUST_NOT)
+                .build());
+        rebuilt = null;
+    }
+
+    /**
+     * Stop noting the records written, leaving the index as it is.
+     */
+    synchronized void abandonRebuild() {
+        rebuilt = null;
+    }
+
+    /**
+     * Commit changes, and make them visible to searches.
+     *
+     * @throws IOException on index errors
+     */
+    public synchronized void commit() throws IOException {
+        writer.commit();
+        manager.maybeRefresh();
+    }
+
+    /**
+     * Close the index.
+     *
+     * @throws IOException on index errors
+     */
+    public synchronized void close() throws IOException {
+        manager.close();
+        if (writer.isOpen())
+            writer.close();
+        directory.close();
+    }
+
+    @Override
+    public String getName() {
+        return "lucene";
+    }
+
+    @Override
+    public String search(URIBuilder params) throws IOException {
+        long started = System.currentTimeMillis();
+        Map<String, List<String>> values = new HashMap<>();
+        for ( NameValuePair pair : params.getQueryParams() )
+            values.computeIfAbsent(pair.getName(), k -> new ArrayList<>()).add(pair.getValue());
+
+        Query query = toQuery(getFirst(values, "q", "*:*"), values.getOrDefault("fq", Collections.emptyList()));
+        int rows = getInt(values, "rows", DEFAULT_ROWS);
+        int start = getInt(values, "start", 0);
+        String cursor = getFirst(values, "cursorMark", null);
+        List<String> fields = Arrays.asList(StringUtils.split(getFirst(values, "fl", CODE_ID), ", "));
+
+        ObjectNode result = mapper.createObjectNode();
+        ObjectNode header = result.putObject("responseHeader").put("status", 0);
+        ObjectNode response = result.putObject("response");
+        ArrayNode docs = mapper.createArrayNode();
+
+        IndexSearcher searcher = manager.acquire();
+        try {
+            long numFound;
+
+            // no more hits are kept than there are documents
+            int maxDoc = searcher.getIndexReader().maxDoc();
+            if (null==cursor && start > maxDoc)
+                throw new SearchException(HttpStatus.SC_BAD_REQUEST, "Start row is beyond the number of records.");
+
+            if (rows > 0) {
+                Sort sort = toSort(getFirst(values, "sort", null));
+                FieldDoc after = (null==cursor || "*".equals(cursor)) ? null : decodeCursor(cursor, sort);
+                long hits = (null==cursor) ? (long) start + rows : rows;
+                TopFieldCollector collector = TopFieldCollector.create(sort, (int) Math.max(1, Math.min(hits, maxDoc)), after, Integer.MAX_VALUE);
+
+                searcher.search(query, collector);
+                TopDocs top = (null==cursor) ? collector.topDocs(start, rows) : collector.topDocs();
+                numFound = top.totalHits.value;
+
+                for ( ScoreDoc hit : top.scoreDocs )
+                    docs.add(toResult(searcher.doc(hit.doc), fields));
+                if (null!=cursor)
+                    result.put("nextCursorMark", (top.scoreDocs.length > 0) ?
+                            encodeCursor((FieldDoc) top.scoreDocs[top.scoreDocs.length - 1]) : cursor);
+            } else {
+                numFound = searcher.count(query);
+                if (null!=cursor)
+                    result.put("nextCursorMark", cursor);
+            }
+
+            response
+                    .put("numFound", numFound)
+                    .put("start", (null==cursor) ? start : 0)
+                    .set("docs", docs);
+
+            if ("on".equals(getFirst(values, "facet", null)) || "true".equals(getFirst(values, "facet", null)))
+                addFacets(searcher, query, values.getOrDefault("facet.field", Collections.emptyList()), numFound, result);
+        } finally {
+            manager.release(searcher);
+        }
+
+        header.put("QTime", System.currentTimeMillis() - started);
+
+        return result.toString();
+    }
+
+    /**
+     * Count the matching records by facet, in SOLR form: "facet_counts" of
+     * each field, and "facets" with release year ranges.
+     *
+     * @param searcher the searcher
+     * @param query the query
+     * @param facetFields the fields to count
+     * @param numFound the number of matches
+     * @param result the response to add to
+     * @throws IOException on index errors
+     */
+    private static void addFacets(IndexSearcher searcher, Query query, List<String> facetFields, long numFound, ObjectNode result) throws IOException {
+        for ( String field : facetFields )
+            if (!FACET_FIELDS.contains(field))
+                throw new SearchException(HttpStatus.SC_BAD_REQUEST, "Unable to facet on field: " + field);
+
+        FacetCounter counter = new FacetCounter(facetFields);
+        searcher.search(query, counter);
+
+        ObjectNode counts = result.putObject("facet_counts").putObject("facet_fields");
+        for ( Map.Entry<String, Map<String, Integer>> facet : counter.counts.entrySet() ) {
+            ArrayNode pairs = counts.putArray(facet.getKey());
+
+            // most frequent first, as SOLR does
+            facet.getValue().entrySet()
+                    .stream()
+                    .sorted(Map.Entry.<String, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                    .forEach(e -> pairs.add(e.getKey()).add(e.getValue()));
+        }
+
+        ArrayNode buckets = result
+                .putObject("facets")
+                .put("count", numFound)
+                .putObject("dates")
+                .putArray("buckets");
+        counter.years.forEach((year, count) -> buckets.addObject()
+                .put("val", year + "-01-01T00:00:00Z")
+                .put("count", count));
+    }
+
+    /**
+     * Parse the search and its filters, as SOLR would with "AND" as the
+     * default operator.
+     *
+     * @param q the query
+     * @param filters the filter queries
+     * @return the combined query
+     * @throws SearchException if the query syntax is invalid
+     */
+    private static Query toQuery(String q, List<String> filters) throws SearchException {
+        QueryParser parser = new QueryParser(ALL_FIELDS, ANALYZER);
+        parser.setDefaultOperator(QueryParser.Operator.AND);
+
+        try {
+            BooleanQuery.Builder builder = new BooleanQuery.Builder()
+                    .add(parser.parse(q), BooleanClause.Occur.MUST);
+
+            for ( String fq : filters )
+                builder.add(parser.parse(fq), BooleanClause.Occur.FILTER);
+
+            return builder.build();
+        } catch ( ParseException e ) {
+            throw new SearchException(HttpStatus.SC_BAD_REQUEST, "Invalid search: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Interpret a SOLR sort specification, such as "releaseDate desc,codeId
+     * asc".  Relevance is the default.
+     *
+     * @param spec the sort
+     * @return the Lucene sort
+     * @throws SearchException if a sort field is not sortable
+     */
+    private static Sort toSort(String spec) throws SearchException {
+        List<SortField> fields = new ArrayList<>();
+
+        for ( String clause : StringUtils.split(StringUtils.defaultString(spec), ",") ) {
+            String[] parts = StringUtils.split(clause);
+            if (0==parts.length)
+                continue;
+            boolean reverse = parts.length > 1 && "desc".equalsIgnoreCase(parts[1]);
+
+            switch (parts[0]) {
+                case "score":
+                    // relevance is naturally descending
+                    fields.add(new SortField(null, SortField.Type.SCORE, !reverse));
+                    break;
+                case CODE_ID:
+                    fields.add(new SortField(CODE_ID, SortField.Type.LONG, reverse));
+                    break;
+                case RELEASE_DATE:
+                    fields.add(new SortField(RELEASE_DATE, SortField.Type.STRING, reverse));
+                    break;
+                case "softwareTitle":
+                    fields.add(new SortField(TITLE_SORT, SortField.Type.STRING, reverse));
+                    break;
+                default:
+                    throw new SearchException(HttpStatus.SC_BAD_REQUEST, "Unable to sort on field: " + parts[0]);
+            }
+        }
+        if (fields.isEmpty())
+            fields.add(SortField.FIELD_SCORE);
+
+        return new Sort(fields.toArray(new SortField[0]));
+    }
+
+    /**
+     * Encode the position after a result as a cursor.
+     *
+     * @param last the last result returned
+     * @return the cursor
+     */
+    private static String encodeCursor(FieldDoc last) {
+        ArrayNode position = mapper.createArrayNode().add(last.doc);
+
+        for ( Object value : last.fields ) {
+            if (value instanceof BytesRef)
+                position.add(((BytesRef) value).utf8ToString());
+            else if (value instanceof Float)
+                position.add((Float) value);
+            else if (value instanceof Long)
+                position.add((Long) value);
+            else
+                position.addNull();
+        }
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decode a cursor into the position to continue after.
+     *
+     * @param cursor the cursor
+     * @param sort the sort it was created with
+     * @return the position
+     * @throws SearchException if the cursor is invalid for the sort
+     */
+    private static FieldDoc decodeCursor(String cursor, Sort sort) throws SearchException {
+        try {
+            JsonNode position = mapper.readTree(Base64.getUrlDecoder().decode(cursor));
+            SortField[] fields = sort.getSort();
+
+            if (!position.isArray() || position.size()!=fields.length + 1)
+                throw new SearchException(HttpStatus.SC_BAD_REQUEST, "Invalid cursor.");
+
+            Object[] values = new Object[fields.length];
+            for ( int i = 0 ; i < fields.length ; ++i ) {
+                JsonNode value = position.get(i + 1);
+
+                if (value.isNull())
+                    values[i] = null;
+                else if (SortField.Type.SCORE==fields[i].getType())
+                    values[i] = value.floatValue();
+                else if (SortField.Type.LONG==fields[i].getType())
+                    values[i] = value.longValue();
+                else
+                    values[i] = new BytesRef(value.asText());
+            }
+
+            return new FieldDoc(position.get(0).asInt(), Float.NaN, values);
+        } catch ( IllegalArgumentException | IOException e ) {
+            throw new SearchException(HttpStatus.SC_BAD_REQUEST, "Invalid cursor.");
+        }
+    }
+
+    /**
+     * Build a Lucene document from a SOLR index document: nested values are
+     * flattened into dotted field names, as the SOLR JSON document handler
+     * does, and copied into the schema's copy fields.
+     *
+     * @param source the index document
+     * @return the Lucene document
+     */
+    private static Document toDocument(ObjectNode source) {
+        Map<String, List<String>> values = new LinkedHashMap<>();
+        flatten("", source, values);
+
+        Document document = new Document();
+        for ( Map.Entry<String, List<String>> entry : values.entrySet() ) {
+            String field = entry.getKey();
+
+            for ( String value : entry.getValue() ) {
+                // SOLR dates are full timestamps
+                if (RELEASE_DATE.equals(field) && 10==value.length())
+                    value += "T00:00:00Z";
+
+                if (STORED_FIELDS.contains(field))
+                    document.add(new StoredField(field, value));
+                if (UNINDEXED.contains(field))
+                    continue;
+
+                addField(document, field, value);
+                addField(document, ALL_FIELDS, value);
+                for ( String copy : COPY_FIELDS.getOrDefault(field, Collections.emptyList()) )
+                    addField(document, copy, value);
+            }
+        }
+
+        // sortable values
+        document.add(new NumericDocValuesField(CODE_ID, source.path(CODE_ID).asLong()));
+        if (null!=document.get(RELEASE_DATE))
+            document.add(new SortedDocValuesField(RELEASE_DATE, new BytesRef(document.get(RELEASE_DATE))));
+        if (source.hasNonNull("softwareTitle"))
+            document.add(new SortedDocValuesField(TITLE_SORT, new BytesRef(source.get("softwareTitle").asText().toLowerCase())));
+
+        return document;
+    }
+
+    /**
+     * Index a single value according to its field type.
+     *
+     * @param document the document
+     * @param field the field name
+     * @param value the value
+     */
+    private static void addField(Document document, String field, String value) {
+        if (FACET_FIELDS.contains(field)) {
+            document.add(new StringField(field, value, Field.Store.NO));
+            document.add(new SortedSetDocValuesField(field, new BytesRef(value)));
+        } else if (CODE_ID.equals(field) || RELEASE_DATE.equals(field)) {
+            document.add(new StringField(field, value, Field.Store.NO));
+        } else {
+            document.add(new TextField(field, value, Field.Store.NO));
+        }
+    }
+
+    /**
+     * Collect the leaf values of a JSON document by dotted path.
+     *
+     * @param path the path so far
+     * @param node the JSON node
+     * @param values the values found, by path
+     */
+    private static void flatten(String path, JsonNode node, Map<String, List<String>> values) {
+        if (node.isObject())
+            node.fields().forEachRemaining(e -> flatten(path.isEmpty() ? e.getKey() : path + "." + e.getKey(), e.getValue(), values));
+        else if (node.isArray())
+            node.forEach(n -> flatten(path, n, values));
+        else if (!node.isNull())
+            values.computeIfAbsent(path, k -> new ArrayList<>()).add(node.asText());
+    }
+
+    /**
+     * Build a result document of the requested stored fields.
+     *
+     * @param document the stored document
+     * @param fields the fields requested
+     * @return the result, as SOLR would return it
+     */
+    private static ObjectNode toResult(Document document, List<String> fields) {
+        ObjectNode result = mapper.createObjectNode();
+
+        for ( String field : fields ) {
+            IndexableField[] stored = document.getFields(field);
+
+            if (0==stored.length)
+                continue;
+
+            if (CODE_ID.equals(field))
+                result.put(field, Long.valueOf(stored[0].stringValue()));
+            else if (MULTI_VALUED.contains(field) || stored.length > 1) {
+                ArrayNode list = result.putArray(field);
+                for ( IndexableField value : stored )
+                    list.add(value.stringValue());
+            } else
+                result.put(field, stored[0].stringValue());
+        }
+
+        return result;
+    }
+
+    private static String getFirst(Map<String, List<String>> values, String name, String defaultValue) {
+        List<String> list = values.get(name);
+
+        return (null==list || list.isEmpty() || StringUtils.isBlank(list.get(0))) ? defaultValue : list.get(0);
+    }
+
+    private static int getInt(Map<String, List<String>> values, String name, int defaultValue) throws SearchException {
+        try {
+            return Math.max(0, Integer.parseInt(getFirst(values, name, String.valueOf(defaultValue))));
+        } catch ( NumberFormatException e ) {
+            throw new SearchException(HttpStatus.SC_BAD_REQUEST, "Invalid " + name + " value.");
+        }
+    }
+
+    /**
+     * Count matching documents by facet field value and by release year.
+     */
+    private static class FacetCounter extends SimpleCollector {
+        private final List<String> fields;
+        private final Map<String, Map<String, Integer>> counts = new LinkedHashMap<>();
+        private final Map<String, Integer> years = new TreeMap<>();
+        private SortedSetDocValues[] values;
+        private SortedDocValues dates;
+
+        FacetCounter(List<String> fields) {
+            this.fields = fields;
+            fields.forEach(f -> counts.put(f, new HashMap<>()));
+        }
+
+        @Override
+        protected void doSetNextReader(LeafReaderContext context) throws IOException {
+            values = new SortedSetDocValues[fields.size()];
+            for ( int i = 0 ; i < values.length ; ++i )
+                values[i] = DocValues.getSortedSet(context.reader(), fields.get(i));
+            dates = DocValues.getSorted(context.reader(), RELEASE_DATE);
+        }
+
+        @Override
+        public void collect(int doc) throws IOException {
+            for ( int i = 0 ; i < values.length ; ++i ) {
+                if (values[i].advanceExact(doc)) {
+                    Map<String, Integer> count = counts.get(fields.get(i));
+
+                    for ( long ord = values[i].nextOrd() ; ord!=SortedSetDocValues.NO_MORE_ORDS ; ord = values[i].nextOrd() )
+                        count.merge(values[i].lookupOrd(ord).utf8ToString(), 1, Integer::sum);
+                }
+            }
+            if (dates.advanceExact(doc))
+                years.merge(dates.binaryValue().utf8ToString().substring(0, 4), 1, Integer::sum);
+        }
+
+        @Override
+        public ScoreMode scoreMode() {
+            return ScoreMode.COMPLETE_NO_SCORES;
+        }
+    }
+}
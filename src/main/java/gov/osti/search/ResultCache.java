@@ -0,0 +1,435 @@
+/*
+ */
+package gov.osti.search;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+
+/**
+ * A bounded, in-process cache of search results.
+ *
+ * Entries are evicted least-recently-used once either the entry or the byte
+ * limit is exceeded, and expire after a fixed time to live.  Concurrent misses
+ * for the same key are coalesced: one caller loads the value, and the others
+ * wait for and share its result (or its failure).
+ *
+ * Every cache created is registered so the indexer can invalidate them all
+ * when the index changes, without knowing which searches are affected.  A
+ * cache of single records instead keys entries by CODE ID, followed by a
+ * space and any variant (such as the output format); when particular records
+ * are re-indexed only their entries are dropped.  A cache of values that do
+ * not depend on the index may be left unregistered, so only its owner
+ * invalidates it.  A value loaded while an invalidation happens is returned
+ * to its callers but not kept.
+ *
+ * @param <V> the type of cached value
+ */
+public class ResultCache<V> {
+    /**
+     * Produce a value on a cache miss.
+     *
+     * @param <V> the type of value
+     */
+    @FunctionalInterface
+    public interface Loader<V> {
+        /**
+         * @return the value to cache, or null if it should not be cached
+         * @throws IOException on errors obtaining the value
+         */
+        V load() throws IOException;
+    }
+
+    /**
+     * Produce the values of several keys on cache misses, at once.
+     *
+     * @param <V> the type of value
+     */
+    @FunctionalInterface
+    public interface BulkLoader<V> {
+        /**
+         * @param keys the keys missing from the cache
+         * @return the values found, by key; keys without a value are omitted
+         * @throws IOException on errors obtaining the values
+         */
+        Map<String, V> load(List<String> keys) throws IOException;
+    }
+
+    /**
+     * A cached value with its size and expiry.
+     */
+    private static class Entry<V> {
+        private final V value;
+        private final long bytes;
+        private final long expires;
+
+        Entry(V value, long bytes, long expires) {
+            this.value = value;
+            this.bytes = bytes;
+            this.expires = expires;
+        }
+    }
+
+    // every cache, for invalidation on index changes
+    private static final List<ResultCache<?>> caches = new CopyOnWriteArrayList<>();
+
+    // a JSON mapper for statistics
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final String name;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttl;
+    private final ToLongFunction<V> weigher;
+    // true if keys begin with a CODE ID
+    private final boolean recordKeys;
+
+    // entries in access order, guarded by this
+    private final LinkedHashMap<String, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+    // bumped on every invalidation, so loads begun before one are not kept
+    private long generation = 0;
+
+    // loads in progress, by key
+    private final Map<String, CompletableFuture<V>> loading = new ConcurrentHashMap<>();
+
+    // statistics since startup
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Create and register a cache.
+     *
+     * @param name the cache name, for statistics
+     * @param maxEntries maximum number of entries; 0 disables caching
+     * @param maxBytes maximum total size of the entries, in bytes
+     * @param ttlSeconds seconds an entry remains valid
+     * @param weigher the approximate size of a value, in bytes
+     */
+    public ResultCache(String name, int maxEntries, long maxBytes, int ttlSeconds, ToLongFunction<V> weigher) {
+        this(name, maxEntries, maxBytes, ttlSeconds, weigher, false);
+    }
+
+    /**
+     * Create and register a cache.
+     *
+     * @param name the cache name, for statistics
+     * @param maxEntries maximum number of entries; 0 disables caching
+     * @param maxBytes maximum total size of the entries, in bytes
+     * @param ttlSeconds seconds an entry remains valid
+     * @param weigher the approximate size of a value, in bytes
+     * @param recordKeys true if keys are a CODE ID, a space, and any variant
+     */
+    public ResultCache(String name, int maxEntries, long maxBytes, int ttlSeconds, ToLongFunction<V> weigher, boolean recordKeys) {
+        this(name, maxEntries, maxBytes, ttlSeconds, weigher, recordKeys, true);
+    }
+
+    /**
+     * Create a cache, registered for index invalidation or not.
+     *
+     * @param name the cache name, for statistics
+     * @param maxEntries maximum number of entries; 0 disables caching
+     * @param maxBytes maximum total size of the entries, in bytes
+     * @param ttlSeconds seconds an entry remains valid
+     * @param weigher the approximate size of a value, in bytes
+     * @param recordKeys true if keys are a CODE ID, a space, and any variant
+     * @param registered false if index changes should leave this cache alone
+     */
+    public ResultCache(String name, int maxEntries, long maxBytes, int ttlSeconds, ToLongFunction<V> weigher, boolean recordKeys, boolean registered) {
+        this.name = name;
+        this.maxEntries = Math.max(0, maxEntries);
+        this.maxBytes = Math.max(0, maxBytes);
+        this.ttl = TimeUnit.SECONDS.toMillis(Math.max(0, ttlSeconds));
+        this.weigher = weigher;
+        this.recordKeys = recordKeys;
+
+        if (registered)
+            caches.add(this);
+    }
+
+    /**
+     * Invalidate every registered cache.  Called when index contents change.
+     */
+    public static void invalidateAll() {
+        caches.forEach(ResultCache::invalidate);
+    }
+
+    /**
+     * Invalidate for changes to particular records: record caches drop only
+     * the entries of those CODE IDs, and any other cache is cleared.
+     *
+     * @param codeIds the CODE IDs re-indexed
+     */
+    public static void invalidateAll(Collection<Long> codeIds) {
+        for ( ResultCache<?> cache : caches ) {
+            if (cache.recordKeys)
+                cache.invalidateRecords(codeIds);
+            else
+                cache.invalidate();
+        }
+    }
+
+    /**
+     * @return true if this cache may hold entries
+     */
+    public boolean isEnabled() {
+        return maxEntries > 0 && maxBytes > 0 && ttl > 0;
+    }
+
+    /**
+     * Obtain a value, loading it on a miss.  Only one load runs per key at a
+     * time; concurrent callers for that key share its result.
+     *
+     * @param key the cache key
+     * @param loader produces the value on a miss
+     * @return the value, possibly null if the loader returned null
+     * @throws IOException if the load failed
+     */
+    public V get(String key, Loader<V> loader) throws IOException {
+        if (!isEnabled())
+            return loader.load();
+
+        long started;
+        synchronized (this) {
+            Entry<V> entry = entries.get(key);
+
+            if (null!=entry) {
+                if (entry.expires > System.currentTimeMillis()) {
+                    hits.incrementAndGet();
+                    return entry.value;
+                }
+                remove(key);
+            }
+            started = generation;
+        }
+
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> existing = loading.putIfAbsent(key, future);
+
+        if (null!=existing) {
+            coalesced.incrementAndGet();
+            return await(existing);
+        }
+
+        misses.incrementAndGet();
+        try {
+            V value = loader.load();
+
+            if (null!=value)
+                put(key, value, started);
+            future.complete(value);
+
+            return value;
+        } catch ( IOException | RuntimeException e ) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, future);
+        }
+    }
+
+    /**
+     * Obtain the values of several keys, loading every miss with one call.
+     * Bulk loads are not coalesced with concurrent loads of the same keys.
+     *
+     * @param keys the cache keys
+     * @param loader produces the values missing from the cache
+     * @return the values found, in the order of the keys requested
+     * @throws IOException if the load failed
+     */
+    public Map<String, V> getAll(Collection<String> keys, BulkLoader<V> loader) throws IOException {
+        Map<String, V> values = new LinkedHashMap<>();
+        List<String> missing = new ArrayList<>();
+        long started;
+
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+
+            for ( String key : keys ) {
+                Entry<V> entry = (isEnabled()) ? entries.get(key) : null;
+
+                if (null!=entry && entry.expires > now) {
+                    hits.incrementAndGet();
+                    values.put(key, entry.value);
+                } else {
+                    if (null!=entry)
+                        remove(key);
+                    misses.incrementAndGet();
+                    values.put(key, null);
+                    missing.add(key);
+                }
+            }
+            started = generation;
+        }
+
+        if (!missing.isEmpty()) {
+            Map<String, V> loaded = loader.load(missing);
+
+            for ( String key : missing ) {
+                V value = loaded.get(key);
+
+                if (null!=value && isEnabled())
+                    put(key, value, started);
+                values.put(key, value);
+            }
+        }
+        values.values().removeIf(Objects::isNull);
+
+        return values;
+    }
+
+    /**
+     * Remove a single entry, if present.
+     *
+     * @param key the cache key
+     */
+    public synchronized void invalidate(String key) {
+        if (null!=remove(key))
+            invalidations.incrementAndGet();
+        ++generation;
+    }
+
+    /**
+     * Remove every entry.
+     */
+    public synchronized void invalidate() {
+        entries.clear();
+        bytes = 0;
+        ++generation;
+        invalidations.incrementAndGet();
+    }
+
+    /**
+     * Remove the entries of particular records, in a single pass.
+     *
+     * @param codeIds the CODE IDs to remove
+     */
+    public synchronized void invalidateRecords(Collection<Long> codeIds) {
+        Set<String> prefixes = codeIds.stream().map(String::valueOf).collect(Collectors.toSet());
+        Iterator<Map.Entry<String, Entry<V>>> it = entries.entrySet().iterator();
+
+        while (it.hasNext()) {
+            Map.Entry<String, Entry<V>> entry = it.next();
+            String key = entry.getKey();
+            int space = key.indexOf(' ');
+
+            if (prefixes.contains((space < 0) ? key : key.substring(0, space))) {
+                bytes -= entry.getValue().bytes;
+                it.remove();
+                invalidations.incrementAndGet();
+            }
+        }
+        ++generation;
+    }
+
+    /**
+     * Store a loaded value, unless the cache was invalidated during the load,
+     * then evict entries to fit the limits.
+     *
+     * @param key the cache key
+     * @param value the value
+     * @param started the generation when the load began
+     */
+    private synchronized void put(String key, V value, long started) {
+        long size = weigher.applyAsLong(value) + key.length() * 2L;
+
+        if (started!=generation || size > maxBytes)
+            return;
+
+        remove(key);
+        entries.put(key, new Entry<>(value, size, System.currentTimeMillis() + ttl));
+        bytes += size;
+
+        Iterator<Map.Entry<String, Entry<V>>> it = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && it.hasNext()) {
+            bytes -= it.next().getValue().bytes;
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Remove an entry, adjusting the byte count.  Caller must hold the lock.
+     *
+     * @param key the cache key
+     * @return the removed entry, or null if none
+     */
+    private Entry<V> remove(String key) {
+        Entry<V> entry = entries.remove(key);
+
+        if (null!=entry)
+            bytes -= entry.bytes;
+
+        return entry;
+    }
+
+    /**
+     * Wait for another caller's load.
+     *
+     * @param future the load in progress
+     * @return its value
+     * @throws IOException if the load failed or the wait was interrupted
+     */
+    private static <V> V await(CompletableFuture<V> future) throws IOException {
+        try {
+            return future.get();
+        } catch ( ExecutionException e ) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IOException(e.getCause());
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for cached result.");
+        }
+    }
+
+    /**
+     * Report cache utilization.
+     *
+     * @return JSON counts of entries, bytes, hits, misses, and evictions
+     */
+    public ObjectNode getStatistics() {
+        long hit = hits.get();
+        long miss = misses.get() + coalesced.get();
+        ObjectNode stats = mapper.createObjectNode()
+                .put("name", name)
+                .put("enabled", isEnabled());
+
+        synchronized (this) {
+            stats.put("entries", entries.size());
+            stats.put("bytes", bytes);
+        }
+
+        return stats
+                .put("max_entries", maxEntries)
+                .put("max_bytes", maxBytes)
+                .put("ttl_seconds", TimeUnit.MILLISECONDS.toSeconds(ttl))
+                .put("hits", hit)
+                .put("misses", misses.get())
+                .put("coalesced", coalesced.get())
+                .put("evictions", evictions.get())
+                .put("invalidations", invalidations.get())
+                .put("hit_ratio", (hit + miss > 0) ? Math.round(1000.0 * hit / (hit + miss)) / 1000.0 : 0);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ */
+package gov.osti.search;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import org.apache.http.client.utils.URIBuilder;
+
+/**
+ * A search engine answering SOLR-style searches.
+ *
+ * Requests are the SOLR request parameters the search service uses ("q",
+ * "fq", "fl", "sort", "rows", "start", "cursorMark", "facet", and
+ * "facet.field"), with the "q" and "fq" values in SOLR/Lucene query syntax as
+ * produced by SearchData.  Responses are in the SOLR JSON response form
+ * (including the "dates" release date facet the SOLR search handler adds), so
+ * callers parse them into a SolrResult regardless of the engine behind them.
+ */
+public interface SearchBackend {
+    /**
+     * Run a search.
+     *
+     * @param params the SOLR request parameters
+     * @return the JSON response, in SOLR form
+     * @throws SearchException if the search was rejected
+     * @throws IOException on search engine errors
+     */
+    String search(URIBuilder params) throws IOException;
+
+    /**
+     * Reads a search response.
+     *
+     * @param <T> the type read
+     */
+    @FunctionalInterface
+    interface ResponseReader<T> {
+        T read(InputStream in) throws IOException;
+    }
+
+    /**
+     * Run a search, reading the response as it arrives, for responses too
+     * large to hold as a String.  By default the response is read from the
+     * String search result.
+     *
+     * @param <T> the type read
+     * @param params the SOLR request parameters
+     * @param reader reads the JSON response, in SOLR form
+     * @return the value read
+     * @throws SearchException if the search was rejected
+     * @throws IOException on search engine errors
+     */
+    default <T> T search(URIBuilder params, ResponseReader<T> reader) throws IOException {
+        return reader.read(new ByteArrayInputStream(search(params).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * @return a short name of the engine, for status reports
+     */
+    String getName();
+}
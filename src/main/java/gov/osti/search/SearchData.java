@@ -1,5 +1,6 @@
 package gov.osti.search;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import java.io.IOException;
 import java.io.Reader;
@@ -10,11 +11,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.PropertyNamingStrategy;
-import java.time.ZoneOffset;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
 import java.util.TimeZone;
+import java.util.TreeSet;
 import java.util.regex.Pattern;
 import org.apache.commons.lang3.StringUtils;
 
@@ -29,6 +36,9 @@ public class SearchData implements Serializable {
             .setSerializationInclusion(Include.NON_NULL)
             .setTimeZone(TimeZone.getDefault());
 
+    // SOLR default number of rows per page
+    private static final int DEFAULT_ROWS = 10;
+
     // set of special characters to be escaped before sending to SOLR
     protected static Pattern TEXT_REGEX_CHARACTERS = Pattern.compile("[{}()\\[\\].+*?^$\\\\|]");
     // set of special characters to be escaped before sending to SOLR - allow SOLR wildcards
@@ -58,6 +68,8 @@ public class SearchData implements Serializable {
     private Integer start;
     private String[] softwareType = null;
     private boolean showFacets;
+    private String cursor = null;
+    private String view = null;
 
     /**
      * Parses JSON in the request body of the reader into a SearchDaa object.
@@ -181,6 +193,54 @@ public class SearchData implements Serializable {
 		this.sort = sort;
 	}
 
+    /**
+     * Determine the sort for cursor paging.  SOLR cursors require a sort
+     * ending on the unique key, so ties are broken by CODE ID.
+     *
+     * @return the sort order, with a codeId tiebreak if not already present
+     */
+    @JsonIgnore
+    public String getCursorSort() {
+        String order = StringUtils.trimToEmpty(sort);
+
+        if (order.isEmpty())
+            return "score desc,codeId asc";
+
+        return (order.matches("(?s).*\\bcodeId\\s+(asc|desc)\\s*$")) ? order : order + ",codeId asc";
+    }
+
+    /**
+     * The cursor position for cursor paging: "*" for the first page, then the
+     * next cursor returned with each page.
+     * @return the cursor, or null if paging by start row
+     */
+    public String getCursor() {
+        return StringUtils.trimToNull(cursor);
+    }
+
+    /**
+     * @param cursor the cursor position to set
+     */
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    /**
+     * The result view: "summary" for only the fields listed in search
+     * results, or full records by default.
+     * @return the view
+     */
+    public String getView() {
+        return view;
+    }
+
+    /**
+     * @param view the view to set
+     */
+    public void setView(String view) {
+        this.view = view;
+    }
+
         /**
          * Escape SOLR special characters in search expressions.
          *
@@ -210,42 +270,19 @@ public class SearchData implements Serializable {
         }
 
     /**
-     * Translate this Bean into a SOLR query parameter set.
+     * Translate the free-text attributes of this Bean into a SOLR query
+     * parameter.  Restrictive attributes are expressed separately, by toFq().
      *
      * @return a SOLR query parameter "q" for these attributes; default to "*:*"
      * (everything) if nothing is set
      */
     public String toQ() {
         StringBuilder q = new StringBuilder();
-        DateTimeFormatter SOLR_DATE_FORMAT = DateTimeFormatter.ISO_INSTANT;
 
         if (!StringUtils.isEmpty(getAllFields())) {
             if (q.length()>0) q.append(" ");
             q.append("_text_:(").append(escape(getAllFields(), true)).append(")");
         }
-        if (null!=getAccessibility()) {
-            StringBuilder codes = new StringBuilder();
-            for ( String code : getAccessibility()) {
-                if (codes.length()>0) codes.append(" OR ");
-                codes.append("accessibility:").append(code);
-            }
-            if ( codes.length()>0 ) {
-                if (q.length()>0) q.append(" ");
-                q.append("(").append(codes.toString()).append(")");
-            }
-        }
-        // support ARRAY of SOFTWARE TYPES
-        if (null!=getSoftwareType()) {
-            StringBuilder types = new StringBuilder();
-            for ( String type : getSoftwareType() ) {
-                if (types.length()>0) types.append(" OR ");
-                types.append("softwareType:").append(type);
-            }
-            if ( types.length()>0) {
-                if (q.length()>0) q.append(" ");
-                q.append("(").append(types.toString()).append(")");
-            }
-        }
         if (!StringUtils.isEmpty(getProgrammingLanguages())) {
             if (q.length()>0) q.append(" ");
             q.append("programmingLanguages:(").append(escape(getProgrammingLanguages(), true)).append(")");
@@ -254,32 +291,6 @@ public class SearchData implements Serializable {
             if (q.length()>0) q.append(" ");
             q.append("keywords:(").append(escape(getKeywords(), true)).append(")");
         }
-        if (!StringUtils.isEmpty(getSiteOwnershipCode())) {
-            if (q.length()>0) q.append(" ");
-            q.append("siteOwnershipCode:(").append(escape(getSiteOwnershipCode(), true)).append(")");
-        }
-        if (null!=getProjectKeywords()) {
-            StringBuilder values = new StringBuilder();
-            for ( String projectKeyword : getProjectKeywords() ) {
-                if (values.length()>0) values.append(" OR ");
-                values.append("projectKeywords:\"").append(escapeToken(projectKeyword)).append("\"");
-            }
-            if (values.length()>0) {
-                if (q.length()>0) q.append(" ");
-                q.append("(").append(values.toString()).append(")");
-            }
-        }
-        if (null!=getLicenses()) {
-            StringBuilder values = new StringBuilder();
-            for ( String license : getLicenses() ) {
-                if (values.length()>0) values.append(" OR ");
-                values.append("licenses:\"").append(escapeToken(license)).append("\"");
-            }
-            if (values.length()>0) {
-                if (q.length()>0) q.append(" ");
-                q.append("(").append(values.toString()).append(")");
-            }
-        }
         if (!StringUtils.isEmpty(getBiblioData())) {
             if (q.length()>0) q.append(" ");
             q.append("_text_:(").append(escape(getBiblioData(), true)).append(")");
@@ -312,32 +323,129 @@ public class SearchData implements Serializable {
             if (q.length()>0) q.append(" ");
             q.append("softwareTitle:(").append(escape(getSoftwareTitle(), true)).append(")");
         }
-        if (null!=getDateEarliest()) {
-            if (q.length()>0) q.append(" ");
-            q.append("releaseDate:[")
-                    .append(SOLR_DATE_FORMAT.format(
-                            getDateEarliest()
-                                    .toInstant()
-                                    .atOffset(ZoneOffset.UTC)
-                                    .withHour(0)
-                                    .withMinute(0)
-                                    .withSecond(0)))
-                    .append(" TO *]");
+
+        return (0==q.length()) ? "*:*" : q.toString();
+    }
+
+    /**
+     * Translate the restrictive attributes of this Bean (accessibility,
+     * software type, project keywords, licenses, site, and release dates) into
+     * SOLR filter queries.  Filters do not affect relevance, and SOLR caches
+     * each one separately, so common filters are shared between searches.
+     * Release dates are rounded to whole days so they may be cached as well.
+     *
+     * @return a SOLR filter query parameter "fq" for each restriction; empty
+     * if none are set
+     */
+    public List<String> toFq() {
+        List<String> fq = new ArrayList<>();
+
+        if (null!=getAccessibility()) {
+            StringBuilder codes = new StringBuilder();
+            for ( String code : getAccessibility()) {
+                if (codes.length()>0) codes.append(" OR ");
+                codes.append("accessibility:").append(code);
+            }
+            if ( codes.length()>0 )
+                fq.add(codes.toString());
         }
-        if (null!=getDateLatest()) {
-            if (q.length()>0) q.append(" ");
-            q.append("releaseDate:[* TO ")
-                    .append(SOLR_DATE_FORMAT.format(
-                    getDateLatest()
-                        .toInstant()
-                        .atOffset(ZoneOffset.UTC)
-                        .withHour(23)
-                        .withMinute(59)
-                        .withSecond(59)))
-                    .append("]");
+        // support ARRAY of SOFTWARE TYPES
+        if (null!=getSoftwareType()) {
+            StringBuilder types = new StringBuilder();
+            for ( String type : getSoftwareType() ) {
+                if (types.length()>0) types.append(" OR ");
+                types.append("softwareType:").append(type);
+            }
+            if ( types.length()>0)
+                fq.add(types.toString());
         }
-        
-        return (0==q.length()) ? "*:*" : q.toString();
+        if (!StringUtils.isEmpty(getSiteOwnershipCode()))
+            fq.add("siteOwnershipCode:(" + escape(getSiteOwnershipCode(), true) + ")");
+        if (null!=getProjectKeywords()) {
+            StringBuilder values = new StringBuilder();
+            for ( String projectKeyword : getProjectKeywords() ) {
+                if (values.length()>0) values.append(" OR ");
+                values.append("projectKeywords:\"").append(escapeToken(projectKeyword)).append("\"");
+            }
+            if (values.length()>0)
+                fq.add(values.toString());
+        }
+        if (null!=getLicenses()) {
+            StringBuilder values = new StringBuilder();
+            for ( String license : getLicenses() ) {
+                if (values.length()>0) values.append(" OR ");
+                values.append("licenses:\"").append(escapeToken(license)).append("\"");
+            }
+            if (values.length()>0)
+                fq.add(values.toString());
+        }
+        // whole UTC days: from the start of the earliest, up to (but not
+        // including) the day after the latest
+        if (null!=getDateEarliest() || null!=getDateLatest()) {
+            fq.add("releaseDate:["
+                    + ((null==getDateEarliest()) ? "*" : toSolrDay(getDateEarliest(), 0))
+                    + " TO "
+                    + ((null==getDateLatest()) ? "*]" : toSolrDay(getDateLatest(), 1) + "}"));
+        }
+
+        return fq;
+    }
+
+    /**
+     * Format the UTC day of a date as a SOLR date.
+     *
+     * @param date the date
+     * @param plusDays number of days to add
+     * @return midnight UTC of that day, as a SOLR date String
+     */
+    private static String toSolrDay(Date date, int plusDays) {
+        return DateTimeFormatter.ISO_INSTANT.format(
+                date.toInstant()
+                        .truncatedTo(ChronoUnit.DAYS)
+                        .plus(plusDays, ChronoUnit.DAYS));
+    }
+
+    /**
+     * Produce a canonical form of these search parameters, suitable as a cache
+     * key: strings are trimmed, blank values dropped, array values sorted, and
+     * rows and start given their defaults, so equivalent searches produce the
+     * same key.
+     *
+     * @return a JSON String of the normalized parameters, in name order
+     */
+    public String toCacheKey() {
+        ObjectNode source = mapper.valueToTree(this);
+        ObjectNode key = mapper.createObjectNode();
+        SortedSet<String> sorted = new TreeSet<>();
+
+        // SOLR defaults if not specified
+        if (null==getRows())
+            source.put("rows", DEFAULT_ROWS);
+        if (null==getStart())
+            source.put("start", 0);
+
+        source.fieldNames().forEachRemaining(sorted::add);
+
+        for ( String name : sorted ) {
+            JsonNode value = source.get(name);
+
+            if (value.isTextual()) {
+                String text = value.asText().trim();
+                if (!text.isEmpty())
+                    key.put(name, text);
+            } else if (value.isArray()) {
+                SortedSet<String> values = new TreeSet<>();
+                value.forEach(v -> {
+                    if (StringUtils.isNotBlank(v.asText()))
+                        values.add(v.asText().trim());
+                });
+                if (!values.isEmpty())
+                    values.forEach(key.putArray(name)::add);
+            } else if (!value.isNull()) {
+                key.set(name, value);
+            }
+        }
+        return key.toString();
     }
 
     /**
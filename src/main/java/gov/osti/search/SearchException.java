@@ -0,0 +1,31 @@
+/*
+ */
+package gov.osti.search;
+
+import java.io.IOException;
+
+/**
+ * A search rejected by the search backend, with the HTTP status to report.
+ * Carried through the search caches to the caller.
+ */
+public class SearchException extends IOException {
+    private final int status;
+
+    /**
+     * Create a search error.
+     *
+     * @param status the HTTP status code to respond with
+     * @param message the error message
+     */
+    public SearchException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    /**
+     * @return the HTTP status code
+     */
+    public int getStatus() {
+        return status;
+    }
+}
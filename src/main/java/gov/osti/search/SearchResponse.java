@@ -24,9 +24,11 @@ public class SearchResponse {
     private Integer numFound;
     @JacksonXmlProperty (isAttribute = true)
     private Integer start;
+    @JacksonXmlProperty (isAttribute = true)
+    private String nextCursor;
     @JacksonXmlElementWrapper (localName = "docs")
     @JacksonXmlProperty (localName = "doc")
-    private List<DOECodeMetadata> docs = new ArrayList<>();
+    private List<Object> docs = new ArrayList<>();
     private Map<String,Integer> facets = new LinkedHashMap<>();
     private final Map<String, Map<String, Map<String, Integer>>> facetCounts = new LinkedHashMap<>();
 
@@ -58,22 +60,50 @@ public class SearchResponse {
         this.start = start;
     }
 
-    public List<DOECodeMetadata> add(DOECodeMetadata m) {
+    /**
+     * The cursor to request the following page with, if cursor paging.  When
+     * equal to the cursor requested, there are no more results.
+     *
+     * @return the next cursor
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * @param nextCursor the next cursor to set
+     */
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Object> add(DOECodeMetadata m) {
         docs.add(m);
         return docs;
     }
 
     /**
+     * Add a summary search result, in summary view.
+     *
+     * @param s the summary to add
      * @return the docs
      */
-    public List<DOECodeMetadata> getDocs() {
+    public List<Object> add(SearchSummary s) {
+        docs.add(s);
+        return docs;
+    }
+
+    /**
+     * @return the docs; full Metadata, or SearchSummary in summary view
+     */
+    public List<Object> getDocs() {
         return docs;
     }
 
     /**
      * @param docs the docs to set
      */
-    public void setDocs(List<DOECodeMetadata> docs) {
+    public void setDocs(List<Object> docs) {
         this.docs = docs;
     }
 
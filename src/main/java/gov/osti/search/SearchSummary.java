@@ -0,0 +1,108 @@
+/*
+ */
+package gov.osti.search;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A summary search result: only the attributes shown in result lists, taken
+ * from SOLR stored fields rather than the full record JSON.
+ */
+public class SearchSummary {
+    private Long codeId;
+    private String softwareTitle;
+    private List<String> developers;
+    private Date releaseDate;
+    private String doi;
+
+    /**
+     * Summarize a search result document.  As with full results, the DOI is
+     * only shown once released.
+     *
+     * @param doc the SOLR document, with summary fields
+     * @return the summary
+     */
+    public static SearchSummary fromDocument(SolrDocument doc) {
+        SearchSummary summary = new SearchSummary();
+
+        summary.setCodeId(doc.getCodeId());
+        summary.setSoftwareTitle(doc.getSoftwareTitle());
+        summary.setDevelopers(doc.getDevelopers());
+        summary.setReleaseDate(doc.getReleaseDate());
+        if (null!=doc.getReleaseDate())
+            summary.setDoi(doc.getDoi());
+
+        return summary;
+    }
+
+    /**
+     * @return the CODE ID
+     */
+    public Long getCodeId() {
+        return codeId;
+    }
+
+    /**
+     * @param codeId the CODE ID to set
+     */
+    public void setCodeId(Long codeId) {
+        this.codeId = codeId;
+    }
+
+    /**
+     * @return the software title
+     */
+    public String getSoftwareTitle() {
+        return softwareTitle;
+    }
+
+    /**
+     * @param softwareTitle the software title to set
+     */
+    public void setSoftwareTitle(String softwareTitle) {
+        this.softwareTitle = softwareTitle;
+    }
+
+    /**
+     * @return the developer names, "Last, First Middle"
+     */
+    public List<String> getDevelopers() {
+        return developers;
+    }
+
+    /**
+     * @param developers the developer names to set
+     */
+    public void setDevelopers(List<String> developers) {
+        this.developers = developers;
+    }
+
+    /**
+     * @return the release date
+     */
+    public Date getReleaseDate() {
+        return releaseDate;
+    }
+
+    /**
+     * @param releaseDate the release date to set
+     */
+    public void setReleaseDate(Date releaseDate) {
+        this.releaseDate = releaseDate;
+    }
+
+    /**
+     * @return the DOI
+     */
+    public String getDoi() {
+        return doi;
+    }
+
+    /**
+     * @param doi the DOI to set
+     */
+    public void setDoi(String doi) {
+        this.doi = doi;
+    }
+}
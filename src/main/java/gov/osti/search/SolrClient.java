@@ -0,0 +1,167 @@
+/*
+ */
+package gov.osti.search;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import gov.osti.listeners.DoeServletContextListener;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shared HTTP transport for SOLR requests.
+ *
+ * A single pooled, keep-alive HttpClient is held for the life of the application
+ * so searches reuse established connections rather than building (and leaking)
+ * a new client per request.  Callers must NOT close the client; close or fully
+ * consume each response instead so its connection returns to the pool.
+ *
+ * Configuration parameters (all optional):
+ * search.pool.max - maximum total pooled connections (default 50)
+ * search.pool.route - maximum pooled connections per host (default 20)
+ * search.pool.idle - seconds before an idle connection is evicted (default 60)
+ * search.keepalive - maximum seconds to keep a connection alive (default 30)
+ * search.timeout.connect - connection timeout in milliseconds (default 5000)
+ * search.timeout.socket - socket read timeout in milliseconds (default 30000)
+ * search.timeout.request - milliseconds to wait for a pooled connection (default 5000)
+ */
+public class SolrClient {
+    // logger
+    private static final Logger log = LoggerFactory.getLogger(SolrClient.class);
+
+    // pool configuration
+    private static final int POOL_MAX = DoeServletContextListener.getConfigurationProperty("search.pool.max", 50);
+    private static final int POOL_ROUTE = DoeServletContextListener.getConfigurationProperty("search.pool.route", 20);
+    private static final int POOL_IDLE = DoeServletContextListener.getConfigurationProperty("search.pool.idle", 60);
+    private static final int KEEP_ALIVE = DoeServletContextListener.getConfigurationProperty("search.keepalive", 30);
+    // timeout configuration
+    private static final int CONNECT_TIMEOUT = DoeServletContextListener.getConfigurationProperty("search.timeout.connect", 5000);
+    private static final int SOCKET_TIMEOUT = DoeServletContextListener.getConfigurationProperty("search.timeout.socket", 30000);
+    private static final int REQUEST_TIMEOUT = DoeServletContextListener.getConfigurationProperty("search.timeout.request", 5000);
+
+    // a JSON mapper for statistics
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    // the shared pool and client, created on first use
+    private static PoolingHttpClientConnectionManager manager = null;
+    private static volatile CloseableHttpClient client = null;
+
+    private SolrClient() {
+    }
+
+    /**
+     * Honor any server-supplied keep-alive, but never hold a connection longer
+     * than the configured maximum.
+     */
+    private static final ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+        long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+        long maximum = TimeUnit.SECONDS.toMillis(KEEP_ALIVE);
+
+        return (duration <= 0 || duration > maximum) ? maximum : duration;
+    };
+
+    /**
+     * Obtain the shared SOLR HttpClient, creating the connection pool on first
+     * use.
+     *
+     * @return the pooled HttpClient instance
+     */
+    public static CloseableHttpClient getClient() {
+        CloseableHttpClient hc = client;
+
+        if (null==hc) {
+            synchronized (SolrClient.class) {
+                hc = client;
+
+                if (null==hc) {
+                    manager = new PoolingHttpClientConnectionManager();
+                    manager.setMaxTotal(POOL_MAX);
+                    manager.setDefaultMaxPerRoute(POOL_ROUTE);
+                    // re-check connections that sat idle before leasing them out again
+                    manager.setValidateAfterInactivity(2000);
+
+                    hc = HttpClients
+                            .custom()
+                            .setConnectionManager(manager)
+                            .setKeepAliveStrategy(keepAliveStrategy)
+                            .evictExpiredConnections()
+                            .evictIdleConnections(POOL_IDLE, TimeUnit.SECONDS)
+                            .setDefaultRequestConfig(RequestConfig
+                                    .custom()
+                                    .setConnectTimeout(CONNECT_TIMEOUT)
+                                    .setSocketTimeout(SOCKET_TIMEOUT)
+                                    .setConnectionRequestTimeout(REQUEST_TIMEOUT)
+                                    .build())
+                            .build();
+
+                    client = hc;
+                    log.info("SOLR connection pool started: max=" + POOL_MAX + " per route=" + POOL_ROUTE);
+                }
+            }
+        }
+
+        return hc;
+    }
+
+    /**
+     * Report connection pool utilization, in total and for each host route.
+     *
+     * @return JSON statistics about the connection pool
+     */
+    public static synchronized ObjectNode getStatistics() {
+        ObjectNode stats = mapper.createObjectNode();
+
+        stats.put("started", null!=manager);
+        stats.put("max_total", POOL_MAX);
+        stats.put("max_per_route", POOL_ROUTE);
+
+        if (null!=manager) {
+            PoolStats total = manager.getTotalStats();
+
+            stats.put("leased", total.getLeased());
+            stats.put("available", total.getAvailable());
+            stats.put("pending", total.getPending());
+
+            ArrayNode routes = stats.putArray("routes");
+            for ( HttpRoute route : manager.getRoutes() ) {
+                PoolStats routeStats = manager.getStats(route);
+
+                routes.addObject()
+                        .put("host", route.getTargetHost().toURI())
+                        .put("leased", routeStats.getLeased())
+                        .put("available", routeStats.getAvailable())
+                        .put("pending", routeStats.getPending());
+            }
+        }
+
+        return stats;
+    }
+
+    /**
+     * Shut down the connection pool, if started.  Called on application
+     * shutdown.
+     */
+    public static synchronized void close() {
+        if (null!=client) {
+            try {
+                client.close();
+            } catch ( IOException e ) {
+                log.warn("SOLR Pool Close Error: " + e.getMessage());
+            } finally {
+                client = null;
+                manager = null;
+            }
+        }
+    }
+}
@@ -3,7 +3,10 @@
 package gov.osti.search;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import java.io.Serializable;
+import java.util.Date;
+import java.util.List;
 
 /**
  * Search result for a single Document found.
@@ -14,6 +17,18 @@ import java.io.Serializable;
 public class SolrDocument implements Serializable {
     private String json;
 
+    // stored fields requested for summary results
+    @JsonProperty (value = "codeId")
+    private Long codeId;
+    @JsonProperty (value = "softwareTitle")
+    private String softwareTitle;
+    @JsonProperty (value = "developers.name")
+    private List<String> developers;
+    @JsonProperty (value = "releaseDate")
+    private Date releaseDate;
+    @JsonProperty (value = "doi")
+    private String doi;
+
     /**
      * @return the json
      */
@@ -27,4 +42,39 @@ public class SolrDocument implements Serializable {
     public void setJson(String json) {
         this.json = json;
     }
+
+    /**
+     * @return the CODE ID
+     */
+    public Long getCodeId() {
+        return codeId;
+    }
+
+    /**
+     * @return the software title
+     */
+    public String getSoftwareTitle() {
+        return softwareTitle;
+    }
+
+    /**
+     * @return the developer names
+     */
+    public List<String> getDevelopers() {
+        return developers;
+    }
+
+    /**
+     * @return the release date
+     */
+    public Date getReleaseDate() {
+        return releaseDate;
+    }
+
+    /**
+     * @return the DOI
+     */
+    public String getDoi() {
+        return doi;
+    }
 }
@@ -19,6 +19,8 @@ public class SolrResult {
     private SolrFacet facet;
     @JsonProperty(value = "facet_counts")
     private SolrFacetCounts facetCounts;
+    @JsonProperty (value = "nextCursorMark")
+    private String nextCursorMark;
 
     /**
      * Get the SearchResponse from this search.
@@ -52,4 +54,15 @@ public class SolrResult {
     public SolrFacet getSolrFacet() {
         return facet;
     }
+
+    /**
+     * @return the cursor for the next page, if cursor paging
+     */
+    public String getNextCursorMark() {
+        return nextCursorMark;
+    }
+
+    public void setNextCursorMark(String nextCursorMark) {
+        this.nextCursorMark = nextCursorMark;
+    }
 }
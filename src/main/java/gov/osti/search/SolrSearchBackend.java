@@ -0,0 +1,74 @@
+/*
+ */
+package gov.osti.search;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Search an external SOLR search handler, over the pooled SOLR connections.
+ */
+public class SolrSearchBackend implements SearchBackend {
+    // logger
+    private static final Logger log = LoggerFactory.getLogger(SolrSearchBackend.class);
+
+    private final String url;
+
+    /**
+     * @param url the SOLR search handler URL
+     */
+    public SolrSearchBackend(String url) {
+        this.url = url;
+    }
+
+    @Override
+    public String search(URIBuilder params) throws IOException {
+        return search(params, in -> IOUtils.toString(in, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Run a search, reading the response straight from the connection.
+     *
+     * @param <T> the type read
+     * @param params the SOLR request parameters
+     * @param reader reads the JSON response
+     * @return the value read
+     * @throws SearchException if the search was rejected
+     * @throws IOException on search engine errors
+     */
+    @Override
+    public <T> T search(URIBuilder params, ResponseReader<T> reader) throws IOException {
+        try {
+            HttpGet get = new HttpGet(new URIBuilder(url)
+                    .addParameters(params.getQueryParams())
+                    .build());
+
+            try (CloseableHttpResponse response = SolrClient.getClient().execute(get)) {
+                if (HttpStatus.SC_OK!=response.getStatusLine().getStatusCode())
+                    throw new SearchException(response.getStatusLine().getStatusCode(), EntityUtils.toString(response.getEntity()));
+
+                try (InputStream in = response.getEntity().getContent()) {
+                    return reader.read(in);
+                }
+            }
+        } catch ( URISyntaxException e ) {
+            log.warn("URI Error: " + e.getMessage());
+            throw new SearchException(HttpStatus.SC_INTERNAL_SERVER_ERROR, "Unable to contact search provider.");
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "solr";
+    }
+}
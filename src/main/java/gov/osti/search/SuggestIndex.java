@@ -0,0 +1,439 @@
+/*
+ */
+package gov.osti.search;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import gov.osti.entity.DOECodeMetadata;
+import gov.osti.entity.MetadataSnapshot;
+import gov.osti.entity.Organization;
+import gov.osti.listeners.DoeServletContextListener;
+import java.io.IOException;
+import java.io.StringReader;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-memory prefix index of terms from Approved records, for typeahead
+ * suggestions without searching SOLR.
+ *
+ * Software titles, acronyms, developer names, research and sponsoring
+ * organizations, and keywords are indexed by their normalized text (lower
+ * case, without accents or punctuation), and also by each later word within
+ * them, so "Oak Ridge National Laboratory" is suggested for "ridge" as well as
+ * "oak".  Lookups read a sorted concurrent map without locking; updates replace
+ * all of a record's terms at once.  Suggestions are ranked by the number of
+ * records using each term.
+ *
+ * A one- or two-letter prefix can match most of the index, so the most used
+ * suggestions for each such prefix and kind are ranked over all its entries
+ * once, kept, and dropped again when an update touches a term under that
+ * prefix.  Longer prefixes are ranked over at most a bounded number of
+ * matching entries.
+ *
+ * The shared index is loaded from Approved snapshots in the background at
+ * startup, and updated as records are approved.
+ */
+public class SuggestIndex {
+    // logger
+    private static final Logger log = LoggerFactory.getLogger(SuggestIndex.class);
+
+    // snapshots read per page while loading
+    private static final int PAGE_SIZE = 500;
+    // most matching index entries ranked per lookup of a longer prefix
+    private static final int MAX_SCAN = 20000;
+    // prefixes this long or shorter keep their most used suggestions
+    private static final int SHORT_PREFIX = 2;
+    // suggestions kept for each short prefix and kind
+    private static final int TOP_K = 50;
+    // most words within a term also indexed
+    private static final int MAX_WORDS = 8;
+
+    // a JSON mapper for statistics
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    // the shared index
+    private static final SuggestIndex INDEX = new SuggestIndex();
+    // background loader
+    private static ExecutorService executor = null;
+
+    /**
+     * The kinds of terms suggested.
+     */
+    public enum Type {
+        Title,
+        Acronym,
+        Developer,
+        Organization,
+        Keyword
+    }
+
+    /**
+     * A suggested term, with the number of records using it.
+     */
+    public static class Suggestion {
+        private final String text;
+        private final Type type;
+        private final Set<Long> codeIds = new HashSet<>();
+        // updated under the index lock, read without it
+        private volatile int count = 0;
+
+        Suggestion(String text, Type type) {
+            this.text = text;
+            this.type = type;
+        }
+
+        /**
+         * @return the display text
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * @return the kind of term
+         */
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * @return the number of records using this term
+         */
+        public int getCount() {
+            return count;
+        }
+    }
+
+    // suggestions by normalized word-start, kind, and normalized term
+    private final ConcurrentSkipListMap<String, Suggestion> prefixes = new ConcurrentSkipListMap<>();
+    // suggestions by kind and normalized term, guarded by this
+    private final Map<String, Suggestion> terms = new HashMap<>();
+    // each record's suggestions, guarded by this
+    private final Map<Long, Set<Suggestion>> records = new HashMap<>();
+    // most used suggestions by short prefix and kind
+    private final Map<String, List<Suggestion>> shortPrefixes = new ConcurrentHashMap<>();
+    // updates made, so a ranking made during one is not kept; guarded by this
+    private long generation = 0;
+    private volatile boolean loaded = false;
+
+    /**
+     * @return the shared index
+     */
+    public static SuggestIndex getInstance() {
+        return INDEX;
+    }
+
+    /**
+     * Load the shared index from Approved snapshots in the background.
+     */
+    public static synchronized void start() {
+        if (null!=executor)
+            return;
+
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "suggest-loader");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.execute(SuggestIndex::load);
+    }
+
+    /**
+     * Stop any load in progress.
+     */
+    public static synchronized void stop() {
+        if (null==executor)
+            return;
+
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+    }
+
+    /**
+     * Read every Approved snapshot into the shared index, a page at a time.
+     */
+    private static void load() {
+        EntityManager em = DoeServletContextListener.createEntityManager();
+        long started = System.currentTimeMillis();
+        long lastCodeId = 0;
+
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                List<MetadataSnapshot> page = em.createNamedQuery("MetadataSnapshot.findByStatusAfterCodeId", MetadataSnapshot.class)
+                        .setParameter("status", DOECodeMetadata.Status.Approved)
+                        .setParameter("codeId", lastCodeId)
+                        .setMaxResults(PAGE_SIZE)
+                        .getResultList();
+
+                if (page.isEmpty())
+                    break;
+
+                for ( MetadataSnapshot snapshot : page ) {
+                    lastCodeId = snapshot.getSnapshotKey().getCodeId();
+
+                    try {
+                        INDEX.put(lastCodeId, DOECodeMetadata.parseJson(new StringReader(snapshot.getJson())));
+                    } catch ( IOException e ) {
+                        log.warn("Unable to suggest terms for CODE ID " + lastCodeId + ": " + e.getMessage());
+                    }
+                }
+                em.clear();
+            }
+            INDEX.loaded = true;
+
+            log.info("Suggestion index loaded: " + INDEX.records.size() + " records in " + (System.currentTimeMillis() - started) + " ms.");
+        } catch ( RuntimeException e ) {
+            log.warn("Suggestion index load failed: " + e.getMessage());
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Index a record's terms, replacing any it previously had.
+     *
+     * @param codeId the CODE ID
+     * @param md the Approved metadata
+     */
+    public synchronized void put(Long codeId, DOECodeMetadata md) {
+        remove(codeId);
+        ++generation;
+
+        Map<String, Type> found = new HashMap<>();
+        found.put(md.getSoftwareTitle(), Type.Title);
+        found.put(md.getAcronym(), Type.Acronym);
+        if (null!=md.getDevelopers())
+            md.getDevelopers().forEach(d -> found.put(StringUtils.isBlank(d.getFirstName()) ?
+                    d.getLastName() : StringUtils.defaultString(d.getLastName()) + ", " + d.getFirstName(), Type.Developer));
+        if (null!=md.getResearchOrganizations())
+            md.getResearchOrganizations().stream().map(Organization::getOrganizationName).forEach(o -> found.put(o, Type.Organization));
+        if (null!=md.getSponsoringOrganizations())
+            md.getSponsoringOrganizations().stream().map(Organization::getOrganizationName).forEach(o -> found.put(o, Type.Organization));
+        for ( String keyword : StringUtils.split(StringUtils.defaultString(md.getKeywords()), ";,") )
+            found.put(keyword, Type.Keyword);
+        if (null!=md.getProjectKeywords())
+            md.getProjectKeywords().forEach(k -> found.put(k, Type.Keyword));
+
+        Set<Suggestion> suggestions = Collections.newSetFromMap(new IdentityHashMap<>());
+        for ( Map.Entry<String, Type> entry : found.entrySet() ) {
+            String text = StringUtils.normalizeSpace(entry.getKey());
+            String term = normalize(text);
+
+            if (StringUtils.isEmpty(term))
+                continue;
+
+            String key = entry.getValue().ordinal() + "\u0000" + term;
+            Suggestion suggestion = terms.get(key);
+            if (null==suggestion) {
+                suggestion = new Suggestion(text, entry.getValue());
+                terms.put(key, suggestion);
+                for ( String start : getWordStarts(term) )
+                    prefixes.put(start + "\u0000" + key, suggestion);
+            }
+            suggestion.codeIds.add(codeId);
+            suggestion.count = suggestion.codeIds.size();
+            suggestions.add(suggestion);
+            forgetShortPrefixes(term);
+        }
+
+        if (!suggestions.isEmpty())
+            records.put(codeId, suggestions);
+    }
+
+    /**
+     * Remove a record's terms, dropping any no other record uses.
+     *
+     * @param codeId the CODE ID
+     */
+    public synchronized void remove(Long codeId) {
+        Set<Suggestion> previous = records.remove(codeId);
+
+        if (null==previous)
+            return;
+
+        ++generation;
+        for ( Suggestion suggestion : previous ) {
+            suggestion.codeIds.remove(codeId);
+            suggestion.count = suggestion.codeIds.size();
+            forgetShortPrefixes(normalize(suggestion.text));
+
+            if (suggestion.codeIds.isEmpty()) {
+                String key = suggestion.type.ordinal() + "\u0000" + normalize(suggestion.text);
+
+                terms.remove(key);
+                for ( String start : getWordStarts(normalize(suggestion.text)) )
+                    prefixes.remove(start + "\u0000" + key);
+            }
+        }
+    }
+
+    /**
+     * Suggest terms beginning with, or with a word beginning with, some text.
+     *
+     * @param prefix the text entered so far
+     * @param type the kind of term, or null for any
+     * @param limit the most suggestions to return
+     * @return suggestions, most frequently used first
+     */
+    public List<Suggestion> lookup(String prefix, Type type, int limit) {
+        String start = normalize(StringUtils.defaultString(prefix));
+
+        if (start.isEmpty() || limit < 1)
+            return Collections.emptyList();
+
+        ConcurrentNavigableMap<String, Suggestion> matches = prefixes.subMap(start, start + Character.MAX_VALUE);
+
+        if (start.length() > SHORT_PREFIX || limit > TOP_K)
+            return rank(matches.values(), type, limit, MAX_SCAN);
+
+        String key = start + "\u0000" + ((null==type) ? "" : type.name());
+        List<Suggestion> top = shortPrefixes.get(key);
+
+        if (null==top) {
+            long before;
+            synchronized (this) {
+                before = generation;
+            }
+
+            top = Collections.unmodifiableList(rank(matches.values(), type, TOP_K, Integer.MAX_VALUE));
+            // keep it only if no update could have changed it meanwhile
+            synchronized (this) {
+                if (before==generation)
+                    shortPrefixes.put(key, top);
+            }
+        }
+
+        return new ArrayList<>(top.subList(0, Math.min(limit, top.size())));
+    }
+
+    /**
+     * Rank matching suggestions by use.
+     *
+     * @param matches the index entries matching a prefix, in key order
+     * @param type the kind of term, or null for any
+     * @param limit the most suggestions to return
+     * @param maxScan the most suggestions of the kind to rank
+     * @return suggestions, most frequently used first
+     */
+    private static List<Suggestion> rank(Collection<Suggestion> matches, Type type, int limit, int maxScan) {
+        Comparator<Suggestion> ranking = Comparator
+                .comparingInt(Suggestion::getCount)
+                .thenComparing(Suggestion::getText, Comparator.reverseOrder());
+        PriorityQueue<Suggestion> best = new PriorityQueue<>(limit + 1, ranking);
+        Set<Suggestion> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        int scanned = 0;
+
+        for ( Suggestion suggestion : matches ) {
+            // only entries of the kind wanted count toward the bound
+            if ((null!=type && type!=suggestion.type) || suggestion.count < 1 || !seen.add(suggestion))
+                continue;
+            if (++scanned > maxScan)
+                break;
+
+            best.add(suggestion);
+            if (best.size() > limit)
+                best.poll();
+        }
+
+        List<Suggestion> results = new ArrayList<>(best);
+        results.sort(ranking.reversed());
+
+        return results;
+    }
+
+    /**
+     * Drop the kept suggestions of every short prefix of a term's words.
+     * Called under the index lock.
+     *
+     * @param term the normalized term
+     */
+    private void forgetShortPrefixes(String term) {
+        for ( String start : getWordStarts(term) ) {
+            for ( int length = 1 ; length <= Math.min(SHORT_PREFIX, start.length()) ; ++length ) {
+                String prefix = start.substring(0, length) + "\u0000";
+
+                shortPrefixes.remove(prefix);
+                for ( Type type : Type.values() )
+                    shortPrefixes.remove(prefix + type.name());
+            }
+        }
+    }
+
+    /**
+     * Report on index size.
+     *
+     * @return JSON counts of records, terms, prefix entries, and short
+     * prefix rankings kept
+     */
+    public synchronized ObjectNode getStatistics() {
+        return mapper.createObjectNode()
+                .put("loaded", loaded)
+                .put("records", records.size())
+                .put("terms", terms.size())
+                .put("entries", prefixes.size())
+                .put("short_prefixes", shortPrefixes.size());
+    }
+
+    /**
+     * Normalize text for matching: lower case, without accents, and with
+     * punctuation replaced by single spaces.
+     *
+     * @param text the text
+     * @return the normalized text
+     */
+    protected static String normalize(String text) {
+        String plain = Normalizer
+                .normalize(StringUtils.defaultString(text), Normalizer.Form.NFD)
+                .replaceAll("\\p{M}+", "")
+                .toLowerCase(Locale.ROOT);
+
+        return StringUtils.normalizeSpace(plain.replaceAll("[^\\p{L}\\p{N}]+", " "));
+    }
+
+    /**
+     * Obtain the normalized term from each of its first words onward.
+     *
+     * @param term the normalized term
+     * @return the term, and the remainder of it from each later word
+     */
+    private static List<String> getWordStarts(String term) {
+        List<String> starts = new ArrayList<>();
+        int index = 0;
+
+        while (index >= 0 && starts.size() < MAX_WORDS) {
+            starts.add(term.substring(index));
+            index = term.indexOf(' ', index);
+            if (index >= 0)
+                ++index;
+        }
+
+        return starts;
+    }
+}
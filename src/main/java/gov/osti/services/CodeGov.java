@@ -7,18 +7,18 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.PropertyNamingStrategy;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.ser.FilterProvider;
 import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
 import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
 
+import gov.osti.connectors.LaborHours;
 import gov.osti.entity.MetadataSnapshot;
 import gov.osti.entity.DOECodeMetadata;
 import gov.osti.entity.Site;
+import gov.osti.indexer.CodeGovGenerator;
+import gov.osti.indexer.LaborEstimator;
 import gov.osti.listeners.DoeServletContextListener;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.net.URLEncoder;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.attribute.FileTime;
@@ -26,10 +26,12 @@ import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.time.format.FormatStyle;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.Set;
 import java.nio.file.attribute.BasicFileAttributes;
 
 import javax.persistence.EntityManager;
@@ -38,26 +40,22 @@ import javax.servlet.ServletContext;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.Produces;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import org.apache.shiro.authz.annotation.RequiresAuthentication;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.HttpResponse;
-import org.apache.http.HttpStatus;
-import org.apache.http.util.EntityUtils;
-import org.apache.http.client.config.RequestConfig;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.entity.mime.HttpMultipartMode;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
 import org.apache.http.entity.mime.content.FileBody;
 import org.apache.http.entity.mime.content.StringBody;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
 
 import java.util.TimeZone;
 import org.apache.shiro.authz.annotation.RequiresRoles;
@@ -88,8 +86,8 @@ public class CodeGov {
     // absolute filesystem location to store uploaded files, if any
     private static final String FILE_UPLOADS = DoeServletContextListener.getConfigurationProperty("file.uploads");
 
-    // API path to archiver services if available
-    private static String ARCHIVER_URL = DoeServletContextListener.getConfigurationProperty("archiver.url");
+    // the current Code.gov JSON, held in memory
+    private static final CodeGovFile CODEGOV_FILE = new CodeGovFile(Paths.get(FILE_UPLOADS, "codegov", "code.json"));
 
     /**
      * Creates a new instance of MetadataResource for use with Code.gov
@@ -214,33 +212,45 @@ public class CodeGov {
     }
 
     /**
-     * Listing current Code.gov JSON data.
+     * Listing current Code.gov JSON data.  Sent gzip-compressed to clients
+     * accepting that.
      *
+     * @param request the HTTP request, for conditional GETs
+     * @param acceptEncoding the Accept-Encoding request header
      * @return the Code.gov JSON information
-     * @throws JsonProcessingException
      */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public Response listCodeGovData()
-            throws JsonProcessingException {
-
+    public Response listCodeGovData(@Context Request request, @HeaderParam("Accept-Encoding") String acceptEncoding) {
         try {
-            java.nio.file.Path codegovFile = Paths.get(FILE_UPLOADS, "codegov", "code.json");
+            CodeGovFile.Version codegov = CODEGOV_FILE.get();
 
             // if no file was found, fail
-            if (!Files.exists(codegovFile))
+            if (null==codegov)
                 return ErrorResponse
                         .status(Response.Status.NOT_FOUND, "Code.gov JSON file not found!")
                         .build();
 
-            // read file
-            JsonNode json = JSON_MAPPER.readTree(new FileInputStream(codegovFile.toString()));
+            boolean gzip = ContentCoding.accepts(acceptEncoding, "gzip");
+            // compressed and plain are different representations
+            EntityTag etag = (gzip) ? new EntityTag(codegov.getEtag().getValue() + "-gzip") : codegov.getEtag();
 
-            return Response
-                    .status(Response.Status.OK)
-                    .entity(mapper.writerWithDefaultPrettyPrinter().writeValueAsString(json))
-                    .build();
+            Response.ResponseBuilder notModified = request.evaluatePreconditions(codegov.getLastModified(), etag);
+            if (null!=notModified)
+                return notModified
+                        .header("Vary", "Accept-Encoding")
+                        .build();
 
+            Response.ResponseBuilder builder = Response
+                    .status(Response.Status.OK)
+                    .entity((gzip) ? codegov.getCompressed() : codegov.getPretty())
+                    .lastModified(codegov.getLastModified())
+                    .tag(etag)
+                    .header("Vary", "Accept-Encoding");
+            if (gzip)
+                builder.header("Content-Encoding", "gzip");
+
+            return builder.build();
         } catch (IOException e) {  // IO
             log.warn("JSON conversion error: " + e.getMessage());
             return ErrorResponse
@@ -260,10 +270,10 @@ public class CodeGov {
     @Produces(MediaType.APPLICATION_JSON)
     public Response getCodeGovInfo() throws JsonProcessingException {
         try {
-            java.nio.file.Path codegovFile = Paths.get(FILE_UPLOADS, "codegov", "code.json");
+            CodeGovFile.Version codegov = CODEGOV_FILE.get();
 
             // if no file was found, fail
-            if (!Files.exists(codegovFile))
+            if (null==codegov)
                 return ErrorResponse.status(Response.Status.NOT_FOUND, "Code.gov JSON file not found!").build();
 
             // read file info
@@ -271,57 +281,30 @@ public class CodeGov {
             DateTimeFormatter formatter = DateTimeFormatter.ofPattern("M/dd/yyyy h:mm:ss a").withLocale(Locale.US).withZone(ZoneId.systemDefault());
             
             try {
-                attr = Files.readAttributes(codegovFile, BasicFileAttributes.class);
+                attr = Files.readAttributes(CODEGOV_FILE.getPath(), BasicFileAttributes.class);
             } catch (Exception e) {
                 log.warn("Cannot get the Code Gov JSON file attributes - " + e);
                 return ErrorResponse.status(Response.Status.NOT_FOUND, "Unable to get file attributes from Code.gov JSON file!").build();
             }
 
-            // read file
-            JsonNode json = JSON_MAPPER.readTree(new FileInputStream(codegovFile.toString()));
-
-            // get releases
-            JsonNode releases = json.get("releases");
-
-            // iterate, counting usage types
-            Map<String, Integer> usageMap = new TreeMap();
-            if (releases.isArray()) {
-                ArrayNode releasesArray = (ArrayNode) releases;
-        
-                for (int i = 0; i < releasesArray.size(); i++) {
-                    JsonNode projectNode = releasesArray.get(i);
-
-                    String permission = "Unknown";
-                    try {
-                        permission = projectNode.get("permissions").get("usageType").asText();
-                    } catch (Exception e) {
-                        permission = "Unknown";
-                    }
-
-                    Integer count = usageMap.get(permission);
-                    count = (count ==  null) ? 1 : count + 1;
-
-                    usageMap.put(permission, count);
-
-                }
-            }
-
-            // generate return JSON
+            // generate return JSON, from usage types counted when the file was read
             ObjectNode info = JSON_MAPPER.createObjectNode();
             ObjectNode records = JSON_MAPPER.createObjectNode();
             ObjectNode usage = JSON_MAPPER.createObjectNode();
 
-            for (String key : usageMap.keySet()) {
-                int count = usageMap.get(key);
-                usage.put(key, count);
-            }
+            codegov.getUsage().forEach(usage::put);
 
-            records.put("total", (releases != null ? releases.size() : 0));
-            records.put("usage", usage);
+            records.put("total", codegov.getTotal());
+            records.set("usage", usage);
 
-            info.put("records", records);
+            info.set("records", records);
             info.put("last_accessed", formatter.format(attr.lastAccessTime().toInstant()));
             info.put("last_modified", formatter.format(attr.lastModifiedTime().toInstant()));            
+            // generation statistics, if maintained here
+            if (null!=CodeGovGenerator.getInstance())
+                info.set("generator", CodeGovGenerator.getInstance().getStatistics());
+            info.set("labor_hours", LaborHours.getStatistics());
+            info.set("labor_estimates", LaborEstimator.getStatistics());
 
             return Response.status(Response.Status.OK)
                     .entity(mapper.writerWithDefaultPrettyPrinter().writeValueAsString(info)).build();
@@ -367,39 +350,39 @@ public class CodeGov {
             RecordsList records = new RecordsList(metadataList);
             ObjectNode recordsObject = mapper.setFilterProvider(filter).valueToTree(records);
 
-            // lookup Announced Snapshot status info for each item
-            TypedQuery<MetadataSnapshot> querySnapshot = em.createNamedQuery("MetadataSnapshot.findByCodeIdAndStatus", MetadataSnapshot.class)
-                    .setParameter("status", DOECodeMetadata.Status.Announced);
+            // every record ever Announced, in one query
+            Set<Long> announced = new HashSet<>(em.createNamedQuery("MetadataSnapshot.findCodeIdsByStatus", Long.class)
+                    .setParameter("status", DOECodeMetadata.Status.Announced)
+                    .getResultList());
+
+            // every Lab, by Site Code
+            Map<String, Site> sites = new HashMap<>();
+            for (Site site : em.createNamedQuery("Site.findAll", Site.class).getResultList())
+                sites.put(site.getSiteCode(), site);
 
-            // lookup Lab Name for each item
-            TypedQuery<Site> querySite = em.createNamedQuery("Site.findBySiteCode", Site.class);
+            // labor hours estimated here, by CODE ID, with the file each was counted from
+            Map<Long, Object[]> estimates = new HashMap<>();
+            for (Object[] row : em.createNamedQuery("LaborEstimate.findHours", Object[].class).getResultList())
+                estimates.put((Long) row[0], row);
 
             JsonNode recordNode = recordsObject.get("records");
             if (recordNode.isArray()) {
                 int rowCount = 0;
+                List<LaborHours.Project> projects = new ArrayList<>();
+                Map<Long, Double> estimated = new HashMap<>();
+
                 for (JsonNode objNode : recordNode) {
                     rowCount++;
 
                     // get code_id to find Snapshot
                     long codeId = objNode.get("code_id").asLong();
-                    querySnapshot.setParameter("codeId", codeId);
 
                     // if Announced Snapshot exists, then it has been "ever_announced"
-                    List<MetadataSnapshot> snapshotResults = querySnapshot.setMaxResults(1).getResultList();
-                    boolean everAnnounced = snapshotResults.size() > 0;
-
-                    // add "ever_announced" status indicator to response record
-                    ((ObjectNode) objNode).put("ever_announced", everAnnounced);
-
-                    // get site_ownership_code to find Lab
-                    String siteCode = objNode.get("site_ownership_code").asText();
-                    querySite.setParameter("site", siteCode);
+                    ((ObjectNode) objNode).put("ever_announced", announced.contains(codeId));
 
                     // if Site Code exists, then it create "lab_display_name" from Lab and Site Code.
-                    List<Site> siteResults = querySite.setMaxResults(1).getResultList();
-                    if (siteResults.size() > 0) {
-                        Site s = siteResults.get(0);
-
+                    Site s = sites.get(objNode.path("site_ownership_code").asText());
+                    if (null!=s) {
                         String labDisplayName = s.getLab() + " (" + s.getSiteCode() + ")";
 
                         // add "lab_display_name" info to response record
@@ -419,11 +402,21 @@ public class CodeGov {
                         obj = objNode.get("file_name");
                         fileName = obj == null ? "" : obj.asText();
                     }
-                    Double labor = getProjectLaborHours(codeId, fileName, repositoryLink);
 
-                    ((ObjectNode) objNode).put("labor_hours", labor);
+                    // use any estimate of the current uploaded file, rather than asking the ARCHIVER
+                    Object[] estimate = estimates.get(codeId);
+                    if (null!=estimate && estimate[1].equals(objNode.path("file_name").asText(null)))
+                        estimated.put(codeId, (Double) estimate[2]);
+                    else
+                        projects.add(new LaborHours.Project(codeId, fileName, repositoryLink));
                 }
 
+                // look up labor hours for the rest all together
+                Map<Long, Double> labor = LaborHours.lookup(projects);
+                labor.putAll(estimated);
+                for (JsonNode objNode : recordNode)
+                    ((ObjectNode) objNode).put("labor_hours", labor.get(objNode.get("code_id").asLong()));
+
                 // update Total
                 recordsObject.put("total", rowCount);
             }
@@ -442,65 +435,4 @@ public class CodeGov {
             em.close();
         }
     }
-
-    /**
-     * Send this Metadata to the ARCHIVER external support process to lookup latest Project info.
-     *
-     * Needs a CODE ID, and ARCHIVE FILE or REPOSITORY LINK if lookup validation is required.
-     *
-     * If any issues arise, log the error and return 0.0 (a valid "labor hour" is always required).
-     *
-     * @param codeId the CODE ID for this METADATA
-     */
-    private static double getProjectLaborHours(Long codeId, String fileName, String repositoryLink) {
-        if ( "".equals(ARCHIVER_URL) )
-            return 0.0;
-
-        // set up a connection
-        CloseableHttpClient hc =
-                HttpClientBuilder
-                .create()
-                .setDefaultRequestConfig(RequestConfig
-                        .custom()
-                        .setSocketTimeout(300000)
-                        .setConnectTimeout(300000)
-                        .setConnectionRequestTimeout(300000)
-                        .build())
-                .build();
-
-        try {
-            String url = ARCHIVER_URL + "/latest/" + codeId;
-
-            if (fileName != null)
-                url += "?fileName=" + URLEncoder.encode(fileName);
-            else if (repositoryLink != null)
-                url += "?repositoryLink=" + URLEncoder.encode(repositoryLink);
-
-            HttpGet get = new HttpGet(url);
-
-            HttpResponse response = hc.execute(get);
-
-            int statusCode = response.getStatusLine().getStatusCode();
-
-            String responseText = EntityUtils.toString(response.getEntity());
-
-            if (HttpStatus.SC_OK!=statusCode) {
-                return 0.0;
-            }
-
-            JsonNode projectInfo = mapper.readTree(responseText);
-            double labor = projectInfo.get("labor_hours").asDouble();
-
-            return labor;
-        } catch ( IOException e ) {
-            log.warn("Archiver Labor request error: " + e.getMessage());
-            return 0.0;
-        } finally {
-            try {
-                if (null!=hc) hc.close();
-            } catch ( IOException e ) {
-                log.warn("Close Error: " + e.getMessage());
-            }
-        }
-    }
 }
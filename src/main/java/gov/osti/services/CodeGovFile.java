@@ -0,0 +1,187 @@
+/*
+ */
+package gov.osti.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPOutputStream;
+import javax.ws.rs.core.EntityTag;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The Code.gov JSON file, held in memory as served.
+ *
+ * The file is parsed only when its modification time or size changes, and
+ * kept as pretty-printed and gzip-compressed bytes along with its release
+ * usage type counts.  Requests only check the file's attributes.  If a
+ * changed file cannot be parsed (such as while still being written), the
+ * previous version continues to be served.
+ */
+public class CodeGovFile {
+    // logger
+    private static final Logger log = LoggerFactory.getLogger(CodeGovFile.class);
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final Path path;
+    private volatile Version current = null;
+
+    /**
+     * One parsed version of the file.
+     */
+    public static class Version {
+        private final FileTime modified;
+        private final long size;
+        private final byte[] pretty;
+        private final byte[] compressed;
+        private final EntityTag etag;
+        private final int total;
+        private final Map<String, Integer> usage;
+
+        Version(FileTime modified, long size, JsonNode json) throws IOException {
+            this.modified = modified;
+            this.size = size;
+            this.pretty = mapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(json);
+            this.etag = new EntityTag(DigestUtils.sha1Hex(pretty));
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(pretty.length / 4);
+            try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+                out.write(pretty);
+            }
+            this.compressed = bytes.toByteArray();
+
+            // count releases by usage type
+            JsonNode releases = json.path("releases");
+            Map<String, Integer> counts = new TreeMap<>();
+            for ( JsonNode release : releases )
+                counts.merge(release.path("permissions").path("usageType").asText("Unknown"), 1, Integer::sum);
+            this.total = releases.size();
+            this.usage = Collections.unmodifiableMap(counts);
+        }
+
+        /**
+         * @return the pretty-printed JSON
+         */
+        public byte[] getPretty() {
+            return pretty;
+        }
+
+        /**
+         * @return the pretty-printed JSON, gzip-compressed
+         */
+        public byte[] getCompressed() {
+            return compressed;
+        }
+
+        /**
+         * @return the entity tag of the pretty-printed JSON
+         */
+        public EntityTag getEtag() {
+            return etag;
+        }
+
+        /**
+         * @return the file modification time, to the second
+         */
+        public Date getLastModified() {
+            return new Date(modified.toMillis() / 1000 * 1000);
+        }
+
+        /**
+         * @return the number of releases
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        /**
+         * @return the number of releases of each usage type
+         */
+        public Map<String, Integer> getUsage() {
+            return usage;
+        }
+    }
+
+    /**
+     * Hold a Code.gov JSON file.
+     *
+     * @param path the file
+     */
+    public CodeGovFile(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * @return the file
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Obtain the current file contents, re-reading them if the file changed.
+     *
+     * @return the current version, or null if there is no file
+     * @throws IOException if the file could not be read, and no previous
+     * version is available
+     */
+    public Version get() throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch ( NoSuchFileException e ) {
+            return null;
+        }
+
+        Version version = current;
+        if (isCurrent(version, attributes))
+            return version;
+
+        synchronized (this) {
+            // another request may have just read it
+            version = current;
+            if (isCurrent(version, attributes))
+                return version;
+
+            try (InputStream in = Files.newInputStream(path)) {
+                current = new Version(attributes.lastModifiedTime(), attributes.size(), mapper.readTree(in));
+
+                log.info("Code.gov JSON loaded: " + current.getTotal() + " releases.");
+                return current;
+            } catch ( IOException e ) {
+                if (null==version)
+                    throw e;
+
+                log.warn("Unable to re-read Code.gov JSON, keeping previous version: " + e.getMessage());
+                return version;
+            }
+        }
+    }
+
+    /**
+     * Determine whether a version matches the file's attributes.
+     *
+     * @param version the version, if any
+     * @param attributes the file attributes
+     * @return true if the version was read from the file as it is
+     */
+    private static boolean isCurrent(Version version, BasicFileAttributes attributes) {
+        return null!=version &&
+                version.modified.equals(attributes.lastModifiedTime()) &&
+                version.size==attributes.size();
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ */
+package gov.osti.services;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Content coding negotiation, from a request's Accept-Encoding header.
+ *
+ * Each listed coding may carry a quality value; a coding with "q=0" is not
+ * acceptable, and "*" stands for any coding not otherwise listed.  "x-gzip"
+ * is taken as "gzip".
+ */
+public class ContentCoding {
+    private ContentCoding() {
+    }
+
+    /**
+     * Determine whether a client accepts a content coding.
+     *
+     * @param acceptEncoding the Accept-Encoding request header, if any
+     * @param coding the content coding, such as "gzip"
+     * @return true if the coding is listed, or covered by "*", with a
+     * non-zero quality
+     */
+    public static boolean accepts(String acceptEncoding, String coding) {
+        Double listed = null;
+        Double any = null;
+
+        for ( String element : StringUtils.split(StringUtils.defaultString(acceptEncoding), ',') ) {
+            String[] parts = StringUtils.split(element, ';');
+            if (0==parts.length)
+                continue;
+
+            String name = parts[0].trim();
+            double quality = 1;
+            for ( int i = 1 ; i < parts.length ; ++i ) {
+                String parameter = parts[i].trim();
+
+                if (StringUtils.startsWithIgnoreCase(parameter, "q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2).trim());
+                    } catch ( NumberFormatException e ) {
+                        quality = 0;
+                    }
+                }
+            }
+
+            if (name.equalsIgnoreCase(coding) || ("gzip".equalsIgnoreCase(coding) && name.equalsIgnoreCase("x-gzip")))
+                listed = (null==listed) ? quality : Math.max(listed, quality);
+            else if ("*".equals(name))
+                any = quality;
+        }
+
+        if (null!=listed)
+            return listed > 0;
+        return null!=any && any > 0;
+    }
+}
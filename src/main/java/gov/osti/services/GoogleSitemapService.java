@@ -3,163 +3,171 @@
  */
 package gov.osti.services;
 
-import gov.osti.entity.DOECodeMetadata;
-import gov.osti.listeners.DoeServletContextListener;
-import gov.osti.search.SearchResponse;
-import gov.osti.search.SolrDocument;
-import gov.osti.search.SolrResult;
-import static gov.osti.services.SearchService.JSON_MAPPER;
+import gov.osti.indexer.SitemapStore;
 import java.io.IOException;
-import java.net.URISyntaxException;
-import java.time.LocalDate;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
-import java.time.temporal.TemporalAdjusters;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.zip.GZIPInputStream;
 import javax.servlet.ServletContext;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
-import org.apache.http.HttpResponse;
-import org.apache.http.HttpStatus;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.util.EntityUtils;
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Serves the Google sitemap from the files pre-generated by SitemapStore.
+ * Files are sent as stored, gzip-compressed, to clients accepting that;
+ * others receive them decompressed.
  *
  * @author smithwa
  */
 @Path("/sitemap/")
 public class GoogleSitemapService {
 
-     protected static final int MAX_RECORDS_PER_SITEMAP_PAGE = 20000;
-     protected static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd").withZone(ZoneId.systemDefault());
-     private static final String SEARCH_URL = DoeServletContextListener.getConfigurationProperty("search.url");
-     private static final String SITE_URL = DoeServletContextListener.getConfigurationProperty("site.url");
-
      @Context
      ServletContext context;
      @Context
      UriInfo uri;
 
      // Logger
-     private static final Logger log = LoggerFactory.getLogger(SearchService.class);
+     private static final Logger log = LoggerFactory.getLogger(GoogleSitemapService.class);
 
      /**
       * Return the list of pages of records
       *
-      * @return
+      * @param request the HTTP request, for conditional GETs
+      * @param acceptEncoding the Accept-Encoding request header
+      * @return XML response containing the sitemap index
       */
      @GET
      @Produces(MediaType.TEXT_XML)
      @Path("xml")
-     public Response getSitemapList() {
-          //Get the number of pages based on teh number of records
-          long numOfRecords = getNumberOfRecordsInIndex();
-          double numOfPages = (float) numOfRecords / MAX_RECORDS_PER_SITEMAP_PAGE;
-
-          //Get the date we want to use
-          LocalDate firstOfMonth = LocalDate.now().with(TemporalAdjusters.firstDayOfMonth());
-          String moddedDate = firstOfMonth.format(DATE_FORMATTER);
-
-          //Write out the xml
-          StringBuilder xml_string = new StringBuilder();
-          xml_string.append("<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">");
-          for (int i = 0; i < numOfPages; i++) {
-               xml_string.append("<sitemap>");
-               xml_string.append("<loc>")
-                       .append(SITE_URL)
-                       .append("api/services/sitemap/xml/")
-                       .append(i + 1)
-                       .append("</loc>");
-               xml_string.append("<lastmod>").append(moddedDate).append("</lastmod>");
-               xml_string.append("</sitemap>");
-          }
-          xml_string.append("</sitemapindex>");
+     public Response getSitemapList(@Context Request request, @HeaderParam("Accept-Encoding") String acceptEncoding) {
+          SitemapStore store = SitemapStore.getInstance();
 
-          return Response.ok(xml_string.toString(), MediaType.TEXT_XML).build();
+          if (null==store || !store.isReady())
+               return ErrorResponse
+                       .status(Response.Status.SERVICE_UNAVAILABLE, "Sitemap is not yet available.")
+                       .build();
+
+          return serve(request, acceptEncoding, store.getIndexFile());
      }
 
      /**
       * Get a single page of Site Map results.
       * 
       * @param pageNum the page number to retrieve
+      * @param request the HTTP request, for conditional GETs
+      * @param acceptEncoding the Accept-Encoding request header
       * @return XML response containing the page site map
       */
      @GET
      @Produces(MediaType.TEXT_XML)
      @Path("xml/{pageNum}")
-     public Response getSitemapPage(@PathParam("pageNum") Long pageNum) {
-          long startNum = (pageNum - 1) * MAX_RECORDS_PER_SITEMAP_PAGE;
-          StringBuilder xml_string = new StringBuilder();
+     public Response getSitemapPage(@PathParam("pageNum") Long pageNum, @Context Request request, @HeaderParam("Accept-Encoding") String acceptEncoding) {
+          SitemapStore store = SitemapStore.getInstance();
 
-          try {
-               CloseableHttpClient hc = HttpClientBuilder.create().build();
-               URIBuilder builder = new URIBuilder(SEARCH_URL).addParameter("q", "*:*").addParameter("rows", Integer.toString(MAX_RECORDS_PER_SITEMAP_PAGE))
-                       .addParameter("omitHeader", "true").addParameter("fl", "json").addParameter("fl", "codeId").addParameter("sort", "codeId asc").addParameter("start", Long.toString(startNum));
-               HttpGet get = new HttpGet(builder.build());
-               HttpResponse response = hc.execute(get);
-
-               if (HttpStatus.SC_OK == response.getStatusLine().getStatusCode()) {
-                    //Create a result object
-                    SolrResult result = JSON_MAPPER.readValue(EntityUtils.toString(response.getEntity()), SolrResult.class);
-                    SearchResponse query = new SearchResponse();
-                    query.setStart(result.getSearchResponse().getStart());
-                    query.setNumFound(result.getSearchResponse().getNumFound());
-
-                    if (null != result.getSearchResponse().getDocuments()) {
-                         for (SolrDocument doc : result.getSearchResponse().getDocuments()) {
-                              query.add(JSON_MAPPER.readValue(doc.getJson(), DOECodeMetadata.class));
-                         }
-                    }
-                    xml_string.append("<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">");
-                    query.getDocs().forEach((record) -> {
-                         xml_string.append("<url>");
-                         xml_string.append("<loc>").append(SITE_URL).append("/biblio/").append(record.getCodeId()).append("</loc>");
-                         xml_string.append("<lastmod>")
-                                 .append(DATE_FORMATTER
-                                         .format( (null==record.getDateRecordUpdated()) ? LocalDate.now() : record.getDateRecordUpdated().toInstant()) )
-                                                 .append("</lastmod>");
-                         xml_string.append("<changefreq>monthly</changefreq>");
-                         xml_string.append("<priority>0.5</priority>");
-                         xml_string.append("</url>");
-                    });
-                    xml_string.append("</urlset>");
-               }
-          } catch (URISyntaxException ex) {
-               log.error("Error in getting solr count: " + ex.getMessage());
-          } catch (IOException ex) {
-               log.error("Error in getting solr count: " + ex.getMessage());
-          }
-          return Response.ok(xml_string.toString(), MediaType.TEXT_XML).build();
+          if (null==store || !store.isReady())
+               return ErrorResponse
+                       .status(Response.Status.SERVICE_UNAVAILABLE, "Sitemap is not yet available.")
+                       .build();
+          if (null==pageNum || !store.hasPage(pageNum))
+               return ErrorResponse
+                       .notFound("Sitemap page not found.")
+                       .build();
+
+          return serve(request, acceptEncoding, store.getPageFile(pageNum));
      }
 
-     public long getNumberOfRecordsInIndex() {
-          long totalCount = 0;
+     /**
+      * Send a stored sitemap file, or "Not Modified" if the client's copy is
+      * current.  The file is opened before responding, so it may be replaced
+      * by a newer one meanwhile without affecting this response.
+      *
+      * @param request the HTTP request
+      * @param acceptEncoding the Accept-Encoding request header
+      * @param file the gzip-compressed file
+      * @return the Response
+      */
+     private static Response serve(Request request, String acceptEncoding, java.nio.file.Path file) {
+          boolean gzip = ContentCoding.accepts(acceptEncoding, "gzip");
+          FileChannel channel = null;
+
           try {
-               CloseableHttpClient hc = HttpClientBuilder.create().build();
-               URIBuilder builder = new URIBuilder(SEARCH_URL).addParameter("q", "*:*").addParameter("rows", "0").addParameter("omitHeader", "true");
-               HttpGet get = new HttpGet(builder.build());
-               HttpResponse response = hc.execute(get);
-
-               if (HttpStatus.SC_OK == response.getStatusLine().getStatusCode()) {
-                    SolrResult result = JSON_MAPPER.readValue(EntityUtils.toString(response.getEntity()), SolrResult.class);
-                    totalCount = result.getSearchResponse().getNumFound();
+               channel = FileChannel.open(file, StandardOpenOption.READ);
+               long size = channel.size();
+               // HTTP dates are to the second
+               Date lastModified = new Date(Files.getLastModifiedTime(file).toMillis() / 1000 * 1000);
+               // compressed and plain are different representations
+               EntityTag etag = new EntityTag(Long.toHexString(lastModified.getTime()) + "-" + Long.toHexString(size) + ((gzip) ? "-gzip" : ""));
+
+               Response.ResponseBuilder notModified = request.evaluatePreconditions(lastModified, etag);
+               if (null!=notModified) {
+                    channel.close();
+                    return notModified
+                            .header("Vary", "Accept-Encoding")
+                            .build();
+               }
+
+               final FileChannel source = channel;
+               StreamingOutput stream = (gzip) ?
+                       output -> {
+                            // hand the stored bytes straight to the response channel
+                            try (FileChannel in = source) {
+                                 WritableByteChannel out = Channels.newChannel(output);
+                                 for ( long position = 0 ; position < size ; )
+                                      position += in.transferTo(position, size - position, out);
+                            }
+                       } :
+                       output -> {
+                            try (InputStream in = new GZIPInputStream(Channels.newInputStream(source), 65536)) {
+                                 IOUtils.copy(in, output);
+                            }
+                       };
+
+               Response.ResponseBuilder builder = Response
+                       .ok(stream, MediaType.TEXT_XML)
+                       .lastModified(lastModified)
+                       .tag(etag)
+                       .header("Vary", "Accept-Encoding");
+               if (gzip)
+                    builder
+                            .header("Content-Encoding", "gzip")
+                            .header("Content-Length", size);
+
+               return builder.build();
+          } catch ( NoSuchFileException e ) {
+               return ErrorResponse
+                       .notFound("Sitemap page not found.")
+                       .build();
+          } catch ( IOException e ) {
+               log.warn("Sitemap read error: " + e.getMessage());
+               try {
+                    if (null!=channel)
+                         channel.close();
+               } catch ( IOException ce ) {
+                    log.warn("Sitemap close error: " + ce.getMessage());
                }
-          } catch (URISyntaxException ex) {
-               log.error("Error in getting solr count: " + ex.getMessage());
-          } catch (IOException ex) {
-               log.error("Error in getting solr count: " + ex.getMessage());
+               return ErrorResponse
+                       .internalServerError("Unable to read sitemap.")
+                       .build();
           }
-          return totalCount;
      }
 }
@@ -5,8 +5,8 @@ import com.fasterxml.jackson.annotation.JsonFilter;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.PropertyNamingStrategy;
-import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.ser.FilterProvider;
 import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
@@ -18,12 +18,12 @@ import gov.osti.connectors.BitBucket;
 import gov.osti.connectors.GitHub;
 import gov.osti.connectors.GitLab;
 import gov.osti.connectors.HttpUtil;
+import gov.osti.connectors.LaborHours;
 import gov.osti.connectors.SourceForge;
 import gov.osti.connectors.api.GitLabAPI;
 import gov.osti.connectors.gitlab.Commit;
 import gov.osti.connectors.gitlab.GitLabFile;
 import gov.osti.doi.DataCite;
-import gov.osti.entity.Agent;
 import gov.osti.entity.Contributor;
 import gov.osti.entity.MetadataSnapshot;
 import gov.osti.entity.DOECodeMetadata;
@@ -31,13 +31,24 @@ import gov.osti.entity.DOECodeMetadata.Accessibility;
 import gov.osti.entity.DOECodeMetadata.Status;
 import gov.osti.entity.Developer;
 import gov.osti.entity.DoiReservation;
+import gov.osti.entity.IndexOutbox;
 import gov.osti.entity.ResearchOrganization;
 import gov.osti.entity.Site;
 import gov.osti.entity.SponsoringOrganization;
 import gov.osti.entity.User;
 import gov.osti.entity.UserRole;
 import gov.osti.entity.UserRole.RoleType;
-import gov.osti.indexer.AgentSerializer;
+import gov.osti.indexer.CodeGovGenerator;
+import gov.osti.indexer.LaborEstimator;
+import gov.osti.indexer.IndexChecker;
+import gov.osti.indexer.IndexDispatcher;
+import gov.osti.indexer.Reindexer;
+import gov.osti.indexer.SitemapStore;
+import gov.osti.indexer.SolrCollections;
+import gov.osti.search.LuceneSearchBackend;
+import gov.osti.search.ResultCache;
+import gov.osti.search.SuggestIndex;
+import gov.osti.indexer.SolrIndexer;
 import gov.osti.listeners.DoeServletContextListener;
 import java.io.File;
 import java.io.IOException;
@@ -47,7 +58,12 @@ import java.lang.reflect.InvocationTargetException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.Set;
 
@@ -71,6 +87,7 @@ import javax.ws.rs.BadRequestException;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.Produces;
+import javax.ws.rs.FormParam;
 import javax.ws.rs.GET;
 import javax.ws.rs.InternalServerErrorException;
 import javax.ws.rs.NotFoundException;
@@ -111,6 +128,7 @@ import gov.osti.connectors.gitlab.Project;
 import gov.osti.entity.RelatedIdentifier;
 import java.io.FileInputStream;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -153,8 +171,6 @@ public class Metadata {
     private static final String EMAIL_FROM = DoeServletContextListener.getConfigurationProperty("email.from");
     // EMAIL address to send to for SUBMISSION/ANNOUNCE
     private static final String EMAIL_SUBMISSION = DoeServletContextListener.getConfigurationProperty("email.notification");
-    // URL to indexer services, if configured
-    private static String INDEX_URL = DoeServletContextListener.getConfigurationProperty("index.url");
     // absolute filesystem location to store uploaded files, if any
     private static String FILE_UPLOADS = DoeServletContextListener.getConfigurationProperty("file.uploads");
     // absolute filesystem location to store uploaded container images, if any
@@ -231,16 +247,6 @@ public class Metadata {
             .setPropertyNamingStrategy(PropertyNamingStrategy.SNAKE_CASE)
             .setSerializationInclusion(JsonInclude.Include.NON_NULL)
             .setTimeZone(TimeZone.getDefault());
-    // ObjectMapper specifically for indexing purposes
-    protected static final ObjectMapper index_mapper = new ObjectMapper()
-            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
-            .setTimeZone(TimeZone.getDefault());
-    static {
-        // customized serializer module for Agent names consolidation
-        SimpleModule module = new SimpleModule();
-        module.addSerializer(Agent.class, new AgentSerializer());
-        index_mapper.registerModule(module);
-    }
 
     /**
      * Obtain a reserved DOI value if possible.
@@ -1018,70 +1024,6 @@ public class Metadata {
         return riList;
     }
 
-    /**
-     * Remove non-indexable New/Previous RI from metadata.
-     *
-     * @param em the EntityManager to control commits.
-     * @param md the Metadata to evaluate.
-     * @return Updated DOECodeMetadata object.
-     */
-    private static DOECodeMetadata removeNonIndexableRi(EntityManager em, DOECodeMetadata md) throws IOException {
-        // need a detached copy of the RI data
-        DOECodeMetadata alteredMd = new DOECodeMetadata();
-        BeanUtilsBean bean = new BeanUtilsBean();
-
-        try {
-            bean.copyProperties(alteredMd, md);
-        } catch (IllegalAccessException | InvocationTargetException ex) {
-            // log issue, swallow error
-            String msg = "NonIndexable RI Removal Bean Error: " + ex.getMessage();
-            throw new IOException(msg);
-        }
-
-        TypedQuery<MetadataSnapshot> querySnapshot = em.createNamedQuery("MetadataSnapshot.findByDoiAndStatus", MetadataSnapshot.class)
-                .setParameter("status", DOECodeMetadata.Status.Approved);
-
-        // get detached list of RI to check
-        List<RelatedIdentifier> riList = new ArrayList<>();
-        riList.addAll(alteredMd.getRelatedIdentifiers());
-
-        // filter to targeted RI
-        List<RelatedIdentifier> filteredRiList = riList.stream().filter(p -> p.getIdentifierType() == RelatedIdentifier.Type.DOI
-                && (p.getRelationType() == RelatedIdentifier.RelationType.IsNewVersionOf
-                || p.getRelationType() == RelatedIdentifier.RelationType.IsPreviousVersionOf)
-        ).collect(Collectors.toList());
-
-        // track removals
-        List<RelatedIdentifier> removalList = new ArrayList<>();
-
-        for ( RelatedIdentifier ri : filteredRiList ) {
-            // lookup by Snapshot by current DOI
-            querySnapshot.setParameter("doi", ri.getIdentifierValue());
-
-            List<MetadataSnapshot> results = querySnapshot.getResultList();
-
-            // if no results, keep, otherwise remove unless there is a minted version found
-            boolean remove = !results.isEmpty();
-            for ( MetadataSnapshot ms : results ) {
-                    if (ms.getDoiIsMinted()) {
-                        remove = false;
-                        break;
-                    }
-            }
-
-            if (remove)
-                removalList.add(ri);
-        }
-
-        // perform removals, as needed, and update
-        if (!removalList.isEmpty()) {
-            riList.removeAll(removalList);
-            alteredMd.setRelatedIdentifiers(riList);
-        }
-
-        return alteredMd;
-    }
-
     /**
      * Get previous snapshot info for use in backfill process that occurs after current snapshot is updated.
      *
@@ -1138,11 +1080,12 @@ public class Metadata {
      * @param em the EntityManager to control commits.
      * @param md the Metadata to evaluate for RI updating.
      * @param previousList the RelatedIdentifiers from previous Approval.
+     * @return the CODE IDs of other Approved records changed, to be re-indexed
      */
-    private void backfillProjects(EntityManager em, DOECodeMetadata md, List<RelatedIdentifier> previousList) throws IllegalAccessException, IOException {
+    private Set<Long> backfillProjects(EntityManager em, DOECodeMetadata md, List<RelatedIdentifier> previousList) throws IllegalAccessException, IOException {
         // if current project has no DOI, there is nothing to process
         if (StringUtils.isBlank(md.getDoi()))
-            return;
+            return Collections.emptySet();
 
         // get current list of RI info, for backfill additions
         List<RelatedIdentifier> additionList = md.getRelatedIdentifiers();
@@ -1163,7 +1106,7 @@ public class Metadata {
         previousList.removeAll(additionList);
 
         // store details about what will need sent to OSTI and re-indexed
-        Map<Long, DOECodeMetadata> backfillSendToIndex = new HashMap<>();
+        Set<Long> backfillSendToIndex = new HashSet<>();
         Map<Long, DOECodeMetadata> backfillSendToOsti = new HashMap<>();
 
         // define needed queries
@@ -1273,7 +1216,7 @@ public class Metadata {
                             // log updated, Approved snapshot info for post-backfill actions
                             if (status == DOECodeMetadata.Status.Approved) {
                                 // log for re-indexing
-                                backfillSendToIndex.put(codeId, smd);
+                                backfillSendToIndex.add(codeId);
 
 
                                 // lookup snapshot status info, prior to Approval
@@ -1305,65 +1248,12 @@ public class Metadata {
             sendToOsti(em, entry.getValue());
         }
 
-        // update Index, as needed
-        for (Map.Entry<Long, DOECodeMetadata> entry : backfillSendToIndex.entrySet()) {
-            sendToIndex(em, entry.getValue());
+        // queue related identifier re-indexing, as needed, to be sent once committed
+        for (Long codeId : backfillSendToIndex) {
+            IndexDispatcher.enqueue(em, codeId, IndexOutbox.Type.RelatedIdentifiers);
         }
-    }
-
-    /**
-     * Attempt to send this Metadata information to the indexing service configured.
-     * If no service is configured, do nothing.
-     *
-     * @param em the related EntityManager
-     * @param md the Metadata to send
-     */
-    private static void sendToIndex(EntityManager em, DOECodeMetadata md) {
-        // if indexing is not configured, skip this step
-        if ("".equals(INDEX_URL))
-            return;
-
-        // set some reasonable default timeouts
-        RequestConfig rc = RequestConfig
-                .custom()
-                .setSocketTimeout(60000)
-                .setConnectTimeout(60000)
-                .setConnectionRequestTimeout(60000)
-                .build();
-        // create an HTTP client to request through
-        CloseableHttpClient hc =
-                HttpClientBuilder
-                .create()
-                .setDefaultRequestConfig(rc)
-                .build();
-        try {
-            // do not index DOE CODE New/Previous DOI related identifiers if Approved without a Release Date
-            DOECodeMetadata indexableMd = removeNonIndexableRi(em, md);
-
-            // construct a POST submission to the indexer service
-            HttpPost post = new HttpPost(INDEX_URL);
-            post.setHeader("Content-Type", "application/json");
-            post.setHeader("Accept", "application/json");
-            // add JSON String to index for later display/search
-            ObjectNode node = (ObjectNode)index_mapper.valueToTree(indexableMd);
-            node.put("json", indexableMd.toJson().toString());
-            post.setEntity(new StringEntity(node.toString(), "UTF-8"));
 
-            HttpResponse response = hc.execute(post);
-
-            if ( HttpStatus.SC_OK!=response.getStatusLine().getStatusCode() ) {
-                log.warn("Indexing Error occurred for ID=" + md.getCodeId());
-                log.warn("Message: " + EntityUtils.toString(response.getEntity()));
-            }
-        } catch ( IOException e ) {
-            log.warn("Indexing Error: " + e.getMessage() + " ID=" + md.getCodeId());
-        } finally {
-            try {
-                if (null!=hc) hc.close();
-            } catch ( IOException e ) {
-                log.warn("Index Close Error: " + e.getMessage());
-            }
-        }
+        return backfillSendToIndex;
     }
 
     /**
@@ -2008,30 +1898,421 @@ public class Metadata {
         return doSave(metadata, file, fileInfo, container, containerInfo);
     }
 
+    /**
+     * Start rebuilding the index from Approved snapshots, as a background
+     * job.  Only one reindex job may run at a time.  By default all Approved
+     * snapshots are indexed; any of since, site, or code_id narrow the job to
+     * matching records only.
+     *
+     * @param rate (optional) maximum documents per second to index; 0 for no
+     * limit, or the configured default if not specified
+     * @param since (optional) only snapshots updated on or after this date,
+     * either an ISO-8601 timestamp (2020-01-31T12:00:00Z) or a date (2020-01-31)
+     * @param site (optional) only records owned by this site code
+     * @param codeIds (optional) only these CODE IDs; may be repeated or comma
+     * separated
+     * @param force (optional) if true, write every document even if the index
+     * already holds it unchanged
+     * @param rebuild (optional) if true, index all Approved snapshots into a
+     * new SOLR collection and switch the search alias to it once complete; may
+     * not be combined with since, site, or code_id
+     * @return a Response (ACCEPTED) containing the JSON status of the new job,
+     * or CONFLICT with the status of the job already running
+     */
     @GET
     @Produces (MediaType.APPLICATION_JSON)
     @Path ("/reindex")
     @RequiresAuthentication
     @RequiresRoles ("ContentAdmin")
-    public Response reindex() throws IOException {
-        EntityManager em = DoeServletContextListener.createEntityManager();
+    public Response reindex(@QueryParam("rate") Integer rate,
+                            @QueryParam("since") String since,
+                            @QueryParam("site") String site,
+                            @QueryParam("code_id") List<String> codeIds,
+                            @QueryParam("force") boolean force,
+                            @QueryParam("rebuild") boolean rebuild) {
+        if (null!=rate && rate < 0)
+            return ErrorResponse
+                    .badRequest("Rate may not be negative.")
+                    .build();
+        if (rebuild && !SolrCollections.isConfigured())
+            return ErrorResponse
+                    .badRequest("SOLR collections are not configured.")
+                    .build();
+        if (rebuild && (StringUtils.isNotBlank(since) || StringUtils.isNotBlank(site) || !codeIds.isEmpty()))
+            return ErrorResponse
+                    .badRequest("A rebuild always includes every Approved record.")
+                    .build();
 
+        Date sinceDate = null;
+        if (StringUtils.isNotBlank(since)) {
+            try {
+                sinceDate = (since.contains("T")) ?
+                        Date.from(Instant.parse(since.trim())) :
+                        Date.from(LocalDate.parse(since.trim()).atStartOfDay(ZoneId.systemDefault()).toInstant());
+            } catch ( DateTimeParseException e ) {
+                return ErrorResponse
+                        .badRequest("Invalid since date: " + since)
+                        .build();
+            }
+        }
+
+        Set<Long> ids = new HashSet<>();
         try {
-            TypedQuery<MetadataSnapshot> query = em.createNamedQuery("MetadataSnapshot.findAllByStatus", MetadataSnapshot.class)
-                    .setParameter("status", DOECodeMetadata.Status.Approved);
-            List<MetadataSnapshot> results = query.getResultList();
-            int records = 0;
+            for ( String value : codeIds )
+                for ( String id : value.split(",") )
+                    if (StringUtils.isNotBlank(id))
+                        ids.add(Long.valueOf(id.trim()));
+        } catch ( NumberFormatException e ) {
+            return ErrorResponse
+                    .badRequest("Invalid CODE ID: " + e.getMessage())
+                    .build();
+        }
 
-            for ( MetadataSnapshot amd : results ) {
-                DOECodeMetadata md = DOECodeMetadata.parseJson(new StringReader(amd.getJson()));
+        int limit = (null==rate) ? Reindexer.DEFAULT_RATE : rate;
+        Reindexer job = (rebuild) ?
+                Reindexer.submitRebuild(limit) :
+                Reindexer.submit(limit, force, sinceDate, StringUtils.trimToNull(site), ids);
 
-                sendToIndex(em, md);
-                ++records;
-            }
+        if (null==job)
+            return Response
+                    .status(Response.Status.CONFLICT)
+                    .entity(Reindexer.getActive().getStatistics().toString())
+                    .build();
+
+        return Response
+                .status(Response.Status.ACCEPTED)
+                .entity(job.getStatistics().toString())
+                .build();
+    }
+
+    /**
+     * List the status of recent reindex jobs.
+     *
+     * @return a Response containing a JSON array of reindex job status
+     */
+    @GET
+    @Produces (MediaType.APPLICATION_JSON)
+    @Path ("/reindex/jobs")
+    @RequiresAuthentication
+    @RequiresRoles ("ContentAdmin")
+    public Response reindexJobs() {
+        ArrayNode jobs = mapper.createArrayNode();
+
+        Reindexer.list().forEach(job -> jobs.add(job.getStatistics()));
+
+        return Response
+                .ok()
+                .entity(jobs.toString())
+                .build();
+    }
+
+    /**
+     * List the SOLR collections available to the search alias, and the one it
+     * currently points at.
+     *
+     * @return a Response containing the JSON alias, current collection, and
+     * all collections
+     */
+    @GET
+    @Produces (MediaType.APPLICATION_JSON)
+    @Path ("/reindex/collections")
+    @RequiresAuthentication
+    @RequiresRoles ("ContentAdmin")
+    public Response reindexCollections() {
+        if (!SolrCollections.isConfigured())
+            return ErrorResponse
+                    .badRequest("SOLR collections are not configured.")
+                    .build();
+
+        try {
+            ObjectNode result = mapper.createObjectNode()
+                    .put("alias", SolrCollections.getAlias())
+                    .put("collection", SolrCollections.getAliasedCollection());
+            SolrCollections.list().forEach(result.putArray("collections")::add);
+
+            return Response
+                    .ok()
+                    .entity(result.toString())
+                    .build();
+        } catch ( IOException e ) {
+            log.warn("SOLR Collections Error: " + e.getMessage());
+            return ErrorResponse
+                    .internalServerError("Unable to list collections: " + e.getMessage())
+                    .build();
+        }
+    }
+
+    /**
+     * Point the search alias at an existing collection, such as the one in use
+     * before a rebuild, to roll back.
+     *
+     * @param collection the collection name
+     * @return a Response containing the JSON alias and its new collection, or
+     * BAD REQUEST if the collection does not exist or a reindex job is running
+     */
+    @POST
+    @Consumes (MediaType.APPLICATION_FORM_URLENCODED)
+    @Produces (MediaType.APPLICATION_JSON)
+    @Path ("/reindex/alias")
+    @RequiresAuthentication
+    @RequiresRoles ("ContentAdmin")
+    public Response reindexAlias(@FormParam("collection") String collection) {
+        if (!SolrCollections.isConfigured())
+            return ErrorResponse
+                    .badRequest("SOLR collections are not configured.")
+                    .build();
+        if (null!=Reindexer.getActive())
+            return ErrorResponse
+                    .badRequest("A reindex job is running.")
+                    .build();
+
+        try {
+            if (StringUtils.isBlank(collection) || !SolrCollections.list().contains(collection))
+                return ErrorResponse
+                        .badRequest("Collection not found: " + collection)
+                        .build();
+
+            SolrCollections.setAlias(collection);
+            ResultCache.invalidateAll();
+            log.info("Alias " + SolrCollections.getAlias() + " switched to " + collection + ".");
 
             return Response
                     .ok()
-                    .entity(mapper.createObjectNode().put("indexed", String.valueOf(records)).toString())
+                    .entity(mapper.createObjectNode()
+                            .put("alias", SolrCollections.getAlias())
+                            .put("collection", collection)
+                            .toString())
+                    .build();
+        } catch ( IOException e ) {
+            log.warn("SOLR Collections Error: " + e.getMessage());
+            return ErrorResponse
+                    .internalServerError("Unable to switch alias: " + e.getMessage())
+                    .build();
+        }
+    }
+
+    /**
+     * Report the progress of a reindex job.
+     *
+     * @param jobId the reindex job ID
+     * @return a Response containing the JSON job status, or NOT FOUND if the
+     * job is not known
+     */
+    @GET
+    @Produces (MediaType.APPLICATION_JSON)
+    @Path ("/reindex/{jobId}")
+    @RequiresAuthentication
+    @RequiresRoles ("ContentAdmin")
+    public Response reindexStatus(@PathParam("jobId") long jobId) {
+        Reindexer job = Reindexer.get(jobId);
+
+        if (null==job)
+            return ErrorResponse
+                    .notFound("Reindex job not found.")
+                    .build();
+
+        return Response
+                .ok()
+                .entity(job.getStatistics().toString())
+                .build();
+    }
+
+    /**
+     * Cancel a reindex job.  The job stops once its current batch is sent.
+     *
+     * @param jobId the reindex job ID
+     * @return a Response containing the JSON job status, NOT FOUND if the job
+     * is not known, or BAD REQUEST if it has already finished
+     */
+    @POST
+    @Produces (MediaType.APPLICATION_JSON)
+    @Path ("/reindex/{jobId}/cancel")
+    @RequiresAuthentication
+    @RequiresRoles ("ContentAdmin")
+    public Response reindexCancel(@PathParam("jobId") long jobId) {
+        Reindexer job = Reindexer.get(jobId);
+
+        if (null==job)
+            return ErrorResponse
+                    .notFound("Reindex job not found.")
+                    .build();
+
+        if (!job.cancel())
+            return ErrorResponse
+                    .badRequest("Reindex job is already " + job.getState() + ".")
+                    .build();
+
+        return Response
+                .ok()
+                .entity(job.getStatistics().toString())
+                .build();
+    }
+
+    /**
+     * Start comparing the index with the Approved snapshots, as a background
+     * job, reporting missing, stale, and orphaned index documents.  Nothing is
+     * changed; see indexRepair to correct the differences.  Only one index
+     * check may run at a time.
+     *
+     * @return a Response (ACCEPTED) containing the JSON status of the new job,
+     * or CONFLICT with the status of the check already running
+     */
+    @GET
+    @Produces (MediaType.APPLICATION_JSON)
+    @Path ("/indexcheck")
+    @RequiresAuthentication
+    @RequiresRoles ("ContentAdmin")
+    public Response indexCheck() {
+        return submitIndexCheck(false);
+    }
+
+    /**
+     * Start comparing the index with the Approved snapshots, as a background
+     * job, re-sending missing and stale documents and deleting orphaned ones.
+     * Not permitted while a reindex job is running.
+     *
+     * @return a Response (ACCEPTED) containing the JSON status of the new job,
+     * CONFLICT with the status of the check already running, or BAD REQUEST
+     * if a reindex job is running
+     */
+    @POST
+    @Produces (MediaType.APPLICATION_JSON)
+    @Path ("/indexcheck/repair")
+    @RequiresAuthentication
+    @RequiresRoles ("ContentAdmin")
+    public Response indexRepair() {
+        if (null!=Reindexer.getActive())
+            return ErrorResponse
+                    .badRequest("A reindex job is running.")
+                    .build();
+
+        return submitIndexCheck(true);
+    }
+
+    /**
+     * Submit an index check job.
+     *
+     * @param repair true to repair differences, false to only report them
+     * @return a Response (ACCEPTED) containing the JSON status of the new job,
+     * or CONFLICT with the status of the check already running
+     */
+    private Response submitIndexCheck(boolean repair) {
+        if (!IndexChecker.isConfigured())
+            return ErrorResponse
+                    .badRequest("Indexing and searching services are not configured.")
+                    .build();
+
+        IndexChecker job = IndexChecker.submit(repair);
+
+        if (null==job)
+            return Response
+                    .status(Response.Status.CONFLICT)
+                    .entity(IndexChecker.getActive().getStatistics().toString())
+                    .build();
+
+        return Response
+                .status(Response.Status.ACCEPTED)
+                .entity(job.getStatistics().toString())
+                .build();
+    }
+
+    /**
+     * List the status of recent index check jobs.
+     *
+     * @return a Response containing a JSON array of index check job status
+     */
+    @GET
+    @Produces (MediaType.APPLICATION_JSON)
+    @Path ("/indexcheck/jobs")
+    @RequiresAuthentication
+    @RequiresRoles ("ContentAdmin")
+    public Response indexCheckJobs() {
+        ArrayNode jobs = mapper.createArrayNode();
+
+        IndexChecker.list().forEach(job -> jobs.add(job.getStatistics()));
+
+        return Response
+                .ok()
+                .entity(jobs.toString())
+                .build();
+    }
+
+    /**
+     * Report the progress or results of an index check job.
+     *
+     * @param jobId the index check job ID
+     * @return a Response containing the JSON job status, counts and CODE IDs
+     * of each kind of difference found, or NOT FOUND if the job is not known
+     */
+    @GET
+    @Produces (MediaType.APPLICATION_JSON)
+    @Path ("/indexcheck/{jobId}")
+    @RequiresAuthentication
+    @RequiresRoles ("ContentAdmin")
+    public Response indexCheckStatus(@PathParam("jobId") long jobId) {
+        IndexChecker job = IndexChecker.get(jobId);
+
+        if (null==job)
+            return ErrorResponse
+                    .notFound("Index check job not found.")
+                    .build();
+
+        return Response
+                .ok()
+                .entity(job.getStatistics().toString())
+                .build();
+    }
+
+    /**
+     * Cancel an index check job.  The job stops once its current comparison
+     * step, and any repairs pending, are done.
+     *
+     * @param jobId the index check job ID
+     * @return a Response containing the JSON job status, NOT FOUND if the job
+     * is not known, or BAD REQUEST if it has already finished
+     */
+    @POST
+    @Produces (MediaType.APPLICATION_JSON)
+    @Path ("/indexcheck/{jobId}/cancel")
+    @RequiresAuthentication
+    @RequiresRoles ("ContentAdmin")
+    public Response indexCheckCancel(@PathParam("jobId") long jobId) {
+        IndexChecker job = IndexChecker.get(jobId);
+
+        if (null==job)
+            return ErrorResponse
+                    .notFound("Index check job not found.")
+                    .build();
+
+        if (!job.cancel())
+            return ErrorResponse
+                    .badRequest("Index check job is already " + job.getState() + ".")
+                    .build();
+
+        return Response
+                .ok()
+                .entity(job.getStatistics().toString())
+                .build();
+    }
+
+    /**
+     * Report on the state of the indexing queue: pending and failing entries,
+     * and how far behind the index is.
+     *
+     * @return a Response containing JSON indexing queue statistics
+     */
+    @GET
+    @Produces (MediaType.APPLICATION_JSON)
+    @Path ("/indexqueue")
+    @RequiresAuthentication
+    @RequiresRoles ("ContentAdmin")
+    public Response indexQueue() {
+        EntityManager em = DoeServletContextListener.createEntityManager();
+
+        try {
+            return Response
+                    .ok()
+                    .entity(IndexDispatcher.getStatistics(em).toString())
                     .build();
         } finally {
             em.close();
@@ -2130,14 +2411,30 @@ public class Metadata {
 
             em.merge(snapshot);
 
+            // queue it for the indexer, committed along with the snapshot
+            IndexDispatcher.enqueue(em, md.getCodeId());
+
             // perform RI backfilling
-            backfillProjects(em, md, previousRiList);
+            Set<Long> backfilled = backfillProjects(em, md, previousRiList);
 
             // if we make it this far, go ahead and commit the transaction
             em.getTransaction().commit();
 
             // send it to the indexer
-            sendToIndex(em, md);
+            IndexDispatcher.wake();
+            // and offer its terms as suggestions
+            SuggestIndex.getInstance().put(md.getCodeId(), md);
+            // and to the embedded search engine, if that is in use, along
+            // with any records whose related identifiers were backfilled
+            LuceneSearchBackend.index(em, md);
+            LuceneSearchBackend.index(em, backfilled);
+            // and list it in the sitemap
+            SitemapStore.approved(md);
+            // and in code.json
+            CodeGovGenerator.approved(md);
+            // and estimate its labor hours from any uploaded file
+            LaborEstimator.approved(md);
+            LaborHours.approved(md.getCodeId());
 
             // send APPROVAL NOTIFICATION to OWNER
             sendApprovalNotification(md);
@@ -2184,7 +2481,7 @@ public class Metadata {
         String publishing_host = context.getInitParameter("publishing.host");
         if (null!=publishing_host) {
             // do not index DOE CODE New/Previous DOI related identifiers if Approved without a Release Date
-            DOECodeMetadata indexableMd = removeNonIndexableRi(em, md);
+            DOECodeMetadata indexableMd = SolrIndexer.removeNonIndexableRi(em, md);
 
             // set some reasonable default timeouts
             // create an HTTP client to request through
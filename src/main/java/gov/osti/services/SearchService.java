@@ -4,9 +4,12 @@ package gov.osti.services;
 
 import com.fasterxml.jackson.annotation.JsonFilter;
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
 import com.fasterxml.jackson.databind.PropertyNamingStrategy;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.module.SimpleModule;
@@ -15,50 +18,77 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.ser.FilterProvider;
 import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
 import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
 import com.fasterxml.jackson.dataformat.xml.XmlMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import gov.osti.entity.DOECodeMetadata;
+import gov.osti.search.SearchBackend;
 import gov.osti.search.SearchData;
+import gov.osti.search.SearchException;
 import gov.osti.search.SolrDocument;
 import gov.osti.search.SolrResult;
 import gov.osti.listeners.DoeServletContextListener;
 import gov.osti.search.FacetCountsDeserializer;
 import gov.osti.search.FacetDeserializer;
+import gov.osti.search.LuceneSearchBackend;
+import gov.osti.search.ResultCache;
 import gov.osti.search.SearchResponse;
+import gov.osti.search.SearchSummary;
 import gov.osti.search.SolrFacet;
+import gov.osti.search.SolrClient;
 import gov.osti.search.SolrFacetCounts;
+import gov.osti.search.SolrSearchBackend;
+import gov.osti.search.SuggestIndex;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringReader;
 import java.lang.reflect.Field;
-import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.zip.GZIPOutputStream;
 import java.util.stream.Collectors;
 import javax.servlet.ServletContext;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.FormParam;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
-import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.util.EntityUtils;
+import org.apache.shiro.authz.annotation.RequiresAuthentication;
+import org.apache.shiro.authz.annotation.RequiresRoles;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -139,18 +169,122 @@ public class SearchService {
 
     // configured location of the search service endpoint
     private static final String SEARCH_URL = DoeServletContextListener.getConfigurationProperty("search.url");
+    private static final SearchBackend SOLR = ("".equals(SEARCH_URL)) ? null : new SolrSearchBackend(SEARCH_URL);
+
+    // bulk export formats, page size, and CSV columns
+    private static final String EXPORT_NDJSON = "application/x-ndjson";
+    private static final String EXPORT_CSV = "text/csv";
+    private static final int EXPORT_ROWS = 500;
+    private static final String[] EXPORT_COLUMNS = {
+        "code_id",
+        "software_title",
+        "doi",
+        "release_date",
+        "developers",
+        "licenses",
+        "site_ownership_code",
+        "software_type",
+        "accessibility",
+        "repository_link",
+        "landing_page"
+    };
+    private static final CsvMapper CSV_MAPPER = (CsvMapper) new CsvMapper()
+            .configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+
+    // most records one multi-get request may ask for
+    private static final int MAX_RECORDS = DoeServletContextListener.getConfigurationProperty("search.records.max", 100);
+
+    // SOLR fields counted for browsing facets
+    private static final String[] FACET_FIELDS = StringUtils.split(StringUtils.defaultIfBlank(
+            DoeServletContextListener.getConfigurationProperty("search.facet.fields"),
+            "siteOwnershipCode,licenses,accessibility,softwareType,fProgrammingLanguages,fResearchOrganizations"), ", ");
+
+    // most typeahead suggestions returned at once
+    private static final int MAX_SUGGESTIONS = 50;
+
+    // SOLR stored fields for summary view results
+    private static final String SUMMARY_FIELDS = "codeId,softwareTitle,developers.name,releaseDate,doi";
+
+    // rendered search results, by normalized search parameters and format
+    private static final ResultCache<String> SEARCH_CACHE = new ResultCache<>("search",
+            DoeServletContextListener.getConfigurationProperty("search.cache.size", 1000),
+            DoeServletContextListener.getConfigurationProperty("search.cache.bytes", 64 * 1024 * 1024),
+            DoeServletContextListener.getConfigurationProperty("search.cache.ttl", 60),
+            result -> result.length() * 2L);
+
+    // facet counts, by normalized search parameters
+    private static final ResultCache<String> FACET_CACHE = new ResultCache<>("facets",
+            DoeServletContextListener.getConfigurationProperty("search.cache.size", 1000),
+            DoeServletContextListener.getConfigurationProperty("search.cache.bytes", 64 * 1024 * 1024),
+            DoeServletContextListener.getConfigurationProperty("search.cache.ttl", 60),
+            result -> result.length() * 2L);
+
+    // rendered single records, by CODE ID and format
+    private static final ResultCache<RenderedRecord> RECORD_CACHE = new ResultCache<>("records",
+            DoeServletContextListener.getConfigurationProperty("search.record.cache.size", 5000),
+            DoeServletContextListener.getConfigurationProperty("search.record.cache.bytes", 64 * 1024 * 1024),
+            DoeServletContextListener.getConfigurationProperty("search.record.cache.ttl", 3600),
+            record -> record.body.capacity(),
+            true);
+    // hold rendered records outside the Java heap
+    private static final boolean RECORD_CACHE_OFFHEAP = "true".equalsIgnoreCase(DoeServletContextListener.getConfigurationProperty("search.record.cache.offheap").trim());
+
+    /**
+     * A record rendered in one format, with its validators.
+     */
+    private static class RenderedRecord {
+        private final ByteBuffer body;
+        private final EntityTag etag;
+        private final Date lastModified;
+
+        RenderedRecord(byte[] rendered, Date lastModified) {
+            if (RECORD_CACHE_OFFHEAP) {
+                body = ByteBuffer.allocateDirect(rendered.length);
+                body.put(rendered).flip();
+            } else {
+                body = ByteBuffer.wrap(rendered);
+            }
+            this.etag = new EntityTag(DigestUtils.sha1Hex(rendered));
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * @return the rendered bytes, as a response entity
+         */
+        Object getEntity() {
+            if (body.hasArray())
+                return body.array();
+
+            return (StreamingOutput) out -> Channels.newChannel(out).write(body.duplicate());
+        }
+    }
+
+    /**
+     * Determine the search engine to use: SOLR if configured, otherwise the
+     * embedded Lucene engine if running.
+     *
+     * @return the search engine, or null if searching is not available
+     */
+    private static SearchBackend getBackend() {
+        return (null!=SOLR) ? SOLR : LuceneSearchBackend.getInstance();
+    }
 
     /**
      * Acquire information from the searching index if possible.  This endpoint
      * should ONLY return Approved records that have been indexed for searching.
      * Requires that searching be configured.
      *
+     * Rendered records are cached until re-indexed, and carry an ETag and
+     * Last-Modified date so clients may make conditional requests.
+     *
      * Response Codes:
      * 200 - OK, record found, and returned in desired format
      * 206 - No content, searching is not configured/unavailable
+     * 304 - Not modified since the client's copy
      * 404 - Record was not found
      * 500 - IO error or search malformed
      *
+     * @param request the request, for conditional headers
      * @param codeId the CODE ID to find
      * @param format the desired FORMAT; may be "yaml" or "xml".  Default is JSON
      * unless specified
@@ -159,83 +293,280 @@ public class SearchService {
     @GET
     @Path("{codeId}")
     @Produces ({MediaType.APPLICATION_JSON, "text/yaml", MediaType.APPLICATION_XML, MediaType.TEXT_PLAIN})
-    public Response getSingleRecord(@PathParam("codeId") Long codeId, @QueryParam("format") String format) {
+    public Response getSingleRecord(@Context Request request, @PathParam("codeId") Long codeId, @QueryParam("format") String format) {
         // no search configured, you get nothing
-        if ("".equals(SEARCH_URL))
+        if (null==getBackend())
             return Response
                     .status(Response.Status.NO_CONTENT)
                     .build();
-        CloseableHttpClient hc = HttpClientBuilder
-                .create()
-                .build();
 
-        try {
-            // construct a Search for a single CODEID value
-            URIBuilder builder = new URIBuilder(SEARCH_URL)
-                .addParameter("q", "codeId:" + codeId)
-                .addParameter("fl", "json")
-                .addParameter("rows", "1");
+        String type = ("yaml".equals(format)) ? "yaml" : ("xml".equals(format)) ? "xml" : "json";
 
-            HttpGet get = new HttpGet(builder.build());
+        try {
+            RenderedRecord record = RECORD_CACHE.get(codeId + " " + type, () -> renderRecord(codeId, type));
 
-            HttpResponse response = hc.execute(get);
+            // the client's copy is current
+            Response.ResponseBuilder notModified = (null==record.lastModified) ?
+                    request.evaluatePreconditions(record.etag) :
+                    request.evaluatePreconditions(record.lastModified, record.etag);
+            if (null!=notModified)
+                return notModified.build();
 
-            if (HttpStatus.SC_OK==response.getStatusLine().getStatusCode()) {
-                SolrResult result = JSON_MAPPER.readValue(EntityUtils.toString(response.getEntity()), SolrResult.class);
+            Response.ResponseBuilder builder = Response
+                    .ok()
+                    .tag(record.etag)
+                    .lastModified(record.lastModified)
+                    .entity(record.getEntity());
 
-                if (result.getSearchResponse().isEmpty())
-                    return ErrorResponse
-                            .notFound("No records found.")
-                            .build();
-                // get the first result
-                SolrDocument doc = result.getSearchResponse().getDocuments()[0];
-                // convert it to a POJO
-                DOECodeMetadata md = DOECodeMetadata.parseJson(new StringReader(doc.getJson()));
-
-                // if no release date, don't return the DOI for display in search results.
-                if (!StringUtils.isBlank(md.getDoi()) && md.getReleaseDate() == null)
-                    md.setDoi(null);
-
-                // if YAML is requested, return that; otherwise, default to JSON
-                if ("yaml".equals(format)) {
-                    // return the YAML
-                    return
-                        Response
-                        .status(Response.Status.OK)
+            // if YAML is requested, return that; otherwise, default to JSON
+            if ("yaml".equals(type))
+                return builder
                         .header("Content-Type", "text/yaml")
                         .header("Content-Disposition", "attachment; filename = \"metadata.yml\"")
-                        .entity(YAML_MAPPER
-                                .writer(filter).writeValueAsString(md))
                         .build();
-                } else if ("xml".equals(format)) {
-                    return Response
-                            .ok()
-                            .header("Content-Type", MediaType.APPLICATION_XML)
-                            .entity(XML_MAPPER
-                                    .writer(filter).writeValueAsString(md))
-                            .build();
-                } else {
-                    // send back the JSON (named object "metadata")
-                    return Response
-                        .ok()
+            else if ("xml".equals(type))
+                return builder
+                        .header("Content-Type", MediaType.APPLICATION_XML)
+                        .build();
+            else
+                return builder
                         .header("Content-Type", MediaType.APPLICATION_JSON)
-                        .entity(BIBLIO_WRAPPER
-                                .writer(filter)
-                                .writeValueAsString(md))
                         .build();
+        } catch ( SearchException e ) {
+            return ErrorResponse
+                    .status(e.getStatus())
+                    .message(e.getMessage())
+                    .build();
+        } catch ( IOException e ) {
+            log.warn("Searching Error.", e);
+            return ErrorResponse.internalServerError("Search error encountered.").build();
+        }
+    }
+
+    /**
+     * Look up a single record in the index and render it.
+     *
+     * @param codeId the CODE ID to find
+     * @param type the format; "yaml", "xml", or "json"
+     * @return the rendered record
+     * @throws SearchException if not found, or SOLR rejected the search
+     * @throws IOException on SOLR or JSON processing errors
+     */
+    private static RenderedRecord renderRecord(Long codeId, String type) throws IOException {
+        // construct a Search for a single CODEID value
+        URIBuilder builder = new URIBuilder()
+            .addParameter("q", "codeId:" + codeId)
+            .addParameter("fl", "json")
+            .addParameter("rows", "1");
+
+        SolrResult result = JSON_MAPPER.readValue(getBackend().search(builder), SolrResult.class);
+
+        if (result.getSearchResponse().isEmpty())
+            throw new SearchException(HttpStatus.SC_NOT_FOUND, "No records found.");
+
+        // render the first result
+        return renderRecord(result.getSearchResponse().getDocuments()[0], type);
+    }
+
+    /**
+     * Render an indexed record.
+     *
+     * @param doc the SOLR document, with its record JSON
+     * @param type the format; "yaml", "xml", "json", or "item" for JSON
+     * without the "metadata" wrapper
+     * @return the rendered record
+     * @throws IOException on JSON processing errors
+     */
+    private static RenderedRecord renderRecord(SolrDocument doc, String type) throws IOException {
+        // convert it to a POJO
+        DOECodeMetadata md = DOECodeMetadata.parseJson(new StringReader(doc.getJson()));
+
+        // if no release date, don't return the DOI for display in search results.
+        if (!StringUtils.isBlank(md.getDoi()) && md.getReleaseDate() == null)
+            md.setDoi(null);
+
+        String rendered;
+        if ("yaml".equals(type))
+            rendered = YAML_MAPPER.writer(filter).writeValueAsString(md);
+        else if ("xml".equals(type))
+            rendered = XML_MAPPER.writer(filter).writeValueAsString(md);
+        else if ("item".equals(type))
+            rendered = JSON_MAPPER.writer(filter).writeValueAsString(md);
+        else
+            // send back the JSON (named object "metadata")
+            rendered = BIBLIO_WRAPPER.writer(filter).writeValueAsString(md);
+
+        return new RenderedRecord(rendered.getBytes(StandardCharsets.UTF_8), md.getDateRecordUpdated());
+    }
+
+    /**
+     * Acquire several records from the searching index at once, in the order
+     * requested.  Only Approved, indexed records are returned; any others are
+     * omitted.  Records already rendered are taken from the record cache, and
+     * the rest looked up with a single SOLR search.  Requires that searching
+     * be configured.
+     *
+     * JSON results are an object with a "records" array; XML results are a
+     * "records" element of records; YAML results are a stream of documents,
+     * one per record.
+     *
+     * Response Codes:
+     * 200 - OK, records returned in desired format
+     * 204 - No content, searching is not configured/unavailable
+     * 304 - Not modified since the client's copy
+     * 400 - No CODE IDs, too many, or not numeric
+     * 500 - IO error or search malformed
+     *
+     * @param request the request, for conditional headers
+     * @param ids the CODE IDs to find, comma-separated
+     * @param format the desired FORMAT; may be "yaml" or "xml".  Default is JSON
+     * unless specified
+     * @return the records in the desired format
+     */
+    @GET
+    @Path ("/records")
+    @Produces ({MediaType.APPLICATION_JSON, "text/yaml", MediaType.APPLICATION_XML})
+    public Response getRecords(@Context Request request, @QueryParam("ids") String ids, @QueryParam("format") String format) {
+        return records(request, ids, format);
+    }
+
+    /**
+     * Acquire several records from the searching index at once, with the CODE
+     * IDs posted as a form, for lists too long for a URL.
+     *
+     * @param request the request, for conditional headers
+     * @param ids the CODE IDs to find, comma-separated
+     * @param format the desired FORMAT; may be "yaml" or "xml".  Default is JSON
+     * unless specified
+     * @return the records in the desired format
+     * @see #getRecords(javax.ws.rs.core.Request, java.lang.String, java.lang.String)
+     */
+    @POST
+    @Path ("/records")
+    @Consumes (MediaType.APPLICATION_FORM_URLENCODED)
+    @Produces ({MediaType.APPLICATION_JSON, "text/yaml", MediaType.APPLICATION_XML})
+    public Response postRecords(@Context Request request, @FormParam("ids") String ids, @QueryParam("format") String format) {
+        return records(request, ids, format);
+    }
+
+    /**
+     * Look up and combine several rendered records.
+     *
+     * @param request the request, for conditional headers
+     * @param ids the CODE IDs to find, comma-separated
+     * @param format the desired FORMAT
+     * @return the records in the desired format
+     */
+    private Response records(Request request, String ids, String format) {
+        // no search configured, you get nothing
+        if (null==getBackend())
+            return Response
+                    .status(Response.Status.NO_CONTENT)
+                    .build();
+
+        // unique CODE IDs, in the order requested
+        Set<Long> codeIds = new LinkedHashSet<>();
+        try {
+            for ( String id : StringUtils.split(StringUtils.defaultString(ids), ", ") )
+                codeIds.add(Long.valueOf(id));
+        } catch ( NumberFormatException e ) {
+            return ErrorResponse
+                    .badRequest("CODE IDs must be numeric.")
+                    .build();
+        }
+        if (codeIds.isEmpty())
+            return ErrorResponse
+                    .badRequest("No CODE IDs requested.")
+                    .build();
+        if (codeIds.size() > MAX_RECORDS)
+            return ErrorResponse
+                    .badRequest("At most " + MAX_RECORDS + " records may be requested at once.")
+                    .build();
+
+        String type = ("yaml".equals(format)) ? "yaml" : ("xml".equals(format)) ? "xml" : "item";
+        List<String> keys = codeIds
+                .stream()
+                .map(id -> id + " " + type)
+                .collect(Collectors.toList());
+
+        try {
+            Collection<RenderedRecord> records = RECORD_CACHE.getAll(keys, missing -> renderRecords(missing, type)).values();
+
+            // combined validator of the records returned
+            EntityTag etag = new EntityTag(DigestUtils.sha1Hex(records
+                    .stream()
+                    .map(r -> r.etag.getValue())
+                    .collect(Collectors.joining(","))));
+            Response.ResponseBuilder notModified = request.evaluatePreconditions(etag);
+            if (null!=notModified)
+                return notModified.build();
+
+            StreamingOutput stream = out -> {
+                WritableByteChannel channel = Channels.newChannel(out);
+
+                out.write(("xml".equals(type)) ? "<records>\n".getBytes(StandardCharsets.UTF_8) :
+                          ("item".equals(type)) ? "{\"records\":[".getBytes(StandardCharsets.UTF_8) :
+                          new byte[0]);
+                boolean first = true;
+                for ( RenderedRecord record : records ) {
+                    if (!first)
+                        out.write(("item".equals(type)) ? ',' : '\n');
+                    channel.write(record.body.duplicate());
+                    first = false;
                 }
-            } else {
-                return ErrorResponse
-                        .status(response.getStatusLine().getStatusCode())
-                        .message(EntityUtils.toString(response.getEntity()))
-                        .build();
-            }
-        } catch ( IOException | URISyntaxException e ) {
+                out.write(("xml".equals(type)) ? "\n</records>\n".getBytes(StandardCharsets.UTF_8) :
+                          ("item".equals(type)) ? "]}".getBytes(StandardCharsets.UTF_8) :
+                          "\n".getBytes(StandardCharsets.UTF_8));
+            };
+
+            return Response
+                    .ok()
+                    .tag(etag)
+                    .entity(stream)
+                    .header("Content-Type", ("yaml".equals(type)) ? "text/yaml" :
+                            ("xml".equals(type)) ? MediaType.APPLICATION_XML : MediaType.APPLICATION_JSON)
+                    .build();
+        } catch ( SearchException e ) {
+            return ErrorResponse
+                    .status(e.getStatus())
+                    .message(e.getMessage())
+                    .build();
+        } catch ( IOException e ) {
             log.warn("Searching Error.", e);
             return ErrorResponse.internalServerError("Search error encountered.").build();
         }
     }
 
+    /**
+     * Look up several records in the index with one search, and render them.
+     *
+     * @param keys the record cache keys, CODE ID and format
+     * @param type the format
+     * @return the rendered records found, by key
+     * @throws SearchException if SOLR rejected the search
+     * @throws IOException on SOLR or JSON processing errors
+     */
+    private static Map<String, RenderedRecord> renderRecords(List<String> keys, String type) throws IOException {
+        Map<String, RenderedRecord> records = new HashMap<>();
+        String codeIds = keys
+                .stream()
+                .map(key -> StringUtils.substringBefore(key, " "))
+                .collect(Collectors.joining(" OR "));
+
+        URIBuilder builder = new URIBuilder()
+            .addParameter("q", "codeId:(" + codeIds + ")")
+            .addParameter("fl", "codeId,json")
+            .addParameter("rows", String.valueOf(keys.size()));
+
+        SolrResult result = JSON_MAPPER.readValue(getBackend().search(builder), SolrResult.class);
+
+        if (null!=result.getSearchResponse().getDocuments())
+            for ( SolrDocument doc : result.getSearchResponse().getDocuments() )
+                records.put(doc.getCodeId() + " " + type, renderRecord(doc, type));
+
+        return records;
+    }
+
     /**
      * Translate a SearchData parameter request to SOLR output search results.
      *
@@ -247,11 +578,30 @@ public class SearchService {
     @Produces ({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML, "text/yaml"})
     public Response searchGet(@Context UriInfo uriInfo, @QueryParam("format") String format) {
         // no search configured, you get nothing
-        if ("".equals(SEARCH_URL))
+        if (null==getBackend())
             return Response
                     .status(Response.Status.NO_CONTENT)
                     .build();
 
+        try {
+            // call search
+            return search(toParameters(uriInfo), format);
+        } catch ( SearchException e ) {
+            return ErrorResponse
+                    .status(e.getStatus())
+                    .message(e.getMessage())
+                    .build();
+        }
+    }
+
+    /**
+     * Convert GET search parameters into the JSON SearchData Object form.
+     *
+     * @param uriInfo the GET search parameters
+     * @return the JSON search parameters
+     * @throws SearchException if parameters could not be converted
+     */
+    private static String toParameters(UriInfo uriInfo) throws SearchException {
         // get parameters
         MultivaluedMap<String, String> params = uriInfo.getQueryParameters();
 
@@ -300,9 +650,7 @@ public class SearchService {
                     } catch (IOException ex) {
                         log.warn("Unable to process JSON ARRAY from GET parameter.");
                         log.warn("Message: " + ex.getMessage());
-                        return ErrorResponse
-                                .internalServerError("JSON ARRAY parameter formatting error.")
-                                .build();
+                        throw new SearchException(HttpStatus.SC_INTERNAL_SERVER_ERROR, "JSON ARRAY parameter formatting error.");
                     }
                 }
                 // input is a normal string, add it to array node
@@ -318,19 +666,13 @@ public class SearchService {
         }
 
         // convert JSON to String, as expected for search()
-        String parameters;
         try {
-            parameters = mapper.writeValueAsString(getParams);
+            return mapper.writeValueAsString(getParams);
         } catch (JsonProcessingException e) {
             log.warn("Unable to process JSON from GET.");
             log.warn("Message: " + e.getMessage());
-            return ErrorResponse
-                    .internalServerError("JSON formatting error.")
-                    .build();
+            throw new SearchException(HttpStatus.SC_INTERNAL_SERVER_ERROR, "JSON formatting error.");
         }
-
-        // call search
-        return search(parameters, format);
     }
 
     /**
@@ -345,7 +687,7 @@ public class SearchService {
     @Consumes (MediaType.APPLICATION_JSON)
     public Response searchPost(String parameters, @QueryParam("format") String format) {
         // no search configured, you get nothing
-        if ("".equals(SEARCH_URL))
+        if (null==getBackend())
             return Response
                     .status(Response.Status.NO_CONTENT)
                     .build();
@@ -354,103 +696,422 @@ public class SearchService {
         return search(parameters, format);
     }
 
-    private Response search(String parameters, String format) {
+    /**
+     * Count matching records by each browsing facet: site, license,
+     * accessibility, software type, programming language, research
+     * organization (as configured), and release year.  Accepts the same
+     * parameters as searching, but returns only counts.  Counts are cached per
+     * set of search parameters until the index changes.
+     *
+     * Response Codes:
+     * 200 - OK, JSON facet counts returned
+     * 204 - No content, searching is not configured/unavailable
+     * 500 - IO error or search malformed
+     *
+     * @param uriInfo the GET search parameters
+     * @return JSON facet counts, by facet name and value
+     */
+    @GET
+    @Path ("/facets")
+    @Produces (MediaType.APPLICATION_JSON)
+    public Response facetsGet(@Context UriInfo uriInfo) {
+        // no search configured, you get nothing
+        if (null==getBackend())
+            return Response
+                    .status(Response.Status.NO_CONTENT)
+                    .build();
+
+        try {
+            return facets(toParameters(uriInfo));
+        } catch ( SearchException e ) {
+            return ErrorResponse
+                    .status(e.getStatus())
+                    .message(e.getMessage())
+                    .build();
+        }
+    }
+
+    /**
+     * Count matching records by each browsing facet.
+     *
+     * @param parameters the JSON SearchData Object of search parameters
+     * @return JSON facet counts, by facet name and value
+     * @see #facetsGet(javax.ws.rs.core.UriInfo)
+     */
+    @POST
+    @Path ("/facets")
+    @Produces (MediaType.APPLICATION_JSON)
+    @Consumes (MediaType.APPLICATION_JSON)
+    public Response facetsPost(String parameters) {
+        // no search configured, you get nothing
+        if (null==getBackend())
+            return Response
+                    .status(Response.Status.NO_CONTENT)
+                    .build();
+
+        return facets(parameters);
+    }
+
+    /**
+     * Obtain facet counts, from cache where possible.
+     *
+     * @param parameters the JSON SearchData Object of search parameters
+     * @return JSON facet counts
+     */
+    private Response facets(String parameters) {
         try {
-            // get a set of search parameters
             SearchData searchFor = SearchData.parseJson(new StringReader(parameters));
-            boolean showFacets = searchFor.isShowFacets();
 
-            CloseableHttpClient hc = HttpClientBuilder
-                    .create()
+            // counts depend only on what is matched, not on paging or display
+            searchFor.setRows(0);
+            searchFor.setStart(0);
+            searchFor.setSort(null);
+            searchFor.setCursor(null);
+            searchFor.setView(null);
+            searchFor.setShowFacets(false);
+
+            String counts = FACET_CACHE.get(searchFor.toCacheKey(), () -> renderFacets(searchFor));
+
+            return Response
+                    .ok()
+                    .header("Content-Type", MediaType.APPLICATION_JSON)
+                    .entity(counts)
+                    .build();
+        } catch ( SearchException e ) {
+            return ErrorResponse
+                    .status(e.getStatus())
+                    .message(e.getMessage())
                     .build();
+        } catch ( JsonProcessingException e ) {
+            log.warn("Unable to process JSON from: " + parameters);
+            log.warn("Message: " + e.getMessage());
+            return ErrorResponse
+                    .internalServerError("JSON formatting error.")
+                    .build();
+        } catch ( IOException e ) {
+            log.warn("Unhandled IO Error: " + e.getMessage());
+            return ErrorResponse
+                    .internalServerError("IO Error.")
+                    .build();
+        }
+    }
 
-            URIBuilder builder = new URIBuilder(SEARCH_URL)
-                    .addParameter("q", searchFor.toQ())
-                    .addParameter("fl", "json")
-                    .addParameter("sort", searchFor.getSort());
-            // if values are specified for rows and start, supply those.
-            if (null!=searchFor.getRows())
-                builder.addParameter("rows", String.valueOf(searchFor.getRows()));
-            if (null!=searchFor.getStart())
-                builder.addParameter("start", String.valueOf(searchFor.getStart()));
-            // is show facets, add those
-            if (showFacets) {
-                    builder.addParameter("facet", "on");
-                    builder.addParameter("facet.field", "fResearchOrganizations");
-            }
+    /**
+     * Count matching records by facet with a single SOLR request for no
+     * documents.  Field counts come from SOLR field faceting, and release
+     * years from the "dates" range facet the search handler always applies.
+     *
+     * @param searchFor the search parameters
+     * @return JSON counts, by facet name and value
+     * @throws SearchException if SOLR rejected the search
+     * @throws IOException on SOLR or JSON processing errors
+     */
+    private static String renderFacets(SearchData searchFor) throws IOException {
+        URIBuilder builder = new URIBuilder()
+                .addParameter("q", searchFor.toQ())
+                .addParameter("rows", "0")
+                .addParameter("facet", "on")
+                .addParameter("facet.mincount", "1")
+                .addParameter("facet.limit", "-1");
+        for ( String fq : searchFor.toFq() )
+            builder.addParameter("fq", fq);
+        for ( String field : FACET_FIELDS )
+            builder.addParameter("facet.field", field);
 
-            HttpGet get = new HttpGet(builder.build());
+        SolrResult result = JSON_MAPPER.readValue(getBackend().search(builder), SolrResult.class);
+        ObjectNode counts = mapper.createObjectNode();
+        ObjectNode facets = counts
+                .put("num_found", result.getSearchResponse().getNumFound())
+                .putObject("facets");
 
-            HttpResponse response = hc.execute(get);
+        if (null!=result.getSolrFacetCounts()) {
+            result.getSolrFacetCounts().getFields().forEach((field, values) -> {
+                ObjectNode facet = facets.putObject(toFacetName(field));
+                values.forEach(facet::put);
+            });
+        }
+        // release years, from the dates range facet
+        ObjectNode years = facets.putObject("release_year");
+        if (null!=result.getSolrFacet())
+            result.getSolrFacet().getValues().forEach((date, count) -> years.put(StringUtils.left(date, 4), count));
 
-            if (HttpStatus.SC_OK==response.getStatusLine().getStatusCode()) {
-                SolrResult result = JSON_MAPPER.readValue(EntityUtils.toString(response.getEntity()), SolrResult.class);
-                // construct a search response object
-                SearchResponse query = new SearchResponse();
-                query.setStart(result.getSearchResponse().getStart());
-                query.setNumFound(result.getSearchResponse().getNumFound());
+        return counts.toString();
+    }
 
-                // if there are matched documents, load them in
-                if ( null!=result.getSearchResponse().getDocuments() ) {
-                    for ( SolrDocument doc : result.getSearchResponse().getDocuments() ) {
-                        // convert it to a POJO
-                        DOECodeMetadata md = JSON_MAPPER.readValue(doc.getJson(), DOECodeMetadata.class);
+    /**
+     * Name a facet for output: the SOLR field in snake_case, without the "f"
+     * prefix of facet-only fields (so "fResearchOrganizations" is
+     * "research_organizations").
+     *
+     * @param field the SOLR field name
+     * @return the facet name
+     */
+    protected static String toFacetName(String field) {
+        String name = (field.length() > 1 && field.charAt(0)=='f' && Character.isUpperCase(field.charAt(1))) ?
+                field.substring(1) : field;
 
-                        // if no release date, don't return the DOI for display in search results.
-                        if (!StringUtils.isBlank(md.getDoi()) && md.getReleaseDate() == null)
-                            md.setDoi(null);
+        return name
+                .replaceAll("([a-z0-9])([A-Z])", "$1_$2")
+                .toLowerCase();
+    }
 
-                        query.add(md);
-                    }
-                    if (showFacets) {
-                        // check out the FACETS
-                        query.setFacets(result.getSolrFacet().getValues());
-                        // check out the FACET COUNTS
-                        query.setFacetFieldCounts(result.getSolrFacetCounts().getFields()); // fields
-                    }
-                }
+    /**
+     * Suggest completions of partially-entered search text: software titles,
+     * acronyms, developer names, organizations, and keywords of Approved
+     * records that begin with the text, or have a word that does.  Served from
+     * an in-memory index rather than SOLR; most frequently used terms first.
+     *
+     * Response Codes:
+     * 200 - OK, JSON suggestions returned
+     * 400 - unknown type requested
+     *
+     * @param prefix the text entered so far
+     * @param type the optional kind of term: "title", "acronym", "developer",
+     * "organization", or "keyword"
+     * @param limit the optional most suggestions to return (default 10)
+     * @return JSON suggestions, with their text, type, and record count
+     */
+    @GET
+    @Path ("/suggest")
+    @Produces (MediaType.APPLICATION_JSON)
+    public Response suggest(@QueryParam("q") String prefix, @QueryParam("type") String type, @QueryParam("limit") Integer limit) {
+        SuggestIndex.Type kind = null;
 
-                FilterProvider searchFilter = filter;
-                if (!showFacets)
-                    searchFilter = filterExcludeFacets;
-
-                // respond with the appropriate format based on the input parameter
-                if ("xml".equals(format)) {
-                    return Response
-                            .ok()
-                            .header("Content-Type", MediaType.APPLICATION_XML)
-                            .entity(XML_MAPPER
-                                    .writer(searchFilter)
-                                    .writeValueAsString(query))
-                            .build();
-                } else if ("yaml".equals(format)) {
-                    return Response
-                            .ok()
-                            .header("Content-Type", "text/yaml")
-                            .entity(YAML_MAPPER
-                                    .writer(searchFilter)
-                                    .writeValueAsString(query))
-                            .build();
-                } else {
-                    return Response
-                            .ok()
-                            .header("Content-Type", MediaType.APPLICATION_JSON)
-                            .entity(JSON_MAPPER
-                                    .writer(searchFilter)
-                                    .writeValueAsString(query))
-                            .build();
-                }
-            } else {
-                // let the user know something failed
+        if (StringUtils.isNotBlank(type)) {
+            try {
+                kind = SuggestIndex.Type.valueOf(StringUtils.capitalize(type.trim().toLowerCase()));
+            } catch ( IllegalArgumentException e ) {
                 return ErrorResponse
-                        .status(response.getStatusLine().getStatusCode())
-                        .message(EntityUtils.toString(response.getEntity()))
+                        .badRequest("Unknown suggestion type: " + type)
                         .build();
             }
-        } catch ( URISyntaxException e ) {
-            log.warn("URI Error: " + e.getMessage());
+        }
+
+        ObjectNode result = mapper.createObjectNode();
+        ArrayNode suggestions = result.putArray("suggestions");
+
+        for ( SuggestIndex.Suggestion suggestion : SuggestIndex.getInstance().lookup(prefix, kind,
+                Math.min(MAX_SUGGESTIONS, (null==limit) ? 10 : limit)) )
+            suggestions.addObject()
+                    .put("text", suggestion.getText())
+                    .put("type", suggestion.getType().name().toLowerCase())
+                    .put("count", suggestion.getCount());
+
+        return Response
+                .ok()
+                .entity(result.toString())
+                .build();
+    }
+
+    /**
+     * Report on the state of the SOLR search transport, such as connection
+     * pool utilization.  Requires administrative access.
+     *
+     * Response Codes:
+     * 200 - OK, JSON status information returned
+     * 401 - authentication required
+     * 403 - not an administrative user
+     *
+     * @return JSON containing the search service status
+     */
+    @GET
+    @Path ("/status")
+    @Produces (MediaType.APPLICATION_JSON)
+    @RequiresAuthentication
+    @RequiresRoles ("ContentAdmin")
+    public Response getStatus() {
+        ObjectNode status = mapper.createObjectNode();
+
+        status.put("configured", null!=getBackend());
+        status.put("backend", (null==getBackend()) ? null : getBackend().getName());
+        status.set("pool", SolrClient.getStatistics());
+        status.set("cache", SEARCH_CACHE.getStatistics());
+        status.set("record_cache", RECORD_CACHE.getStatistics());
+        status.set("facet_cache", FACET_CACHE.getStatistics());
+        status.set("suggest", SuggestIndex.getInstance().getStatistics());
+
+        return Response
+                .ok()
+                .entity(status.toString())
+                .build();
+    }
+
+    /**
+     * Export every searchable record, streamed as newline-delimited JSON (one
+     * record per line) or CSV.  The index is read a page at a time by cursor,
+     * and each page written out as it arrives, so memory use does not grow
+     * with the number of records.  Compressed with gzip if the client accepts
+     * it.
+     *
+     * Response Codes:
+     * 200 - OK, records streamed in the desired format
+     * 204 - No content, searching is not configured/unavailable
+     *
+     * @param format the desired FORMAT; "csv", or NDJSON by default
+     * @param acceptEncoding the Accept-Encoding request header
+     * @return the streamed records
+     */
+    @GET
+    @Path ("/export")
+    @Produces ({EXPORT_NDJSON, EXPORT_CSV})
+    public Response export(@QueryParam("format") String format, @HeaderParam("Accept-Encoding") String acceptEncoding) {
+        // no search configured, you get nothing
+        if (null==getBackend())
+            return Response
+                    .status(Response.Status.NO_CONTENT)
+                    .build();
+
+        boolean csv = "csv".equals(format);
+        boolean gzip = ContentCoding.accepts(acceptEncoding, "gzip");
+
+        StreamingOutput stream = output -> {
+            OutputStream out = (gzip) ? new GZIPOutputStream(output, 65536) : new BufferedOutputStream(output, 65536);
+
+            if (csv)
+                exportCsv(out);
+            else
+                exportJson(out);
+
+            if (gzip)
+                ((GZIPOutputStream) out).finish();
+            out.flush();
+        };
+
+        Response.ResponseBuilder builder = Response
+                .ok(stream)
+                .header("Content-Type", (csv) ? EXPORT_CSV : EXPORT_NDJSON)
+                .header("Content-Disposition", "attachment; filename = \"doecode." + ((csv) ? "csv" : "ndjson") + "\"")
+                .header("Vary", "Accept-Encoding");
+        if (gzip)
+            builder.header("Content-Encoding", "gzip");
+
+        return builder.build();
+    }
+
+    /**
+     * Write every searchable record as a line of JSON.
+     *
+     * @param out the stream to write to
+     * @throws IOException on SOLR or output errors
+     */
+    private static void exportJson(OutputStream out) throws IOException {
+        ObjectWriter writer = JSON_MAPPER.writer(filter);
+
+        exportRecords(md -> {
+            out.write(writer.writeValueAsBytes(md));
+            out.write('\n');
+        });
+    }
+
+    /**
+     * Write every searchable record as a CSV row, with a header row first.
+     *
+     * @param out the stream to write to
+     * @throws IOException on SOLR or output errors
+     */
+    private static void exportCsv(OutputStream out) throws IOException {
+        CsvSchema.Builder schema = CsvSchema.builder();
+        for ( String column : EXPORT_COLUMNS )
+            schema.addColumn(column);
+
+        DateTimeFormatter date = DateTimeFormatter.ISO_LOCAL_DATE.withZone(ZoneId.systemDefault());
+
+        try (SequenceWriter rows = CSV_MAPPER.writer(schema.build().withHeader()).writeValues(out)) {
+            exportRecords(md -> {
+                Map<String, Object> row = new LinkedHashMap<>();
+
+                row.put("code_id", md.getCodeId());
+                row.put("software_title", md.getSoftwareTitle());
+                row.put("doi", md.getDoi());
+                row.put("release_date", (null==md.getReleaseDate()) ? null : date.format(md.getReleaseDate().toInstant()));
+                row.put("developers", (null==md.getDevelopers()) ? null :
+                        md.getDevelopers().stream().map(d -> d.toString().trim()).collect(Collectors.joining("; ")));
+                row.put("licenses", (null==md.getLicenses()) ? null : String.join("; ", md.getLicenses()));
+                row.put("site_ownership_code", md.getSiteOwnershipCode());
+                row.put("software_type", md.getSoftwareType());
+                row.put("accessibility", md.getAccessibility());
+                row.put("repository_link", md.getRepositoryLink());
+                row.put("landing_page", md.getLandingPage());
+
+                rows.write(row);
+            });
+        }
+    }
+
+    /**
+     * Handles each exported record.
+     */
+    @FunctionalInterface
+    private interface RecordWriter {
+        void write(DOECodeMetadata md) throws IOException;
+    }
+
+    /**
+     * Read every searchable record from the index in CODE ID order, a page at
+     * a time by cursor.
+     *
+     * @param writer handles each record
+     * @throws IOException on SOLR or output errors
+     */
+    private static void exportRecords(RecordWriter writer) throws IOException {
+        String cursor = "*";
+
+        while (true) {
+            URIBuilder builder = new URIBuilder()
+                    .addParameter("q", "*:*")
+                    .addParameter("fl", "json")
+                    .addParameter("sort", "codeId asc")
+                    .addParameter("rows", String.valueOf(EXPORT_ROWS))
+                    .addParameter("cursorMark", cursor);
+
+            // read straight from the response, rather than as a String
+            SolrResult result = getBackend().search(builder, in -> JSON_MAPPER.readValue(in, SolrResult.class));
+
+            if (null!=result.getSearchResponse().getDocuments()) {
+                for ( SolrDocument doc : result.getSearchResponse().getDocuments() ) {
+                    DOECodeMetadata md = JSON_MAPPER.readValue(doc.getJson(), DOECodeMetadata.class);
+
+                    // if no release date, don't return the DOI for display in search results.
+                    if (!StringUtils.isBlank(md.getDoi()) && md.getReleaseDate() == null)
+                        md.setDoi(null);
+
+                    writer.write(md);
+                }
+            }
+
+            // the cursor is exhausted once it stops moving
+            if (null==result.getNextCursorMark() || cursor.equals(result.getNextCursorMark()))
+                break;
+            cursor = result.getNextCursorMark();
+        }
+    }
+
+    /**
+     * Perform a search, serving the rendered results from cache where possible.
+     *
+     * @param parameters the JSON SearchData Object of search parameters
+     * @param format the optional output format (YAML/JSON/XML; JSON is default)
+     * @return the output of the SOLR search results, if any
+     */
+    private Response search(String parameters, String format) {
+        try {
+            // get a set of search parameters
+            SearchData searchFor = SearchData.parseJson(new StringReader(parameters));
+            String type = ("xml".equals(format)) ? MediaType.APPLICATION_XML :
+                    ("yaml".equals(format)) ? "text/yaml" : MediaType.APPLICATION_JSON;
+
+            String results = SEARCH_CACHE.get(type + " " + searchFor.toCacheKey(), () -> render(searchFor, format));
+
+            return Response
+                    .ok()
+                    .header("Content-Type", type)
+                    .entity(results)
+                    .build();
+        } catch ( SearchException e ) {
+            // let the user know something failed
             return ErrorResponse
-                    .internalServerError("Unable to contact search provider.")
+                    .status(e.getStatus())
+                    .message(e.getMessage())
                     .build();
         } catch ( JsonProcessingException e ) {
             log.warn("Unable to process JSON from: " + parameters);
@@ -465,4 +1126,91 @@ public class SearchService {
                     .build();
         }
     }
+
+    /**
+     * Query SOLR and render the results in the desired format.
+     *
+     * @param searchFor the search parameters
+     * @param format the optional output format (YAML/JSON/XML; JSON is default)
+     * @return the rendered search results
+     * @throws SearchException if SOLR rejected the search
+     * @throws IOException on SOLR or JSON processing errors
+     */
+    private static String render(SearchData searchFor, String format) throws IOException {
+        boolean showFacets = searchFor.isShowFacets();
+        boolean summary = "summary".equals(searchFor.getView());
+        String cursor = searchFor.getCursor();
+
+        if (null!=cursor && null!=searchFor.getStart() && searchFor.getStart() > 0)
+            throw new SearchException(HttpStatus.SC_BAD_REQUEST, "Cursor paging may not be combined with a start row.");
+
+        URIBuilder builder = new URIBuilder()
+                .addParameter("q", searchFor.toQ())
+                .addParameter("fl", (summary) ? SUMMARY_FIELDS : "json");
+        // cursor paging costs the same at any depth, but needs a unique sort
+        if (null==cursor)
+            builder.addParameter("sort", searchFor.getSort());
+        else
+            builder
+                    .addParameter("sort", searchFor.getCursorSort())
+                    .addParameter("cursorMark", cursor);
+        // restrictions as separate, cacheable filter queries
+        for ( String fq : searchFor.toFq() )
+            builder.addParameter("fq", fq);
+        // if values are specified for rows and start, supply those.
+        if (null!=searchFor.getRows())
+            builder.addParameter("rows", String.valueOf(searchFor.getRows()));
+        if (null!=searchFor.getStart() && null==cursor)
+            builder.addParameter("start", String.valueOf(searchFor.getStart()));
+        // is show facets, add those
+        if (showFacets) {
+                builder.addParameter("facet", "on");
+                builder.addParameter("facet.field", "fResearchOrganizations");
+        }
+
+        SolrResult result = JSON_MAPPER.readValue(getBackend().search(builder), SolrResult.class);
+        // construct a search response object
+        SearchResponse query = new SearchResponse();
+        query.setStart(result.getSearchResponse().getStart());
+        query.setNumFound(result.getSearchResponse().getNumFound());
+        query.setNextCursor(result.getNextCursorMark());
+
+        // if there are matched documents, load them in
+        if ( null!=result.getSearchResponse().getDocuments() ) {
+            for ( SolrDocument doc : result.getSearchResponse().getDocuments() ) {
+                // summaries come from stored fields, without the record JSON
+                if (summary) {
+                    query.add(SearchSummary.fromDocument(doc));
+                    continue;
+                }
+
+                // convert it to a POJO
+                DOECodeMetadata md = JSON_MAPPER.readValue(doc.getJson(), DOECodeMetadata.class);
+
+                // if no release date, don't return the DOI for display in search results.
+                if (!StringUtils.isBlank(md.getDoi()) && md.getReleaseDate() == null)
+                    md.setDoi(null);
+
+                query.add(md);
+            }
+            if (showFacets) {
+                // check out the FACETS
+                query.setFacets(result.getSolrFacet().getValues());
+                // check out the FACET COUNTS
+                query.setFacetFieldCounts(result.getSolrFacetCounts().getFields()); // fields
+            }
+        }
+
+        FilterProvider searchFilter = filter;
+        if (!showFacets)
+            searchFilter = filterExcludeFacets;
+
+        // respond with the appropriate format based on the input parameter
+        if ("xml".equals(format))
+            return XML_MAPPER.writer(searchFilter).writeValueAsString(query);
+        else if ("yaml".equals(format))
+            return YAML_MAPPER.writer(searchFilter).writeValueAsString(query);
+        else
+            return JSON_MAPPER.writer(searchFilter).writeValueAsString(query);
+    }
 }
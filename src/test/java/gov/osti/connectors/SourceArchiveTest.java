@@ -0,0 +1,140 @@
+/*
+ */
+package gov.osti.connectors;
+
+import gov.osti.entity.LaborEstimate;
+import gov.osti.indexer.LaborEstimator;
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of source line counting, directly and within archives.
+ */
+public class SourceArchiveTest {
+    // 6 lines: 3 code, 2 comment, 1 blank
+    private static final String JAVA = "/* a\n * block */\nclass A {\n\n    int x; // trailing\n}";
+    // 4 lines: 2 code, 1 comment, 1 blank
+    private static final String PYTHON = "# comment\nimport os\n\nprint(os.name)\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    public SourceArchiveTest() {
+    }
+
+    /**
+     * Test line classification and language detection.
+     */
+    @Test
+    public void testCount() throws Exception {
+        LineCounter counter = new LineCounter();
+
+        assertNull("Unknown language found", LineCounter.forFileName("README.md"));
+        assertEquals("Wrong make language", "make", LineCounter.forFileName("src/Makefile").getName());
+
+        counter.count(LineCounter.forFileName("src/A.java"), new ByteArrayInputStream(JAVA.getBytes(StandardCharsets.UTF_8)));
+        LineCounter.Counts java = counter.getCounts().get("Java");
+        assertEquals("Wrong physical lines", 6, java.getPhysical());
+        assertEquals("Wrong code lines", 3, java.getCode());
+        assertEquals("Wrong comment lines", 2, java.getComment());
+        assertEquals("Wrong blank lines", 1, java.getBlank());
+
+        counter.count(LineCounter.forFileName("old.f"), new ByteArrayInputStream("C comment\n      call x\n".getBytes(StandardCharsets.UTF_8)));
+        assertEquals("Wrong fixed-form code", 1, counter.getCounts().get("Fortran 77").getCode());
+        assertEquals("Wrong fixed-form comments", 1, counter.getCounts().get("Fortran 77").getComment());
+
+        counter.reset(10);
+        counter.count(LineCounter.forFileName("a.py"), new ByteArrayInputStream(PYTHON.getBytes(StandardCharsets.UTF_8)));
+        assertTrue("Limit not reached", counter.isFull());
+        assertTrue("Java counts not reset", !counter.getCounts().containsKey("Java"));
+    }
+
+    /**
+     * Test counting within each kind of archive.
+     */
+    @Test
+    public void testArchives() throws Exception {
+        Path zip = folder.getRoot().toPath().resolve("project.zip");
+        try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(zip.toFile())) {
+            entry(out, new ZipArchiveEntry("project/src/A.java"), JAVA);
+            entry(out, new ZipArchiveEntry("project/run.py"), PYTHON);
+            entry(out, new ZipArchiveEntry("project/README.md"), "# Read me\n");
+            entry(out, new ZipArchiveEntry("project/.git/hooks/pre-commit.sh"), "exit 0\n");
+        }
+        check(zip, "project.zip");
+
+        for ( String name : new String[] { "project.tar.gz", "project.tar.bz2", "project.tar" } ) {
+            Path tar = folder.getRoot().toPath().resolve(name);
+
+            try (OutputStream file = Files.newOutputStream(tar);
+                 OutputStream compressed = name.endsWith(".gz") ? new GzipCompressorOutputStream(file) :
+                         name.endsWith(".bz2") ? new BZip2CompressorOutputStream(file) : file;
+                 TarArchiveOutputStream out = new TarArchiveOutputStream(compressed)) {
+                entry(out, tarEntry("project/src/A.java", JAVA), JAVA);
+                entry(out, tarEntry("project/run.py", PYTHON), PYTHON);
+                entry(out, tarEntry("project/README.md", "# Read me\n"), "# Read me\n");
+            }
+            check(tar, name);
+        }
+    }
+
+    /**
+     * Test the labor estimate.
+     */
+    @Test
+    public void testLaborHours() {
+        assertEquals("Wrong empty estimate", 0.0, LaborEstimator.laborHours(0), 0.0);
+        // 2.4 person-months of 152 hours for 1000 lines
+        assertEquals("Wrong estimate", 364.8, LaborEstimator.laborHours(1000), 0.0);
+        assertTrue("Estimate not increasing", LaborEstimator.laborHours(20000) > 20 * LaborEstimator.laborHours(1000));
+    }
+
+    private static TarArchiveEntry tarEntry(String name, String content) {
+        TarArchiveEntry entry = new TarArchiveEntry(name);
+
+        entry.setSize(content.getBytes(StandardCharsets.UTF_8).length);
+        return entry;
+    }
+
+    private static void entry(ZipArchiveOutputStream out, ZipArchiveEntry entry, String content) throws Exception {
+        out.putArchiveEntry(entry);
+        out.write(content.getBytes(StandardCharsets.UTF_8));
+        out.closeArchiveEntry();
+    }
+
+    private static void entry(TarArchiveOutputStream out, TarArchiveEntry entry, String content) throws Exception {
+        out.putArchiveEntry(entry);
+        out.write(content.getBytes(StandardCharsets.UTF_8));
+        out.closeArchiveEntry();
+    }
+
+    /**
+     * Check the counts of an archive holding the Java and Python sources.
+     */
+    private static void check(Path archive, String name) throws Exception {
+        assertTrue(name + " not supported", SourceArchive.isSupported(name));
+
+        LaborEstimate estimate = LaborEstimator.count(5L, archive, name, new LineCounter(), Long.MAX_VALUE);
+        assertEquals(name + ": wrong files", 2, estimate.getFiles());
+        assertEquals(name + ": wrong physical lines", 10, estimate.getPhysicalLines());
+        assertEquals(name + ": wrong code lines", 5, estimate.getCodeLines());
+        assertEquals(name + ": wrong comment lines", 3, estimate.getCommentLines());
+        assertEquals(name + ": wrong blank lines", 2, estimate.getBlankLines());
+        assertEquals(name + ": wrong hours", LaborEstimator.laborHours(5), estimate.getLaborHours(), 0.0);
+        assertFalse(name + ": truncated", estimate.isTruncated());
+        assertTrue(name + ": languages missing", estimate.getLanguages().contains("\"Python\""));
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ */
+package gov.osti.indexer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gov.osti.entity.DOECodeMetadata;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of CodeGovGenerator file generation and patching.
+ */
+public class CodeGovGeneratorTest {
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    public CodeGovGeneratorTest() {
+    }
+
+    /**
+     * Create an Approved record.
+     */
+    private static DOECodeMetadata record(long codeId, String title, DOECodeMetadata.Accessibility accessibility) {
+        DOECodeMetadata md = new DOECodeMetadata();
+
+        md.setCodeId(codeId);
+        md.setSoftwareTitle(title);
+        md.setDescription("About " + title);
+        md.setAccessibility(accessibility);
+        md.setSiteOwnershipCode("ORNL");
+        md.setLicenses(Arrays.asList("MIT License"));
+        md.setKeywords("solar; grid");
+        md.setReleaseDate(Date.from(Instant.parse("2019-03-04T12:00:00Z")));
+        if (DOECodeMetadata.Accessibility.OS==accessibility)
+            md.setRepositoryLink("https://github.com/doecode/" + codeId);
+
+        return md;
+    }
+
+    /**
+     * Supply records two to a page.
+     */
+    private static CodeGovGenerator.RecordSource source(List<DOECodeMetadata> records) {
+        Iterator<DOECodeMetadata> iterator = records.iterator();
+
+        return () -> {
+            if (!iterator.hasNext())
+                return null;
+
+            List<DOECodeMetadata> page = new ArrayList<>();
+            while (iterator.hasNext() && page.size() < 2)
+                page.add(iterator.next());
+            return page;
+        };
+    }
+
+    /**
+     * Test the generated releases.
+     */
+    @Test
+    public void testGenerate() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("codegov").resolve("code.json");
+        CodeGovGenerator generator = new CodeGovGenerator(file, "DOE", "doecode@osti.gov", "https://www.osti.gov/doecode");
+
+        generator.generate(source(Arrays.asList(
+                record(1L, "Solar Model", DOECodeMetadata.Accessibility.OS),
+                record(2L, "Grid Solver", DOECodeMetadata.Accessibility.CS),
+                record(3L, "Wind Model", DOECodeMetadata.Accessibility.ON))));
+
+        JsonNode json = mapper.readTree(file.toFile());
+        assertEquals("Wrong agency", "DOE", json.path("agency").asText());
+        assertEquals("Wrong release count", 3, json.path("releases").size());
+
+        JsonNode release = json.path("releases").get(0);
+        assertEquals("Wrong name", "Solar Model", release.path("name").asText());
+        assertEquals("Wrong usage", "openSource", release.path("permissions").path("usageType").asText());
+        assertEquals("Wrong license", "MIT License", release.path("permissions").path("licenses").get(0).path("name").asText());
+        assertEquals("Wrong repository", "https://github.com/doecode/1", release.path("repositoryURL").asText());
+        assertEquals("Wrong tags", 2, release.path("tags").size());
+        assertEquals("Wrong contact", "doecode@osti.gov", release.path("contact").path("email").asText());
+        assertEquals("Wrong closed usage", "governmentWideReuse", json.path("releases").get(1).path("permissions").path("usageType").asText());
+        assertEquals("Wrong homepage", "https://www.osti.gov/doecode/biblio/2", json.path("releases").get(1).path("homepageURL").asText());
+
+        assertEquals("Wrong statistics", 3, generator.getStatistics().path("releases").asInt());
+    }
+
+    /**
+     * Test that patched files match files generated from scratch.
+     */
+    @Test
+    public void testPatch() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("patched").resolve("code.json");
+        Path expected = folder.getRoot().toPath().resolve("expected").resolve("code.json");
+        CodeGovGenerator generator = new CodeGovGenerator(file, "DOE", null, "https://www.osti.gov/doecode");
+        CodeGovGenerator fresh = new CodeGovGenerator(expected, "DOE", null, "https://www.osti.gov/doecode");
+
+        List<DOECodeMetadata> records = new ArrayList<>(Arrays.asList(
+                record(2L, "Solar Model", DOECodeMetadata.Accessibility.OS),
+                record(4L, "Grid Solver", DOECodeMetadata.Accessibility.CS),
+                record(6L, "Wind Model", DOECodeMetadata.Accessibility.ON),
+                record(8L, "Hydro Model", DOECodeMetadata.Accessibility.OS)));
+        generator.generate(source(records));
+
+        // a changed release, and new ones before, among, and after the others
+        DOECodeMetadata changed = record(4L, "Grid Solver \"Two\"", DOECodeMetadata.Accessibility.OS);
+        List<DOECodeMetadata> added = Arrays.asList(
+                record(1L, "First", DOECodeMetadata.Accessibility.OS),
+                record(5L, "Middle", DOECodeMetadata.Accessibility.CS),
+                record(9L, "Last", DOECodeMetadata.Accessibility.OS));
+        generator.put(changed);
+        added.forEach(generator::put);
+        generator.patch();
+
+        records.set(1, changed);
+        records.addAll(added);
+        records.sort((a, b) -> a.getCodeId().compareTo(b.getCodeId()));
+        fresh.generate(source(records));
+
+        assertArrayEquals("Patched file differs", Files.readAllBytes(expected), Files.readAllBytes(file));
+
+        // and again, using the positions noted by the patch
+        DOECodeMetadata again = record(9L, "Last, Again", DOECodeMetadata.Accessibility.OS);
+        generator.put(again);
+        generator.patch();
+        records.set(records.size() - 1, again);
+        fresh.generate(source(records));
+
+        assertArrayEquals("Re-patched file differs", Files.readAllBytes(expected), Files.readAllBytes(file));
+        assertEquals("Wrong patch count", 5, generator.getStatistics().path("patches").asInt());
+    }
+
+    /**
+     * Test labor hours from local estimates, and re-patching as they change.
+     */
+    @Test
+    public void testLaborHours() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("code.json");
+        CodeGovGenerator generator = new CodeGovGenerator(file, "DOE", null, "https://www.osti.gov/doecode");
+        DOECodeMetadata uploaded = record(1L, "Solar Model", DOECodeMetadata.Accessibility.CS);
+        uploaded.setFileName("solar.tar.gz");
+
+        generator.estimated(1L, "solar.tar.gz", 364.8);
+        generator.estimated(2L, "old.zip", 10.0);
+        generator.generate(source(Arrays.asList(uploaded, record(2L, "Grid Solver", DOECodeMetadata.Accessibility.OS))));
+
+        JsonNode releases = mapper.readTree(file.toFile()).path("releases");
+        assertEquals("Wrong estimated hours", 364.8, releases.get(0).path("laborHours").asDouble(), 0.0);
+        // an estimate of some other file does not apply
+        assertEquals("Wrong unestimated hours", 0.0, releases.get(1).path("laborHours").asDouble(), 0.0);
+
+        generator.estimated(1L, "solar.tar.gz", 500.0);
+        generator.put(uploaded);
+        generator.patch();
+        assertEquals("Estimate not patched", 500.0, mapper.readTree(file.toFile()).path("releases").get(0).path("laborHours").asDouble(), 0.0);
+    }
+
+    /**
+     * Test an empty file, and patching into it.
+     */
+    @Test
+    public void testEmpty() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("code.json");
+        CodeGovGenerator generator = new CodeGovGenerator(file, "DOE", null, "https://www.osti.gov/doecode");
+
+        generator.generate(source(Collections.emptyList()));
+        assertEquals("Releases found", 0, mapper.readTree(file.toFile()).path("releases").size());
+
+        generator.put(record(1L, "Solar Model", DOECodeMetadata.Accessibility.OS));
+        generator.patch();
+        assertEquals("Release not added", 1, mapper.readTree(file.toFile()).path("releases").size());
+    }
+}
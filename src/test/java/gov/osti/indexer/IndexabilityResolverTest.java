@@ -0,0 +1,161 @@
+/*
+ */
+package gov.osti.indexer;
+
+import gov.osti.entity.DOECodeMetadata;
+import gov.osti.entity.MetadataSnapshot;
+import gov.osti.entity.RelatedIdentifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the batched IndexabilityResolver filters related identifiers as
+ * the original one-query-per-DOI lookup did.
+ */
+public class IndexabilityResolverTest {
+    // Approved snapshots by DOI, as minted flags
+    private static final Map<String, List<Boolean>> APPROVED = new HashMap<>();
+    static {
+        APPROVED.put("10.5555/minted", Arrays.asList(true));
+        APPROVED.put("10.5555/unminted", Arrays.asList(false));
+        APPROVED.put("10.5555/mixed", Arrays.asList(false, true));
+    }
+
+    public IndexabilityResolverTest() {
+    }
+
+    /**
+     * An EntityManager answering the DOI snapshot queries from APPROVED.
+     */
+    private static EntityManager entityManager() {
+        return (EntityManager) Proxy.newProxyInstance(EntityManager.class.getClassLoader(), new Class<?>[] { EntityManager.class },
+                (em, method, args) -> {
+                    if (!"createNamedQuery".equals(method.getName()))
+                        throw new UnsupportedOperationException(method.getName());
+                    return query((String) args[0]);
+                });
+    }
+
+    private static TypedQuery<?> query(String name) {
+        Map<String, Object> parameters = new HashMap<>();
+
+        return (TypedQuery<?>) Proxy.newProxyInstance(TypedQuery.class.getClassLoader(), new Class<?>[] { TypedQuery.class },
+                (query, method, args) -> {
+                    if ("setParameter".equals(method.getName())) {
+                        parameters.put((String) args[0], args[1]);
+                        return query;
+                    }
+                    if (!"getResultList".equals(method.getName()))
+                        throw new UnsupportedOperationException(method.getName());
+                    assertEquals("Wrong status", DOECodeMetadata.Status.Approved, parameters.get("status"));
+
+                    List<Object> results = new ArrayList<>();
+                    if ("MetadataSnapshot.findByDoiAndStatus".equals(name)) {
+                        for ( Boolean minted : APPROVED.getOrDefault((String) parameters.get("doi"), new ArrayList<>()) ) {
+                            MetadataSnapshot snapshot = new MetadataSnapshot();
+                            snapshot.setDoi((String) parameters.get("doi"));
+                            snapshot.setDoiIsMinted(minted);
+                            results.add(snapshot);
+                        }
+                    } else if ("MetadataSnapshot.findMintedByDoisAndStatus".equals(name)) {
+                        for ( Object doi : (Collection<?>) parameters.get("dois") )
+                            for ( Boolean minted : APPROVED.getOrDefault((String) doi, new ArrayList<>()) )
+                                results.add(new Object[] { doi, minted });
+                    } else
+                        throw new UnsupportedOperationException(name);
+
+                    return results;
+                });
+    }
+
+    /**
+     * The original filter: look up each New/Previous version DOI, and remove
+     * it if Approved snapshots have it but none is minted.
+     */
+    private static List<RelatedIdentifier> baseline(EntityManager em, DOECodeMetadata md) {
+        TypedQuery<MetadataSnapshot> querySnapshot = em.createNamedQuery("MetadataSnapshot.findByDoiAndStatus", MetadataSnapshot.class)
+                .setParameter("status", DOECodeMetadata.Status.Approved);
+        List<RelatedIdentifier> riList = new ArrayList<>(md.getRelatedIdentifiers());
+        List<RelatedIdentifier> removalList = new ArrayList<>();
+
+        for ( RelatedIdentifier ri : riList ) {
+            if (ri.getIdentifierType() != RelatedIdentifier.Type.DOI
+                    || (ri.getRelationType() != RelatedIdentifier.RelationType.IsNewVersionOf
+                    && ri.getRelationType() != RelatedIdentifier.RelationType.IsPreviousVersionOf))
+                continue;
+
+            querySnapshot.setParameter("doi", ri.getIdentifierValue());
+            List<MetadataSnapshot> results = querySnapshot.getResultList();
+
+            if (!results.isEmpty() && results.stream().noneMatch(MetadataSnapshot::getDoiIsMinted))
+                removalList.add(ri);
+        }
+        riList.removeAll(removalList);
+
+        return riList;
+    }
+
+    private static DOECodeMetadata record(long codeId, RelatedIdentifier... identifiers) {
+        DOECodeMetadata md = new DOECodeMetadata();
+
+        md.setCodeId(codeId);
+        md.setSoftwareTitle("Record " + codeId);
+        md.setRelatedIdentifiers(new ArrayList<>(Arrays.asList(identifiers)));
+        return md;
+    }
+
+    private static RelatedIdentifier doi(String value, RelatedIdentifier.RelationType relation) {
+        return new RelatedIdentifier(RelatedIdentifier.Type.DOI, value, relation);
+    }
+
+    private static List<String> values(List<RelatedIdentifier> identifiers) {
+        return identifiers.stream()
+                .map(ri -> ri.getIdentifierType() + " " + ri.getIdentifierValue() + " " + ri.getRelationType())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Test minted, unminted, partly minted, and unknown DOIs, and identifiers
+     * not subject to the rules, against the original filter.
+     */
+    @Test
+    public void testMatchesBaseline() throws Exception {
+        List<DOECodeMetadata> records = Arrays.asList(
+                record(1L,
+                        doi("10.5555/minted", RelatedIdentifier.RelationType.IsNewVersionOf),
+                        doi("10.5555/unminted", RelatedIdentifier.RelationType.IsPreviousVersionOf),
+                        doi("10.5555/unknown", RelatedIdentifier.RelationType.IsNewVersionOf)),
+                record(2L,
+                        doi("10.5555/mixed", RelatedIdentifier.RelationType.IsPreviousVersionOf),
+                        doi("10.5555/unminted", RelatedIdentifier.RelationType.IsReferencedBy),
+                        new RelatedIdentifier(RelatedIdentifier.Type.URL, "10.5555/unminted", RelatedIdentifier.RelationType.IsNewVersionOf)),
+                record(3L,
+                        doi("10.5555/unminted", RelatedIdentifier.RelationType.IsNewVersionOf)),
+                record(4L));
+        EntityManager em = entityManager();
+        IndexabilityResolver resolver = new IndexabilityResolver(em, records);
+
+        for ( DOECodeMetadata md : records ) {
+            List<RelatedIdentifier> expected = baseline(em, md);
+            DOECodeMetadata resolved = resolver.removeNonIndexableRi(md);
+
+            assertEquals("Wrong identifiers for CODE ID " + md.getCodeId(), values(expected), values(resolved.getRelatedIdentifiers()));
+        }
+
+        // spot check the rules themselves
+        assertEquals("Wrong record 1 identifiers", Arrays.asList("DOI 10.5555/minted IsNewVersionOf", "DOI 10.5555/unknown IsNewVersionOf"),
+                values(resolver.removeNonIndexableRi(records.get(0)).getRelatedIdentifiers()));
+        assertEquals("Partly minted DOI removed", 3, resolver.removeNonIndexableRi(records.get(1)).getRelatedIdentifiers().size());
+        assertTrue("Unminted DOI kept", resolver.removeNonIndexableRi(records.get(2)).getRelatedIdentifiers().isEmpty());
+    }
+}
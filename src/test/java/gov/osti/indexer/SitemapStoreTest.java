@@ -0,0 +1,109 @@
+/*
+ */
+package gov.osti.indexer;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Date;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the pre-generated SitemapStore files.
+ */
+public class SitemapStoreTest {
+    private static final Date OLD = Date.from(Instant.parse("2019-03-04T12:00:00Z"));
+    private static final Date NEW = Date.from(Instant.parse("2020-06-30T12:00:00Z"));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    public SitemapStoreTest() {
+    }
+
+    private static String read(Path file) throws Exception {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            return IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Test page splitting, and that approvals rewrite only the pages they
+     * change.
+     */
+    @Test
+    public void testWriteAndUpdate() throws Exception {
+        SitemapStore store = new SitemapStore(folder.getRoot().toPath(), "https://www.osti.gov/doecode/");
+        TreeMap<Long, Date> records = new TreeMap<>();
+
+        // one full page and one partial one, of even CODE IDs
+        for ( long codeId = 2 ; codeId <= (SitemapStore.MAX_RECORDS_PER_PAGE + 10) * 2 ; codeId += 2 )
+            records.put(codeId, OLD);
+        store.replace(records);
+        store.write();
+
+        assertTrue("Not ready", store.isReady());
+        assertTrue("Missing page", store.hasPage(2));
+        assertFalse("Extra page", store.hasPage(3));
+
+        String index = read(store.getIndexFile());
+        assertEquals("Wrong page count", 2, StringUtils.countMatches(index, "<sitemap>"));
+        assertTrue("Wrong page URL", index.contains("<loc>https://www.osti.gov/doecode/api/services/sitemap/xml/2</loc>"));
+        assertEquals("Wrong page 1 records", SitemapStore.MAX_RECORDS_PER_PAGE, StringUtils.countMatches(read(store.getPageFile(1)), "<url>"));
+        assertEquals("Wrong page 2 records", 10, StringUtils.countMatches(read(store.getPageFile(2)), "<url>"));
+        assertTrue("Wrong lastmod", read(store.getPageFile(2)).contains("<lastmod>2019-03-04</lastmod>"));
+
+        // mark the files, to see which are rewritten
+        FileTime marked = FileTime.from(Instant.parse("2000-01-01T00:00:00Z"));
+        Files.setLastModifiedTime(store.getPageFile(1), marked);
+        Files.setLastModifiedTime(store.getPageFile(2), marked);
+
+        // a newly-approved record at the end touches only the last page
+        store.put(999999L, NEW);
+        store.write();
+        assertEquals("First page rewritten", marked, Files.getLastModifiedTime(store.getPageFile(1)));
+        assertEquals("Wrong page 2 records", 11, StringUtils.countMatches(read(store.getPageFile(2)), "<url>"));
+        assertTrue("Wrong page lastmod", read(store.getIndexFile()).contains("<lastmod>2020-06-30</lastmod>"));
+
+        // a new record in the middle moves those after it along
+        Files.setLastModifiedTime(store.getPageFile(2), marked);
+        store.put(3L, NEW);
+        store.write();
+        assertNotEquals("First page not rewritten", marked, Files.getLastModifiedTime(store.getPageFile(1)));
+        assertNotEquals("Second page not rewritten", marked, Files.getLastModifiedTime(store.getPageFile(2)));
+        assertTrue("Record not listed", read(store.getPageFile(1)).contains("/biblio/3</loc>"));
+        assertEquals("Wrong page 2 records", 12, StringUtils.countMatches(read(store.getPageFile(2)), "<url>"));
+    }
+
+    /**
+     * Test that pages no longer needed are removed, and an empty sitemap still
+     * has an index.
+     */
+    @Test
+    public void testShrink() throws Exception {
+        SitemapStore store = new SitemapStore(folder.getRoot().toPath(), "https://www.osti.gov/doecode/");
+        TreeMap<Long, Date> records = new TreeMap<>();
+
+        records.put(1L, OLD);
+        store.replace(records);
+        store.write();
+        assertTrue("Missing page", Files.exists(store.getPageFile(1)));
+
+        store.replace(new TreeMap<>());
+        store.write();
+        assertFalse("Page not removed", Files.exists(store.getPageFile(1)));
+        assertFalse("Page still listed", store.hasPage(1));
+        assertEquals("Wrong empty index", "<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"></sitemapindex>",
+                read(store.getIndexFile()));
+    }
+}
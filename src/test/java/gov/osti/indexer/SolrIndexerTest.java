@@ -0,0 +1,103 @@
+/*
+ */
+package gov.osti.indexer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import gov.osti.entity.DOECodeMetadata;
+import gov.osti.entity.RelatedIdentifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of SolrIndexer document construction and change detection.
+ */
+public class SolrIndexerTest {
+
+    public SolrIndexerTest() {
+    }
+
+    private static ObjectNode document(long codeId, String title, RelatedIdentifier... identifiers) throws Exception {
+        DOECodeMetadata md = new DOECodeMetadata();
+
+        md.setCodeId(codeId);
+        md.setSoftwareTitle(title);
+        md.setRelatedIdentifiers(new ArrayList<>(Arrays.asList(identifiers)));
+
+        List<DOECodeMetadata> records = Collections.singletonList(md);
+        return SolrIndexer.toDocument(new IndexabilityResolver(null, records), md);
+    }
+
+    /**
+     * Test that only documents indexed with the same content are dropped.
+     */
+    @Test
+    public void testRemoveUnchanged() throws Exception {
+        ObjectNode same = document(1L, "Solar Model");
+        ObjectNode changed = document(2L, "Grid Solver");
+        ObjectNode unindexed = document(3L, "Wind Model");
+
+        assertEquals("Same content, different hash", SolrIndexer.getContentHash(same), SolrIndexer.getContentHash(document(1L, "Solar Model")));
+        assertNotEquals("Different content, same hash", SolrIndexer.getContentHash(changed), SolrIndexer.getContentHash(document(2L, "Grid Solver 2")));
+
+        Map<Long, ObjectNode> documents = new LinkedHashMap<>();
+        documents.put(1L, same);
+        documents.put(2L, changed);
+        documents.put(3L, unindexed);
+
+        Map<Long, String> hashes = new HashMap<>();
+        hashes.put(1L, SolrIndexer.getContentHash(same));
+        hashes.put(2L, SolrIndexer.getContentHash(document(2L, "Grid Solver 2")));
+
+        assertEquals("Wrong number removed", 1, SolrIndexer.removeUnchanged(documents, hashes));
+        assertEquals("Wrong documents kept", Arrays.asList(2L, 3L), new ArrayList<>(documents.keySet()));
+
+        // without a search service to consult, everything is sent
+        documents.put(1L, same);
+        assertEquals("Removed without an index", 0, SolrIndexer.removeUnchanged(documents));
+        assertEquals("Documents removed without an index", 3, documents.size());
+    }
+
+    /**
+     * Test the atomic update of related identifiers, stored JSON, and hash.
+     */
+    @Test
+    public void testRelatedIdentifiersUpdate() throws Exception {
+        ObjectNode document = document(5L, "Solar Model",
+                new RelatedIdentifier(RelatedIdentifier.Type.DOI, "10.5555/one", RelatedIdentifier.RelationType.Cites),
+                new RelatedIdentifier(RelatedIdentifier.Type.URL, "https://example.com/", RelatedIdentifier.RelationType.IsReferencedBy));
+        ObjectNode update = SolrIndexer.toRelatedIdentifiersUpdate(document);
+
+        assertEquals("Wrong CODE ID", 5L, update.path("codeId").asLong());
+        assertEquals("Not limited to existing documents", 1, update.path("_version_").asInt());
+        assertEquals("Wrong values", Arrays.asList("10.5555/one", "https://example.com/"),
+                texts(update.path("relatedIdentifiers.identifierValue").path("set")));
+        assertEquals("Wrong types", Arrays.asList("DOI", "URL"),
+                texts(update.path("relatedIdentifiers.identifierType").path("set")));
+        assertEquals("Wrong relations", Arrays.asList("Cites", "IsReferencedBy"),
+                texts(update.path("relatedIdentifiers.relationType").path("set")));
+        assertEquals("JSON not carried over", document.get("json"), update.path("json").get("set"));
+        assertEquals("Hash not carried over", document.get(SolrIndexer.CONTENT_HASH), update.path(SolrIndexer.CONTENT_HASH).get("set"));
+        assertFalse("Other fields updated", update.has("softwareTitle"));
+
+        // no identifiers clears the fields
+        update = SolrIndexer.toRelatedIdentifiersUpdate(document(6L, "Grid Solver"));
+        for ( String field : new String[] { "identifierType", "identifierValue", "relationType" } ) {
+            JsonNode set = update.path("relatedIdentifiers." + field);
+            assertTrue(field + " not cleared", set.has("set") && set.get("set").isNull());
+        }
+    }
+
+    private static List<String> texts(JsonNode array) {
+        List<String> values = new ArrayList<>();
+        array.forEach(value -> values.add(value.asText()));
+        return values;
+    }
+}
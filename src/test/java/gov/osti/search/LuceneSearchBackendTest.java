@@ -0,0 +1,226 @@
+/*
+ */
+package gov.osti.search;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import gov.osti.entity.DOECodeMetadata;
+import gov.osti.entity.Developer;
+import gov.osti.indexer.IndexabilityResolver;
+import gov.osti.indexer.SolrIndexer;
+import java.io.StringReader;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.http.client.utils.URIBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the embedded LuceneSearchBackend, through the same SOLR-form
+ * requests and responses SearchService uses.
+ */
+public class LuceneSearchBackendTest {
+    private static final ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .registerModule(new SimpleModule()
+                    .addDeserializer(SolrFacet.class, new FacetDeserializer())
+                    .addDeserializer(SolrFacetCounts.class, new FacetCountsDeserializer()));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LuceneSearchBackend backend;
+
+    public LuceneSearchBackendTest() {
+    }
+
+    /**
+     * Create an Approved record.
+     */
+    private static DOECodeMetadata record(long codeId, String title, DOECodeMetadata.Accessibility accessibility, String releaseDate, String license) {
+        DOECodeMetadata md = new DOECodeMetadata();
+        Developer developer = new Developer();
+
+        developer.setFirstName("Jane");
+        developer.setLastName("Doe");
+
+        md.setCodeId(codeId);
+        md.setSoftwareTitle(title);
+        md.setAccessibility(accessibility);
+        md.setWorkflowStatus(DOECodeMetadata.Status.Approved);
+        md.setDevelopers(Arrays.asList(developer));
+        md.setLicenses(Arrays.asList(license));
+        if (null!=releaseDate)
+            md.setReleaseDate(Date.from(Instant.parse(releaseDate + "T00:00:00Z")));
+
+        return md;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        backend = new LuceneSearchBackend(folder.getRoot().toPath());
+
+        List<DOECodeMetadata> records = Arrays.asList(
+                record(1L, "Solar Model", DOECodeMetadata.Accessibility.OS, "2018-05-01", "MIT License"),
+                record(2L, "Grid Solver", DOECodeMetadata.Accessibility.OS, "2019-03-04", "Apache License 2.0"),
+                record(3L, "Solar Grid Planner", DOECodeMetadata.Accessibility.ON, "2019-07-15", "MIT License"),
+                record(4L, "Wind Model", DOECodeMetadata.Accessibility.CS, null, "Other"));
+        IndexabilityResolver resolver = new IndexabilityResolver(null, records);
+
+        for ( DOECodeMetadata md : records )
+            backend.put(SolrIndexer.toDocument(resolver, md));
+        backend.commit();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        backend.close();
+    }
+
+    /**
+     * Run a SearchData search, as SearchService would.
+     */
+    private SolrResult search(String json, String... params) throws Exception {
+        SearchData data = SearchData.parseJson(new StringReader(json));
+        URIBuilder builder = new URIBuilder().addParameter("q", data.toQ());
+
+        for ( String fq : data.toFq() )
+            builder.addParameter("fq", fq);
+        for ( int i = 0 ; i < params.length ; i += 2 )
+            builder.addParameter(params[i], params[i + 1]);
+
+        return mapper.readValue(backend.search(builder), SolrResult.class);
+    }
+
+    private static Set<Long> codeIds(SolrResult result) {
+        Set<Long> ids = new HashSet<>();
+        for ( SolrDocument doc : result.getSearchResponse().getDocuments() )
+            ids.add(doc.getCodeId());
+        return ids;
+    }
+
+    /**
+     * Test free text, fielded, and filtered searches.
+     */
+    @Test
+    public void testSearch() throws Exception {
+        SolrResult result = search("{\"all_fields\":\"solar\"}", "fl", "codeId");
+        assertEquals("Wrong text matches", new HashSet<>(Arrays.asList(1L, 3L)), codeIds(result));
+
+        result = search("{\"software_title\":\"grid\", \"accessibility\":[\"OS\"]}", "fl", "codeId");
+        assertEquals("Wrong filtered matches", new HashSet<>(Arrays.asList(2L)), codeIds(result));
+
+        result = search("{\"licenses\":[\"MIT License\"], \"date_earliest\":\"2019-01-01T00:00:00Z\"}", "fl", "codeId");
+        assertEquals("Wrong license and date matches", new HashSet<>(Arrays.asList(3L)), codeIds(result));
+
+        // the stored JSON renders the full record
+        result = search("{\"software_title\":\"wind\"}", "fl", "json");
+        DOECodeMetadata md = DOECodeMetadata.parseJson(new StringReader(result.getSearchResponse().getDocuments()[0].getJson()));
+        assertEquals("Wrong record", "Wind Model", md.getSoftwareTitle());
+
+        // summaries from stored fields
+        SearchSummary summary = SearchSummary.fromDocument(search("{\"software_title\":\"planner\"}",
+                "fl", "codeId,softwareTitle,developers.name,releaseDate,doi").getSearchResponse().getDocuments()[0]);
+        assertEquals("Wrong summary title", "Solar Grid Planner", summary.getSoftwareTitle());
+        assertEquals("Wrong summary date", Date.from(Instant.parse("2019-07-15T00:00:00Z")), summary.getReleaseDate());
+    }
+
+    /**
+     * Test sorting, and that cursor paging visits every record once.
+     */
+    @Test
+    public void testSortAndCursor() throws Exception {
+        SolrResult result = search("{}", "fl", "codeId", "sort", "releaseDate desc,codeId asc", "rows", "2");
+        assertEquals("Wrong count", 4, result.getSearchResponse().getNumFound());
+        assertEquals("Wrong newest", Long.valueOf(3), result.getSearchResponse().getDocuments()[0].getCodeId());
+
+        List<Long> seen = new ArrayList<>();
+        String cursor = "*";
+        while (true) {
+            result = search("{}", "fl", "codeId", "sort", "codeId asc", "rows", "3", "cursorMark", cursor);
+            for ( SolrDocument doc : result.getSearchResponse().getDocuments() )
+                seen.add(doc.getCodeId());
+            if (cursor.equals(result.getNextCursorMark()))
+                break;
+            cursor = result.getNextCursorMark();
+        }
+        assertEquals("Wrong cursor pages", Arrays.asList(1L, 2L, 3L, 4L), seen);
+
+        try {
+            search("{}", "sort", "notAField asc");
+            fail("Unknown sort accepted");
+        } catch ( SearchException e ) {
+            assertEquals("Wrong status", 400, e.getStatus());
+        }
+    }
+
+    /**
+     * Test that row counts are bounded by the index size.
+     */
+    @Test
+    public void testPaging() throws Exception {
+        SolrResult result = search("{}", "fl", "codeId", "start", "2", "rows", String.valueOf(Integer.MAX_VALUE));
+        assertEquals("Wrong rows after start", 2, codeIds(result).size());
+
+        try {
+            search("{}", "start", "5");
+            fail("Start beyond the records accepted");
+        } catch ( SearchException e ) {
+            assertEquals("Wrong status", 400, e.getStatus());
+        }
+    }
+
+    /**
+     * Test facet counts and release years.
+     */
+    @Test
+    public void testFacets() throws Exception {
+        SolrResult result = search("{}", "rows", "0", "facet", "on", "facet.field", "accessibility", "facet.field", "licenses");
+
+        assertEquals("Wrong accessibility counts", Integer.valueOf(2),
+                result.getSolrFacetCounts().getFields().get("accessibility").get("OS"));
+        assertEquals("Wrong license counts", Integer.valueOf(2),
+                result.getSolrFacetCounts().getFields().get("licenses").get("MIT License"));
+        assertEquals("Wrong release years", Integer.valueOf(2),
+                result.getSolrFacet().getValues().get("2019-01-01T00:00:00Z"));
+    }
+
+    /**
+     * Test that a rebuild removes only records it did not write, and only
+     * once finished.
+     */
+    @Test
+    public void testRebuild() throws Exception {
+        List<DOECodeMetadata> records = Arrays.asList(
+                record(1L, "Solar Model", DOECodeMetadata.Accessibility.OS, "2018-05-01", "MIT License"),
+                record(3L, "Solar Grid Planner", DOECodeMetadata.Accessibility.ON, "2019-07-15", "MIT License"));
+        IndexabilityResolver resolver = new IndexabilityResolver(null, records);
+
+        backend.startRebuild();
+        backend.put(SolrIndexer.toDocument(resolver, records.get(0)));
+        backend.commit();
+        assertEquals("Records removed before finishing", 4, search("{}", "rows", "0").getSearchResponse().getNumFound());
+
+        // an abandoned rebuild removes nothing
+        backend.abandonRebuild();
+        backend.commit();
+        assertEquals("Abandoned rebuild removed records", 4, search("{}", "rows", "0").getSearchResponse().getNumFound());
+
+        backend.startRebuild();
+        for ( DOECodeMetadata md : records )
+            backend.put(SolrIndexer.toDocument(resolver, md));
+        backend.finishRebuild();
+        backend.commit();
+        assertEquals("Wrong records kept", new HashSet<>(Arrays.asList(1L, 3L)), codeIds(search("{}", "fl", "codeId")));
+    }
+}
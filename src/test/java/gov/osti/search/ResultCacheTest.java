@@ -0,0 +1,170 @@
+/*
+ */
+package gov.osti.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the ResultCache.
+ */
+public class ResultCacheTest {
+
+    public ResultCacheTest() {
+    }
+
+    /**
+     * Test that values are loaded once, and evicted least-recently-used.
+     */
+    @Test
+    public void testGetAndEvict() throws Exception {
+        ResultCache<String> cache = new ResultCache<>("test", 2, 1024, 60, v -> v.length() * 2L);
+        AtomicInteger loads = new AtomicInteger();
+
+        assertEquals("Wrong value", "a", cache.get("a", () -> { loads.incrementAndGet(); return "a"; }));
+        assertEquals("Wrong cached value", "a", cache.get("a", () -> { loads.incrementAndGet(); return "x"; }));
+        assertEquals("Cached value reloaded", 1, loads.get());
+
+        cache.get("b", () -> "b");
+        // touch "a" so "b" is the eldest
+        cache.get("a", () -> "x");
+        cache.get("c", () -> "c");
+
+        assertEquals("Recently used value evicted", "a", cache.get("a", () -> "x"));
+        assertEquals("Eldest value not evicted", "y", cache.get("b", () -> "y"));
+
+        // values too large for the cache are returned but not kept
+        String large = new String(new char[1024]);
+        assertEquals("Wrong large value", large, cache.get("d", () -> large));
+        assertEquals("Large value cached", "z", cache.get("d", () -> "z"));
+    }
+
+    /**
+     * Test invalidation, and that null values are not cached.
+     */
+    @Test
+    public void testInvalidate() throws Exception {
+        ResultCache<String> cache = new ResultCache<>("test", 10, 1024, 60, v -> v.length() * 2L);
+
+        cache.get("a", () -> "a");
+        ResultCache.invalidateAll();
+        assertEquals("Value not invalidated", "b", cache.get("a", () -> "b"));
+
+        cache.invalidate("a");
+        assertEquals("Key not invalidated", "c", cache.get("a", () -> "c"));
+
+        assertNull("Null value cached", cache.get("n", () -> null));
+        assertEquals("Null value cached", "n", cache.get("n", () -> "n"));
+
+        // unregistered caches are left alone by index invalidation
+        ResultCache<String> unregistered = new ResultCache<>("unregistered", 10, 1024, 60, v -> v.length() * 2L, true, false);
+        unregistered.get("1 a", () -> "a");
+        ResultCache.invalidateAll();
+        ResultCache.invalidateAll(Collections.singletonList(1L));
+        assertEquals("Unregistered cache invalidated", "a", unregistered.get("1 a", () -> "b"));
+        unregistered.invalidateRecords(Collections.singletonList(1L));
+        assertEquals("Record not invalidated", "c", unregistered.get("1 a", () -> "c"));
+
+        // disabled caches always load
+        ResultCache<String> disabled = new ResultCache<>("disabled", 0, 1024, 60, v -> v.length() * 2L);
+        disabled.get("a", () -> "a");
+        assertEquals("Disabled cache held a value", "b", disabled.get("a", () -> "b"));
+    }
+
+    /**
+     * Test that record caches drop only the entries of re-indexed records.
+     */
+    @Test
+    public void testInvalidateRecords() throws Exception {
+        ResultCache<String> records = new ResultCache<>("records", 10, 1024, 60, v -> v.length() * 2L, true);
+        ResultCache<String> searches = new ResultCache<>("searches", 10, 1024, 60, v -> v.length() * 2L);
+
+        records.get("1 json", () -> "1j");
+        records.get("1 xml", () -> "1x");
+        records.get("12 json", () -> "12j");
+        searches.get("q", () -> "q");
+
+        ResultCache.invalidateAll(Collections.singletonList(1L));
+
+        assertEquals("Record JSON not invalidated", "new", records.get("1 json", () -> "new"));
+        assertEquals("Record XML not invalidated", "new", records.get("1 xml", () -> "new"));
+        assertEquals("Other record invalidated", "12j", records.get("12 json", () -> "new"));
+        assertEquals("Search not invalidated", "new", searches.get("q", () -> "new"));
+    }
+
+    /**
+     * Test that bulk gets load only the misses, in one call, and keep the
+     * requested order.
+     */
+    @Test
+    public void testGetAll() throws Exception {
+        ResultCache<String> cache = new ResultCache<>("test", 10, 1024, 60, v -> v.length() * 2L);
+        List<List<String>> loads = new ArrayList<>();
+
+        cache.get("b", () -> "b");
+
+        Map<String, String> values = cache.getAll(Arrays.asList("c", "b", "a", "none"), keys -> {
+            loads.add(keys);
+            Map<String, String> found = new HashMap<>();
+            keys.stream().filter(k -> !"none".equals(k)).forEach(k -> found.put(k, k));
+            return found;
+        });
+
+        assertEquals("Wrong values", Arrays.asList("c", "b", "a"), new ArrayList<>(values.keySet()));
+        assertEquals("Wrong loads", Collections.singletonList(Arrays.asList("c", "a", "none")), loads);
+        assertEquals("Bulk value not cached", "a", cache.get("a", () -> "x"));
+    }
+
+    /**
+     * Test that concurrent misses for the same key share a single load.
+     */
+    @Test
+    public void testSingleFlight() throws Exception {
+        ResultCache<String> cache = new ResultCache<>("test", 10, 1024, 60, v -> v.length() * 2L);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            Future<String> first = executor.submit(() -> cache.get("k", () -> {
+                loads.incrementAndGet();
+                loading.countDown();
+                try {
+                    release.await();
+                } catch ( InterruptedException e ) {
+                    throw new IOException(e);
+                }
+                return "v";
+            }));
+            assertTrue("Load not started", loading.await(5, TimeUnit.SECONDS));
+
+            Future<String> second = executor.submit(() -> cache.get("k", () -> {
+                loads.incrementAndGet();
+                return "other";
+            }));
+            // let the second caller find the load in progress
+            Thread.sleep(100);
+            release.countDown();
+
+            assertEquals("Wrong first value", "v", first.get(5, TimeUnit.SECONDS));
+            assertEquals("Wrong shared value", "v", second.get(5, TimeUnit.SECONDS));
+            assertEquals("Concurrent misses not coalesced", 1, loads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ */
+package gov.osti.search;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.junit.Assume;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of SearchData query translation.
+ */
+public class SearchDataTest {
+    // SOLR search URL for the filter query benchmark, if any
+    private static final String BENCHMARK_URL = System.getProperty("solr.benchmark.url", "");
+    private static final int BENCHMARK_ROUNDS = 20;
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    public SearchDataTest() {
+    }
+
+    /**
+     * Test that free text goes to "q" and restrictions to "fq".
+     */
+    @Test
+    public void testToQAndFq() throws Exception {
+        SearchData data = SearchData.parseJson(new StringReader(
+                "{\"all_fields\":\"solar\", \"software_title\":\"model\", \"accessibility\":[\"OS\",\"ON\"], "
+                + "\"licenses\":[\"MIT License\"], \"site_ownership_code\":\"ORNL\", "
+                + "\"date_earliest\":\"2019-03-04T15:30:00.123Z\", \"date_latest\":\"2019-06-30T08:00:00Z\"}"));
+
+        assertEquals("Wrong q", "_text_:(solar) softwareTitle:(model)", data.toQ());
+
+        List<String> fq = data.toFq();
+        assertEquals("Wrong filter count", 4, fq.size());
+        assertTrue("Missing accessibility: " + fq, fq.contains("accessibility:OS OR accessibility:ON"));
+        assertTrue("Missing licenses: " + fq, fq.contains("licenses:\"MIT License\""));
+        assertTrue("Missing site: " + fq, fq.contains("siteOwnershipCode:(ORNL)"));
+        // dates round to whole days, ending before the day after the latest
+        assertTrue("Wrong dates: " + fq, fq.contains("releaseDate:[2019-03-04T00:00:00Z TO 2019-07-01T00:00:00Z}"));
+    }
+
+    /**
+     * Test defaults, and open-ended date ranges.
+     */
+    @Test
+    public void testDefaults() {
+        SearchData data = new SearchData();
+
+        assertEquals("Wrong default q", "*:*", data.toQ());
+        assertTrue("Unexpected filters", data.toFq().isEmpty());
+
+        data.setDateLatest(Date.from(Instant.parse("2018-12-31T23:59:59Z")));
+        assertEquals("Wrong latest date", Arrays.asList("releaseDate:[* TO 2019-01-01T00:00:00Z}"), data.toFq());
+
+        data.setDateLatest(null);
+        data.setDateEarliest(Date.from(Instant.parse("2018-01-15T12:00:00Z")));
+        assertEquals("Wrong earliest date", Arrays.asList("releaseDate:[2018-01-15T00:00:00Z TO *]"), data.toFq());
+    }
+
+    /**
+     * Test that cursor sorts always end on the CODE ID.
+     */
+    @Test
+    public void testGetCursorSort() {
+        SearchData data = new SearchData();
+
+        assertEquals("Wrong default sort", "score desc,codeId asc", data.getCursorSort());
+
+        data.setSort("releaseDate desc");
+        assertEquals("Missing tiebreak", "releaseDate desc,codeId asc", data.getCursorSort());
+
+        data.setSort("codeId desc");
+        assertEquals("Duplicate tiebreak", "codeId desc", data.getCursorSort());
+
+        data.setCursor("  ");
+        assertNull("Blank cursor", data.getCursor());
+    }
+
+    /**
+     * Test that equivalent searches share a cache key.
+     */
+    @Test
+    public void testToCacheKey() throws Exception {
+        SearchData one = SearchData.parseJson(new StringReader("{\"all_fields\":\" solar \", \"accessibility\":[\"ON\",\"OS\"]}"));
+        SearchData two = SearchData.parseJson(new StringReader("{\"accessibility\":[\"OS\",\"ON\"], \"all_fields\":\"solar\", \"rows\":10, \"start\":0, \"sort\":\"\"}"));
+
+        assertEquals("Equivalent searches differ", one.toCacheKey(), two.toCacheKey());
+
+        two.setStart(10);
+        assertNotEquals("Different pages match", one.toCacheKey(), two.toCacheKey());
+    }
+
+    /**
+     * Test summary views: distinct cache keys, and summaries read from SOLR
+     * stored fields.
+     */
+    @Test
+    public void testSummaryView() throws Exception {
+        SearchData full = SearchData.parseJson(new StringReader("{\"all_fields\":\"solar\"}"));
+        SearchData summary = SearchData.parseJson(new StringReader("{\"all_fields\":\"solar\", \"view\":\"summary\"}"));
+
+        assertEquals("Wrong view", "summary", summary.getView());
+        assertNotEquals("Views share a key", full.toCacheKey(), summary.toCacheKey());
+
+        SolrDocument released = mapper.readValue("{\"codeId\":12, \"softwareTitle\":\"Model\", "
+                + "\"developers.name\":[\"Doe, Jane\",\"Roe, Rick\"], \"releaseDate\":\"2019-03-04T00:00:00Z\", "
+                + "\"doi\":\"10.11578/dc.20190304.1\"}", SolrDocument.class);
+        SearchSummary s = SearchSummary.fromDocument(released);
+
+        assertEquals("Wrong code ID", Long.valueOf(12), s.getCodeId());
+        assertEquals("Wrong title", "Model", s.getSoftwareTitle());
+        assertEquals("Wrong developers", Arrays.asList("Doe, Jane", "Roe, Rick"), s.getDevelopers());
+        assertEquals("Wrong release date", Date.from(Instant.parse("2019-03-04T00:00:00Z")), s.getReleaseDate());
+        assertEquals("Wrong DOI", "10.11578/dc.20190304.1", s.getDoi());
+
+        SolrDocument unreleased = mapper.readValue("{\"codeId\":13, \"doi\":\"10.11578/dc.20190304.2\"}", SolrDocument.class);
+        assertNull("Unreleased DOI shown", SearchSummary.fromDocument(unreleased).getDoi());
+    }
+
+    /**
+     * Compare SOLR QTime for sample searches with restrictions in a single
+     * "q" against the same searches using "fq" filters.  Only runs if
+     * solr.benchmark.url is set to a SOLR search URL with a loaded corpus:
+     *
+     * mvn test -Dtest=SearchDataTest -Dsolr.benchmark.url=http://localhost:8983/solr/doecode/query
+     */
+    @Test
+    public void benchmarkFilterQueries() throws Exception {
+        Assume.assumeTrue("No solr.benchmark.url set.", StringUtils.isNotBlank(BENCHMARK_URL));
+
+        String[] samples = {
+            "{\"accessibility\":[\"OS\"]}",
+            "{\"all_fields\":\"model\", \"accessibility\":[\"OS\",\"ON\"]}",
+            "{\"software_type\":[\"S\"], \"date_earliest\":\"2017-01-01T00:00:00Z\"}",
+            "{\"all_fields\":\"data\", \"licenses\":[\"MIT License\"], \"date_latest\":\"2019-12-31T00:00:00Z\"}",
+            "{\"site_ownership_code\":\"ORNL\", \"software_type\":[\"S\"]}"
+        };
+        long single = 0;
+        long filtered = 0;
+
+        try (CloseableHttpClient client = HttpClients.createDefault()) {
+            for ( int round = 0 ; round < BENCHMARK_ROUNDS ; ++round ) {
+                for ( String sample : samples ) {
+                    SearchData data = SearchData.parseJson(new StringReader(sample));
+                    List<String> fq = data.toFq();
+
+                    // before: everything in one scoring query
+                    StringBuilder q = new StringBuilder(data.toQ());
+                    fq.forEach(f -> q.append(" (").append(f).append(")"));
+                    single += getQTime(client, new URIBuilder(BENCHMARK_URL)
+                            .addParameter("q", q.toString()));
+
+                    // after: free text only, with separate filters
+                    URIBuilder builder = new URIBuilder(BENCHMARK_URL)
+                            .addParameter("q", data.toQ());
+                    fq.forEach(f -> builder.addParameter("fq", f));
+                    filtered += getQTime(client, builder);
+                }
+            }
+        }
+
+        int searches = BENCHMARK_ROUNDS * samples.length;
+        System.out.println("Single q: " + single + " ms total QTime, " + (double) single / searches + " ms/search");
+        System.out.println("q + fq:   " + filtered + " ms total QTime, " + (double) filtered / searches + " ms/search");
+    }
+
+    /**
+     * Run a search, returning the SOLR QTime.
+     *
+     * @param client the HTTP client
+     * @param builder the search URL
+     * @return the QTime in milliseconds
+     */
+    private static long getQTime(CloseableHttpClient client, URIBuilder builder) throws Exception {
+        HttpGet get = new HttpGet(builder
+                .addParameter("rows", "10")
+                .addParameter("fl", "codeId")
+                .build());
+
+        try (CloseableHttpResponse response = client.execute(get)) {
+            JsonNode result = mapper.readTree(EntityUtils.toString(response.getEntity()));
+
+            if (!result.has("responseHeader"))
+                throw new IOException("Unexpected SOLR response: " + result);
+
+            return result.path("responseHeader").path("QTime").asLong();
+        }
+    }
+}
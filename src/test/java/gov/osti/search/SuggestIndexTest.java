@@ -0,0 +1,122 @@
+/*
+ */
+package gov.osti.search;
+
+import gov.osti.entity.DOECodeMetadata;
+import gov.osti.entity.Developer;
+import gov.osti.entity.ResearchOrganization;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the typeahead SuggestIndex.
+ */
+public class SuggestIndexTest {
+
+    public SuggestIndexTest() {
+    }
+
+    /**
+     * Create a record with a title, developer, organization, and keywords.
+     */
+    private static DOECodeMetadata record(String title, String lastName, String organization, String keywords) {
+        DOECodeMetadata md = new DOECodeMetadata();
+        Developer developer = new Developer();
+        ResearchOrganization org = new ResearchOrganization();
+
+        developer.setLastName(lastName);
+        developer.setFirstName("Jane");
+        org.setOrganizationName(organization);
+
+        md.setSoftwareTitle(title);
+        md.setDevelopers(Arrays.asList(developer));
+        md.setResearchOrganizations(Arrays.asList(org));
+        md.setKeywords(keywords);
+
+        return md;
+    }
+
+    private static List<String> texts(List<SuggestIndex.Suggestion> suggestions) {
+        return suggestions.stream().map(SuggestIndex.Suggestion::getText).collect(Collectors.toList());
+    }
+
+    /**
+     * Test prefix and word matching, with ranking by record count.
+     */
+    @Test
+    public void testLookup() {
+        SuggestIndex index = new SuggestIndex();
+
+        index.put(1L, record("Solar Model", "Doe", "Oak Ridge National Laboratory", "solar; energy"));
+        index.put(2L, record("Grid Solver", "Roe", "Oak Ridge National Laboratory", "grid"));
+        index.put(3L, record("Solid Mechanics", "Doe", "Sandia National Laboratories", "solids"));
+
+        // equally used terms are alphabetical
+        assertEquals("Wrong title matches", Arrays.asList("Grid Solver", "Solar Model", "Solid Mechanics"),
+                texts(index.lookup("sol", SuggestIndex.Type.Title, 10)));
+        assertEquals("Wrong acronym matches", 0, index.lookup("sol", SuggestIndex.Type.Acronym, 10).size());
+        assertEquals("Wrong word match", Arrays.asList("Grid Solver"),
+                texts(index.lookup("solv", null, 10)));
+        // shared terms rank first
+        assertEquals("Wrong ranking", Arrays.asList("Oak Ridge National Laboratory", "Sandia National Laboratories"),
+                texts(index.lookup("national", null, 10)));
+        assertEquals("Wrong count", 2, index.lookup("ridge", null, 1).get(0).getCount());
+        // case, accents, and punctuation are ignored
+        assertEquals("Wrong normalized match", Arrays.asList("Doe, Jane"), texts(index.lookup("DÖE,", null, 10)));
+        assertEquals("Limit ignored", 1, index.lookup("s", null, 1).size());
+        assertTrue("Blank prefix matched", index.lookup(" ", null, 10).isEmpty());
+    }
+
+    /**
+     * Test that updates replace a record's terms.
+     */
+    @Test
+    public void testPutAndRemove() {
+        SuggestIndex index = new SuggestIndex();
+
+        index.put(1L, record("Solar Model", "Doe", "Oak Ridge National Laboratory", null));
+        index.put(2L, record("Solar Model", "Roe", "Oak Ridge National Laboratory", null));
+        index.put(1L, record("Wind Model", "Doe", "Oak Ridge National Laboratory", null));
+
+        assertEquals("Old title count", 1, index.lookup("solar", null, 1).get(0).getCount());
+        assertEquals("New title missing", Arrays.asList("Wind Model"), texts(index.lookup("wind", null, 10)));
+
+        index.remove(2L);
+        assertTrue("Removed title suggested", index.lookup("solar", null, 10).isEmpty());
+        assertEquals("Shared term removed", 1, index.lookup("oak", null, 1).get(0).getCount());
+    }
+
+    /**
+     * Test that short prefixes rank every matching term, and that entries of
+     * other kinds do not count toward the bound for longer prefixes.
+     */
+    @Test
+    public void testShortPrefix() {
+        SuggestIndex index = new SuggestIndex();
+
+        // more keywords than a longer prefix ranks, all sorting before "abcz"
+        for ( long id = 1 ; id <= 20100 ; ++id ) {
+            DOECodeMetadata md = new DOECodeMetadata();
+            md.setKeywords(String.format("abc%05d", id) + ((id <= 3) ? "; abcz" : ""));
+            index.put(id, md);
+        }
+        index.put(20101L, record("Abcz Model", "Doe", "Oak Ridge National Laboratory", null));
+
+        assertEquals("Most used not first", "abcz", index.lookup("a", null, 1).get(0).getText());
+        assertEquals("Most used keyword not first", "abcz", index.lookup("ab", SuggestIndex.Type.Keyword, 1).get(0).getText());
+        assertEquals("Title not found past other kinds", Arrays.asList("Abcz Model"),
+                texts(index.lookup("abc", SuggestIndex.Type.Title, 10)));
+
+        // updates replace the kept ranking
+        DOECodeMetadata md = new DOECodeMetadata();
+        md.setKeywords("abcz");
+        index.put(20102L, md);
+        assertEquals("Kept ranking not updated", 4, index.lookup("a", null, 1).get(0).getCount());
+        index.remove(1L);
+        index.remove(2L);
+        assertEquals("Kept ranking not updated on removal", 2, index.lookup("a", SuggestIndex.Type.Keyword, 1).get(0).getCount());
+    }
+}
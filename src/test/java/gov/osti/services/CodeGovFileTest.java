@@ -0,0 +1,67 @@
+/*
+ */
+package gov.osti.services;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.zip.GZIPInputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the in-memory CodeGovFile.
+ */
+public class CodeGovFileTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    public CodeGovFileTest() {
+    }
+
+    private static void write(Path file, String json, String modified) throws Exception {
+        Files.write(file, json.getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.from(Instant.parse(modified)));
+    }
+
+    /**
+     * Test parsing, usage counts, and re-reading only changed files.
+     */
+    @Test
+    public void testGet() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("code.json");
+        CodeGovFile codegov = new CodeGovFile(file);
+
+        assertNull("Missing file found", codegov.get());
+
+        write(file, "{\"releases\":[{\"permissions\":{\"usageType\":\"openSource\"}}, "
+                + "{\"permissions\":{\"usageType\":\"openSource\"}}, {\"name\":\"none\"}]}", "2020-01-01T00:00:00Z");
+        CodeGovFile.Version first = codegov.get();
+
+        assertEquals("Wrong total", 3, first.getTotal());
+        assertEquals("Wrong open source count", Integer.valueOf(2), first.getUsage().get("openSource"));
+        assertEquals("Wrong unknown count", Integer.valueOf(1), first.getUsage().get("Unknown"));
+        assertSame("Unchanged file re-read", first, codegov.get());
+
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(first.getCompressed()))) {
+            assertArrayEquals("Wrong compressed bytes", first.getPretty(), IOUtils.toByteArray(in));
+        }
+
+        // a partly-written file keeps the previous version
+        write(file, "{\"releases\":[", "2020-01-02T00:00:00Z");
+        assertSame("Broken file replaced version", first, codegov.get());
+
+        write(file, "{\"releases\":[]}", "2020-01-03T00:00:00Z");
+        CodeGovFile.Version second = codegov.get();
+        assertEquals("Changed file not re-read", 0, second.getTotal());
+        assertNotEquals("Same entity tag", first.getEtag(), second.getEtag());
+        assertEquals("Wrong last modified", Instant.parse("2020-01-03T00:00:00Z"), second.getLastModified().toInstant());
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ */
+package gov.osti.services;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of Accept-Encoding negotiation.
+ */
+public class ContentCodingTest {
+
+    public ContentCodingTest() {
+    }
+
+    /**
+     * Test codings, quality values, and wildcards.
+     */
+    @Test
+    public void testAccepts() {
+        assertTrue("Listed coding refused", ContentCoding.accepts("gzip, deflate, br", "gzip"));
+        assertTrue("Case not ignored", ContentCoding.accepts("GZIP", "gzip"));
+        assertTrue("Quality ignored", ContentCoding.accepts("deflate;q=1.0, gzip ; q=0.5", "gzip"));
+        assertTrue("x-gzip refused", ContentCoding.accepts("x-gzip", "gzip"));
+        assertTrue("Wildcard refused", ContentCoding.accepts("*", "gzip"));
+
+        assertFalse("Missing header accepted", ContentCoding.accepts(null, "gzip"));
+        assertFalse("Unlisted coding accepted", ContentCoding.accepts("deflate, br", "gzip"));
+        assertFalse("Zero quality accepted", ContentCoding.accepts("gzip;q=0", "gzip"));
+        assertFalse("Zero quality accepted", ContentCoding.accepts("gzip;q=0.000, *", "gzip"));
+        assertFalse("Zero wildcard accepted", ContentCoding.accepts("identity, *;q=0", "gzip"));
+        assertFalse("Substring accepted", ContentCoding.accepts("notgzip", "gzip"));
+    }
+}
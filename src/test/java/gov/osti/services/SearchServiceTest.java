@@ -0,0 +1,27 @@
+/*
+ */
+package gov.osti.services;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of SearchService helpers.
+ */
+public class SearchServiceTest {
+
+    public SearchServiceTest() {
+    }
+
+    /**
+     * Test naming of facets from SOLR fields.
+     */
+    @Test
+    public void testToFacetName() {
+        assertEquals("Wrong site name", "site_ownership_code", SearchService.toFacetName("siteOwnershipCode"));
+        assertEquals("Wrong license name", "licenses", SearchService.toFacetName("licenses"));
+        assertEquals("Facet prefix not removed", "research_organizations", SearchService.toFacetName("fResearchOrganizations"));
+        assertEquals("Facet prefix not removed", "programming_languages", SearchService.toFacetName("fProgrammingLanguages"));
+        assertEquals("Wrong short name", "f", SearchService.toFacetName("f"));
+    }
+}